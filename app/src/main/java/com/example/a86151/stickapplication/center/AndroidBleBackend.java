@@ -0,0 +1,332 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***************************************************************************************************
+ * 使用手机蓝牙适配器的后端。API 21以上使用BluetoothLeScanner的硬件过滤和批量上报，
+ * 旧系统回退到startLeScan并在回调中软件过滤
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class AndroidBleBackend implements BleBackend {
+    private final static String TAG = AndroidBleBackend.class.getSimpleName();
+
+    private final BluetoothAdapter mAdapter;
+    private LollipopScanner mLollipopScanner;
+    private LegacyScanner mLegacyScanner;
+
+    public AndroidBleBackend(BluetoothAdapter adapter) {
+        mAdapter = adapter;
+    }
+
+    public BluetoothAdapter getAdapter() {
+        return mAdapter;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return mAdapter.isEnabled();
+    }
+
+    @Override
+    public boolean startScan(ScanFilterSpec filter, long reportDelayMs, ScanListener listener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            if (mLollipopScanner == null || mLollipopScanner.mListener != listener) {
+                mLollipopScanner = new LollipopScanner(filter, listener);
+            }
+            if (mLollipopScanner.start(reportDelayMs)) {
+                return true;
+            }
+        }
+        mLegacyScanner = new LegacyScanner(filter, listener);
+        return mAdapter.startLeScan(mLegacyScanner);
+    }
+
+    @Override
+    public void flushScan(ScanListener listener) {
+        if (mLollipopScanner != null && mLollipopScanner.isActive()) {
+            mLollipopScanner.flush();
+        }
+    }
+
+    @Override
+    public void stopScan(ScanListener listener) {
+        if (mLollipopScanner != null && mLollipopScanner.isActive()) {
+            mLollipopScanner.stop();
+        }
+        if (mLegacyScanner != null) {
+            mAdapter.stopLeScan(mLegacyScanner);
+            mLegacyScanner = null;
+        }
+    }
+
+    @Override
+    public GattClient connectGatt(Context context, String address, boolean autoConnect, GattClient.Callback callback) {
+        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+            Log.w(TAG, "Invalid address " + address);
+            return null;
+        }
+        final BluetoothDevice device = mAdapter.getRemoteDevice(address);
+        final AndroidGattClient client = new AndroidGattClient(address, callback);
+        client.mGatt = device.connectGatt(context, autoConnect, client.mBridge);
+        return client.mGatt == null ? null : client;
+    }
+
+    /***************************************************************************************************
+     * 旧系统的扫描回调，在Binder线程中调用，按过滤条件软件过滤
+     **************************************************************************************************/
+    private static final class LegacyScanner implements BluetoothAdapter.LeScanCallback {
+        private final ScanFilterSpec mFilter;
+        private final ScanListener mListener;
+
+        LegacyScanner(ScanFilterSpec filter, ScanListener listener) {
+            mFilter = filter;
+            mListener = listener;
+        }
+
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            if (mFilter.matches(device.getName(), scanRecord)) {
+                mListener.onScanResult(device.getAddress(), device.getName(), rssi, scanRecord);
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     * API 21以上的扫描实现，单独成类避免旧系统加载ScanCallback
+     **************************************************************************************************/
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    private final class LollipopScanner extends ScanCallback {
+        private final ScanFilterSpec mFilter;
+        private final ScanListener mListener;
+        private BluetoothLeScanner mScanner;
+        private List<ScanFilter> mFilters;
+
+        LollipopScanner(ScanFilterSpec filter, ScanListener listener) {
+            mFilter = filter;
+            mListener = listener;
+        }
+
+        boolean start(long reportDelayMs) {
+            mScanner = mAdapter.getBluetoothLeScanner();
+            if (mScanner == null) {
+                return false;
+            }
+            if (mFilters == null) {
+                mFilters = buildFilters();
+            }
+            ScanSettings.Builder settings = new ScanSettings.Builder()
+                    .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);//占空比由调度器控制，窗口内全速扫描
+            if (reportDelayMs > 0 && mAdapter.isOffloadedScanBatchingSupported()) {
+                settings.setReportDelay(reportDelayMs);
+            }
+            mScanner.startScan(mFilters, settings.build(), this);
+            return true;
+        }
+
+        boolean isActive() {
+            return mScanner != null;
+        }
+
+        void flush() {
+            mScanner.flushPendingScanResults(this);
+        }
+
+        void stop() {
+            mScanner.stopScan(this);
+            mScanner = null;
+        }
+
+        private List<ScanFilter> buildFilters() {
+            final List<ScanFilter> filters = new ArrayList<ScanFilter>();
+            if (mFilter.isEmpty()) {
+                return filters;
+            }
+            ScanFilter.Builder builder = new ScanFilter.Builder();
+            if (mFilter.getDeviceName() != null) {
+                builder.setDeviceName(mFilter.getDeviceName());
+            }
+            if (mFilter.getServiceUuid() != null) {
+                builder.setServiceUuid(new ParcelUuid(mFilter.getServiceUuid()));
+            }
+            if (mFilter.getManufacturerId() != ScanFilterSpec.NO_MANUFACTURER) {
+                byte[] data = mFilter.getManufacturerData();
+                builder.setManufacturerData(mFilter.getManufacturerId(), data == null ? new byte[0] : data,
+                        mFilter.getManufacturerMask());
+            }
+            filters.add(builder.build());
+            return filters;
+        }
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            deliver(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            for (int i = 0; i < results.size(); i++) {
+                deliver(results.get(i));
+            }
+        }
+
+        private void deliver(ScanResult result) {
+            final BluetoothDevice device = result.getDevice();
+            String name = device.getName();
+            final ScanRecord record = result.getScanRecord();
+            if (name == null && record != null) {
+                name = record.getDeviceName();//系统还没有缓存设备名时取广播中的名字
+            }
+            mListener.onScanResult(device.getAddress(), name, result.getRssi(),
+                    record == null ? null : record.getBytes());
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.w(TAG, "scan failed: " + errorCode);
+            mScanner = null;
+        }
+    }
+
+    /***************************************************************************************************
+     * 包装系统的BluetoothGatt，把BluetoothGattCallback的回调转给GattClient.Callback
+     **************************************************************************************************/
+    private static final class AndroidGattClient implements GattClient {
+        private final String mAddress;
+        private final Callback mCallback;
+        private volatile BluetoothGatt mGatt;
+
+        AndroidGattClient(String address, Callback callback) {
+            mAddress = address;
+            mCallback = callback;
+        }
+
+        @Override
+        public String getAddress() {
+            return mAddress;
+        }
+
+        @Override
+        public boolean connect() {
+            return mGatt.connect();
+        }
+
+        @Override
+        public void disconnect() {
+            mGatt.disconnect();
+        }
+
+        @Override
+        public void close() {
+            mGatt.close();
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return mGatt.discoverServices();
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices() {
+            return mGatt.getServices();
+        }
+
+        @Override
+        public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return mGatt.readCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return mGatt.writeCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+            return mGatt.setCharacteristicNotification(characteristic, enable);
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+            return mGatt.writeDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mGatt.requestMtu(mtu);
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mGatt.requestConnectionPriority(priority);
+        }
+
+        @Override
+        public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+            return LinkTuner.setPreferredPhy(mGatt, txPhy, rxPhy, phyOptions);
+        }
+
+        private final BluetoothGattCallback mBridge = new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                mCallback.onConnectionStateChange(AndroidGattClient.this, status, newState);
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                mCallback.onServicesDiscovered(AndroidGattClient.this, status);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                                             int status) {
+                mCallback.onCharacteristicRead(AndroidGattClient.this, characteristic, status);
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic,
+                                              int status) {
+                mCallback.onCharacteristicWrite(AndroidGattClient.this, characteristic, status);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                mCallback.onCharacteristicChanged(AndroidGattClient.this, characteristic);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                mCallback.onDescriptorWrite(AndroidGattClient.this, descriptor, status);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                mCallback.onMtuChanged(AndroidGattClient.this, mtu, status);
+            }
+
+            //Android 8.0起的回调，编译版本中没有，不加@Override
+            public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+                mCallback.onPhyUpdate(AndroidGattClient.this, txPhy, rxPhy, status);
+            }
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.a86151.stickapplication.center;
+
+import android.content.Context;
+
+/***************************************************************************************************
+ * BLE中心设备的后端：扫描和建立GATT连接。AndroidBleBackend使用手机的蓝牙适配器，
+ * SimulatedBleBackend在JVM上模拟大量设备，用于没有硬件时的压力测试
+ **************************************************************************************************/
+public interface BleBackend {
+    /***************************************************************************************************
+     * 扫描结果接收者，在扫描线程中调用
+     **************************************************************************************************/
+    interface ScanListener {
+        void onScanResult(String address, String name, int rssi, byte[] scanRecord);
+    }
+
+    boolean isEnabled();
+
+    /***************************************************************************************************
+     * 开始扫描，只上报符合filter的设备；reportDelayMs大于0且支持批量上报时按该间隔批量上报
+     **************************************************************************************************/
+    boolean startScan(ScanFilterSpec filter, long reportDelayMs, ScanListener listener);
+
+    /***************************************************************************************************
+     * 立即上报批量扫描中缓存的结果
+     **************************************************************************************************/
+    void flushScan(ScanListener listener);
+
+    void stopScan(ScanListener listener);
+
+    /***************************************************************************************************
+     * 连接设备的GATT服务器，与BluetoothDevice.connectGatt相同；地址无效时返回null
+     **************************************************************************************************/
+    GattClient connectGatt(Context context, String address, boolean autoConnect, GattClient.Callback callback);
+}
@@ -1,122 +1,214 @@
 package com.example.a86151.stickapplication.center;
 
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.drawable.Icon;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
 import android.support.annotation.RequiresApi;
 import android.util.Log;
 
+import com.example.a86151.stickapplication.R;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /***************************************************************************************************
- *以服务的形式提供BLE的连接、服务发现、特性值读写等功能
+ *以服务的形式提供BLE的连接、服务发现、特性值读写等功能，支持同时连接多个设备，所有操作按MAC地址路由。
+ *线程模型：所有GATT回调、GATT操作队列、重连和解码都在专用的GATT I/O线程中执行，不占用主线程，
+ *binder回调线程只负责转交；存储和流分析在各自的后台线程中从FrameBus取帧。
+ *默认随最后一个客户端解绑关闭所有连接；startStreaming后以前台服务运行，与界面的生命周期无关，
+ *直到stopStreaming或通知栏中的“停止”
  **************************************************************************************************/
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
 public class BluetoothLeService extends Service {
     private final static String TAG = BluetoothLeService.class.getSimpleName();
 
-    private BluetoothManager mBluetoothManager;
-    private BluetoothAdapter mBluetoothAdapter;
-    private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-    private int mConnectionState = STATE_DISCONNECTED;
-
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    //替换蓝牙后端，没有硬件时用SimulatedBleBackend驱动服务和扫描界面
+    private static volatile BleBackend sBackendOverride;
+    private BleBackend mBackend;
+    private ConnectionManager mConnectionManager;//多设备连接管理
 
     public final static String ACTION_GATT_CONNECTED = "com.yxu.administrator.centroid.ACTION_GATT_CONNECTED";
     public final static String ACTION_GATT_DISCONNECTED = "com.yxu.administrator.centroid.ACTION_GATT_DISCONNECTED";
     public final static String ACTION_GATT_SERVICES_DISCOVERED = "com.yxu.administrator.centroid.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_AVAILABLE = "com.yxu.administrator.centroid.ACTION_DATA_AVAILABLE";
     public final static String EXTRA_DATA = "com.yxu.administrator.centroid.EXTRA_DATA";
+    public final static String EXTRA_CHARACTERISTIC_ID = "com.yxu.administrator.centroid.EXTRA_CHARACTERISTIC_ID";
+    public final static String EXTRA_ADDRESS = "com.yxu.administrator.centroid.EXTRA_ADDRESS";
+    public final static String EXTRA_STATE = "com.yxu.administrator.centroid.EXTRA_STATE";
+    //连接收到第一条notify，EXTRA_STARTUP_MS为从markLaunch到此时的毫秒数，没有标记时为-1
+    public final static String ACTION_FIRST_NOTIFICATION = "com.yxu.administrator.centroid.ACTION_FIRST_NOTIFICATION";
+    public final static String EXTRA_STARTUP_MS = "com.yxu.administrator.centroid.EXTRA_STARTUP_MS";
+    //通知栏“停止”按钮发给服务的命令
+    public final static String ACTION_STOP_STREAMING = "com.yxu.administrator.centroid.ACTION_STOP_STREAMING";
+    //其他应用以此action绑定服务得到IStickStream，需要READ_SENSOR_STREAM权限
+    public final static String ACTION_BIND_STREAM = "com.example.a86151.stickapplication.action.BIND_STREAM";
+    private static final int STREAMING_NOTIFICATION_ID = 1;
+
+    private HandlerThread mGattThread;//GATT I/O线程
+    private boolean mStreaming;//前台数据接收模式，只在主线程访问
+    private boolean mBound;//有客户端绑定，只在主线程访问
+    //冷启动计时：界面创建的时刻和连接方式，收到第一条notify后清零
+    private long mLaunchNanos;//受this保护
+    private boolean mLaunchDirect;
+
+    //特性值解码通路，UUID在第一次出现时注册为整数ID
+    private final NotifyPipeline mNotifyPipeline = new NotifyPipeline(new CharacteristicRegistry(), new FramePool(8));
+    //进程内帧分发，notify数据不再通过系统广播发送
+    private final FrameBus mFrameBus = new FrameBus();
+    //notify数据的本地存储，在后台线程中从FrameBus取帧写入，不阻塞GATT回调
+    private TimeSeriesRecorder mTimeSeriesRecorder;
+    //跨进程共享帧环，第一个外部客户端打开后才写入
+    private SharedStreamBinder mSharedStream;
+    //传感器流分析线程，服务销毁时停止
+    private final List<StreamAnalyzer> mAnalyzers = new ArrayList<StreamAnalyzer>();
+    //GATT会话记录，现场复现卡顿和数据缺口时打开，受this保护；记录中的事件通过mConnectionManager.getTrace()取得
+    private GattTraceWriter mCapture;
+    private File mCaptureFile;
+    //各设备进行中的批量传输
+    private final ConcurrentHashMap<String, BulkTransfer> mTransfers = new ConcurrentHashMap<String, BulkTransfer>();
 
 
     /***************************************************************************************************
-     * 处理BLE GATT事件的回调函数
+     * 处理各设备连接事件的回调函数
      **************************************************************************************************/
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    private final ConnectionManager.Callback mConnectionCallback = new ConnectionManager.Callback() {
         /***************************************************************************************************
-         * 处理GATT连接状态改变事件的回调函数
+         * 处理连接状态改变事件，只在连接建立和断开时发送广播
          **************************************************************************************************/
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            String intentAction;
-            if (newState == BluetoothProfile.STATE_CONNECTED) {//连接成功
-                intentAction = ACTION_GATT_CONNECTED;
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);//发送广播通知“连接成功”
-                mBluetoothGatt.discoverServices();
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {//断开连接
-                intentAction = ACTION_GATT_DISCONNECTED;
-                mConnectionState = STATE_DISCONNECTED;
-                broadcastUpdate(intentAction);//发送广播通知“断开连接”
+        public void onStateChanged(DeviceConnection connection, ConnectionStateMachine.State from,
+                                   ConnectionStateMachine.State to) {
+            final GattTraceWriter trace = mConnectionManager.getTrace();
+            if (trace != null) {
+                trace.onConnectionState(connection.getMac(), to, System.nanoTime());
+            }
+            if (to == ConnectionStateMachine.State.DISCOVERING) {//连接成功
+                mNotifyPipeline.restartStreams(connection.getMac());//手杖的分帧序号重新开始
+                broadcastUpdate(ACTION_GATT_CONNECTED, connection);//发送广播通知“连接成功”
+            } else if (to == ConnectionStateMachine.State.DISCONNECTED
+                    || to == ConnectionStateMachine.State.BACKOFF) {//断开连接
+                if (from != ConnectionStateMachine.State.CONNECTING && from != ConnectionStateMachine.State.BACKOFF) {
+                    broadcastUpdate(ACTION_GATT_DISCONNECTED, connection);//发送广播通知“断开连接”
+                }
+            }
+            if (to == ConnectionStateMachine.State.STREAMING || from == ConnectionStateMachine.State.STREAMING) {
+                mMainHandler.post(mUpdateNotification);//通知栏显示正在接收数据的设备数
+            }
+            final BulkTransfer transfer = mTransfers.get(connection.getAddress());
+            if (transfer != null && (to == ConnectionStateMachine.State.DISCONNECTED
+                    || to == ConnectionStateMachine.State.BACKOFF)) {
+                transfer.onDisconnected();
             }
         }
         /***************************************************************************************************
-         * 处理GATT服务发现完成事件的回调函数
+         * 处理GATT服务发现完成事件
          **************************************************************************************************/
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);//发送广播通知服务发现完成
+        public void onServicesDiscovered(DeviceConnection connection) {
+            broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED, connection);//发送广播通知服务发现完成
+            final BulkTransfer transfer = mTransfers.get(connection.getAddress());
+            if (transfer != null && transfer.getConnection() == connection) {
+                transfer.resume();//重连后从手杖确认的位置继续
             }
         }
         /***************************************************************************************************
-         * 处理GATT特性读取完成事件的回调函数
+         * 处理GATT特性读取完成事件
+         **************************************************************************************************/
+        @Override
+        public void onCharacteristicRead(DeviceConnection connection, BluetoothGattCharacteristic characteristic) {
+            broadcastUpdate(ACTION_DATA_AVAILABLE, connection, characteristic);//发送广播通知特性读取完成
+        }
+        /***************************************************************************************************
+         * 处理GATT特性值改变事件，特性为notify且发生改变时才会调用
          **************************************************************************************************/
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);//发送广播通知特性读取完成
+        public void onCharacteristicChanged(DeviceConnection connection, BluetoothGattCharacteristic characteristic,
+                                            byte[] value) {
+            //在GATT I/O线程中解码，交给进程内订阅者，不发送广播
+            final long now = System.nanoTime();
+            final GattTraceWriter trace = mConnectionManager.getTrace();
+            if (trace != null) {
+                trace.onNotification(connection.getMac(), characteristic.getUuid(), value, now);
             }
+            mNotifyPipeline.onNotification(connection.getMac(), characteristic.getUuid(), value, now);
         }
         /***************************************************************************************************
-         * 处理GATT特性值改变的回调函数，特性为notify且发生改变时才会调用
+         * 连接收到第一条notify，有冷启动标记时记录启动耗时，发送广播
          **************************************************************************************************/
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);//发送广播通知特性读取完成
+        public void onFirstNotification(DeviceConnection connection) {
+            long startupMs = -1;
+            synchronized (BluetoothLeService.this) {
+                if (mLaunchNanos != 0) {
+                    final long elapsed = System.nanoTime() - mLaunchNanos;
+                    PipelineMetrics.INSTANCE.record(mLaunchDirect ? PipelineMetrics.Stage.STARTUP_DIRECT
+                            : PipelineMetrics.Stage.STARTUP_SCAN, elapsed);
+                    startupMs = elapsed / 1000000;
+                    Log.i(TAG, "Startup to first notification " + startupMs + "ms, "
+                            + (mLaunchDirect ? "direct" : "scan"));
+                    mLaunchNanos = 0;
+                }
+            }
+            final Intent intent = new Intent(ACTION_FIRST_NOTIFICATION);
+            intent.putExtra(EXTRA_ADDRESS, connection.getAddress());
+            intent.putExtra(EXTRA_STARTUP_MS, startupMs);
+            sendBroadcast(intent);
         }
     };
     /***************************************************************************************************
-     * 发送广播通知BLE GATT状态改变事件
+     * 发送广播通知BLE GATT状态改变事件，以设备地址和状态作为额外参数
      **************************************************************************************************/
-    private void broadcastUpdate(final String action) {
+    private void broadcastUpdate(final String action, final DeviceConnection connection) {
         final Intent intent = new Intent(action);//以action为参数
+        intent.putExtra(EXTRA_ADDRESS, connection.getAddress());
+        intent.putExtra(EXTRA_STATE, connection.getState().name());
         sendBroadcast(intent);//发送广播
     }
     /***************************************************************************************************
-     * 发送广播通知特性读取完成事件，以UUID和特性值作为额外参数
+     * 发送广播通知特性读取完成事件，以设备地址、特性ID和原始特性值作为额外参数。读操作很少，仍使用广播
      **************************************************************************************************/
-    private void broadcastUpdate(final String action,
+    private void broadcastUpdate(final String action, final DeviceConnection connection,
                                  final BluetoothGattCharacteristic characteristic) {
-        final Intent intent = new Intent(action);//以action为参数
-
-        // For all other profiles, writes the data formatted in HEX.
-        final byte[] datas = characteristic.getValue();//获取特性值
+        final byte[] datas = characteristic.getValue();//获取特性值，协议栈每次都会生成新数组，不需要复制
         if (datas != null && datas.length > 0)
         {
-            String s = characteristic.getUuid().toString();//获取UUID
-            for(byte data:datas)
-            {
-                s += (char)data;//特性值以存储值的形式追加到UUID后面
+            final long now = System.nanoTime();
+            final GattTraceWriter trace = mConnectionManager.getTrace();
+            if (trace != null) {
+                trace.onRead(connection.getMac(), characteristic.getUuid(), datas, now);
             }
-            intent.putExtra(EXTRA_DATA, s);
+            final int id = mNotifyPipeline.onValue(connection.getMac(), characteristic.getUuid(), datas, now);
+            if (id == CharacteristicRegistry.UNKNOWN_ID) {
+                return;
+            }
+            final Intent intent = new Intent(action);//以action为参数
+            intent.putExtra(EXTRA_ADDRESS, connection.getAddress());
+            intent.putExtra(EXTRA_CHARACTERISTIC_ID, id);//特性ID，可通过getCharacteristicRegistry().uuidOf(id)得到UUID
+            intent.putExtra(EXTRA_DATA, datas);
             sendBroadcast(intent);//发送广播
         }
 
@@ -128,6 +220,85 @@ public class BluetoothLeService extends Service {
         BluetoothLeService getService() {
             return BluetoothLeService.this;
         }
+
+        /***************************************************************************************************
+         * 订阅特性的notify数据，见BluetoothLeService.subscribe
+         **************************************************************************************************/
+        public FrameSubscription subscribe(UUID characteristicUuid, int capacity, FrameRing.OverflowPolicy policy) {
+            return BluetoothLeService.this.subscribe(characteristicUuid, capacity, policy);
+        }
+
+        public FrameSubscription subscribeAll(int capacity, FrameRing.OverflowPolicy policy) {
+            return BluetoothLeService.this.subscribeAll(capacity, policy);
+        }
+
+        /***************************************************************************************************
+         * 前台数据接收模式，见BluetoothLeService.startStreaming
+         **************************************************************************************************/
+        public void startStreaming() {
+            BluetoothLeService.this.startStreaming();
+        }
+
+        public void stopStreaming() {
+            BluetoothLeService.this.stopStreaming();
+        }
+
+        public boolean isStreaming() {
+            return mStreaming;
+        }
+
+        /***************************************************************************************************
+         * 诊断信息文本，与adb shell dumpsys activity service BluetoothLeService的输出相同
+         **************************************************************************************************/
+        public String dumpDiagnostics() {
+            final StringWriter writer = new StringWriter();
+            final PrintWriter printWriter = new PrintWriter(writer);
+            BluetoothLeService.this.dump(null, printWriter, new String[0]);
+            printWriter.flush();
+            return writer.toString();
+        }
+    }
+
+    /***************************************************************************************************
+     * 服务创建时启动GATT I/O线程，把解码后的帧接到FrameBus上
+     **************************************************************************************************/
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mGattThread = new HandlerThread("gatt-io", Process.THREAD_PRIORITY_FOREGROUND);
+        mGattThread.start();
+        mSharedStream = new SharedStreamBinder(this, mNotifyPipeline.getRegistry());
+        //同一帧依次交给进程内订阅者和跨进程共享帧环
+        mNotifyPipeline.setFrameListener(new NotifyPipeline.FrameListener() {
+            @Override
+            public void onFrame(SensorFrame frame) {
+                mFrameBus.onFrame(frame);
+                mSharedStream.onFrame(frame);
+            }
+        });
+        mFrameBus.setMetrics(PipelineMetrics.INSTANCE);
+        mTimeSeriesRecorder = new TimeSeriesRecorder(new TimeSeriesStore(new File(getFilesDir(), "timeseries")),
+                mFrameBus);
+        mTimeSeriesRecorder.start();
+    }
+
+    /***************************************************************************************************
+     * 服务销毁时关闭所有连接，停止记录，写完缓冲区中的帧并封存当前段，最后退出GATT I/O线程
+     **************************************************************************************************/
+    @Override
+    public void onDestroy() {
+        close();
+        stopCapture();
+        mTimeSeriesRecorder.stop();
+        synchronized (mAnalyzers) {
+            for (StreamAnalyzer analyzer : mAnalyzers) {
+                analyzer.stop();
+            }
+            mAnalyzers.clear();
+        }
+        mSharedStream.kill();
+        mGattThread.quitSafely();
+        super.onDestroy();
     }
 
     /***************************************************************************************************
@@ -135,18 +306,127 @@ public class BluetoothLeService extends Service {
      **************************************************************************************************/
     @Override
     public IBinder onBind(Intent intent) {
+        if (ACTION_BIND_STREAM.equals(intent.getAction())) {
+            return mSharedStream;//外部读者不影响连接的生命周期，需要前台数据接收模式保持连接
+        }
+        mBound = true;
         return mBinder;
     }
+
+    @Override
+    public void onRebind(Intent intent) {
+        if (!ACTION_BIND_STREAM.equals(intent.getAction())) {
+            mBound = true;
+        }
+    }
     /***************************************************************************************************
-     * 解绑时调用的函数
+     * 最后一个客户端解绑时调用。前台数据接收模式下保持连接，否则关闭所有GATT连接。
+     * 返回true使之后的绑定调用onRebind
      **************************************************************************************************/
     @Override
     public boolean onUnbind(Intent intent) {
-        // After using a given device, you should make sure that BluetoothGatt.close() is called
-        // such that resources are cleaned up properly.  In this particular example, close() is
-        // invoked when the UI is disconnected from the Service.
-        close();
-        return super.onUnbind(intent);
+        if (ACTION_BIND_STREAM.equals(intent.getAction())) {
+            return true;
+        }
+        mBound = false;
+        if (!mStreaming) {
+            close();
+        }
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 处理通知栏的“停止”命令。被系统杀死后不自动重启
+     **************************************************************************************************/
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_STOP_STREAMING.equals(intent.getAction())) {
+            stopStreaming();
+        }
+        return START_NOT_STICKY;
+    }
+
+    /***************************************************************************************************
+     * 进入前台数据接收模式：服务以started+前台的方式运行，界面解绑或销毁后连接和数据接收继续，
+     * 通知栏显示正在接收数据的设备数。在主线程调用
+     **************************************************************************************************/
+    public void startStreaming() {
+        if (mStreaming) {
+            return;
+        }
+        mStreaming = true;
+        startService(new Intent(this, BluetoothLeService.class));
+        startForeground(STREAMING_NOTIFICATION_ID, buildNotification());
+    }
+
+    /***************************************************************************************************
+     * 退出前台数据接收模式。没有客户端绑定时关闭所有连接，服务随之销毁
+     **************************************************************************************************/
+    public void stopStreaming() {
+        if (!mStreaming) {
+            return;
+        }
+        mStreaming = false;
+        stopForeground(true);
+        if (!mBound) {
+            close();
+        }
+        stopSelf();
+    }
+
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mUpdateNotification = new Runnable() {
+        @Override
+        public void run() {
+            if (mStreaming) {
+                final NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+                manager.notify(STREAMING_NOTIFICATION_ID, buildNotification());
+            }
+        }
+    };
+
+    private Notification buildNotification() {
+        int streaming = 0;
+        final List<DeviceConnection> connections = getConnections();
+        if (connections != null) {
+            for (DeviceConnection connection : connections) {
+                if (connection.getState() == ConnectionStateMachine.State.STREAMING) {
+                    streaming++;
+                }
+            }
+        }
+        final PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, ScanActivity.class), 0);
+        final PendingIntent stop = PendingIntent.getService(this, 0,
+                new Intent(this, BluetoothLeService.class).setAction(ACTION_STOP_STREAMING), 0);
+        final Notification.Builder builder = new Notification.Builder(this)
+                .setSmallIcon(R.drawable.ic_ble)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.streaming_notification, streaming))
+                .setContentIntent(open)
+                .setOngoing(true);
+        addStopAction(builder, stop);
+        return builder.build();
+    }
+
+    /***************************************************************************************************
+     * 通知上的停止按钮（没有图标）。API 23起用Icon构造Action；只在更早的版本上调用对应的已废弃接口：
+     * API 20-22的Action.Builder(int, ...)，API 20以下的addAction(int, CharSequence, PendingIntent)
+     **************************************************************************************************/
+    @SuppressWarnings("deprecation")
+    private void addStopAction(Notification.Builder builder, PendingIntent stop) {
+        final String title = getString(R.string.streaming_stop);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            builder.addAction(new Notification.Action.Builder((Icon) null, title, stop).build());
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT_WATCH) {
+            builder.addAction(new Notification.Action.Builder(0, title, stop).build());
+        } else {
+            builder.addAction(0, title, stop);
+        }
     }
 
     private final IBinder mBinder = new LocalBinder();
@@ -155,132 +435,465 @@ public class BluetoothLeService extends Service {
      * 初始化BLE，成功返回true，失败返回false
      **************************************************************************************************/
     public boolean initialize() {
-        // For API level 18 and above, get a reference to BluetoothAdapter through
-        // BluetoothManager.
-        if (mBluetoothManager == null) {
-            mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-            if (mBluetoothManager == null) {
-                Log.e(TAG, "Unable to initialize BluetoothManager.");
+        if (mBackend == null) {
+            mBackend = obtainBackend(this);
+            if (mBackend == null) {
                 return false;
             }
         }
-
-        mBluetoothAdapter = mBluetoothManager.getAdapter();
-        if (mBluetoothAdapter == null) {
-            Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
-            return false;
+        if (mConnectionManager == null) {
+            mConnectionManager = new ConnectionManager(this, mBackend,
+                    new Handler(mGattThread.getLooper()), mConnectionCallback);
         }
 
         return true;
     }
 
     /***************************************************************************************************
-     * 以mac地址为参数连接蓝牙设备的GATT服务器
+     * 替换蓝牙后端，在服务和扫描界面初始化之前调用，传入null恢复使用手机的蓝牙适配器
+     **************************************************************************************************/
+    public static void setBackendOverride(BleBackend backend) {
+        sBackendOverride = backend;
+    }
+
+    /***************************************************************************************************
+     * 获取蓝牙后端：有替换时使用替换的后端，否则通过BluetoothManager获取BluetoothAdapter，失败返回null
+     **************************************************************************************************/
+    public static BleBackend obtainBackend(Context context) {
+        final BleBackend override = sBackendOverride;
+        if (override != null) {
+            return override;
+        }
+        // For API level 18 and above, get a reference to BluetoothAdapter through
+        // BluetoothManager.
+        final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        if (bluetoothManager == null) {
+            Log.e(TAG, "Unable to initialize BluetoothManager.");
+            return null;
+        }
+        final BluetoothAdapter adapter = bluetoothManager.getAdapter();
+        if (adapter == null) {
+            Log.e(TAG, "Unable to obtain a BluetoothAdapter.");
+            return null;
+        }
+        return new AndroidBleBackend(adapter);
+    }
+
+    /***************************************************************************************************
+     * 以mac地址为参数连接蓝牙设备的GATT服务器，超过同时连接上限时排队。连接在GATT I/O线程中发起，结果通过广播通知
      **************************************************************************************************/
     public boolean connect(final String address) {
-        if (mBluetoothAdapter == null || address == null) {
+        if (mConnectionManager == null || address == null) {
             Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
             return false;
         }
+        return mConnectionManager.connect(address);
+    }
 
-        // 之前已经连接过，重新连接
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
-            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if (mBluetoothGatt.connect()) {
-                mConnectionState = STATE_CONNECTING;
-                return true;
-            } else {
-                return false;
-            }
-        }
-        //第一次，通过mac地址连接
-        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-        if (device == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
+    /***************************************************************************************************
+     * 标记冷启动的时刻（System.nanoTime），之后第一条notify到达时按连接方式记录STARTUP_DIRECT或STARTUP_SCAN。
+     * direct为true表示直接连接上次的设备，false表示扫描后由用户选择
+     **************************************************************************************************/
+    public synchronized void markLaunch(long launchNanos, boolean direct) {
+        mLaunchNanos = launchNanos;
+        mLaunchDirect = direct;
+    }
+
+    /***************************************************************************************************
+     * 连接最近一次成功接收数据的设备，没有记录时返回false
+     **************************************************************************************************/
+    public boolean connectLastDevice() {
+        if (mConnectionManager == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
             return false;
         }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);//连接GATT服务器
-        Log.d(TAG, "Trying to create a new connection.");
-        mBluetoothDeviceAddress = address;
-        mConnectionState = STATE_CONNECTING;
-        return true;
+        return mConnectionManager.connectLastDevice();
+    }
+
+    /***************************************************************************************************
+     * 各次连接尝试从发起连接到第一条notify的耗时
+     **************************************************************************************************/
+    public ConnectAttemptLog getConnectAttemptLog() {
+        return mConnectionManager == null ? null : mConnectionManager.getAttemptLog();
+    }
+
+    /***************************************************************************************************
+     * 设置同时连接的设备数上限
+     **************************************************************************************************/
+    public void setMaxConnections(int maxConnections) {
+        if (mConnectionManager != null) {
+            mConnectionManager.setMaxConnections(maxConnections);
+        }
+    }
+
+    /***************************************************************************************************
+     * 断开指定设备的GATT服务器连接，在GATT I/O线程中执行
+     **************************************************************************************************/
+    public void disconnect(final String address) {
+        if (mConnectionManager == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        mConnectionManager.disconnect(address);
     }
 
     /***************************************************************************************************
-     * 断开GATT服务器连接
+     * 断开所有设备，在GATT I/O线程中执行
      **************************************************************************************************/
     public void disconnect() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        if (mConnectionManager == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.disconnect();
+        mConnectionManager.disconnectAll();
     }
 
     /***************************************************************************************************
-     * 关闭GATT服务器
+     * 关闭所有GATT连接，在GATT I/O线程中执行
      **************************************************************************************************/
     public void close() {
-        if (mBluetoothGatt == null) {
+        if (mConnectionManager == null) {
             return;
         }
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+        mConnectionManager.closeAll();
     }
 
     /***************************************************************************************************
-     * 读取GATT特性，结果在onCharacteristicRead函数中处理
+     * 获取设备的连接状态，没有该设备时返回DISCONNECTED
      **************************************************************************************************/
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
+    public ConnectionStateMachine.State getConnectionState(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        return connection == null ? ConnectionStateMachine.State.DISCONNECTED : connection.getState();
+    }
+
+    /***************************************************************************************************
+     * 获取所有被管理的设备连接（含排队和退避中的）
+     **************************************************************************************************/
+    public List<DeviceConnection> getConnections() {
+        return mConnectionManager == null ? null : mConnectionManager.getConnections();
+    }
+
+    private DeviceConnection findConnection(final String address) {
+        return mConnectionManager == null ? null : mConnectionManager.get(address);
+    }
+
+    private DeviceConnection requireConnection(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        if (connection == null || connection.getGatt() == null) {
+            Log.w(TAG, "Device " + address + " not connected");
+            return null;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        return connection;
     }
+
     /***************************************************************************************************
-     * 写GATT特性，结果暂时不用处理
+     * 读取GATT特性，操作排队执行，结果在onCharacteristicRead函数中处理
      **************************************************************************************************/
-    public void writeCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
+    public void readCharacteristic(final String address, BluetoothGattCharacteristic characteristic) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection != null) {
+            connection.getOperationQueue().enqueue(GattOperation.read(characteristic));
+        }
+    }
+    /***************************************************************************************************
+     * 写GATT特性，写入特性中当前的值，写类型由特性的writeType决定
+     **************************************************************************************************/
+    public void writeCharacteristic(final String address, BluetoothGattCharacteristic characteristic) {
+        writeCharacteristic(address, characteristic, characteristic.getValue(),
+                characteristic.getWriteType() != BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+    /***************************************************************************************************
+     * 写GATT特性，操作排队执行。连续的无应答写会合并成突发写
+     **************************************************************************************************/
+    public void writeCharacteristic(final String address, BluetoothGattCharacteristic characteristic,
+                                    byte[] value, boolean withResponse) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection != null) {
+            connection.getOperationQueue().enqueue(withResponse ? GattOperation.write(characteristic, value)
+                    : GattOperation.writeNoResponse(characteristic, value));
+        }
+    }
+    /***************************************************************************************************
+     * 向设备批量写入固件或配置数据（协议见BulkTransferSession），同一设备之前的传输被取消。
+     * 自动重连后从手杖确认的位置继续；listener在GATT I/O线程中回调。设备未连接时返回null
+     **************************************************************************************************/
+    public BulkTransfer startBulkTransfer(final String address, UUID serviceUuid, UUID controlUuid, UUID dataUuid,
+                                          byte[] data, BulkTransferSession.Listener listener) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection == null) {
+            return null;
+        }
+        final BulkTransfer transfer = new BulkTransfer(connection, serviceUuid, controlUuid, dataUuid, data, listener);
+        final BulkTransfer previous = mTransfers.put(address, transfer);
+        if (previous != null && !previous.isFinished()) {
+            previous.cancel();
         }
-        mBluetoothGatt.writeCharacteristic(characteristic);
+        transfer.start();
+        return transfer;
     }
-    /**
-     * Enables or disables notification on a give characteristic.
-     *
-     * @param characteristic Characteristic to act on.
-     * @param enabled If true, enable notification.  False otherwise.
-     */
     /***************************************************************************************************
-     * 打开或关闭特性的notify功能
+     * 打开或关闭特性的notify功能，同时写CCCD描述符，操作排队执行
      **************************************************************************************************/
-    public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+    public void setCharacteristicNotification(final String address, BluetoothGattCharacteristic characteristic,
                                               boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
+        final DeviceConnection connection = requireConnection(address);
+        if (connection != null) {
+            connection.getOperationQueue().enqueue(GattOperation.notify(characteristic, enabled));
+        }
+    }
+
+    /***************************************************************************************************
+     * 提交任意GATT操作，可通过GattOperation.withTimeout设置超时和重试
+     **************************************************************************************************/
+    public void enqueueOperation(final String address, GattOperation operation) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection != null) {
+            connection.getOperationQueue().enqueue(operation);
+        }
+    }
+
+    /***************************************************************************************************
+     * 指定设备的GATT操作排队等待时间和执行时间统计
+     **************************************************************************************************/
+    public GattOperationStats getOperationStats(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        return connection == null ? null : connection.getOperationQueue().getStats();
+    }
+
+    /***************************************************************************************************
+     * 指定设备的notify数据吞吐统计
+     **************************************************************************************************/
+    public ThroughputCounter getThroughput(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        return connection == null ? null : connection.getThroughput();
+    }
+
+    /***************************************************************************************************
+     * 切换指定设备的连接负载：批量同步时请求高连接优先级，空闲时请求低功耗
+     **************************************************************************************************/
+    public void setWorkload(final String address, LinkTuner.Workload workload) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection != null) {
+            connection.setWorkload(workload);
+        }
+    }
+
+    /***************************************************************************************************
+     * 指定设备协商后的MTU、物理层和连接优先级
+     **************************************************************************************************/
+    public LinkTuner getLinkTuner(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        return connection == null ? null : connection.getLinkTuner();
+    }
+
+    /***************************************************************************************************
+     * 吞吐测试：按默认的参数组合依次测试，每组持续durationMs，结果通过listener返回。
+     * control为手杖的测试控制特性，data为测试数据的notify特性
+     **************************************************************************************************/
+    public LinkTestRunner startLinkTest(final String address, BluetoothGattCharacteristic control,
+                                        BluetoothGattCharacteristic data, long durationMs,
+                                        LinkTestRunner.Listener listener) {
+        final DeviceConnection connection = requireConnection(address);
+        if (connection == null) {
+            return null;
         }
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+        final LinkTestRunner runner = new LinkTestRunner(connection, control, data,
+                LinkTestRunner.defaultSettings(), durationMs, listener);
+        runner.start();
+        return runner;
     }
 
-    /**
-     * Retrieves a list of supported GATT services on the connected device. This should be
-     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
-     *
-     * @return A {@code List} of supported services.
-     */
     /***************************************************************************************************
      * 获取蓝牙设备支持的服务及对应的特性，在发现服务完成后才能调用
      **************************************************************************************************/
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
+    public List<BluetoothGattService> getSupportedGattServices(final String address) {
+        final DeviceConnection connection = findConnection(address);
+        return connection == null ? null : connection.getServices();
+    }
+
+    /***************************************************************************************************
+     * 特性注册表，用于为特性注册解码器以及在特性ID和UUID之间转换
+     **************************************************************************************************/
+    public CharacteristicRegistry getCharacteristicRegistry() {
+        return mNotifyPipeline.getRegistry();
+    }
+
+    /***************************************************************************************************
+     * 设置特性的notify是否带分帧头（包序号+分片号，见FrameReassembler）。分帧的特性由多个notify重组为一帧，
+     * 并按设备统计丢失、重复和乱序的包
+     **************************************************************************************************/
+    public void setCharacteristicFraming(UUID characteristicUuid, boolean framed) {
+        mNotifyPipeline.setFramed(characteristicUuid, framed);
+    }
+
+    /***************************************************************************************************
+     * 设备分帧特性的包统计，复制到out中
+     **************************************************************************************************/
+    public void getFrameCounters(final String address, FrameReassembler.Counters out) {
+        mNotifyPipeline.getFrameCounters(MacAddress.pack(address), out);
+    }
+
+    /***************************************************************************************************
+     * 订阅特性的notify数据。每个订阅有独立的有界环形缓冲区，消费者在自己的线程中poll/take，
+     * 缓冲区满时按policy丢弃旧帧、只保留最新帧或短暂阻塞接收线程。多个设备的数据用frame.deviceAddress区分
+     **************************************************************************************************/
+    public FrameSubscription subscribe(UUID characteristicUuid, int capacity, FrameRing.OverflowPolicy policy) {
+        final int id = mNotifyPipeline.getRegistry().resolve(characteristicUuid);
+        return mFrameBus.subscribe(id, capacity, policy);
+    }
+
+    /***************************************************************************************************
+     * notify数据的本地时间序列存储，可按时间范围查询
+     **************************************************************************************************/
+    public TimeSeriesStore getTimeSeriesStore() {
+        return mTimeSeriesRecorder.getStore();
+    }
+
+    /***************************************************************************************************
+     * 对加速度特性（int16小端三轴）启动流分析：滑动窗口统计、步伐和跌倒检测，在独立线程中计算，
+     * listener在该线程中回调。服务销毁时自动停止
+     **************************************************************************************************/
+    public StreamAnalyzer startAnalyzer(UUID accelerometerUuid, MotionAnalyzer.Listener listener) {
+        final int id = mNotifyPipeline.getRegistry().register(accelerometerUuid, Int16FrameDecoder.LITTLE_ENDIAN);
+        final StreamAnalyzer analyzer = new StreamAnalyzer(mFrameBus, id, listener);
+        analyzer.start();
+        synchronized (mAnalyzers) {
+            mAnalyzers.add(analyzer);
+        }
+        return analyzer;
+    }
+
+    public void stopAnalyzer(StreamAnalyzer analyzer) {
+        analyzer.stop();
+        synchronized (mAnalyzers) {
+            mAnalyzers.remove(analyzer);
+        }
+    }
+
+    /***************************************************************************************************
+     * 订阅全部特性的notify数据
+     **************************************************************************************************/
+    public FrameSubscription subscribeAll(int capacity, FrameRing.OverflowPolicy policy) {
+        return mFrameBus.subscribe(FrameBus.ALL_CHARACTERISTICS, capacity, policy);
+    }
+
+    /***************************************************************************************************
+     * 扫描、连接和notify各阶段的延迟直方图和事件计数
+     **************************************************************************************************/
+    public PipelineMetrics getMetrics() {
+        return PipelineMetrics.INSTANCE;
+    }
+
+    /***************************************************************************************************
+     * 开始记录GATT会话：之后的连接状态、notify、读取结果和写入按纳秒时间写到应用私有目录traces下的新文件，
+     * 用GattTraceReplayer在工作站上重放（见benchmark模块的replayTrace任务）。已在记录时先结束上一个文件。
+     * 服务未初始化或文件无法创建时返回null
+     **************************************************************************************************/
+    public synchronized File startCapture() {
+        if (mConnectionManager == null) {
+            Log.w(TAG, "GATT capture requested before initialize()");
+            return null;
+        }
+        stopCapture();
+        final File directory = new File(getFilesDir(), "traces");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + directory);
+            return null;
+        }
+        final File file = new File(directory, "gatt-" + System.currentTimeMillis() + ".trace");
+        try {
+            mCapture = new GattTraceWriter(new FileOutputStream(file), System.currentTimeMillis(), System.nanoTime());
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to start GATT capture", e);
+            return null;
+        }
+        mCaptureFile = file;
+        mConnectionManager.setTrace(mCapture);
+        Log.i(TAG, "GATT capture started: " + file);
+        return file;
+    }
+
+    /***************************************************************************************************
+     * 结束记录，写完缓冲区并关闭文件，返回记录的文件，没有在记录时返回null
+     **************************************************************************************************/
+    public synchronized File stopCapture() {
+        if (mCapture == null) {
+            return null;
+        }
+        mConnectionManager.setTrace(null);
+        try {
+            mCapture.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to finish GATT capture", e);
+        }
+        if (mCapture.getError() != null) {
+            Log.w(TAG, "GATT capture incomplete", mCapture.getError());
+        }
+        Log.i(TAG, "GATT capture stopped: " + mCaptureFile + ", " + captureSummary());
+        final File file = mCaptureFile;
+        mCapture = null;
+        mCaptureFile = null;
+        return file;
+    }
 
-        return mBluetoothGatt.getServices();
+    private String captureSummary() {
+        return mCapture.getEvents() + " events, " + mCapture.getBytes() + " bytes"
+                + (mCapture.getDropped() > 0 ? ", " + mCapture.getDropped() + " dropped" : "")
+                + (mCapture.isTruncated() ? ", size limit reached" : "");
+    }
+
+    /***************************************************************************************************
+     * adb shell dumpsys activity service BluetoothLeService [reset | capture start | capture stop]：
+     * 输出各阶段延迟和计数、每个连接的状态、吞吐、连接参数和GATT操作统计，参数reset在输出后清零，
+     * capture start/stop开始或结束记录GATT会话
+     **************************************************************************************************/
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        final PipelineMetrics metrics = PipelineMetrics.INSTANCE;
+        writer.println("Pipeline:");
+        writer.print(metrics);
+        writer.println("Decode errors: " + mNotifyPipeline.getDecodeErrors());
+        final List<DeviceConnection> connections = getConnections();
+        final FrameReassembler.Counters counters = new FrameReassembler.Counters();
+        if (connections != null) {
+            for (DeviceConnection connection : connections) {
+                final ThroughputCounter throughput = connection.getThroughput();
+                throughput.sample();
+                writer.println();
+                writer.println(connection.getAddress() + " " + connection.getState() + " " + connection.getLinkTuner());
+                writer.println(String.format(Locale.US, "  %d packets %.1f packets/s %.1f B/s",
+                        throughput.getPackets(), throughput.getPacketsPerSecond(), throughput.getBytesPerSecond()));
+                writer.print(connection.getOperationQueue().getStats());
+                mNotifyPipeline.getFrameCounters(connection.getMac(), counters);
+                if (counters.packets > 0) {
+                    writer.println("  framed " + counters);
+                }
+                final BulkTransfer transfer = mTransfers.get(connection.getAddress());
+                if (transfer != null) {
+                    writer.println(String.format(Locale.US, "  bulk transfer %s %d/%d bytes %d B/s",
+                            transfer.getState(), transfer.getConfirmed(), transfer.getTotal(),
+                            transfer.getBytesPerSecond()));
+                }
+            }
+        }
+        if (mConnectionManager != null) {
+            writer.println();
+            writer.println("Connect attempts:");
+            writer.print(mConnectionManager.getAttemptLog());
+        }
+        if (args != null && args.length > 1 && "capture".equals(args[0])) {
+            final File file = "start".equals(args[1]) ? startCapture() : stopCapture();
+            writer.println("capture " + args[1] + " " + file);
+        }
+        synchronized (this) {
+            if (mCapture != null) {
+                writer.println();
+                writer.println("Capturing to " + mCaptureFile + ": " + captureSummary());
+            }
+        }
+        if (args != null && args.length > 0 && "reset".equals(args[0])) {
+            metrics.reset();
+            writer.println("reset");
+        }
     }
 }
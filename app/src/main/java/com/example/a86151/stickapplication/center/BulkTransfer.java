@@ -0,0 +1,215 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.List;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 把BulkTransferSession接到一个设备连接的GATT操作队列上：数据块用无应答写连续排队，
+ * 检查和开始/结束命令用有应答写，手杖以ATT应用错误（0x80-0x9F）拒绝检查时回到确认位置重发。
+ * 其他失败（超时、连接断开）时暂停，连接重新发现服务后从手杖确认的位置继续。
+ * 传输期间连接切换到BULK负载（最短连接间隔）。会话和回调都在连接的GATT I/O线程中运行
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class BulkTransfer implements BulkTransferSession.Link {
+    private final static String TAG = BulkTransfer.class.getSimpleName();
+
+    private static final int ATT_APPLICATION_ERROR_FIRST = 0x80;
+    private static final int ATT_APPLICATION_ERROR_LAST = 0x9F;
+    private static final long COMMAND_TIMEOUT_MS = 3000;
+    private static final long RESUME_DELAY_MS = 500;//连接仍在时，超时后稍等再继续
+
+    private final DeviceConnection mConnection;
+    private final UUID mServiceUuid;
+    private final UUID mControlUuid;
+    private final UUID mDataUuid;
+    private final BulkTransferSession mSession;
+    private final BulkTransferSession.Listener mListener;
+    private final Handler mHandler;
+    private BluetoothGattCharacteristic mControl;
+    private BluetoothGattCharacteristic mData;
+    private ResultCallback mCallback;//每次开始或继续时新建，之前排队的操作的迟到结果被忽略
+
+    BulkTransfer(DeviceConnection connection, UUID serviceUuid, UUID controlUuid, UUID dataUuid, byte[] data,
+                 BulkTransferSession.Listener listener) {
+        mConnection = connection;
+        mServiceUuid = serviceUuid;
+        mControlUuid = controlUuid;
+        mDataUuid = dataUuid;
+        mListener = listener;
+        mHandler = connection.getHandler();
+        mSession = new BulkTransferSession(data, this, mSessionListener);
+    }
+
+    public String getAddress() {
+        return mConnection.getAddress();
+    }
+
+    DeviceConnection getConnection() {
+        return mConnection;
+    }
+
+    public BulkTransferSession.State getState() {
+        return mSession.getState();
+    }
+
+    public long getConfirmed() {
+        return mSession.getConfirmed();
+    }
+
+    public long getTotal() {
+        return mSession.getTotal();
+    }
+
+    /***************************************************************************************************
+     * 持续传输速率，字节/秒，不含断线等待
+     **************************************************************************************************/
+    public long getBytesPerSecond() {
+        return mSession.getBytesPerSecond();
+    }
+
+    public boolean isFinished() {
+        final BulkTransferSession.State state = mSession.getState();
+        return state == BulkTransferSession.State.DONE || state == BulkTransferSession.State.FAILED
+                || state == BulkTransferSession.State.CANCELLED;
+    }
+
+    /***************************************************************************************************
+     * 开始传输，可在任意线程调用。连接尚未就绪时等待resume
+     **************************************************************************************************/
+    void start() {
+        mHandler.post(mResume);
+    }
+
+    /***************************************************************************************************
+     * 连接重新发现服务后继续传输，在GATT I/O线程中调用
+     **************************************************************************************************/
+    void resume() {
+        mHandler.removeCallbacks(mResume);
+        final BulkTransferSession.State state = mSession.getState();
+        if (state != BulkTransferSession.State.IDLE && state != BulkTransferSession.State.INTERRUPTED) {
+            return;
+        }
+        if (!resolve()) {
+            return;
+        }
+        mConnection.setWorkload(LinkTuner.Workload.BULK);
+        mCallback = new ResultCallback();
+        mSession.start(mConnection.getOperationQueue().getMtu());
+    }
+
+    /***************************************************************************************************
+     * 连接断开，等待重连后的resume
+     **************************************************************************************************/
+    void onDisconnected() {
+        mHandler.removeCallbacks(mResume);
+        mCallback = null;
+        mSession.onDisconnected();
+    }
+
+    /***************************************************************************************************
+     * 取消传输，通知手杖丢弃已收到的数据，可在任意线程调用
+     **************************************************************************************************/
+    public void cancel() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mResume);
+                mSession.cancel();
+                mConnection.setWorkload(LinkTuner.Workload.STREAMING);
+            }
+        });
+    }
+
+    private final Runnable mResume = new Runnable() {
+        @Override
+        public void run() {
+            resume();
+        }
+    };
+
+    /***************************************************************************************************
+     * 在当前连接的服务表中查找控制特性和数据特性
+     **************************************************************************************************/
+    private boolean resolve() {
+        final List<BluetoothGattService> services = mConnection.getServices();
+        if (services == null) {
+            return false;
+        }
+        for (BluetoothGattService service : services) {
+            if (service.getUuid().equals(mServiceUuid)) {
+                mControl = service.getCharacteristic(mControlUuid);
+                mData = service.getCharacteristic(mDataUuid);
+                return mControl != null && mData != null;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void writeData(byte[] packet) {
+        mConnection.getOperationQueue().enqueue(GattOperation.writeNoResponse(mData, packet));
+    }
+
+    @Override
+    public void writeCommand(byte[] command) {
+        mConnection.getOperationQueue().enqueue(GattOperation.write(mControl, command)
+                .withTimeout(COMMAND_TIMEOUT_MS, 0).withCallback(mCallback));
+    }
+
+    @Override
+    public void readState() {
+        mConnection.getOperationQueue().enqueue(GattOperation.read(mControl)
+                .withTimeout(COMMAND_TIMEOUT_MS, 0).withCallback(mCallback));
+    }
+
+    private final class ResultCallback implements GattOperation.Callback {
+        @Override
+        public void onComplete(GattOperation operation, int status, byte[] value) {
+            if (this != mCallback) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mSession.onResult(true, value);
+            } else if (status >= ATT_APPLICATION_ERROR_FIRST && status <= ATT_APPLICATION_ERROR_LAST) {
+                mSession.onResult(false, null);//手杖拒绝
+            } else {
+                Log.w(TAG, mConnection.getAddress() + " bulk transfer interrupted, status " + status);
+                mCallback = null;
+                mSession.onDisconnected();
+                if (mConnection.getGatt() != null) {
+                    mHandler.postDelayed(mResume, RESUME_DELAY_MS);
+                }
+            }
+        }
+    }
+
+    private final BulkTransferSession.Listener mSessionListener = new BulkTransferSession.Listener() {
+        @Override
+        public void onProgress(long confirmed, long total, long bytesPerSecond) {
+            mListener.onProgress(confirmed, total, bytesPerSecond);
+        }
+
+        @Override
+        public void onComplete(long bytesPerSecond) {
+            Log.d(TAG, mConnection.getAddress() + " bulk transfer of " + mSession.getTotal() + " bytes done, "
+                    + bytesPerSecond + " B/s, " + mSession.getRetransmitted() + " bytes retransmitted");
+            mConnection.setWorkload(LinkTuner.Workload.STREAMING);
+            mListener.onComplete(bytesPerSecond);
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            Log.w(TAG, mConnection.getAddress() + " bulk transfer failed: " + reason);
+            mConnection.setWorkload(LinkTuner.Workload.STREAMING);
+            mListener.onFailed(reason);
+        }
+    };
+}
@@ -0,0 +1,272 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***************************************************************************************************
+ * 多设备连接管理器，按MAC地址管理DeviceConnection。
+ * 同时连接的设备数有上限，超出的连接请求排队，有设备释放后依次连接。
+ * 连接、断开和关闭都转到构造时传入的Handler线程（GATT I/O线程）中执行，与GATT回调在同一线程
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class ConnectionManager {
+    private final static String TAG = ConnectionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    /***************************************************************************************************
+     * 连接事件回调，在构造时传入的Handler线程（GATT I/O线程）中按事件发生顺序调用
+     **************************************************************************************************/
+    public interface Callback {
+        void onStateChanged(DeviceConnection connection, ConnectionStateMachine.State from,
+                            ConnectionStateMachine.State to);
+
+        void onServicesDiscovered(DeviceConnection connection);
+
+        void onCharacteristicRead(DeviceConnection connection, BluetoothGattCharacteristic characteristic);
+
+        void onCharacteristicChanged(DeviceConnection connection, BluetoothGattCharacteristic characteristic,
+                                     byte[] value);
+
+        /***************************************************************************************************
+         * 每次连接收到第一条notify时调用
+         **************************************************************************************************/
+        void onFirstNotification(DeviceConnection connection);
+    }
+
+    private final Context mContext;
+    private final BleBackend mBackend;
+    private final Handler mHandler;
+    private final Callback mCallback;
+    private final ConcurrentHashMap<String, DeviceConnection> mConnections = new ConcurrentHashMap<String, DeviceConnection>();
+    private final ArrayDeque<DeviceConnection> mWaiting = new ArrayDeque<DeviceConnection>();//受this保护
+    private final List<DeviceConnection> mActive = new ArrayList<DeviceConnection>();//受this保护
+    private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+    private final GattLayoutStore mLayoutStore;//最近的设备和服务表指纹
+    private final ConnectAttemptLog mAttemptLog = new ConnectAttemptLog();
+    private final PipelineMetrics mMetrics = PipelineMetrics.INSTANCE;
+    private volatile GattTraceWriter mTrace;
+
+    public ConnectionManager(Context context, BleBackend backend, Handler handler, Callback callback) {
+        mContext = context;
+        mBackend = backend;
+        mHandler = handler;
+        mCallback = callback;
+        mLayoutStore = new GattLayoutStore(context);
+    }
+
+    public GattLayoutStore getLayoutStore() {
+        return mLayoutStore;
+    }
+
+    /***************************************************************************************************
+     * 正在记录GATT会话时不为null，各连接的写操作记录到其中
+     **************************************************************************************************/
+    public GattTraceWriter getTrace() {
+        return mTrace;
+    }
+
+    public void setTrace(GattTraceWriter trace) {
+        mTrace = trace;
+    }
+
+    /***************************************************************************************************
+     * 各次连接尝试从发起连接到第一条notify的耗时
+     **************************************************************************************************/
+    public ConnectAttemptLog getAttemptLog() {
+        return mAttemptLog;
+    }
+
+    /***************************************************************************************************
+     * 各阶段的延迟直方图和事件计数
+     **************************************************************************************************/
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /***************************************************************************************************
+     * 连接最近一次成功接收数据的设备，没有记录时返回false
+     **************************************************************************************************/
+    public boolean connectLastDevice() {
+        final String address = mLayoutStore.getLastDevice();
+        return address != null && connect(address);
+    }
+
+    /***************************************************************************************************
+     * 设置同时连接的设备数上限
+     **************************************************************************************************/
+    public void setMaxConnections(final int maxConnections) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionManager.this) {
+                    mMaxConnections = Math.max(1, maxConnections);
+                    startWaiting();
+                }
+            }
+        });
+    }
+
+    public DeviceConnection get(String address) {
+        return address == null ? null : mConnections.get(address);
+    }
+
+    public List<DeviceConnection> getConnections() {
+        return new ArrayList<DeviceConnection>(mConnections.values());
+    }
+
+    /***************************************************************************************************
+     * 连接设备，已达到连接上限时排队。连接在GATT I/O线程中发起，返回时尚未开始；
+     * GATT I/O线程已退出时返回false
+     **************************************************************************************************/
+    public boolean connect(final String address) {
+        return mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                connectOnHandler(address);
+            }
+        });
+    }
+
+    private synchronized void connectOnHandler(String address) {
+        DeviceConnection connection = mConnections.get(address);
+        if (connection == null) {
+            connection = new DeviceConnection(address, this, mHandler);
+            mConnections.put(address, connection);
+        }
+        if (mActive.contains(connection) || mWaiting.contains(connection)) {
+            return;
+        }
+        if (mActive.size() >= mMaxConnections) {
+            Log.d(TAG, address + " queued, " + mActive.size() + " connections active");
+            mWaiting.addLast(connection);
+            return;
+        }
+        start(connection);
+    }
+
+    private void start(DeviceConnection connection) {
+        mActive.add(connection);
+        connection.connect(mContext, mBackend);
+    }
+
+    /***************************************************************************************************
+     * 退避结束后重连，不重新占用连接名额，在GATT I/O线程中调用
+     **************************************************************************************************/
+    void reconnect(DeviceConnection connection) {
+        connection.connect(mContext, mBackend);
+    }
+
+    /***************************************************************************************************
+     * 断开设备，在GATT I/O线程中执行
+     **************************************************************************************************/
+    public void disconnect(final String address) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionManager.this) {
+                    DeviceConnection connection = mConnections.get(address);
+                    if (connection == null) {
+                        return;
+                    }
+                    if (mWaiting.remove(connection)) {
+                        mConnections.remove(address);
+                        return;
+                    }
+                }
+                DeviceConnection connection = mConnections.get(address);
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 断开全部设备，在GATT I/O线程中执行
+     **************************************************************************************************/
+    public void disconnectAll() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionManager.this) {
+                    mWaiting.clear();
+                }
+                for (DeviceConnection connection : getConnections()) {
+                    connection.disconnect();
+                }
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 关闭全部连接并释放资源，在GATT I/O线程中执行。之后用quitSafely退出该线程时已排队的关闭仍会完成
+     **************************************************************************************************/
+    public void closeAll() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ConnectionManager.this) {
+                    mWaiting.clear();
+                }
+                for (DeviceConnection connection : getConnections()) {
+                    connection.close();
+                }
+                mConnections.clear();
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 设备断开并释放后调用，让出连接名额
+     **************************************************************************************************/
+    synchronized void onReleased(DeviceConnection connection) {
+        mActive.remove(connection);
+        if (connection.getState() == ConnectionStateMachine.State.DISCONNECTED) {
+            mConnections.remove(connection.getAddress(), connection);
+        }
+        startWaiting();
+    }
+
+    private void startWaiting() {
+        while (mActive.size() < mMaxConnections && !mWaiting.isEmpty()) {
+            start(mWaiting.pollFirst());
+        }
+    }
+
+    void onStateChanged(DeviceConnection connection, ConnectionStateMachine.State from,
+                        ConnectionStateMachine.State to) {
+        Log.d(TAG, connection.getAddress() + " " + from + " -> " + to);
+        mCallback.onStateChanged(connection, from, to);
+    }
+
+    void onStreaming(DeviceConnection connection) {
+        mLayoutStore.setLastDevice(connection.getAddress());
+    }
+
+    void onServicesDiscovered(DeviceConnection connection) {
+        mCallback.onServicesDiscovered(connection);
+    }
+
+    void onCharacteristicRead(DeviceConnection connection, BluetoothGattCharacteristic characteristic) {
+        mCallback.onCharacteristicRead(connection, characteristic);
+    }
+
+    void onCharacteristicChanged(DeviceConnection connection, BluetoothGattCharacteristic characteristic,
+                                 byte[] value) {
+        mCallback.onCharacteristicChanged(connection, characteristic, value);
+    }
+
+    void onFirstNotification(DeviceConnection connection) {
+        mCallback.onFirstNotification(connection);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.a86151.stickapplication.center;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 进程内唯一的已知设备缓存，第一次使用时从应用私有目录读取（文件只有几KB）。
+ * 读取和保存都在同一个后台线程中依次进行，不在UI线程中访问磁盘
+ **************************************************************************************************/
+public final class DeviceCacheStore {
+    private final static String TAG = DeviceCacheStore.class.getSimpleName();
+    private static final String FILE_NAME = "device_cache.bin";
+
+    /***************************************************************************************************
+     * 缓存读取完成，在主线程中回调
+     **************************************************************************************************/
+    public interface Callback {
+        void onLoaded(DeviceCache cache);
+    }
+
+    private static DeviceCache sCache;//只在sWriter线程中赋值
+    private static File sFile;
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    //单线程，空闲时退出
+    private static final ExecutorService sWriter = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "device-cache");
+        }
+    });
+
+    private DeviceCacheStore() {
+    }
+
+    /***************************************************************************************************
+     * 在后台线程中取得缓存，第一次调用时读取文件，完成后在主线程中回调
+     **************************************************************************************************/
+    public static void load(Context context, final Callback callback) {
+        final Context appContext = context.getApplicationContext();
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DeviceCache cache = loadOnWriter(appContext);
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(cache);
+                    }
+                });
+            }
+        });
+    }
+
+    private static DeviceCache loadOnWriter(Context context) {
+        synchronized (DeviceCacheStore.class) {
+            if (sCache != null) {
+                return sCache;
+            }
+        }
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final DeviceCache cache = new DeviceCache();
+        try {
+            cache.load(file, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding device cache: " + e.getMessage());
+        }
+        synchronized (DeviceCacheStore.class) {
+            sFile = file;
+            sCache = cache;
+        }
+        return cache;
+    }
+
+    /***************************************************************************************************
+     * 有变化时在后台线程中写入文件
+     **************************************************************************************************/
+    public static synchronized void saveAsync() {
+        if (sCache == null) {
+            return;
+        }
+        final DeviceCache cache = sCache;
+        final File file = sFile;
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.saveIfDirty(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to save device cache", e);
+                }
+            }
+        });
+    }
+}
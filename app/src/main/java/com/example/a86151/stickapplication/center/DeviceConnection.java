@@ -0,0 +1,528 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***************************************************************************************************
+ * 一个设备的GATT连接：自己的GattClient、操作队列、状态机和吞吐统计。
+ * 连接成功后自动发现服务并打开所有notify/indicate特性；意外断开后按带抖动的指数退避重连。
+ * 快速重连：断线时服务表指纹与保存的一致，就保留GattClient并用connect()在后台重连，
+ * 连上后直接打开notify，跳过服务发现；打开notify失败说明句柄已变，退回完整服务发现
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class DeviceConnection {
+    private final static String TAG = DeviceConnection.class.getSimpleName();
+
+    public static final long MIN_BACKOFF_MS = 1000;
+    public static final long MAX_BACKOFF_MS = 30000;
+    public static final int MAX_RECONNECT_ATTEMPTS = 8;
+    public static final long FAST_RECONNECT_TIMEOUT_MS = 120000;//后台重连等待设备回到范围内的最长时间
+
+    private final String mAddress;
+    private final long mMac;
+    private final ConnectionManager mManager;
+    private final Handler mHandler;//GATT I/O线程，所有GATT回调、操作队列和重连都在这个线程中执行
+    private final GattCallbackExecutor mCallbackExecutor;
+    private final GattOperationQueue mOperationQueue;
+    private final LinkTuner mLinkTuner;
+    private final ConnectionStateMachine mStateMachine = new ConnectionStateMachine();
+    private final ThroughputCounter mThroughput = new ThroughputCounter();
+    private final AtomicInteger mPendingSubscriptions = new AtomicInteger();
+    private final AtomicInteger mFailedSubscriptions = new AtomicInteger();//队列重试后仍失败的notify
+    private final PipelineMetrics mMetrics;
+    private volatile GattClient mGatt;
+    private volatile boolean mUserDisconnect;
+    private final ReconnectBackoff mBackoff = new ReconnectBackoff(MIN_BACKOFF_MS, MAX_BACKOFF_MS,
+            MAX_RECONNECT_ATTEMPTS);//只在mHandler线程访问
+    private volatile boolean mFastPath;//本次连接复用已发现的服务表
+    private volatile boolean mFastPathFailed;//快速重连或打开notify失败过，下次重新连接并完整发现服务
+    //本次连接尝试的耗时，相对于发起连接的时刻
+    private volatile int mPath = ConnectAttemptLog.PATH_FULL;
+    private volatile long mAttemptStartNanos;
+    private volatile long mConnectedNanos;
+    private volatile long mDiscoveredNanos;
+    private volatile long mReadyNanos;
+    private long mLastNotifyNanos;//只在mHandler线程访问
+    private volatile boolean mAwaitingFirstNotify;
+    //吞吐测试期间，数据特性的notify交给mLinkTest统计，不进入接收通路
+    private volatile BluetoothGattCharacteristic mLinkTestCharacteristic;
+    private volatile LinkTestPattern mLinkTest;
+
+    DeviceConnection(String address, ConnectionManager manager, Handler handler) {
+        mAddress = address;
+        mMac = MacAddress.pack(address);
+        mManager = manager;
+        mMetrics = manager.getMetrics();
+        mHandler = handler;
+        mCallbackExecutor = new GattCallbackExecutor(mGattCallback, handler.getLooper());
+        mOperationQueue = new GattOperationQueue(handler.getLooper());
+        mOperationQueue.setOperationListener(mOperationListener);
+        mOperationQueue.setWriteObserver(new GattOperationQueue.WriteObserver() {
+            @Override
+            public void onWrite(BluetoothGattCharacteristic characteristic, byte[] value, boolean withResponse) {
+                final GattTraceWriter trace = mManager.getTrace();
+                if (trace != null) {
+                    trace.onWrite(mMac, characteristic.getUuid(), value, withResponse, System.nanoTime());
+                }
+            }
+        });
+        mLinkTuner = new LinkTuner(mOperationQueue);
+        mStateMachine.setListener(new ConnectionStateMachine.Listener() {
+            @Override
+            public void onStateChanged(ConnectionStateMachine.State from, ConnectionStateMachine.State to) {
+                mManager.onStateChanged(DeviceConnection.this, from, to);
+            }
+        });
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /***************************************************************************************************
+     * MAC地址的long形式，与SensorFrame.deviceAddress一致
+     **************************************************************************************************/
+    public long getMac() {
+        return mMac;
+    }
+
+    public ConnectionStateMachine.State getState() {
+        return mStateMachine.get();
+    }
+
+    public ThroughputCounter getThroughput() {
+        return mThroughput;
+    }
+
+    public GattOperationQueue getOperationQueue() {
+        return mOperationQueue;
+    }
+
+    public LinkTuner getLinkTuner() {
+        return mLinkTuner;
+    }
+
+    /***************************************************************************************************
+     * 切换连接负载，调整连接优先级
+     **************************************************************************************************/
+    public void setWorkload(LinkTuner.Workload workload) {
+        mLinkTuner.setWorkload(workload);
+    }
+
+    Handler getHandler() {
+        return mHandler;
+    }
+
+    /***************************************************************************************************
+     * 吞吐测试期间把characteristic的notify交给pattern统计，传入null结束
+     **************************************************************************************************/
+    void setLinkTest(BluetoothGattCharacteristic characteristic, LinkTestPattern pattern) {
+        mLinkTest = pattern;
+        mLinkTestCharacteristic = characteristic;
+    }
+
+    public GattClient getGatt() {
+        return mGatt;
+    }
+
+    public List<BluetoothGattService> getServices() {
+        final GattClient gatt = mGatt;
+        return gatt == null ? null : gatt.getServices();
+    }
+
+    /***************************************************************************************************
+     * 建立连接，只在DISCONNECTED或BACKOFF状态有效，只在mHandler线程调用
+     **************************************************************************************************/
+    boolean connect(Context context, BleBackend backend) {
+        if (mStateMachine.moveTo(ConnectionStateMachine.State.CONNECTING) == null) {
+            Log.d(TAG, mAddress + " already " + mStateMachine.get());
+            return false;
+        }
+        mUserDisconnect = false;
+        mAttemptStartNanos = System.nanoTime();
+        mReadyNanos = 0;
+        mMetrics.increment(PipelineMetrics.Counter.CONNECT_ATTEMPTS);
+        mAwaitingFirstNotify = false;
+        final GattClient retained = mGatt;
+        if (retained != null && canReuse(retained)) {
+            //后台连接：设备回到范围内时由控制器直接连上，GattClient中已发现的服务表保持不变
+            mFastPath = true;
+            if (retained.connect()) {
+                mHandler.postDelayed(mFastReconnectTimeout, FAST_RECONNECT_TIMEOUT_MS);
+                Log.d(TAG, "Trying fast reconnect to " + mAddress);
+                return true;
+            }
+        }
+        mFastPath = false;
+        closeGatt();
+        //直接连接，autoConnect为false
+        mGatt = backend.connectGatt(context, mAddress, false, mCallbackExecutor);
+        if (mGatt == null) {
+            onLinkLost();
+            return false;
+        }
+        Log.d(TAG, "Trying to create a new connection to " + mAddress);
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 主动断开，不再重连，只在mHandler线程调用
+     **************************************************************************************************/
+    void disconnect() {
+        mUserDisconnect = true;
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mHandler.removeCallbacks(mFastReconnectTimeout);
+        final GattClient gatt = mGatt;
+        final ConnectionStateMachine.State state = mStateMachine.get();
+        if (gatt != null && (state == ConnectionStateMachine.State.DISCOVERING
+                || state == ConnectionStateMachine.State.SUBSCRIBING
+                || state == ConnectionStateMachine.State.STREAMING)) {
+            gatt.disconnect();//断开完成后在onConnectionStateChange中释放
+        } else {
+            release();//连接尚未建立或正在退避，直接关闭
+        }
+    }
+
+    /***************************************************************************************************
+     * 立即关闭连接并释放资源，只在mHandler线程调用
+     **************************************************************************************************/
+    void close() {
+        mUserDisconnect = true;
+        mHandler.removeCallbacks(mReconnectRunnable);
+        mHandler.removeCallbacks(mFastReconnectTimeout);
+        release();
+    }
+
+    private void release() {
+        closeGatt();
+        mOperationQueue.setGatt(null);
+        if (mStateMachine.moveTo(ConnectionStateMachine.State.DISCONNECTED) != null) {
+            mManager.onReleased(this);
+        }
+    }
+
+    private void closeGatt() {
+        final GattClient gatt = mGatt;
+        mGatt = null;
+        if (gatt != null) {
+            gatt.close();
+        }
+    }
+
+    /***************************************************************************************************
+     * 服务表与保存的指纹一致且没有快速重连失败过时，可以复用该GattClient快速重连
+     **************************************************************************************************/
+    private boolean canReuse(GattClient gatt) {
+        if (mFastPathFailed) {
+            return false;
+        }
+        final GattLayout layout = layoutOf(gatt.getServices());
+        return !layout.isEmpty() && layout.matches(mManager.getLayoutStore().getLayout(mAddress));
+    }
+
+    static GattLayout layoutOf(List<BluetoothGattService> services) {
+        final GattLayout layout = new GattLayout();
+        for (BluetoothGattService service : services) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                final int properties = characteristic.getProperties();
+                layout.add(service.getUuid(), characteristic.getUuid(), characteristic.getInstanceId(), properties,
+                        (properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                                | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0);
+            }
+        }
+        return layout;
+    }
+
+    /***************************************************************************************************
+     * 连接意外断开，进入退避状态，稍后重连。可以快速重连时保留GattClient并立即发起后台重连
+     **************************************************************************************************/
+    private void onLinkLost() {
+        mOperationQueue.setGatt(null);
+        mHandler.removeCallbacks(mFastReconnectTimeout);
+        if (mStateMachine.moveTo(ConnectionStateMachine.State.BACKOFF) == null) {
+            return;
+        }
+        final GattClient gatt = mGatt;
+        final boolean fast = gatt != null && canReuse(gatt);
+        if (!fast) {
+            closeGatt();
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (fast) {
+                    mHandler.post(mReconnectRunnable);
+                    return;
+                }
+                if (mBackoff.isExhausted()) {
+                    Log.w(TAG, mAddress + " giving up after " + mBackoff.getAttempts() + " attempts");
+                    release();
+                    return;
+                }
+                mHandler.postDelayed(mReconnectRunnable, mBackoff.nextDelayMs());
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 后台重连超时：取消后台连接，之后按退避直接连接并完整发现服务
+     **************************************************************************************************/
+    private final Runnable mFastReconnectTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (mFastPath && mStateMachine.get() == ConnectionStateMachine.State.CONNECTING) {
+                Log.w(TAG, mAddress + " fast reconnect timed out");
+                mFastPathFailed = true;
+                final GattClient gatt = mGatt;
+                if (gatt != null) {
+                    gatt.disconnect();
+                }
+                onLinkLost();
+            }
+        }
+    };
+
+    /***************************************************************************************************
+     * 所有notify打开完成，开始接收数据
+     **************************************************************************************************/
+    private void onStreaming() {
+        mReadyNanos = System.nanoTime() - mAttemptStartNanos;
+        mMetrics.record(PipelineMetrics.Stage.SUBSCRIBE, mReadyNanos - mDiscoveredNanos);
+        mManager.onStreaming(this);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mBackoff.reset();//连接完全建立后重置退避
+            }
+        });
+    }
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mStateMachine.get() == ConnectionStateMachine.State.BACKOFF) {
+                mManager.reconnect(DeviceConnection.this);
+            }
+        }
+    };
+
+    /***************************************************************************************************
+     * 先排队调整连接参数（MTU、物理层、优先级），再打开所有notify/indicate特性
+     **************************************************************************************************/
+    private void subscribeAll(GattClient gatt) {
+        mLinkTuner.tune();
+        int count = 0;
+        for (BluetoothGattService service : gatt.getServices()) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                final int properties = characteristic.getProperties();
+                if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                        | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                    count++;
+                }
+            }
+        }
+        mPendingSubscriptions.set(count);
+        mFailedSubscriptions.set(0);
+        if (count == 0) {
+            if (mStateMachine.transition(ConnectionStateMachine.State.SUBSCRIBING,
+                    ConnectionStateMachine.State.STREAMING)) {
+                onStreaming();
+            }
+            return;
+        }
+        for (BluetoothGattService service : gatt.getServices()) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                final int properties = characteristic.getProperties();
+                if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                        | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+                    mOperationQueue.enqueue(GattOperation.notify(characteristic, true));
+                }
+            }
+        }
+    }
+
+    private final GattOperationQueue.OperationListener mOperationListener = new GattOperationQueue.OperationListener() {
+        @Override
+        public void onOperationComplete(GattOperation operation, int status, long waitNanos, long execNanos) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {//批量传输时每个数据块都会到这里，默认不输出
+                Log.d(TAG, mAddress + " " + operation.getType() + " status=" + status + " wait=" + waitNanos / 1000
+                        + "us exec=" + execNanos / 1000 + "us");
+            }
+            if (operation.getType() != GattOperation.Type.NOTIFY
+                    || mStateMachine.get() != ConnectionStateMachine.State.SUBSCRIBING) {
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS && mFastPath) {
+                //复用的句柄无效，断开后完整发现服务
+                Log.w(TAG, mAddress + " cached layout rejected, status=" + status);
+                mFastPathFailed = true;
+                mManager.getLayoutStore().removeLayout(mAddress);
+                final GattClient gatt = mGatt;
+                if (gatt != null) {
+                    gatt.disconnect();
+                }
+                return;
+            }
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                mFailedSubscriptions.incrementAndGet();
+            }
+            if (mPendingSubscriptions.decrementAndGet() != 0) {
+                return;
+            }
+            final int failed = mFailedSubscriptions.get();
+            if (failed > 0) {
+                //队列已重试过，缺少数据流时不算连接成功：断开后经onLinkLost进入BACKOFF，
+                //按退避重新连接并完整发现服务，退避不重置，多次失败后放弃
+                Log.w(TAG, mAddress + " " + failed + " subscriptions failed, reconnecting");
+                mFastPathFailed = true;
+                final GattClient gatt = mGatt;
+                if (gatt != null) {
+                    gatt.disconnect();
+                }
+                return;
+            }
+            if (mStateMachine.transition(ConnectionStateMachine.State.SUBSCRIBING,
+                    ConnectionStateMachine.State.STREAMING)) {
+                onStreaming();
+            }
+        }
+    };
+
+    /***************************************************************************************************
+     * 处理该设备BLE GATT事件的回调函数，经mCallbackExecutor转到mHandler线程中执行
+     **************************************************************************************************/
+    private final GattClient.Callback mGattCallback = new GattClient.Callback() {
+        @Override
+        public void onConnectionStateChange(GattClient gatt, int status, int newState) {
+            if (gatt != mGatt) {
+                return;//已关闭连接的迟到回调
+            }
+            if (newState == BluetoothProfile.STATE_CONNECTED) {//连接成功
+                mHandler.removeCallbacks(mFastReconnectTimeout);
+                if (mStateMachine.transition(ConnectionStateMachine.State.CONNECTING,
+                        ConnectionStateMachine.State.DISCOVERING)) {
+                    mConnectedNanos = System.nanoTime() - mAttemptStartNanos;
+                    mDiscoveredNanos = mConnectedNanos;
+                    mMetrics.record(PipelineMetrics.Stage.CONNECT, mConnectedNanos);
+                    mMetrics.increment(PipelineMetrics.Counter.CONNECTS);
+                    mAwaitingFirstNotify = true;
+                    mLastNotifyNanos = 0;
+                    mOperationQueue.setGatt(gatt);
+                    if (mFastPath) {//服务表未变，跳过服务发现
+                        mPath = ConnectAttemptLog.PATH_FAST;
+                        if (mStateMachine.transition(ConnectionStateMachine.State.DISCOVERING,
+                                ConnectionStateMachine.State.SUBSCRIBING)) {
+                            mManager.onServicesDiscovered(DeviceConnection.this);
+                            subscribeAll(gatt);
+                        }
+                    } else if (!gatt.discoverServices()) {
+                        gatt.disconnect();
+                    }
+                }
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {//断开连接
+                if (mUserDisconnect) {
+                    release();
+                } else {
+                    Log.w(TAG, mAddress + " link lost, status=" + status);
+                    mMetrics.increment(PipelineMetrics.Counter.LINK_LOSSES);
+                    onLinkLost();
+                }
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(GattClient gatt, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                gatt.disconnect();
+                return;
+            }
+            mDiscoveredNanos = System.nanoTime() - mAttemptStartNanos;
+            mMetrics.record(PipelineMetrics.Stage.DISCOVERY, mDiscoveredNanos - mConnectedNanos);
+            //与保存的服务表指纹比较，不同则更新
+            final GattLayout layout = layoutOf(gatt.getServices());
+            final GattLayoutStore store = mManager.getLayoutStore();
+            if (layout.matches(store.getLayout(mAddress))) {
+                mPath = ConnectAttemptLog.PATH_VERIFIED;
+            } else {
+                mPath = ConnectAttemptLog.PATH_FULL;
+                store.putLayout(mAddress, layout);
+            }
+            mFastPathFailed = false;
+            if (mStateMachine.transition(ConnectionStateMachine.State.DISCOVERING,
+                    ConnectionStateMachine.State.SUBSCRIBING)) {
+                mManager.onServicesDiscovered(DeviceConnection.this);
+                subscribeAll(gatt);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(GattClient gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mManager.onCharacteristicRead(DeviceConnection.this, characteristic);
+            }
+            mOperationQueue.onCharacteristicRead(characteristic, status);//执行下一个GATT操作
+        }
+
+        @Override
+        public void onCharacteristicWrite(GattClient gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            mOperationQueue.onCharacteristicWrite(characteristic, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(GattClient gatt, BluetoothGattDescriptor descriptor, int status) {
+            mOperationQueue.onDescriptorWrite(descriptor, status);
+        }
+
+        @Override
+        public void onMtuChanged(GattClient gatt, int mtu, int status) {
+            mLinkTuner.onMtuChanged(mtu, status);
+            mOperationQueue.onMtuChanged(mtu, status);
+        }
+
+        @Override
+        public void onPhyUpdate(GattClient gatt, int txPhy, int rxPhy, int status) {
+            mLinkTuner.onPhyUpdate(txPhy, rxPhy, status);
+            mOperationQueue.onPhyUpdate(status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(GattClient gatt,
+                                            BluetoothGattCharacteristic characteristic, byte[] value) {
+            final LinkTestPattern linkTest = mLinkTest;
+            if (linkTest != null && characteristic == mLinkTestCharacteristic && value != null) {
+                linkTest.onPacket(value, value.length, System.nanoTime());
+                return;
+            }
+            final long now = System.nanoTime();
+            if (mAwaitingFirstNotify) {//本次连接的第一条notify
+                mAwaitingFirstNotify = false;
+                mManager.getAttemptLog().record(mMac, mPath, mConnectedNanos, mReadyNanos, now - mAttemptStartNanos);
+                mMetrics.record(PipelineMetrics.Stage.FIRST_NOTIFY, now - mAttemptStartNanos);
+                mManager.onFirstNotification(DeviceConnection.this);
+            } else if (mLastNotifyNanos != 0) {
+                mMetrics.record(PipelineMetrics.Stage.NOTIFY_INTERVAL, now - mLastNotifyNanos);
+            }
+            mLastNotifyNanos = now;
+            mMetrics.increment(PipelineMetrics.Counter.NOTIFICATIONS);
+            if (value != null) {
+                mThroughput.record(value.length);
+                mManager.onCharacteristicChanged(DeviceConnection.this, characteristic, value);
+            }
+        }
+    };
+}
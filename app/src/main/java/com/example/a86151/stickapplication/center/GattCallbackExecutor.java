@@ -0,0 +1,158 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import java.util.ArrayDeque;
+
+/***************************************************************************************************
+ * 把GATT回调从协议栈的binder线程转到指定Looper的线程中按到达顺序执行。
+ * binder线程中只取出notify的值并发送一条消息，解码、分发等工作都在目标线程中进行，不阻塞协议栈
+ **************************************************************************************************/
+public final class GattCallbackExecutor extends GattClient.Callback implements Handler.Callback {
+    private static final int MSG_CONNECTION_STATE = 1;
+    private static final int MSG_SERVICES_DISCOVERED = 2;
+    private static final int MSG_CHARACTERISTIC_READ = 3;
+    private static final int MSG_CHARACTERISTIC_WRITE = 4;
+    private static final int MSG_CHARACTERISTIC_CHANGED = 5;
+    private static final int MSG_DESCRIPTOR_WRITE = 6;
+    private static final int MSG_MTU_CHANGED = 7;
+    private static final int MSG_PHY_UPDATE = 8;
+
+    private static final int MAX_POOLED_EVENTS = 32;
+
+    /***************************************************************************************************
+     * 一次回调的参数，notify的事件对象循环使用
+     **************************************************************************************************/
+    private static final class Event {
+        GattClient gatt;
+        Object target;
+        byte[] value;
+        int arg;//txPhy
+    }
+
+    private final GattClient.Callback mTarget;
+    private final Handler mHandler;
+    private final ArrayDeque<Event> mPool = new ArrayDeque<Event>();//受mPool保护
+
+    public GattCallbackExecutor(GattClient.Callback target, Looper looper) {
+        mTarget = target;
+        mHandler = new Handler(looper, this);
+    }
+
+    private Event obtain(GattClient gatt, Object target, byte[] value, int arg) {
+        Event event;
+        synchronized (mPool) {
+            event = mPool.pollFirst();
+        }
+        if (event == null) {
+            event = new Event();
+        }
+        event.gatt = gatt;
+        event.target = target;
+        event.value = value;
+        event.arg = arg;
+        return event;
+    }
+
+    private void recycle(Event event) {
+        event.gatt = null;
+        event.target = null;
+        event.value = null;
+        synchronized (mPool) {
+            if (mPool.size() < MAX_POOLED_EVENTS) {
+                mPool.addLast(event);
+            }
+        }
+    }
+
+    private void post(int what, int arg1, int arg2, Event event) {
+        mHandler.obtainMessage(what, arg1, arg2, event).sendToTarget();
+    }
+
+    @Override
+    public void onConnectionStateChange(GattClient gatt, int status, int newState) {
+        post(MSG_CONNECTION_STATE, status, newState, obtain(gatt, null, null, 0));
+    }
+
+    @Override
+    public void onServicesDiscovered(GattClient gatt, int status) {
+        post(MSG_SERVICES_DISCOVERED, status, 0, obtain(gatt, null, null, 0));
+    }
+
+    @Override
+    public void onCharacteristicRead(GattClient gatt, BluetoothGattCharacteristic characteristic, int status) {
+        post(MSG_CHARACTERISTIC_READ, status, 0, obtain(gatt, characteristic, characteristic.getValue(), 0));
+    }
+
+    @Override
+    public void onCharacteristicWrite(GattClient gatt, BluetoothGattCharacteristic characteristic, int status) {
+        post(MSG_CHARACTERISTIC_WRITE, status, 0, obtain(gatt, characteristic, null, 0));
+    }
+
+    /***************************************************************************************************
+     * 协议栈为每条notify生成新的数组，这里只保存引用，不复制
+     **************************************************************************************************/
+    @Override
+    public void onCharacteristicChanged(GattClient gatt, BluetoothGattCharacteristic characteristic) {
+        post(MSG_CHARACTERISTIC_CHANGED, 0, 0, obtain(gatt, characteristic, characteristic.getValue(), 0));
+    }
+
+    @Override
+    public void onDescriptorWrite(GattClient gatt, BluetoothGattDescriptor descriptor, int status) {
+        post(MSG_DESCRIPTOR_WRITE, status, 0, obtain(gatt, descriptor, null, 0));
+    }
+
+    @Override
+    public void onMtuChanged(GattClient gatt, int mtu, int status) {
+        post(MSG_MTU_CHANGED, mtu, status, obtain(gatt, null, null, 0));
+    }
+
+    @Override
+    public void onPhyUpdate(GattClient gatt, int txPhy, int rxPhy, int status) {
+        post(MSG_PHY_UPDATE, rxPhy, status, obtain(gatt, null, null, txPhy));
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        final Event event = (Event) msg.obj;
+        switch (msg.what) {
+            case MSG_CONNECTION_STATE:
+                mTarget.onConnectionStateChange(event.gatt, msg.arg1, msg.arg2);
+                break;
+            case MSG_SERVICES_DISCOVERED:
+                mTarget.onServicesDiscovered(event.gatt, msg.arg1);
+                break;
+            case MSG_CHARACTERISTIC_READ: {
+                final BluetoothGattCharacteristic characteristic = (BluetoothGattCharacteristic) event.target;
+                if (event.value != null) {
+                    characteristic.setValue(event.value);//读到的值可能已被之后的notify覆盖，恢复后再回调
+                }
+                mTarget.onCharacteristicRead(event.gatt, characteristic, msg.arg1);
+                break;
+            }
+            case MSG_CHARACTERISTIC_WRITE:
+                mTarget.onCharacteristicWrite(event.gatt, (BluetoothGattCharacteristic) event.target, msg.arg1);
+                break;
+            case MSG_CHARACTERISTIC_CHANGED:
+                mTarget.onCharacteristicChanged(event.gatt, (BluetoothGattCharacteristic) event.target, event.value);
+                break;
+            case MSG_DESCRIPTOR_WRITE:
+                mTarget.onDescriptorWrite(event.gatt, (BluetoothGattDescriptor) event.target, msg.arg1);
+                break;
+            case MSG_MTU_CHANGED:
+                mTarget.onMtuChanged(event.gatt, msg.arg1, msg.arg2);
+                break;
+            case MSG_PHY_UPDATE:
+                mTarget.onPhyUpdate(event.gatt, event.arg, msg.arg1, msg.arg2);
+                break;
+            default:
+                return false;
+        }
+        recycle(event);
+        return true;
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+
+/***************************************************************************************************
+ * 一个设备的GATT客户端，方法和回调与BluetoothGatt、BluetoothGattCallback一一对应。
+ * 实际连接由AndroidBleBackend包装系统的BluetoothGatt，SimulatedBleBackend在JVM上模拟设备
+ **************************************************************************************************/
+public interface GattClient {
+    /***************************************************************************************************
+     * GATT事件回调，与BluetoothGattCallback相同，在协议栈（或模拟器）的线程中调用
+     **************************************************************************************************/
+    abstract class Callback {
+        public void onConnectionStateChange(GattClient gatt, int status, int newState) {
+        }
+
+        public void onServicesDiscovered(GattClient gatt, int status) {
+        }
+
+        public void onCharacteristicRead(GattClient gatt, BluetoothGattCharacteristic characteristic, int status) {
+        }
+
+        public void onCharacteristicWrite(GattClient gatt, BluetoothGattCharacteristic characteristic, int status) {
+        }
+
+        public void onCharacteristicChanged(GattClient gatt, BluetoothGattCharacteristic characteristic) {
+            onCharacteristicChanged(gatt, characteristic, characteristic.getValue());
+        }
+
+        /***************************************************************************************************
+         * value为回调发生时特性的值。回调被转到其他线程执行时，characteristic中的值可能已被下一条notify覆盖，
+         * 应使用value
+         **************************************************************************************************/
+        public void onCharacteristicChanged(GattClient gatt, BluetoothGattCharacteristic characteristic,
+                                            byte[] value) {
+        }
+
+        public void onDescriptorWrite(GattClient gatt, BluetoothGattDescriptor descriptor, int status) {
+        }
+
+        public void onMtuChanged(GattClient gatt, int mtu, int status) {
+        }
+
+        public void onPhyUpdate(GattClient gatt, int txPhy, int rxPhy, int status) {
+        }
+    }
+
+    String getAddress();
+
+    /***************************************************************************************************
+     * 重连已关闭的链路（后台连接），已发现的服务表保持不变
+     **************************************************************************************************/
+    boolean connect();
+
+    void disconnect();
+
+    void close();
+
+    boolean discoverServices();
+
+    List<BluetoothGattService> getServices();
+
+    boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+    boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable);
+
+    boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+    boolean requestMtu(int mtu);
+
+    boolean requestConnectionPriority(int priority);
+
+    /***************************************************************************************************
+     * 选择物理层，phy为LinkTuner.PHY_LE_*_MASK的组合；不支持时返回false
+     **************************************************************************************************/
+    boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions);
+}
@@ -0,0 +1,51 @@
+package com.example.a86151.stickapplication.center;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/***************************************************************************************************
+ * 持久保存最近连接的设备和各设备的服务表指纹，进程重启后用于快速重连和校验服务发现结果
+ **************************************************************************************************/
+public final class GattLayoutStore {
+    private static final String PREFS_NAME = "gatt_layout";
+    private static final String KEY_LAST_ADDRESS = "last_address";
+    private static final String KEY_LAST_TIME = "last_time";
+    private static final String KEY_LAYOUT_PREFIX = "layout_";
+
+    private final SharedPreferences mPreferences;
+
+    public GattLayoutStore(Context context) {
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public GattLayout getLayout(String address) {
+        return GattLayout.decode(mPreferences.getString(KEY_LAYOUT_PREFIX + address, null));
+    }
+
+    /***************************************************************************************************
+     * 保存服务表指纹，异步写入磁盘
+     **************************************************************************************************/
+    public void putLayout(String address, GattLayout layout) {
+        mPreferences.edit().putString(KEY_LAYOUT_PREFIX + address, layout.encode()).apply();
+    }
+
+    public void removeLayout(String address) {
+        mPreferences.edit().remove(KEY_LAYOUT_PREFIX + address).apply();
+    }
+
+    /***************************************************************************************************
+     * 最近一次成功开始接收数据的设备，没有时返回null
+     **************************************************************************************************/
+    public String getLastDevice() {
+        return mPreferences.getString(KEY_LAST_ADDRESS, null);
+    }
+
+    public long getLastDeviceTime() {
+        return mPreferences.getLong(KEY_LAST_TIME, 0);
+    }
+
+    public void setLastDevice(String address) {
+        mPreferences.edit().putString(KEY_LAST_ADDRESS, address)
+                .putLong(KEY_LAST_TIME, System.currentTimeMillis()).apply();
+    }
+}
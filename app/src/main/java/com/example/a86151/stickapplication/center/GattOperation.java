@@ -0,0 +1,188 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 一个排队执行的GATT操作。操作参数在入队时保存，执行时才写入特性，排队中的写操作不会互相覆盖
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class GattOperation {
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_RETRIES = 2;
+
+    /***************************************************************************************************
+     * 操作类型
+     **************************************************************************************************/
+    public enum Type {
+        READ,
+        WRITE,
+        WRITE_NO_RESPONSE,
+        NOTIFY,//打开或关闭notify，包括写CCCD描述符
+        MTU,//协商ATT MTU，Android 5.0起支持
+        PHY,//选择物理层，Android 8.0起支持
+        PRIORITY//请求连接优先级，同步完成，没有回调
+    }
+
+    /***************************************************************************************************
+     * 单个操作的完成回调，在队列线程中调用。读操作成功时value为读到的值
+     **************************************************************************************************/
+    public interface Callback {
+        void onComplete(GattOperation operation, int status, byte[] value);
+    }
+
+    final Type type;
+    final BluetoothGattCharacteristic characteristic;
+    byte[] value;//写操作的数据，合并突发写时会被替换
+    final boolean enable;
+    final int param;//MTU、PHY掩码或连接优先级
+    long timeoutMs = DEFAULT_TIMEOUT_MS;
+    int maxRetries = DEFAULT_RETRIES;
+    boolean mergeable;//无应答写是否可以与后面的写合并，默认保持每次写的报文边界
+    Callback callback;
+
+    int attempts;//已执行次数
+    int merged = 1;//合并的写操作个数
+    ArrayList<GattOperation> followers;//合并进本次写的后续操作，与本操作一起报告结果
+    long enqueueNanos;
+    long firstStartNanos;
+    long startNanos;
+    BluetoothGattDescriptor pendingDescriptor;//NOTIFY操作等待写完成的描述符
+
+    private GattOperation(Type type, BluetoothGattCharacteristic characteristic, byte[] value, boolean enable) {
+        this(type, characteristic, value, enable, 0);
+    }
+
+    private GattOperation(Type type, BluetoothGattCharacteristic characteristic, byte[] value, boolean enable,
+                          int param) {
+        this.type = type;
+        this.characteristic = characteristic;
+        this.value = value;
+        this.enable = enable;
+        this.param = param;
+    }
+
+    public static GattOperation read(BluetoothGattCharacteristic characteristic) {
+        return new GattOperation(Type.READ, characteristic, null, false);
+    }
+
+    public static GattOperation write(BluetoothGattCharacteristic characteristic, byte[] value) {
+        return new GattOperation(Type.WRITE, characteristic, value, false);
+    }
+
+    public static GattOperation writeNoResponse(BluetoothGattCharacteristic characteristic, byte[] value) {
+        GattOperation operation = new GattOperation(Type.WRITE_NO_RESPONSE, characteristic, value, false);
+        operation.maxRetries = 0;//无应答写不重试，避免重复数据
+        return operation;
+    }
+
+    public static GattOperation notify(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return new GattOperation(Type.NOTIFY, characteristic, null, enable);
+    }
+
+    public static GattOperation requestMtu(int mtu) {
+        GattOperation operation = new GattOperation(Type.MTU, null, null, false, mtu);
+        operation.maxRetries = 0;//对端拒绝时保持原MTU
+        return operation;
+    }
+
+    /***************************************************************************************************
+     * 发送和接收都优先使用phyMask中的物理层，phyMask为LinkTuner.PHY_LE_*_MASK的组合
+     **************************************************************************************************/
+    public static GattOperation setPreferredPhy(int phyMask) {
+        GattOperation operation = new GattOperation(Type.PHY, null, null, false, phyMask);
+        operation.maxRetries = 0;
+        return operation;
+    }
+
+    public static GattOperation connectionPriority(int priority) {
+        return new GattOperation(Type.PRIORITY, null, null, false, priority);
+    }
+
+    /***************************************************************************************************
+     * 设置超时时间和重试次数
+     **************************************************************************************************/
+    public GattOperation withTimeout(long timeoutMs, int maxRetries) {
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 操作完成（成功、失败或连接断开）时回调
+     **************************************************************************************************/
+    public GattOperation withCallback(Callback callback) {
+        this.callback = callback;
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 数据是连续字节流、不依赖每次写的报文边界时，允许与紧随其后、写同一特性且同样允许合并的无应答写
+     * 合并成一个数据包。默认不合并，命令包等按次解析的数据保持原样发送
+     **************************************************************************************************/
+    public GattOperation withMerging() {
+        this.mergeable = true;
+        return this;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return characteristic;
+    }
+
+    /***************************************************************************************************
+     * 在GATT上发起操作，返回false表示协议栈拒绝了该操作
+     **************************************************************************************************/
+    boolean execute(GattClient gatt) {
+        switch (type) {
+            case READ:
+                return gatt.readCharacteristic(characteristic);
+            case WRITE:
+            case WRITE_NO_RESPONSE:
+                characteristic.setWriteType(type == Type.WRITE
+                        ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+                        : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic);
+            case NOTIFY:
+                if (!gatt.setCharacteristicNotification(characteristic, enable)) {
+                    return false;
+                }
+                pendingDescriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIG);
+                if (pendingDescriptor == null) {
+                    return true;//没有CCCD，本地设置完成即可
+                }
+                final boolean indicate = (characteristic.getProperties()
+                        & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0
+                        && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) == 0;
+                pendingDescriptor.setValue(!enable ? BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE
+                        : indicate ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                        : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                return gatt.writeDescriptor(pendingDescriptor);
+            case MTU:
+                return gatt.requestMtu(param);
+            case PHY:
+                return gatt.setPreferredPhy(param, param, LinkTuner.PHY_OPTION_NO_PREFERRED);
+            case PRIORITY:
+                return gatt.requestConnectionPriority(param);
+            default:
+                return false;
+        }
+    }
+
+    /***************************************************************************************************
+     * 操作是否同步完成（不会有回调）
+     **************************************************************************************************/
+    boolean completesImmediately() {
+        return (type == Type.NOTIFY && pendingDescriptor == null) || type == Type.PRIORITY;
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/***************************************************************************************************
+ * GATT操作队列。Android同一时刻只允许一个GATT操作，前一个操作的回调到达之前发起的操作会被丢弃，
+ * 因此所有读写和notify设置都在这里排队，回调到达后立即执行下一个。
+ * 每个操作有超时和重试；允许合并（withMerging）的连续无应答写合并成一个不超过MTU的数据包，
+ * 被合并的操作在合并后的写完成时按同一结果报告。
+ * 调用方可以为单个操作设置完成回调，批量传输等需要按结果推进的流程由此驱动。
+ * 所有状态只在mHandler所在线程访问，回调线程通过消息转交
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class GattOperationQueue implements Handler.Callback {
+    private final static String TAG = GattOperationQueue.class.getSimpleName();
+
+    private static final int MSG_ENQUEUE = 1;
+    private static final int MSG_COMPLETE = 2;
+    private static final int MSG_TIMEOUT = 3;
+    private static final int MSG_CLEAR = 4;
+    private static final int MSG_RETRY = 5;
+    private static final long BUSY_RETRY_DELAY_MS = 50;
+
+    public static final int DEFAULT_MTU = 23;
+    private static final int ATT_HEADER = 3;
+
+    /***************************************************************************************************
+     * 操作完成监听，waitNanos为排队等待时间，execNanos为最后一次执行到回调的时间
+     **************************************************************************************************/
+    public interface OperationListener {
+        void onOperationComplete(GattOperation operation, int status, long waitNanos, long execNanos);
+    }
+
+    /***************************************************************************************************
+     * 写操作交给协议栈时调用（合并后的突发写为一次），用于记录GATT会话
+     **************************************************************************************************/
+    public interface WriteObserver {
+        void onWrite(BluetoothGattCharacteristic characteristic, byte[] value, boolean withResponse);
+    }
+
+    private final Handler mHandler;
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<GattOperation>();
+    private final GattOperationStats mStats;
+    private GattOperation mCurrent;
+    private GattClient mGatt;
+    private volatile int mMtu = DEFAULT_MTU;
+    private volatile OperationListener mListener;
+    private volatile WriteObserver mWriteObserver;
+
+    public GattOperationQueue(Looper looper) {
+        mHandler = new Handler(looper, this);
+        GattOperation.Type[] types = GattOperation.Type.values();
+        String[] names = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            names[i] = types[i].name();
+        }
+        mStats = new GattOperationStats(names);
+    }
+
+    /***************************************************************************************************
+     * 绑定GATT连接，连接断开时传入null，排队中的操作全部以失败结束
+     **************************************************************************************************/
+    public void setGatt(GattClient gatt) {
+        mHandler.obtainMessage(MSG_CLEAR, gatt).sendToTarget();
+    }
+
+    public void setMtu(int mtu) {
+        mMtu = mtu;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public void setOperationListener(OperationListener listener) {
+        mListener = listener;
+    }
+
+    public void setWriteObserver(WriteObserver observer) {
+        mWriteObserver = observer;
+    }
+
+    public GattOperationStats getStats() {
+        return mStats;
+    }
+
+    /***************************************************************************************************
+     * 操作入队，可在任意线程调用
+     **************************************************************************************************/
+    public void enqueue(GattOperation operation) {
+        operation.enqueueNanos = System.nanoTime();
+        mHandler.obtainMessage(MSG_ENQUEUE, operation).sendToTarget();
+    }
+
+    /***************************************************************************************************
+     * 以下方法在GATT回调中调用，通知当前操作完成
+     **************************************************************************************************/
+    public void onCharacteristicRead(BluetoothGattCharacteristic characteristic, int status) {
+        complete(characteristic, status);
+    }
+
+    public void onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        complete(characteristic, status);
+    }
+
+    public void onDescriptorWrite(BluetoothGattDescriptor descriptor, int status) {
+        complete(descriptor, status);
+    }
+
+    /***************************************************************************************************
+     * MTU协商完成，成功时之后的合并写按新的MTU打包
+     **************************************************************************************************/
+    public void onMtuChanged(int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mMtu = mtu;
+        }
+        complete(GattOperation.Type.MTU, status);
+    }
+
+    public void onPhyUpdate(int status) {
+        complete(GattOperation.Type.PHY, status);
+    }
+
+    private void complete(Object target, int status) {
+        mHandler.obtainMessage(MSG_COMPLETE, status, 0, target).sendToTarget();
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_ENQUEUE:
+                mPending.addLast((GattOperation) msg.obj);
+                next();
+                return true;
+            case MSG_COMPLETE:
+                handleComplete(msg.obj, msg.arg1);
+                return true;
+            case MSG_TIMEOUT:
+                if (msg.obj == mCurrent) {
+                    mStats.recordTimeout(mCurrent.type.ordinal());
+                    Log.w(TAG, "GATT operation timeout: " + mCurrent.type);
+                    retryOrFinish(BluetoothGatt.GATT_FAILURE);
+                }
+                return true;
+            case MSG_RETRY:
+                if (msg.obj == mCurrent) {
+                    start(mCurrent);
+                }
+                return true;
+            case MSG_CLEAR:
+                failAll();
+                mGatt = (GattClient) msg.obj;
+                mMtu = DEFAULT_MTU;
+                next();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /***************************************************************************************************
+     * 回调与当前操作对应时结束当前操作；已超时操作的迟到回调被忽略
+     **************************************************************************************************/
+    private void handleComplete(Object target, int status) {
+        final GattOperation current = mCurrent;
+        if (current == null) {
+            return;
+        }
+        final boolean matches = target == current.characteristic || target == current.type
+                || (current.pendingDescriptor != null && target == current.pendingDescriptor);
+        if (!matches) {
+            return;
+        }
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            retryOrFinish(status);
+        } else {
+            finish(status);
+        }
+    }
+
+    private void retryOrFinish(int status) {
+        final GattOperation current = mCurrent;
+        mHandler.removeMessages(MSG_TIMEOUT);
+        mHandler.removeMessages(MSG_RETRY);
+        if (current.attempts <= current.maxRetries && mGatt != null) {
+            start(current);
+        } else {
+            finish(status);
+        }
+    }
+
+    private void finish(int status) {
+        final GattOperation current = mCurrent;
+        mHandler.removeMessages(MSG_TIMEOUT);
+        mHandler.removeMessages(MSG_RETRY);
+        mCurrent = null;
+        report(current, status);
+        next();
+    }
+
+    private void report(GattOperation operation, int status) {
+        final long now = System.nanoTime();
+        final long startNanos = operation.startNanos == 0 ? now : operation.startNanos;
+        final long waitNanos = (operation.attempts == 0 ? now : operation.firstStartNanos) - operation.enqueueNanos;
+        final long execNanos = now - startNanos;
+        mStats.record(operation.type.ordinal(), status == BluetoothGatt.GATT_SUCCESS,
+                operation.attempts, operation.merged, Math.max(0, waitNanos), execNanos);
+        PipelineMetrics.INSTANCE.record(PipelineMetrics.Stage.GATT_OPERATION, now - operation.enqueueNanos);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            PipelineMetrics.INSTANCE.increment(PipelineMetrics.Counter.GATT_FAILURES);
+        }
+        final OperationListener listener = mListener;
+        if (listener != null) {
+            listener.onOperationComplete(operation, status, Math.max(0, waitNanos), execNanos);
+        }
+        if (operation.callback != null) {
+            operation.callback.onComplete(operation, status, operation.type == GattOperation.Type.READ
+                    && status == BluetoothGatt.GATT_SUCCESS ? operation.characteristic.getValue() : null);
+        }
+        if (operation.followers != null) {
+            //被合并的操作随合并后的写一起结束，执行时间和次数与之相同
+            for (int i = 0; i < operation.followers.size(); i++) {
+                final GattOperation follower = operation.followers.get(i);
+                follower.attempts = operation.attempts;
+                follower.firstStartNanos = operation.firstStartNanos;
+                follower.startNanos = operation.startNanos;
+                report(follower, status);
+            }
+            operation.followers = null;
+        }
+    }
+
+    /***************************************************************************************************
+     * 执行队首操作
+     **************************************************************************************************/
+    private void next() {
+        while (mCurrent == null && !mPending.isEmpty()) {
+            if (mGatt == null) {
+                failAll();
+                return;
+            }
+            GattOperation operation = mPending.pollFirst();
+            if (operation.type == GattOperation.Type.WRITE_NO_RESPONSE && operation.mergeable) {
+                mergeBurst(operation);
+            }
+            start(operation);
+        }
+    }
+
+    private void start(GattOperation operation) {
+        mCurrent = operation;
+        operation.attempts++;
+        operation.startNanos = System.nanoTime();
+        if (operation.attempts == 1) {
+            operation.firstStartNanos = operation.startNanos;
+        }
+        boolean started;
+        try {
+            started = operation.execute(mGatt);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "GATT operation failed: " + operation.type, e);
+            started = false;
+        }
+        final WriteObserver observer = mWriteObserver;
+        if (started && observer != null && (operation.type == GattOperation.Type.WRITE
+                || operation.type == GattOperation.Type.WRITE_NO_RESPONSE)) {
+            observer.onWrite(operation.characteristic, operation.value, operation.type == GattOperation.Type.WRITE);
+        }
+        if (!started) {
+            if (operation.attempts <= operation.maxRetries) {
+                //协议栈忙，稍后重试
+                mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_RETRY, operation), BUSY_RETRY_DELAY_MS);
+            } else {
+                finish(BluetoothGatt.GATT_FAILURE);
+            }
+            return;
+        }
+        if (operation.completesImmediately()) {
+            finish(BluetoothGatt.GATT_SUCCESS);
+            return;
+        }
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_TIMEOUT, operation), operation.timeoutMs);
+    }
+
+    /***************************************************************************************************
+     * 把紧随其后、写同一特性且允许合并的无应答写合并到一个数据包中，总长度不超过MTU-3。
+     * 被合并的操作移出队列，在first完成时报告
+     **************************************************************************************************/
+    private void mergeBurst(GattOperation first) {
+        final int limit = mMtu - ATT_HEADER;
+        int length = first.value.length;
+        int count = 0;
+        for (GattOperation operation : mPending) {
+            if (operation.type != GattOperation.Type.WRITE_NO_RESPONSE || !operation.mergeable
+                    || operation.characteristic != first.characteristic
+                    || length + operation.value.length > limit) {
+                break;
+            }
+            length += operation.value.length;
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+        first.followers = new ArrayList<GattOperation>(count);
+        byte[] burst = new byte[length];
+        System.arraycopy(first.value, 0, burst, 0, first.value.length);
+        int offset = first.value.length;
+        for (int i = 0; i < count; i++) {
+            GattOperation operation = mPending.pollFirst();
+            System.arraycopy(operation.value, 0, burst, offset, operation.value.length);
+            offset += operation.value.length;
+            first.followers.add(operation);
+        }
+        first.value = burst;
+        first.merged += count;
+    }
+
+    private void failAll() {
+        mHandler.removeMessages(MSG_TIMEOUT);
+        mHandler.removeMessages(MSG_RETRY);
+        if (mCurrent != null) {
+            GattOperation current = mCurrent;
+            mCurrent = null;
+            report(current, BluetoothGatt.GATT_FAILURE);
+        }
+        while (!mPending.isEmpty()) {
+            report(mPending.pollFirst(), BluetoothGatt.GATT_FAILURE);
+        }
+    }
+}
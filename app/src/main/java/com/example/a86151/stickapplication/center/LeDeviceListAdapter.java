@@ -1,25 +1,63 @@
 package com.example.a86151.stickapplication.center;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
-import com.example.a86151.stickapplication.R;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import com.example.a86151.stickapplication.R;
 
 /***************************************************************************************************
- * 用于显示蓝牙扫描结果的适配器
+ * 用于显示蓝牙扫描结果的RecyclerView适配器。条目ID为打包的MAC地址，设备位置变化时视图跟随设备移动。
+ * 扫描结果在UI线程中更新DeviceRegistry，每批结束后只为有变化的设备重新生成显示文本，得到一份不可变的快照；
+ * 快照在后台线程中与界面上的快照做差异计算，结果回到UI线程后一次性分发。只有信号强度变化的行按payload
+ * 只更新RSS文本，不重绑整行。后台计算期间到达的新快照只保留最新的一份
  **************************************************************************************************/
-public class LeDeviceListAdapter extends BaseAdapter {
-    private ArrayList<LeDevice> mLeDevices;//蓝牙设备列表
+public class LeDeviceListAdapter extends RecyclerView.Adapter<LeDeviceListAdapter.ViewHolder> {
+    private static final int CHANGED_RSS = 1;//payload位：信号强度和距离
+    private static final int CHANGED_STATUS = 2;//payload位：距离区间和广播状态
+    private static final int CHANGED_NAME = 4;
+    private static final int CHANGED_STALE = 8;//payload位：缓存中的设备被扫描到，或重新变为未确认
+    private static final float STALE_ALPHA = 0.5f;
+    private static final Row[] EMPTY = new Row[0];
+
+    /***************************************************************************************************
+     * 点击设备
+     **************************************************************************************************/
+    public interface OnDeviceClickListener {
+        void onDeviceClick(String mac);
+    }
+
+    private final DeviceRegistry<LeDevice> mLeDevices;//蓝牙设备列表，按MAC索引、按平滑后的信号强度排序
+    private final DeviceRegistry.ChangeSet mChanges = new DeviceRegistry.ChangeSet();//尚未刷新到界面的变化
+    private final AdvertisingData mAdvertisingData = new AdvertisingData();//广播解析器，所有设备共用
+    private final PipelineMetrics mMetrics = PipelineMetrics.INSTANCE;
     private int resourceID;//保存初始化时传入的viewId
     private Context context;//保存初始化时传进来的context
+    private Row[] mRows = EMPTY;//界面上显示的快照，只在UI线程中访问
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mDiffThread;
+    private final Handler mDiffHandler;
+    private final AtomicReference<Snapshot> mPending = new AtomicReference<Snapshot>();//等待计算差异的最新快照
+    private Snapshot mDiffBase = new Snapshot(0, EMPTY);//上一次计算差异用的新快照，只在后台线程中访问
+    private volatile int mGeneration;//每次清空加一，丢弃清空前开始计算的结果
+    private long mBatchNanos;//本批扫描结果在UI线程中的累计处理时间
+    private boolean mStaleChanged;//showCached改变了设备的未确认状态，下次dispatchChanges时生成快照
+    private OnDeviceClickListener mClickListener;
     /***************************************************************************************************
      * LeDeviceListAdapter构造函数
      **************************************************************************************************/
@@ -27,98 +65,419 @@ public class LeDeviceListAdapter extends BaseAdapter {
         super();
         this.context = context;
         resourceID = viewResourceId;//获取数据
-        mLeDevices = new ArrayList<LeDevice>();
+        mLeDevices = new DeviceRegistry<LeDevice>();
+        setHasStableIds(true);
+        mDiffThread = new HandlerThread("scan-diff", Process.THREAD_PRIORITY_BACKGROUND);
+        mDiffThread.start();
+        mDiffHandler = new Handler(mDiffThread.getLooper());
+    }
+
+    public void setOnDeviceClickListener(OnDeviceClickListener listener) {
+        mClickListener = listener;
     }
     /***************************************************************************************************
-     * 添加扫描到的设备
+     * 添加扫描到的设备，通过哈希索引查找，新设备按信号强度插入，已有设备更新RSS值，平滑值变化足够大时才调整位置
      **************************************************************************************************/
     public void addDevice(LeDevice device) {
-        //设备已经存在，仅更新RSS值
-        for(int i = 0; i<mLeDevices.size(); i++){
-            if(mLeDevices.get(i).getMac().equals(device.getMac()))
-            {
-                mLeDevices.get(i).setRss(device.getRss());
-                return;
+        final long mac = MacAddress.pack(device.getMac());
+        if (mac == MacAddress.INVALID) {
+            return;
+        }
+        final DeviceRegistry.Entry<LeDevice> entry = mLeDevices.find(mac);
+        final LeDevice target = entry == null ? device : entry.getValue();
+        target.setRss(device.getRss(), System.nanoTime());
+        target.row = null;
+        mLeDevices.update(mac, target.getSortRss(), target, mChanges);
+    }
+    /***************************************************************************************************
+     * 按打包的MAC地址更新设备，只有新设备才创建LeDevice对象。广播数据与上次相同时不重新解析
+     **************************************************************************************************/
+    public void updateDevice(long mac, String name, int rss, byte[] scanRecord) {
+        final long start = System.nanoTime();
+        final DeviceRegistry.Entry<LeDevice> entry = mLeDevices.find(mac);
+        final LeDevice device = entry == null ? new LeDevice(name, MacAddress.format(mac), rss) : entry.getValue();
+        if (device.name == null) {
+            device.name = name;
+        }
+        device.getAdvertisement().update(scanRecord, mAdvertisingData);//先解析广播，取得发射功率
+        device.setRss(rss, System.nanoTime());
+        device.stale = false;
+        device.row = null;//显示文本在下次生成快照时重新生成
+        mLeDevices.update(mac, device.getSortRss(), device, mChanges);
+        mBatchNanos += System.nanoTime() - start;
+    }
+    /***************************************************************************************************
+     * 一批扫描结果处理完后调用：有变化时生成快照交给后台线程计算差异，记录本批在UI线程中的处理时间
+     **************************************************************************************************/
+    public void dispatchChanges() {
+        if (mChanges.size() == 0 && !mStaleChanged) {
+            mBatchNanos = 0;
+            return;
+        }
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        final Resources resources = context.getResources();
+        mChanges.clear();
+        mStaleChanged = false;
+        final Row[] snapshot = new Row[mLeDevices.size()];
+        for (int i = 0; i < snapshot.length; i++) {
+            final LeDevice device = mLeDevices.get(i);
+            if (device.row == null) {
+                device.row = new Row(mLeDevices.entryAt(i).getMac(), device, resources, now);
             }
+            snapshot[i] = device.row;
+        }
+        if (mPending.getAndSet(new Snapshot(mGeneration, snapshot)) == null) {
+            mDiffHandler.post(mDiffTask);
         }
-        //新设备，添加到列表
-        mLeDevices.add(device);
-        Collections.sort(mLeDevices,new SortByRss());//按信号强度值从大到小排序
+        mMetrics.record(PipelineMetrics.Stage.SCAN_LIST_UPDATE, mBatchNanos + System.nanoTime() - start);
+        mBatchNanos = 0;
     }
     /***************************************************************************************************
-     *Sort的比较器
+     * 按已知设备缓存显示列表：缓存中的设备全部标记为未确认（半透明，显示上次扫描到的时间），
+     * 不在列表中的按上次的RSSI插入，已过期或被淘汰的设备从列表中删除。之后扫描到的设备恢复正常显示。
+     * 调用dispatchChanges刷新界面
      **************************************************************************************************/
-    class SortByRss implements Comparator {
-        public int compare(Object o1, Object o2) {
-            LeDevice s1 = (LeDevice) o1;
-            LeDevice s2 = (LeDevice) o2;
-            if (s1.getRss() < s2.getRss())
-              return 1;
-            else
-              return -1;
+    public void showCached(List<DeviceCache.Entry> entries) {
+        final HashSet<Long> cached = new HashSet<Long>();
+        for (int i = 0; i < entries.size(); i++) {
+            cached.add(entries.get(i).getMac());
+        }
+        for (int i = mLeDevices.size() - 1; i >= 0; i--) {
+            final long mac = mLeDevices.entryAt(i).getMac();
+            if (!cached.contains(mac)) {
+                mLeDevices.remove(mac, mChanges);
+            }
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            final DeviceCache.Entry entry = entries.get(i);
+            final DeviceRegistry.Entry<LeDevice> existing = mLeDevices.find(entry.getMac());
+            LeDevice device;
+            if (existing == null) {
+                device = new LeDevice(entry.getName(), MacAddress.format(entry.getMac()), entry.getRssi());
+                device.getAdvertisement().update(entry.getRecord(), mAdvertisingData);
+                mLeDevices.update(entry.getMac(), device.getSortRss(), device, mChanges);
+            } else {
+                device = existing.getValue();
+            }
+            device.stale = true;
+            device.lastSeenMillis = entry.getLastSeenMillis();
+            device.row = null;
         }
+        mStaleChanged = true;
     }
     /***************************************************************************************************
-     * 清除设备列表
+     * 清除设备列表，立即刷新界面，正在计算的差异作废
      **************************************************************************************************/
     public void clearDevice() {
         if (mLeDevices.size() > 0) {
             mLeDevices.clear();
         }
+        mChanges.clear();
+        mPending.set(null);
+        mGeneration++;
+        mBatchNanos = 0;
+        mStaleChanged = false;
+        if (mRows.length > 0) {
+            final int count = mRows.length;
+            mRows = EMPTY;
+            notifyItemRangeRemoved(0, count);
+        }
+    }
+    /***************************************************************************************************
+     * 结束后台差异计算线程，界面销毁时调用
+     **************************************************************************************************/
+    public void release() {
+        mPending.set(null);
+        mGeneration++;
+        mDiffThread.quit();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+    /***************************************************************************************************
+     * 设备列表的一份快照，generation为生成时的清空次数
+     **************************************************************************************************/
+    private static final class Snapshot {
+        final int generation;
+        final Row[] rows;
+
+        Snapshot(int generation, Row[] rows) {
+            this.generation = generation;
+            this.rows = rows;
+        }
+    }
+    /***************************************************************************************************
+     * 在后台线程中取出最新的快照，与上一份快照比较，结果回到UI线程按顺序分发。
+     * 同一generation的结果依次应用，所以上一份快照就是结果到达时界面上的快照；清空后从空列表重新开始
+     **************************************************************************************************/
+    private final Runnable mDiffTask = new Runnable() {
+        @Override
+        public void run() {
+            final Snapshot snapshot = mPending.getAndSet(null);
+            if (snapshot == null) {
+                return;
+            }
+            final Row[] oldRows = mDiffBase.generation == snapshot.generation ? mDiffBase.rows : EMPTY;
+            final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new RowDiff(oldRows, snapshot.rows), true);
+            mDiffBase = snapshot;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (snapshot.generation != mGeneration) {
+                        return;//清空前的结果
+                    }
+                    final long start = System.nanoTime();
+                    final boolean inSequence = oldRows == mRows;
+                    mRows = snapshot.rows;
+                    if (inSequence) {
+                        result.dispatchUpdatesTo(LeDeviceListAdapter.this);
+                    } else {
+                        notifyDataSetChanged();
+                    }
+                    mMetrics.record(PipelineMetrics.Stage.SCAN_LIST_UPDATE, System.nanoTime() - start);
+                }
+            });
+        }
+    };
+    /***************************************************************************************************
+     * 差异计算的回调：同一MAC为同一项，显示文本相同则内容相同，否则用payload标出变化的文本
+     **************************************************************************************************/
+    private static final class RowDiff extends DiffUtil.Callback {
+        private final Row[] mOld;
+        private final Row[] mNew;
+
+        RowDiff(Row[] oldRows, Row[] newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld[oldPosition].mac == mNew[newPosition].mac;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld[oldPosition] == mNew[newPosition] || changes(mOld[oldPosition], mNew[newPosition]) == 0;
+        }
+
+        @Override
+        public Object getChangePayload(int oldPosition, int newPosition) {
+            return changes(mOld[oldPosition], mNew[newPosition]);
+        }
+
+        private static int changes(Row oldRow, Row newRow) {
+            int changed = 0;
+            if (!oldRow.rssText.equals(newRow.rssText)) {
+                changed |= CHANGED_RSS;
+            }
+            if (!oldRow.statusText.equals(newRow.statusText)) {
+                changed |= CHANGED_STATUS;
+            }
+            if (!TextUtils.equals(oldRow.name, newRow.name)) {
+                changed |= CHANGED_NAME;
+            }
+            if (oldRow.stale != newRow.stale) {
+                changed |= CHANGED_STALE;
+            }
+            return changed;
+        }
     }
     /***************************************************************************************************
      * 获取扫描到设备的数量
      **************************************************************************************************/
     @Override
-    public int getCount() {
-        return mLeDevices.size();
+    public int getItemCount() {
+        return mRows.length;
     }
-
     /***************************************************************************************************
-     * 获取设备
+     * 获取设备Id：打包的MAC地址，设备移动位置时视图跟随
      **************************************************************************************************/
     @Override
-    public Object getItem(int i) {
-        return mLeDevices.get(i);
+    public long getItemId(int position) {
+        return mRows[position].mac;
     }
     /***************************************************************************************************
-     * 获取设备Id
+     * 获取设备的MAC地址
      **************************************************************************************************/
+    public String getMac(int position) {
+        return mRows[position].macText;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final ViewHolder holder = new ViewHolder(LayoutInflater.from(context).inflate(resourceID, parent, false));
+        holder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                final int position = holder.getAdapterPosition();
+                if (mClickListener != null && position != RecyclerView.NO_POSITION) {
+                    mClickListener.onDeviceClick(mRows[position].macText);
+                }
+            }
+        });
+        return holder;
+    }
+
     @Override
-    public long getItemId(int i) {
-        return i;
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        final long start = System.nanoTime();
+        final Row row = mRows[position];
+        holder.name.setText(row.name);
+        holder.mac.setText(row.macText);
+        holder.rss.setText(row.rssText);
+        holder.status.setText(row.statusText);
+        holder.itemView.setAlpha(row.stale ? STALE_ALPHA : 1f);
+        mMetrics.record(PipelineMetrics.Stage.SCAN_LIST_BIND, System.nanoTime() - start);
     }
     /***************************************************************************************************
-     * getView函数
+     * 按payload只更新变化的文本，没有payload时整行绑定
      **************************************************************************************************/
     @Override
-    public View getView(int i, View convertView, ViewGroup viewGroup) {
-        ViewHolder viewHolder;
-        View view;
-        // General ListView optimization code.
-        if (convertView == null) {//第一次，初始化
-            view = LayoutInflater.from(context).inflate(resourceID, viewGroup, false);
-            viewHolder = new ViewHolder();
-            viewHolder.name = (TextView) view.findViewById(R.id.device_name);
-            viewHolder.mac = (TextView) view.findViewById(R.id.mac_address);
-            viewHolder.rss = (TextView) view.findViewById(R.id.receive_rss);
-            view.setTag(viewHolder);
-        } else {//直接用缓存的view
-            view = convertView;
-            viewHolder = (ViewHolder)view.getTag();
-        }
-        //设置显示内容
-        LeDevice device = mLeDevices.get(i);
-        viewHolder.name.setText(device.getName());
-        viewHolder.mac.setText(device.getMac());
-        viewHolder.rss.setText(device.getRss() + " dBm");
-
-        return view;
-    }
-    class ViewHolder {
-        TextView name;
-        TextView mac;
-        TextView rss;
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        final long start = System.nanoTime();
+        int changed = 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            changed |= (Integer) payloads.get(i);
+        }
+        final Row row = mRows[position];
+        if ((changed & CHANGED_RSS) != 0) {
+            holder.rss.setText(row.rssText);
+        }
+        if ((changed & CHANGED_STATUS) != 0) {
+            holder.status.setText(row.statusText);
+        }
+        if ((changed & CHANGED_NAME) != 0) {
+            holder.name.setText(row.name);
+        }
+        if ((changed & CHANGED_STALE) != 0) {
+            holder.itemView.setAlpha(row.stale ? STALE_ALPHA : 1f);
+        }
+        mMetrics.record(PipelineMetrics.Stage.SCAN_LIST_BIND, System.nanoTime() - start);
+    }
+    /***************************************************************************************************
+     * 平滑后的信号强度和估计距离
+     **************************************************************************************************/
+    private static String rssText(RssiTracker tracker) {
+        if (tracker.size() == 0) {
+            return "";
+        }
+        final double meters = tracker.getDistanceMeters();
+        return tracker.getSmoothed() + "dBm " + (meters < 10 ? String.format(Locale.US, "%.1fm", meters) : ">10m");
+    }
+    /***************************************************************************************************
+     * 未确认的缓存设备上次扫描到的时间
+     **************************************************************************************************/
+    private static String lastSeenText(Resources resources, long lastSeenMillis, long nowMillis) {
+        final int minutes = (int) Math.min(Math.max(0, nowMillis - lastSeenMillis) / 60000, Integer.MAX_VALUE);
+        if (minutes < 1) {
+            return resources.getString(R.string.device_seen_just_now);
+        } else if (minutes < 60) {
+            return resources.getQuantityString(R.plurals.device_seen_minutes_ago, minutes, minutes);
+        } else if (minutes < 24 * 60) {
+            return resources.getQuantityString(R.plurals.device_seen_hours_ago, minutes / 60, minutes / 60);
+        }
+        return resources.getQuantityString(R.plurals.device_seen_days_ago, minutes / (24 * 60), minutes / (24 * 60));
+    }
+    /***************************************************************************************************
+     * 距离区间和广播中的手杖状态，不需要连接设备
+     **************************************************************************************************/
+    private static String statusText(Resources resources, StickAdvertisement advertisement, RssiTracker tracker) {
+        final StringBuilder text = new StringBuilder(zoneText(resources, tracker.getZone()));
+        if (advertisement.getBattery() != StickAdvertisement.UNKNOWN) {
+            text.append(text.length() > 0 ? "  " : "")
+                    .append(resources.getString(R.string.stick_battery, advertisement.getBattery()));
+        }
+        final String state = stateText(resources, advertisement.getState());
+        if (state.length() > 0) {
+            text.append(text.length() > 0 ? "  " : "").append(state);
+        }
+        if (advertisement.getTxPower() != AdvertisingData.NO_TX_POWER) {
+            text.append(text.length() > 0 ? "  " : "")
+                    .append(resources.getString(R.string.stick_tx_power, advertisement.getTxPower()));
+        }
+        return text.toString();
+    }
+    /***************************************************************************************************
+     * RssiTracker的距离区间对应的文本，未知时为空
+     **************************************************************************************************/
+    private static String zoneText(Resources resources, int zone) {
+        switch (zone) {
+            case RssiTracker.ZONE_IMMEDIATE:
+                return resources.getString(R.string.zone_immediate);
+            case RssiTracker.ZONE_NEAR:
+                return resources.getString(R.string.zone_near);
+            case RssiTracker.ZONE_FAR:
+                return resources.getString(R.string.zone_far);
+            default:
+                return "";
+        }
+    }
+    /***************************************************************************************************
+     * 广播中的手杖状态对应的文本，未知时为空
+     **************************************************************************************************/
+    private static String stateText(Resources resources, int state) {
+        switch (state) {
+            case StickAdvertisement.STATE_IDLE:
+                return resources.getString(R.string.state_idle);
+            case StickAdvertisement.STATE_WALKING:
+                return resources.getString(R.string.state_walking);
+            case StickAdvertisement.STATE_FALL_ALARM:
+                return resources.getString(R.string.state_fall_alarm);
+            case StickAdvertisement.STATE_CHARGING:
+                return resources.getString(R.string.state_charging);
+            default:
+                return "";
+        }
+    }
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView name;
+        final TextView mac;
+        final TextView rss;
+        final TextView status;
+
+        ViewHolder(View view) {
+            super(view);
+            name = (TextView) view.findViewById(R.id.device_name);
+            mac = (TextView) view.findViewById(R.id.mac_address);
+            rss = (TextView) view.findViewById(R.id.receive_rss);
+            status = (TextView) view.findViewById(R.id.device_status);
+        }
+    }
+    /***************************************************************************************************
+     * 一行的显示内容，生成后不再修改，可以交给后台线程比较
+     **************************************************************************************************/
+    private static final class Row {
+        final long mac;
+        final String macText;
+        final String name;
+        final String rssText;
+        final String statusText;
+        final boolean stale;//来自缓存，本次还没有扫描到
+
+        Row(long mac, LeDevice device, Resources resources, long nowMillis) {
+            this.mac = mac;
+            macText = device.getMac();
+            name = device.getName();
+            stale = device.stale;
+            rssText = rssText(device.getRssiTracker());
+            final String status = statusText(resources, device.getAdvertisement(), device.getRssiTracker());
+            statusText = stale ? lastSeenText(resources, device.lastSeenMillis, nowMillis) + (status.length() > 0 ? "  " : "")
+                    + status : status;
+        }
     }
 
     /**
@@ -130,7 +489,12 @@ public class LeDeviceListAdapter extends BaseAdapter {
     public static class LeDevice {
         String name;
         String mac;
-        int rss;
+        int rss;//最近一次的原始RSSI
+        final StickAdvertisement advertisement = new StickAdvertisement();//广播缓存和解析出的状态
+        final RssiTracker rssiTracker = new RssiTracker();//RSSI历史、平滑值和距离
+        Row row;//最近一次生成的显示内容，设备更新后置空
+        boolean stale;//来自已知设备缓存，本次还没有扫描到
+        long lastSeenMillis;//未确认时显示的上次扫描到的时间
 
         public LeDevice(String name, String mac, int rss) {
             this.name = name;
@@ -153,5 +517,28 @@ public class LeDeviceListAdapter extends BaseAdapter {
         public void setRss(int rss){
             this.rss = rss;
         }
+
+        /***************************************************************************************************
+         * 记录一次扫描到的RSSI，加入历史并更新平滑值
+         **************************************************************************************************/
+        public void setRss(int rss, long timestampNanos){
+            this.rss = rss;
+            rssiTracker.add(rss, timestampNanos, advertisement.getTxPower());
+        }
+
+        /***************************************************************************************************
+         * 列表排序用的RSSI，带滞回
+         **************************************************************************************************/
+        public int getSortRss(){
+            return rssiTracker.size() == 0 ? rss : rssiTracker.getSortKey();
+        }
+
+        public RssiTracker getRssiTracker(){
+            return rssiTracker;
+        }
+
+        public StickAdvertisement getAdvertisement(){
+            return advertisement;
+        }
     }
 }
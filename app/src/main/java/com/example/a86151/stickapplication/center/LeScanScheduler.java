@@ -0,0 +1,190 @@
+package com.example.a86151.stickapplication.center;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***************************************************************************************************
+ * 占空比扫描调度器。按ScanDutyCyclePolicy开关扫描窗口，扫描本身由BleBackend完成（硬件过滤、批量上报）。
+ * 结果写入ScanResultDispatcher，每个窗口结束时根据新发现的设备数调整下一个窗口。所有方法在主线程调用
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class LeScanScheduler {
+    private final static String TAG = LeScanScheduler.class.getSimpleName();
+
+    private final BleBackend mBackend;
+    private final ScanFilterSpec mFilter;
+    private final ScanResultDispatcher mDispatcher;
+    private final ScanDutyCyclePolicy mPolicy;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mRunning;
+    private boolean mWindowOpen;
+    private long mScanReportDelayMs = -1;//正在运行的扫描使用的上报延迟，-1表示未在扫描
+    private long mWindowStartMs;
+    private int mLastDistinct;
+    //统计
+    private final AtomicLong mResults = new AtomicLong();
+    private long mScanStarts;
+    private long mWindows;
+
+    public LeScanScheduler(BleBackend backend, ScanFilterSpec filter, ScanResultDispatcher dispatcher,
+                           ScanDutyCyclePolicy policy) {
+        mBackend = backend;
+        mFilter = filter;
+        mDispatcher = dispatcher;
+        mPolicy = policy;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public ScanDutyCyclePolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /***************************************************************************************************
+     * 开始扫描会话，从连续扫描开始
+     **************************************************************************************************/
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mPolicy.reset();
+        mLastDistinct = mDispatcher.getCoalescer().getDistinct();
+        openWindow();
+    }
+
+    /***************************************************************************************************
+     * 结束扫描会话
+     **************************************************************************************************/
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacks(mOpenWindowRunnable);
+        mHandler.removeCallbacks(mCloseWindowRunnable);
+        if (mWindowOpen) {
+            stopScan(true);
+            mWindowOpen = false;
+        }
+        Log.d(TAG, "scan session: windows=" + mWindows + " starts=" + mScanStarts + " results=" + mResults.get());
+    }
+
+    /***************************************************************************************************
+     * 用户主动刷新：回到连续扫描，扫描窗口关闭时立即打开
+     **************************************************************************************************/
+    public void boost() {
+        if (!mRunning) {
+            start();
+            return;
+        }
+        mPolicy.reset();
+        mLastDistinct = mDispatcher.getCoalescer().getDistinct();
+        if (!mWindowOpen) {
+            mHandler.removeCallbacks(mOpenWindowRunnable);
+            openWindow();
+        }
+    }
+
+    public long getResultCount() {
+        return mResults.get();
+    }
+
+    public long getScanStartCount() {
+        return mScanStarts;
+    }
+
+    private final Runnable mOpenWindowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            openWindow();
+        }
+    };
+
+    private final Runnable mCloseWindowRunnable = new Runnable() {
+        @Override
+        public void run() {
+            closeWindow();
+        }
+    };
+
+    private void openWindow() {
+        if (!mBackend.isEnabled()) {
+            if (mScanReportDelayMs >= 0) {
+                stopScan(false);
+            }
+            mWindowOpen = false;
+            mRunning = false;
+            return;
+        }
+        mWindowOpen = true;
+        mWindowStartMs = SystemClock.uptimeMillis();
+        mWindows++;
+        final long reportDelay = mPolicy.getReportDelayMs();
+        if (mScanReportDelayMs != reportDelay) {
+            if (mScanReportDelayMs >= 0) {
+                stopScan(true);
+            }
+            startScan(reportDelay);
+        }
+        mHandler.postDelayed(mCloseWindowRunnable, mPolicy.getWindowMs());
+    }
+
+    private void closeWindow() {
+        flushScan();//批量上报的结果在窗口结束时全部取出
+        final int distinct = mDispatcher.getCoalescer().getDistinct();
+        final int newDevices = distinct >= mLastDistinct ? distinct - mLastDistinct : distinct;//列表被清空过
+        mLastDistinct = distinct;
+        final boolean wasContinuous = mPolicy.isContinuous();
+        mPolicy.onWindowEnd(newDevices);
+        if (wasContinuous && mPolicy.isContinuous()) {
+            openWindow();//连续扫描时不重启扫描
+            return;
+        }
+        mWindowOpen = false;
+        stopScan(false);
+        //下一个窗口在本窗口开始后一个周期打开，两次启动扫描的间隔不小于周期
+        final long delay = mWindowStartMs + mPolicy.getIntervalMs() - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mOpenWindowRunnable, Math.max(0, delay));
+    }
+
+    private void startScan(long reportDelayMs) {
+        mScanStarts++;
+        mScanReportDelayMs = reportDelayMs;
+        if (!mBackend.startScan(mFilter, reportDelayMs, mScanListener)) {
+            Log.w(TAG, "scan not started");
+        }
+    }
+
+    private void stopScan(boolean flush) {
+        mScanReportDelayMs = -1;
+        if (flush) {
+            mBackend.flushScan(mScanListener);
+        }
+        mBackend.stopScan(mScanListener);
+    }
+
+    private void flushScan() {
+        mBackend.flushScan(mScanListener);
+    }
+
+    /***************************************************************************************************
+     * 扫描结果回调，在扫描线程中调用
+     **************************************************************************************************/
+    private final BleBackend.ScanListener mScanListener = new BleBackend.ScanListener() {
+        @Override
+        public void onScanResult(String address, String name, int rssi, byte[] scanRecord) {
+            mResults.incrementAndGet();
+            PipelineMetrics.INSTANCE.increment(PipelineMetrics.Counter.SCAN_RESULTS);
+            mDispatcher.offer(MacAddress.pack(address), name, rssi, scanRecord);
+        }
+    };
+}
@@ -0,0 +1,187 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***************************************************************************************************
+ * 吞吐测试模式：依次切换到每一组连接参数，让手杖按LinkTestPattern的格式连续发送一段时间，
+ * 统计每组参数下的字节速率、丢包和时延。
+ * 控制命令写入控制特性：开始为[CMD_START, 每包字节数]，停止为[CMD_STOP]；测试数据从数据特性notify上来
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class LinkTestRunner {
+    private final static String TAG = LinkTestRunner.class.getSimpleName();
+
+    public static final byte CMD_STOP = 0;
+    public static final byte CMD_START = 1;
+    public static final long DEFAULT_DURATION_MS = 10000;
+    private static final long SETTLE_MS = 1000;//等待新的连接参数生效
+
+    /***************************************************************************************************
+     * 一组被测的连接参数
+     **************************************************************************************************/
+    public static final class Setting {
+        final int mtu;
+        final int phyMask;
+        final int priority;
+
+        public Setting(int mtu, int phyMask, int priority) {
+            this.mtu = mtu;
+            this.phyMask = phyMask;
+            this.priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return "mtu=" + mtu + " phy=" + (phyMask == LinkTuner.PHY_LE_2M_MASK ? "2M" : "1M")
+                    + " priority=" + priority;
+        }
+    }
+
+    /***************************************************************************************************
+     * 测试结果回调，在连接的Handler线程中调用
+     **************************************************************************************************/
+    public interface Listener {
+        void onSettingComplete(LinkTestPattern.Result result);
+
+        void onFinished(List<LinkTestPattern.Result> results);
+    }
+
+    private final DeviceConnection mConnection;
+    private final BluetoothGattCharacteristic mControl;
+    private final BluetoothGattCharacteristic mData;
+    private final List<Setting> mSettings;
+    private final long mDurationMs;
+    private final Listener mListener;
+    private final Handler mHandler;
+    private final LinkTestPattern mPattern = new LinkTestPattern();
+    private final List<LinkTestPattern.Result> mResults = new ArrayList<LinkTestPattern.Result>();
+    private int mIndex = -1;
+    private boolean mRunning;
+
+    public LinkTestRunner(DeviceConnection connection, BluetoothGattCharacteristic control,
+                          BluetoothGattCharacteristic data, List<Setting> settings, long durationMs, Listener listener) {
+        mConnection = connection;
+        mControl = control;
+        mData = data;
+        mSettings = settings;
+        mDurationMs = durationMs;
+        mListener = listener;
+        mHandler = connection.getHandler();
+    }
+
+    /***************************************************************************************************
+     * 默认的参数组合：默认MTU和最大MTU，1M和2M物理层（系统支持时），均衡和高优先级
+     **************************************************************************************************/
+    public static List<Setting> defaultSettings() {
+        final List<Setting> settings = new ArrayList<Setting>();
+        final int[] mtus = {GattOperationQueue.DEFAULT_MTU, LinkTuner.MAX_MTU};
+        final int[] phys = LinkTuner.isPhySupported()
+                ? new int[]{LinkTuner.PHY_LE_1M_MASK, LinkTuner.PHY_LE_2M_MASK} : new int[]{0};
+        final int[] priorities = {LinkTuner.PRIORITY_BALANCED, LinkTuner.PRIORITY_HIGH};
+        for (int mtu : mtus) {
+            for (int phy : phys) {
+                for (int priority : priorities) {
+                    settings.add(new Setting(mtu, phy, priority));
+                }
+            }
+        }
+        return settings;
+    }
+
+    public void start() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mRunning) {
+                    return;
+                }
+                mRunning = true;
+                mResults.clear();
+                mIndex = -1;
+                next();
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 中止测试，已完成的结果照常回调
+     **************************************************************************************************/
+    public void stop() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mRunning) {
+                    return;
+                }
+                mHandler.removeCallbacks(mStartStream);
+                mHandler.removeCallbacks(mEndStream);
+                mHandler.removeCallbacks(mNext);
+                stopStream();
+                finish();
+            }
+        });
+    }
+
+    private void next() {
+        mIndex++;
+        if (mIndex >= mSettings.size() || mConnection.getState() != ConnectionStateMachine.State.STREAMING) {
+            finish();
+            return;
+        }
+        final Setting setting = mSettings.get(mIndex);
+        //已协商的MTU不会变小，默认MTU的组合只在连接后还没有协商过时有效
+        mConnection.getLinkTuner().apply(setting.mtu, setting.phyMask, setting.priority);
+        mHandler.postDelayed(mStartStream, SETTLE_MS);
+    }
+
+    private final Runnable mStartStream = new Runnable() {
+        @Override
+        public void run() {
+            final int payload = Math.min(255, Math.max(LinkTestPattern.HEADER_SIZE,
+                    mConnection.getLinkTuner().getPayloadSize()));
+            mPattern.reset(System.nanoTime());
+            mConnection.setLinkTest(mData, mPattern);
+            mConnection.getOperationQueue().enqueue(GattOperation.write(mControl, new byte[]{CMD_START, (byte) payload}));
+            mHandler.postDelayed(mEndStream, mDurationMs);
+        }
+    };
+
+    private final Runnable mEndStream = new Runnable() {
+        @Override
+        public void run() {
+            stopStream();
+            final LinkTestPattern.Result result = mPattern.result(mSettings.get(mIndex) + " "
+                    + mConnection.getLinkTuner());
+            Log.i(TAG, result.toString());
+            mResults.add(result);
+            mListener.onSettingComplete(result);
+            mHandler.postDelayed(mNext, SETTLE_MS);
+        }
+    };
+
+    private final Runnable mNext = new Runnable() {
+        @Override
+        public void run() {
+            next();
+        }
+    };
+
+    private void stopStream() {
+        mConnection.setLinkTest(null, null);
+        mConnection.getOperationQueue().enqueue(GattOperation.write(mControl, new byte[]{CMD_STOP}));
+    }
+
+    private void finish() {
+        mRunning = false;
+        //恢复当前负载对应的连接优先级
+        mConnection.getLinkTuner().apply(0, 0, mConnection.getLinkTuner().getWorkload().priority);
+        mListener.onFinished(new ArrayList<LinkTestPattern.Result>(mResults));
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Build;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/***************************************************************************************************
+ * 连接参数调整：服务发现后协商最大的ATT MTU、在系统支持时选择2M物理层，并按当前负载切换连接优先级。
+ * 所有请求都作为GATT操作排队，排在打开notify之前执行。
+ * 2M物理层的接口（BluetoothGatt.setPreferredPhy）从Android 8.0开始提供，高于编译版本，通过反射调用
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class LinkTuner {
+    private final static String TAG = LinkTuner.class.getSimpleName();
+
+    public static final int MAX_MTU = 517;//Android协议栈支持的最大ATT MTU
+    //与BluetoothDevice.PHY_LE_*_MASK一致
+    public static final int PHY_LE_1M_MASK = 1;
+    public static final int PHY_LE_2M_MASK = 2;
+    public static final int PHY_LE_1M = 1;
+    public static final int PHY_LE_2M = 2;
+    private static final int PHY_API_LEVEL = 26;
+    public static final int PHY_OPTION_NO_PREFERRED = 0;
+    //与BluetoothGatt.CONNECTION_PRIORITY_*一致
+    public static final int PRIORITY_BALANCED = 0;
+    public static final int PRIORITY_HIGH = 1;
+    public static final int PRIORITY_LOW_POWER = 2;
+
+    /***************************************************************************************************
+     * 连接负载，决定连接优先级：批量同步用最短连接间隔，空闲时省电
+     **************************************************************************************************/
+    public enum Workload {
+        IDLE(PRIORITY_LOW_POWER),
+        STREAMING(PRIORITY_BALANCED),
+        BULK(PRIORITY_HIGH);
+
+        final int priority;
+
+        Workload(int priority) {
+            this.priority = priority;
+        }
+    }
+
+    private static Method sSetPreferredPhy;
+    private static boolean sPhyResolved;
+
+    private final GattOperationQueue mQueue;
+    private int mRequestedMtu = MAX_MTU;
+    private boolean mPrefer2M = true;
+    private volatile Workload mWorkload = Workload.STREAMING;
+    //协商结果
+    private volatile int mMtu = GattOperationQueue.DEFAULT_MTU;
+    private volatile int mTxPhy = PHY_LE_1M;
+    private volatile int mRxPhy = PHY_LE_1M;
+    private volatile int mPriority = PRIORITY_BALANCED;
+
+    public LinkTuner(GattOperationQueue queue) {
+        mQueue = queue;
+    }
+
+    /***************************************************************************************************
+     * 设置连接后请求的MTU和是否优先使用2M物理层，下次连接时生效
+     **************************************************************************************************/
+    public synchronized void configure(int requestedMtu, boolean prefer2M) {
+        mRequestedMtu = Math.max(GattOperationQueue.DEFAULT_MTU, Math.min(MAX_MTU, requestedMtu));
+        mPrefer2M = prefer2M;
+    }
+
+    /***************************************************************************************************
+     * 服务发现后调用，按配置排队协商MTU、物理层和连接优先级
+     **************************************************************************************************/
+    public synchronized void tune() {
+        mMtu = GattOperationQueue.DEFAULT_MTU;
+        mTxPhy = mRxPhy = PHY_LE_1M;
+        apply(mRequestedMtu, mPrefer2M ? PHY_LE_2M_MASK : PHY_LE_1M_MASK, mWorkload.priority);
+    }
+
+    /***************************************************************************************************
+     * 排队请求一组连接参数，mtu不大于默认值或phyMask为0时不请求对应项
+     **************************************************************************************************/
+    public void apply(int mtu, int phyMask, int priority) {
+        if (mtu > GattOperationQueue.DEFAULT_MTU && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mQueue.enqueue(GattOperation.requestMtu(mtu));
+        }
+        if (phyMask != 0 && isPhySupported()) {
+            mQueue.enqueue(GattOperation.setPreferredPhy(phyMask));
+        }
+        requestPriority(priority);
+    }
+
+    /***************************************************************************************************
+     * 切换负载，优先级不同时立即请求
+     **************************************************************************************************/
+    public void setWorkload(Workload workload) {
+        if (mWorkload == workload) {
+            return;
+        }
+        mWorkload = workload;
+        requestPriority(workload.priority);
+    }
+
+    public Workload getWorkload() {
+        return mWorkload;
+    }
+
+    private void requestPriority(int priority) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mPriority = priority;
+            mQueue.enqueue(GattOperation.connectionPriority(priority));
+        }
+    }
+
+    /***************************************************************************************************
+     * 以下方法在GATT回调中调用，记录协商结果
+     **************************************************************************************************/
+    public void onMtuChanged(int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mMtu = mtu;
+        }
+        Log.d(TAG, "MTU " + mtu + " status=" + status);
+    }
+
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+        }
+        Log.d(TAG, "PHY tx=" + txPhy + " rx=" + rxPhy + " status=" + status);
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    /***************************************************************************************************
+     * 一个notify或无应答写最多能携带的数据字节数
+     **************************************************************************************************/
+    public int getPayloadSize() {
+        return mMtu - 3;
+    }
+
+    public int getTxPhy() {
+        return mTxPhy;
+    }
+
+    public int getRxPhy() {
+        return mRxPhy;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public String toString() {
+        return "mtu=" + mMtu + " phy=" + mTxPhy + "/" + mRxPhy + " priority=" + mPriority + " workload=" + mWorkload;
+    }
+
+    /***************************************************************************************************
+     * 系统是否提供setPreferredPhy。手机控制器不支持2M时协议栈会在onPhyUpdate中报告仍为1M
+     **************************************************************************************************/
+    public static boolean isPhySupported() {
+        return resolveSetPreferredPhy() != null;
+    }
+
+    private static synchronized Method resolveSetPreferredPhy() {
+        if (!sPhyResolved) {
+            sPhyResolved = true;
+            if (Build.VERSION.SDK_INT >= PHY_API_LEVEL) {
+                try {
+                    sSetPreferredPhy = BluetoothGatt.class.getMethod("setPreferredPhy",
+                            int.class, int.class, int.class);
+                } catch (NoSuchMethodException e) {
+                    Log.w(TAG, "setPreferredPhy not available");
+                }
+            }
+        }
+        return sSetPreferredPhy;
+    }
+
+    static boolean setPreferredPhy(BluetoothGatt gatt, int txPhy, int rxPhy, int phyOptions) {
+        final Method method = resolveSetPreferredPhy();
+        if (method == null) {
+            return false;
+        }
+        try {
+            method.invoke(gatt, txPhy, rxPhy, phyOptions);
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "setPreferredPhy failed", e);
+            return false;
+        }
+    }
+}
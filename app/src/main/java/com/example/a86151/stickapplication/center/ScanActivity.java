@@ -2,22 +2,31 @@ package com.example.a86151.stickapplication.center;
 
 import android.Manifest;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.RequiresApi;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.DividerItemDecoration;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewStub;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -34,62 +43,165 @@ import static com.example.asus.mapview.centroid.ConnectActivity.EXTRAS_DEVICE_NA
  *用于处理BLE设备扫描的Activity
  **************************************************************************************************/
 public class ScanActivity extends AppCompatActivity {
+    private final static String TAG = ScanActivity.class.getSimpleName();
     private static final int REQUEST_ENABLE_BT = 1;
-    private static final int SCAN_PERIOD = 10000;
+    private static final String STICK_NAME = "iMask";//只扫描手杖设备
     private LeDeviceListAdapter mLeDeviceListAdapter;
-    private BluetoothAdapter mBluetoothAdapter;
+    private DeviceCache mDeviceCache;//进程内共享的已知设备，列表先显示缓存的设备再随扫描刷新；后台读取完成前为null
+    private RecyclerView mListView;
+    private ScanResultDispatcher mScanResultDispatcher;//扫描结果按帧批量交给列表
+    private LeScanScheduler mScanScheduler;//占空比扫描，发现延迟不超过ScanDutyCyclePolicy的延迟目标
+    private BleBackend mBackend;//手机蓝牙，或测试时替换的模拟后端
     private boolean mScanning;
-    private Handler mHandler;
     private String email;
+    private static final long DIRECT_CONNECT_TIMEOUT_MS = 5000;//直接连接超过这个时间没有收到数据就开始扫描
+    private long mLaunchNanos;//界面创建的时刻，用于统计启动到第一条数据的耗时
+    private boolean mLaunchMarked;
+    private String mLastDevice;//上次接收数据的手杖，没有时为null
+    private boolean mDirectConnect;//本次连接是否为直接连接上次的手杖
+    private String mPendingConnect;//等待服务绑定后连接的设备
+    private BluetoothLeService mService;
+    private boolean mServiceBound;
+    private boolean mReceiverRegistered;//与服务绑定是否成功无关，单独记录
+    private boolean mDestroyed;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
     TextView scanStatusView;
     /*********登录验证用**********/
     private SharedPreferences pref;
     private SharedPreferences.Editor editor;
 
     /***************************************************************************************************
-     *onCreat函数
+     *onCreat函数。冷启动快速路径：有上次接收数据的手杖时直接连接，不申请定位权限也不扫描，
+     *设备列表延迟到需要扫描时才加载；服务在界面创建时就开始绑定，与蓝牙初始化并行
      **************************************************************************************************/
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     protected void onCreate(Bundle savedInstanceState) {
 
         super.onCreate(savedInstanceState);
+        mLaunchNanos = System.nanoTime();
 
         Intent in = getIntent();
         email = in.getStringExtra("email");
         setContentView(R.layout.activity_scan);
-        //蓝牙扫描结果显示适配器
-        mLeDeviceListAdapter = new LeDeviceListAdapter(ScanActivity.this, R.layout.scan_result);
-        final ListView listView = (ListView)findViewById(R.id.listView_scan);
-        listView.setAdapter(mLeDeviceListAdapter);
-        //注册ListView Item点击事件响应函数，启动ConnectActivity连接蓝牙设备
-        /*listView.setOnItemClickListener(new AdapterView.OnItemClickListener(){
-            @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id){
-                LeDeviceListAdapter.LeDevice device = (LeDeviceListAdapter.LeDevice)mLeDeviceListAdapter.getItem(position);
-                Toast.makeText(ScanActivity.this,"连接设备("+device.getMac()+")", Toast.LENGTH_SHORT).show();
-                if(device.getMac().length()==17) {
-                    final Intent intent = new Intent(ScanActivity.this, StateActivity.class);
-                    intent.putExtra(EXTRAS_DEVICE_NAME,device.getName());
-                    intent.putExtra(EXTRAS_DEVICE_ADDRESS,device.getMac());
-                    intent.putExtra("email",email);
-                    if(mScanning)//如果在扫描的话关闭扫描
-                    {
-                        mBluetoothAdapter.stopLeScan(mLeScanCallback);
-                        mScanning = false;
-                    }
-                    startActivity(intent);
-                }
-            }
-        });*/
+        mScanResultDispatcher = new ScanResultDispatcher(new ScanResultCoalescer(), mScanBatchListener);
 
         scanStatusView = (TextView)findViewById(R.id.scan_status);
-        mHandler = new Handler();
 
         // 检查设备是否支持BLE，不支持则关闭APP
         if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
             Toast.makeText(this, "设备不支持BLE", Toast.LENGTH_SHORT).show();
             finish();
+            return;
+        }
+        mServiceBound = bindService(new Intent(this, BluetoothLeService.class), mServiceConnection, BIND_AUTO_CREATE);
+        registerReceiver(mFirstNotificationReceiver, new IntentFilter(BluetoothLeService.ACTION_FIRST_NOTIFICATION));
+        mReceiverRegistered = true;
+        mLastDevice = new GattLayoutStore(this).getLastDevice();
+        if (mLastDevice != null) {
+            startDirectConnect();
+        } else {
+            requestScan();
         }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            SyncJobService.schedule(this);//已设置采集服务器时登记后台上传
+        }
+    };
+
+    /***************************************************************************************************
+     *直接连接上次的手杖，DIRECT_CONNECT_TIMEOUT_MS内没有收到数据时开始扫描，直接连接在后台继续
+     **************************************************************************************************/
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void startDirectConnect() {
+        mDirectConnect = true;
+        mBackend = BluetoothLeService.obtainBackend(this);
+        if (mBackend == null || !mBackend.isEnabled()) {
+            Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
+            startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
+            return;
+        }
+        scanStatusView.setText("正在连接上次使用的手杖" + mLastDevice + "，点击扫描其他设备...");
+        scanStatusView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if (mListView == null) {
+                    requestScan();
+                }
+            }
+        });
+        mPendingConnect = mLastDevice;
+        connectWhenBound();
+        mHandler.postDelayed(mDirectConnectTimeout, DIRECT_CONNECT_TIMEOUT_MS);
+    }
+
+    private final Runnable mDirectConnectTimeout = new Runnable() {
+        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+        @Override
+        public void run() {
+            Log.d(TAG, "No data from " + mLastDevice + " after " + DIRECT_CONNECT_TIMEOUT_MS + "ms, scanning");
+            requestScan();
+        }
+    };
+
+    /***************************************************************************************************
+     *服务已绑定时连接等待中的设备，否则在onServiceConnected中连接
+     **************************************************************************************************/
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void connectWhenBound() {
+        if (mService == null || mPendingConnect == null) {
+            return;
+        }
+        if (!mLaunchMarked) {//只统计本次启动后的第一次连接
+            mLaunchMarked = true;
+            mService.markLaunch(mLaunchNanos, mDirectConnect);
+        } else if (!mDirectConnect) {
+            mService.markLaunch(mLaunchNanos, false);//直接连接没有成功，改为统计扫描路径
+        }
+        mService.connect(mPendingConnect);
+        mPendingConnect = null;
+    }
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((BluetoothLeService.LocalBinder) binder).getService();
+            if (!mService.initialize()) {
+                Log.e(TAG, "Unable to initialize Bluetooth");
+                return;
+            }
+            connectWhenBound();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
+    /***************************************************************************************************
+     *收到第一条数据：停止扫描，显示从启动到第一条数据的耗时
+     **************************************************************************************************/
+    private final BroadcastReceiver mFirstNotificationReceiver = new BroadcastReceiver() {
+        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mHandler.removeCallbacks(mDirectConnectTimeout);
+            if (mScanning) {
+                scanLeDevice(false);
+            }
+            final long startupMs = intent.getLongExtra(BluetoothLeService.EXTRA_STARTUP_MS, -1);
+            scanStatusView.setText("已连接" + intent.getStringExtra(BluetoothLeService.EXTRA_ADDRESS)
+                    + (startupMs >= 0 ? "，启动到收到数据" + startupMs + "ms" : ""));
+        }
+    };
+
+    /***************************************************************************************************
+     *需要扫描时：加载设备列表，检查权限并初始化蓝牙
+     **************************************************************************************************/
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void requestScan() {
+        mHandler.removeCallbacks(mDirectConnectTimeout);
+        ensureScanList();
         //检查安卓版本，6.0以上申请动态权限
         if(Build.VERSION.SDK_INT > Build.VERSION_CODES.M){
             int permissionCheck = 0;
@@ -107,21 +219,101 @@ public class ScanActivity extends AppCompatActivity {
         }
         else
             initLeDevice();
-        //List View点击事件响应函数
+    }
+
+    /***************************************************************************************************
+     *第一次需要时加载设备列表
+     **************************************************************************************************/
+    @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private void ensureScanList() {
+        if (mListView != null) {
+            return;
+        }
+        //蓝牙扫描结果显示适配器
+        mLeDeviceListAdapter = new LeDeviceListAdapter(ScanActivity.this, R.layout.scan_result);
+        final RecyclerView listView = (RecyclerView) ((ViewStub) findViewById(R.id.scan_list_stub)).inflate();
+        mListView = listView;
+        listView.setLayoutManager(new LinearLayoutManager(this));
+        final DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+        divider.setDrawable(ContextCompat.getDrawable(this, R.drawable.scan_divider));
+        listView.addItemDecoration(divider);
+        //只有RSS文本变化的行原地更新，不做淡入淡出
+        ((SimpleItemAnimator) listView.getItemAnimator()).setSupportsChangeAnimations(false);
+        listView.setAdapter(mLeDeviceListAdapter);
+        //缓存在后台线程中读取，读完后显示；在此之前扫描到的设备照常显示
+        DeviceCacheStore.load(this, new DeviceCacheStore.Callback() {
+            @Override
+            public void onLoaded(DeviceCache cache) {
+                if (mDestroyed) {
+                    return;
+                }
+                mDeviceCache = cache;
+                showCachedDevices();
+            }
+        });
+        //点击设备连接，数据开始接收后记住该设备，下次启动直接连接
+        mLeDeviceListAdapter.setOnDeviceClickListener(new LeDeviceListAdapter.OnDeviceClickListener() {
+            @Override
+            public void onDeviceClick(String mac) {
+                Toast.makeText(ScanActivity.this,"连接设备("+mac+")", Toast.LENGTH_SHORT).show();
+                if(mScanning)//如果在扫描的话关闭扫描
+                {
+                    scanLeDevice(false);
+                }
+                mDirectConnect = false;
+                mPendingConnect = mac;
+                connectWhenBound();
+                scanStatusView.setText("正在连接" + mac + "...");
+            }
+        });
+        //列表点击事件响应函数
         listView.setOnTouchListener(new View.OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
 
-                if((mScanning==false)&&(listView.pointToPosition((int)event.getX(),(int)event.getY())== AdapterView.INVALID_POSITION))
-                {//点击ListView的空白处，重新启动扫描
-                    mLeDeviceListAdapter.clearDevice();
-                    mLeDeviceListAdapter.notifyDataSetChanged();
-                    scanLeDevice(true);
+                if((mScanScheduler!=null)&&(event.getAction()==MotionEvent.ACTION_UP)
+                        &&(listView.findChildViewUnder(event.getX(), event.getY())== null))
+                {//点击列表的空白处，设备重新标记为未确认并回到连续扫描
+                    mScanResultDispatcher.clear();
+                    showCachedDevices();
+                    mScanScheduler.boost();
+                    mScanning = true;
                 }
                 return false;
             }
         });
-    };
+    }
+
+    /***************************************************************************************************
+     *按已知设备缓存刷新列表，过期的设备不再显示。缓存还没有读取完成时不做处理
+     **************************************************************************************************/
+    private void showCachedDevices() {
+        if (mDeviceCache == null) {
+            return;
+        }
+        mLeDeviceListAdapter.showCached(mDeviceCache.getFresh(System.currentTimeMillis()));
+        mLeDeviceListAdapter.dispatchChanges();
+    }
+
+    /***************************************************************************************************
+     *onDestroy函数，解绑服务。没有进入前台数据接收模式时服务随之关闭连接
+     **************************************************************************************************/
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        mHandler.removeCallbacks(mDirectConnectTimeout);
+        if (mLeDeviceListAdapter != null) {
+            mLeDeviceListAdapter.release();
+        }
+        if (mReceiverRegistered) {
+            unregisterReceiver(mFirstNotificationReceiver);
+            mReceiverRegistered = false;
+        }
+        if (mServiceBound) {
+            unbindService(mServiceConnection);
+        }
+        super.onDestroy();
+    }
 
     /***************************************************************************************************
      *onResume函数，重启蓝牙设备扫描
@@ -131,9 +323,9 @@ public class ScanActivity extends AppCompatActivity {
     protected void onResume()
     {
         super.onResume();
-        if(mScanning==false) {
-            mLeDeviceListAdapter.clearDevice();
-            mLeDeviceListAdapter.notifyDataSetChanged();
+        if((mScanning==false)&&(mScanScheduler!=null)) {
+            mScanResultDispatcher.clear();
+            showCachedDevices();//已知设备立即显示，扫描到后再刷新
             scanLeDevice(true);
         }
     }
@@ -146,6 +338,7 @@ public class ScanActivity extends AppCompatActivity {
     {
         super.onPause();
         scanLeDevice(false);
+        DeviceCacheStore.saveAsync();
     }
 
     /***************************************************************************************************
@@ -153,13 +346,16 @@ public class ScanActivity extends AppCompatActivity {
      **************************************************************************************************/
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private void initLeDevice(){
-        final BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        mBluetoothAdapter = bluetoothManager.getAdapter();
+        mBackend = BluetoothLeService.obtainBackend(this);
+        if (mBackend != null && mScanScheduler == null) {
+            mScanScheduler = new LeScanScheduler(mBackend, new ScanFilterSpec().setDeviceName(STICK_NAME),
+                    mScanResultDispatcher, new ScanDutyCyclePolicy());
+        }
 
         // Ensures Bluetooth is available on the device and it is enabled. If not,
         // displays a dialog requesting user permission to enable Bluetooth.
         //请求开启蓝牙
-        if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+        if (mBackend == null || !mBackend.isEnabled()) {
             Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
         }
@@ -175,7 +371,11 @@ public class ScanActivity extends AppCompatActivity {
         super.onActivityResult(requestCode, resultCode, data);
         if((requestCode == REQUEST_ENABLE_BT)&&(resultCode==RESULT_OK))
         {
-            scanLeDevice(true);//权限申请成功，启动蓝牙扫描
+            if (mDirectConnect && mListView == null) {
+                startDirectConnect();//蓝牙已开启，直接连接上次的手杖
+            } else {
+                scanLeDevice(true);//权限申请成功，启动蓝牙扫描
+            }
         }
         else
         {
@@ -185,62 +385,46 @@ public class ScanActivity extends AppCompatActivity {
     }
 
     /***************************************************************************************************
-     *蓝牙扫描开启与关闭函数
+     *蓝牙扫描开启与关闭函数，扫描窗口和周期由LeScanScheduler按发现新设备的情况自动调整
      **************************************************************************************************/
     @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
     private void scanLeDevice(final boolean enable) {
+        if (mScanScheduler == null) {
+            return;
+        }
         if (enable)
         {
-            // 开启蓝牙扫描， SCAN_PERIOD后关闭扫描
-            mHandler.postDelayed(stopLeScanRunnable, SCAN_PERIOD);
             mScanning = true;
-            mBluetoothAdapter.startLeScan(mLeScanCallback);
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {scanStatusView.setText("蓝牙扫描中，请选择设备连接...");}
-            });
+            mScanScheduler.start();
+            scanStatusView.setText("蓝牙扫描中，请选择设备连接...");
         }
         else
         {
-            mHandler.removeCallbacks(stopLeScanRunnable);
-            stopLeScanRunnable.run();
-        }
-    }
-    //关闭蓝牙扫描
-    Runnable stopLeScanRunnable = new Runnable() {
-        @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-        @Override
-        public void run() {
             mScanning = false;
-            mBluetoothAdapter.stopLeScan(mLeScanCallback);
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {scanStatusView.setText("点击空白处启动蓝牙扫描...");
-                }
-            });
+            mScanScheduler.stop();
+            final ScanResultCoalescer coalescer = mScanResultDispatcher.getCoalescer();
+            Log.d(TAG, "scan results received=" + coalescer.getReceived() + " merged=" + coalescer.getMerged()
+                    + " delivered=" + coalescer.getDelivered());
+            scanStatusView.setText("点击空白处启动蓝牙扫描...");
         }
-    };
+    }
     /***************************************************************************************************
-     *蓝牙扫描返回结果处理函数
+     *UI线程中批量接收合并后的扫描结果，每批结束后只刷新一次列表
      **************************************************************************************************/
-    private BluetoothAdapter.LeScanCallback mLeScanCallback =
-            new BluetoothAdapter.LeScanCallback() {
+    private final ScanResultDispatcher.BatchListener mScanBatchListener = new ScanResultDispatcher.BatchListener() {
+        @Override
+        public void onScanResult(long mac, String name, int rssi, byte[] scanRecord) {
+            mLeDeviceListAdapter.updateDevice(mac, name, rssi, scanRecord);
+            if (mDeviceCache != null) {
+                mDeviceCache.seen(mac, name, rssi, scanRecord, System.currentTimeMillis());
+            }
+        }
 
-                @Override
-                public void onLeScan(final BluetoothDevice device, final int rssi, byte[] scanRecord) {
-                    if((device.getName()!=null))//过滤，只显示名称为"iMask"的设备&&(device.getName().equals("iMask")
-                   {
-                        final LeDeviceListAdapter.LeDevice leDevice = new LeDeviceListAdapter.LeDevice(device.getName(), device.getAddress(), rssi);
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                mLeDeviceListAdapter.addDevice(leDevice);
-                                mLeDeviceListAdapter.notifyDataSetChanged();
-                            }
-                        });
-                   }
-                }
-            };
+        @Override
+        public void onBatchEnd(int count) {
+            mLeDeviceListAdapter.dispatchChanges();//生成快照，后台计算差异后只刷新有变化的部分
+        }
+    };
 
     /***************************************************************************************************
      *安卓权限申请返回结果处理函数
@@ -0,0 +1,111 @@
+package com.example.a86151.stickapplication.center;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.RequiresApi;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/***************************************************************************************************
+ * 把扫描结果按帧节奏批量交给UI线程：扫描回调只写入ScanResultCoalescer，
+ * 有新结果时才安排一次取出，每个显示帧（或每个设定的间隔）最多取出一次
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN)
+public final class ScanResultDispatcher {
+    /***************************************************************************************************
+     * 批量结果接收者，在UI线程中调用
+     **************************************************************************************************/
+    public interface BatchListener extends ScanResultCoalescer.Sink {
+        void onBatchEnd(int count);
+    }
+
+    private final ScanResultCoalescer mCoalescer;
+    private final Handler mHandler;
+    private final BatchListener mListener;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private volatile long mMinIntervalMs;//0表示每帧最多一次
+    private long mLastDeliveryMs;//只在UI线程访问
+    private volatile long mFirstOfferNanos;//本批第一个结果到达的时间
+
+    public ScanResultDispatcher(ScanResultCoalescer coalescer, BatchListener listener) {
+        mCoalescer = coalescer;
+        mListener = listener;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /***************************************************************************************************
+     * 设置两次交付之间的最小间隔，0表示跟随显示帧
+     **************************************************************************************************/
+    public void setMinIntervalMs(long minIntervalMs) {
+        mMinIntervalMs = Math.max(0, minIntervalMs);
+    }
+
+    public ScanResultCoalescer getCoalescer() {
+        return mCoalescer;
+    }
+
+    /***************************************************************************************************
+     * 在扫描回调线程中调用，不分配内存
+     **************************************************************************************************/
+    public void offer(long mac, String name, int rssi, byte[] scanRecord) {
+        mCoalescer.offer(mac, name, rssi, scanRecord);
+        if (mScheduled.compareAndSet(false, true)) {
+            mFirstOfferNanos = System.nanoTime();
+            mHandler.post(mScheduleRunnable);
+        }
+    }
+
+    /***************************************************************************************************
+     * 丢弃尚未交付的结果
+     **************************************************************************************************/
+    public void clear() {
+        mCoalescer.clear();
+    }
+
+    //在UI线程中安排下一次交付
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final long interval = mMinIntervalMs;
+            if (interval > 0) {
+                final long wait = mLastDeliveryMs + interval - SystemClock.uptimeMillis();
+                mHandler.postDelayed(mDeliverRunnable, Math.max(0, wait));
+            } else {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            deliver();
+        }
+    };
+
+    private final Runnable mDeliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    private void deliver() {
+        mLastDeliveryMs = SystemClock.uptimeMillis();
+        //在清标志之前取出并清零时间戳，清标志后到达的结果会记下新一批的时间
+        final long firstOfferNanos = mFirstOfferNanos;
+        mFirstOfferNanos = 0;
+        mScheduled.set(false);//先清标志，取出期间到达的结果会安排下一次交付
+        final int count = mCoalescer.drain(mListener);
+        if (count > 0) {//上一次交付已取走本批结果时为空批，不计延迟
+            if (firstOfferNanos != 0) {
+                PipelineMetrics.INSTANCE.record(PipelineMetrics.Stage.SCAN_DELIVERY,
+                        System.nanoTime() - firstOfferNanos);
+            }
+            mListener.onBatchEnd(count);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.a86151.stickapplication.center;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * IStickStream的服务端：第一个客户端打开时在缓存目录中新建共享帧环文件，之后每帧在GATT I/O线程中直接写入。
+ * 客户端映射只读的文件描述符自己读取，每个包不再经过Binder和序列化；
+ * 只有请求了唤醒的客户端在下一帧到达时收到一次单向回调
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+final class SharedStreamBinder extends IStickStream.Stub implements NotifyPipeline.FrameListener {
+    private final static String TAG = SharedStreamBinder.class.getSimpleName();
+    private static final String RING_FILE = "sensor-stream.ring";
+
+    private final File mFile;
+    private final CharacteristicRegistry mRegistry;
+    private volatile SharedFrameRing mRing;//没有客户端打开时为null，不写入
+    //等待唤醒的客户端，cookie为客户端已读到的序号
+    private final RemoteCallbackList<IStickStreamListener> mWaiting = new RemoteCallbackList<IStickStreamListener>();
+    private volatile int mWaitingCount;
+    private final List<IStickStreamListener> mWoken = new ArrayList<IStickStreamListener>();//受mWaiting保护
+
+    SharedStreamBinder(Context context, CharacteristicRegistry registry) {
+        mFile = new File(context.getCacheDir(), RING_FILE);
+        mRegistry = registry;
+    }
+
+    /***************************************************************************************************
+     * 写入一帧并唤醒等待的客户端，在GATT I/O线程中调用
+     **************************************************************************************************/
+    @Override
+    public void onFrame(SensorFrame frame) {
+        final SharedFrameRing ring = mRing;
+        if (ring == null) {
+            return;
+        }
+        ring.onFrame(frame);
+        if (mWaitingCount > 0) {
+            wake(ring.getPublished());
+        }
+    }
+
+    private void wake(long published) {
+        synchronized (mWaiting) {
+            final int count = mWaiting.beginBroadcast();
+            for (int i = 0; i < count; i++) {
+                if ((Long) mWaiting.getBroadcastCookie(i) < published) {
+                    final IStickStreamListener listener = mWaiting.getBroadcastItem(i);
+                    mWoken.add(listener);
+                    try {
+                        listener.onFramesAvailable(published);
+                    } catch (RemoteException e) {
+                        //客户端进程已退出，RemoteCallbackList会自动移除
+                    }
+                }
+            }
+            mWaiting.finishBroadcast();
+            for (IStickStreamListener listener : mWoken) {
+                mWaiting.unregister(listener);
+            }
+            mWoken.clear();
+            mWaitingCount = mWaiting.getRegisteredCallbackCount();
+        }
+    }
+
+    @Override
+    public ParcelFileDescriptor openRing() {
+        try {
+            synchronized (this) {
+                if (mRing == null) {
+                    mRing = SharedFrameRing.create(mFile, SharedFrameRing.DEFAULT_SLOT_COUNT,
+                            SharedFrameRing.DEFAULT_SLOT_SIZE);
+                }
+            }
+            return ParcelFileDescriptor.open(mFile, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create shared ring", e);
+            return null;
+        }
+    }
+
+    /***************************************************************************************************
+     * 先登记再检查序号，登记与写入同时发生时也不会错过唤醒
+     **************************************************************************************************/
+    @Override
+    public void requestWakeup(long afterSequence, IStickStreamListener listener) {
+        synchronized (mWaiting) {
+            mWaiting.unregister(listener);//已登记时register不会更新cookie
+            mWaiting.register(listener, afterSequence);
+            mWaitingCount = mWaiting.getRegisteredCallbackCount();
+        }
+        final SharedFrameRing ring = mRing;
+        if (ring != null && ring.getPublished() > afterSequence) {
+            wake(ring.getPublished());
+        }
+    }
+
+    @Override
+    public void cancelWakeup(IStickStreamListener listener) {
+        synchronized (mWaiting) {
+            mWaiting.unregister(listener);
+            mWaitingCount = mWaiting.getRegisteredCallbackCount();
+        }
+    }
+
+    @Override
+    public String uuidOf(int characteristicId) {
+        final UUID uuid = mRegistry.uuidOf(characteristicId);
+        return uuid == null ? null : uuid.toString();
+    }
+
+    /***************************************************************************************************
+     * 服务销毁时释放等待的客户端
+     **************************************************************************************************/
+    void kill() {
+        mWaiting.kill();
+        mWaitingCount = 0;
+    }
+}
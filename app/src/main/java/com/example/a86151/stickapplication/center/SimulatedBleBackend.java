@@ -0,0 +1,725 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 在JVM上模拟BLE设备的后端，没有手机和手杖时驱动BluetoothLeService和扫描界面做压力测试。
+ * 大量虚拟手杖按广播间隔上报扫描结果；连接、服务发现和每个GATT操作有可配置的延迟，连接可以按比例失败，
+ * 已建立的链路可以按比例意外断开；打开notify后按设定速率（每秒可达数千条）发送加速度数据。
+ * 与系统协议栈一样，一个连接同一时刻只接受一个GATT操作。
+ * 模拟全部在一个调度线程中进行，回调也在该线程中调用，相当于系统的Binder线程
+ **************************************************************************************************/
+public final class SimulatedBleBackend implements BleBackend {
+    public static final UUID STICK_SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    public static final UUID ACCELEROMETER = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");//notify，int16小端x,y,z
+    public static final UUID CONTROL = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");//写，带或不带应答
+    public static final int GATT_ERROR = 133;//系统协议栈连接失败时最常见的状态
+    public static final int GATT_CONN_TIMEOUT = 8;//链路监督超时，设备走出范围
+    public static final long ADDRESS_BASE = 0xC8FD19000000L;//第i个虚拟设备的地址为ADDRESS_BASE+i
+    private static final int DEFAULT_MTU = 23;
+    private static final int COUNTS_PER_G = 4096;
+
+    /***************************************************************************************************
+     * 模拟参数，创建后端之前设置
+     **************************************************************************************************/
+    public static final class Profile {
+        int deviceCount = 20;
+        String deviceName = "iMask";
+        long advertisingIntervalMs = 100;
+        int rssiMin = -95;
+        int rssiMax = -45;
+        int rssiNoiseDb = 4;
+        long connectLatencyMs = 300;
+        long connectJitterMs = 200;
+        double connectFailureRate;
+        double linkLossPerMinute;
+        long discoveryLatencyMs = 150;
+        long operationLatencyMs = 15;
+        int maxMtu = 247;
+        boolean phy2M = true;
+        double notifyRateHz = 50;
+        int payloadSize = 18;//3组x,y,z
+        long tickMs = 5;
+        long seed = 1;
+
+        /***************************************************************************************************
+         * 虚拟设备的个数和广播名
+         **************************************************************************************************/
+        public Profile setDevices(int count, String name) {
+            deviceCount = Math.max(0, count);
+            deviceName = name;
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 广播间隔（每次另加0~10ms的随机延迟）和RSSI范围，每次上报的RSSI叠加noiseDb的高斯噪声
+         **************************************************************************************************/
+        public Profile setAdvertising(long intervalMs, int rssiMin, int rssiMax, int noiseDb) {
+            advertisingIntervalMs = Math.max(1, intervalMs);
+            this.rssiMin = Math.min(rssiMin, rssiMax);
+            this.rssiMax = Math.max(rssiMin, rssiMax);
+            rssiNoiseDb = Math.max(0, noiseDb);
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 连接耗时为latencyMs加0~jitterMs的均匀分布，failureRate为连接失败（状态133）的比例
+         **************************************************************************************************/
+        public Profile setConnect(long latencyMs, long jitterMs, double failureRate) {
+            connectLatencyMs = Math.max(0, latencyMs);
+            connectJitterMs = Math.max(0, jitterMs);
+            connectFailureRate = failureRate;
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 每条链路平均每分钟意外断开的次数，0表示不断开
+         **************************************************************************************************/
+        public Profile setLinkLossPerMinute(double perMinute) {
+            linkLossPerMinute = Math.max(0, perMinute);
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 服务发现和其它GATT操作的耗时
+         **************************************************************************************************/
+        public Profile setGattLatency(long discoveryMs, long operationMs) {
+            discoveryLatencyMs = Math.max(0, discoveryMs);
+            operationLatencyMs = Math.max(0, operationMs);
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 设备支持的最大MTU和是否支持2M物理层
+         **************************************************************************************************/
+        public Profile setLink(int maxMtu, boolean phy2M) {
+            this.maxMtu = Math.max(DEFAULT_MTU, maxMtu);
+            this.phy2M = phy2M;
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 每个设备每秒的notify条数和每条的字节数（不超过MTU-3）
+         **************************************************************************************************/
+        public Profile setNotify(double rateHz, int payloadSize) {
+            notifyRateHz = Math.max(0, rateHz);
+            this.payloadSize = Math.max(2, payloadSize & ~1);
+            return this;
+        }
+
+        /***************************************************************************************************
+         * 模拟的时间步长，notify和链路断开按步长批量处理
+         **************************************************************************************************/
+        public Profile setTickMs(long tickMs) {
+            this.tickMs = Math.max(1, tickMs);
+            return this;
+        }
+
+        public Profile setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    private final Profile mProfile;
+    private final Random mRandom;
+    private final ScheduledExecutorService mExecutor;
+    private final VirtualDevice[] mDevices;
+    private final List<SimulatedGatt> mLinks = new ArrayList<SimulatedGatt>();//已连接的链路，只在模拟线程访问
+    private volatile ScanListener mScanListener;
+    private volatile ScanFilterSpec mScanFilter;
+    private boolean[] mScanMatches;//各设备是否符合当前的扫描过滤条件，只在模拟线程访问
+    private long mLastTickNanos;
+    private volatile boolean mEnabled = true;
+    //统计，只在模拟线程写
+    private volatile long mScanResults;
+    private volatile long mNotifications;
+    private volatile long mConnects;
+    private volatile long mConnectFailures;
+    private volatile long mLinkLosses;
+
+    public SimulatedBleBackend(Profile profile) {
+        mProfile = profile;
+        mRandom = new Random(profile.seed);
+        mDevices = new VirtualDevice[profile.deviceCount];
+        final long now = System.nanoTime();
+        for (int i = 0; i < mDevices.length; i++) {
+            mDevices[i] = new VirtualDevice(i, now);
+        }
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "BleSimulator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mLastTickNanos = now;
+        mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, profile.tickMs, profile.tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /***************************************************************************************************
+     * 第index个虚拟设备的MAC地址
+     **************************************************************************************************/
+    public static String addressOf(int index) {
+        return MacAddress.format(ADDRESS_BASE + index);
+    }
+
+    public Profile getProfile() {
+        return mProfile;
+    }
+
+    /***************************************************************************************************
+     * 模拟蓝牙开关，关闭时扫描和连接都失败
+     **************************************************************************************************/
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /***************************************************************************************************
+     * 停止模拟线程，之后不再有任何回调
+     **************************************************************************************************/
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public long getScanResultCount() {
+        return mScanResults;
+    }
+
+    public long getNotificationCount() {
+        return mNotifications;
+    }
+
+    public long getConnectCount() {
+        return mConnects;
+    }
+
+    public long getConnectFailureCount() {
+        return mConnectFailures;
+    }
+
+    public long getLinkLossCount() {
+        return mLinkLosses;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    @Override
+    public boolean startScan(final ScanFilterSpec filter, long reportDelayMs, ScanListener listener) {
+        if (!mEnabled) {
+            return false;
+        }
+        mScanFilter = filter;
+        mScanListener = listener;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean[] matches = new boolean[mDevices.length];
+                for (int i = 0; i < mDevices.length; i++) {
+                    matches[i] = filter == null || filter.matches(mProfile.deviceName, mDevices[i].record);
+                }
+                mScanMatches = matches;
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void flushScan(ScanListener listener) {
+        //结果即时上报，没有缓存
+    }
+
+    @Override
+    public void stopScan(ScanListener listener) {
+        if (mScanListener == listener) {
+            mScanListener = null;
+        }
+    }
+
+    @Override
+    public GattClient connectGatt(Context context, String address, boolean autoConnect, GattClient.Callback callback) {
+        final long mac = MacAddress.pack(address);
+        final long index = mac - ADDRESS_BASE;
+        if (mac == MacAddress.INVALID || index < 0 || index >= mDevices.length || !mEnabled) {
+            return null;
+        }
+        final SimulatedGatt gatt = new SimulatedGatt(mDevices[(int) index], callback);
+        gatt.connect();
+        return gatt;
+    }
+
+    /***************************************************************************************************
+     * 一个模拟步长：上报到期的广播，处理链路断开，按速率发送notify
+     **************************************************************************************************/
+    private void tick() {
+        final long now = System.nanoTime();
+        final double seconds = (now - mLastTickNanos) / 1e9;
+        mLastTickNanos = now;
+        final ScanListener listener = mScanListener;
+        final boolean[] matches = mScanMatches;
+        if (listener != null && matches != null && mEnabled) {
+            final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(mProfile.advertisingIntervalMs);
+            for (int i = 0; i < mDevices.length; i++) {
+                final VirtualDevice device = mDevices[i];
+                if (now < device.nextAdvertisingNanos) {
+                    continue;
+                }
+                //BLE规定每次广播另加0~10ms的随机延迟；落后太多时（模拟线程被阻塞）不补发
+                device.nextAdvertisingNanos = Math.max(device.nextAdvertisingNanos + intervalNanos, now)
+                        + mRandom.nextInt(10000) * 1000L;
+                if (matches[i] && device.link == null) {//已连接的设备停止广播
+                    final int rssi = device.rssi + (int) Math.round(mRandom.nextGaussian() * mProfile.rssiNoiseDb);
+                    mScanResults++;
+                    listener.onScanResult(device.address, mProfile.deviceName, rssi, device.record);
+                }
+            }
+        }
+        final double lossProbability = mProfile.linkLossPerMinute * seconds / 60;
+        for (int i = mLinks.size() - 1; i >= 0; i--) {
+            final SimulatedGatt gatt = mLinks.get(i);
+            if (!gatt.isConnected()) {
+                mLinks.remove(i);
+            } else if (lossProbability > 0 && mRandom.nextDouble() < lossProbability) {
+                mLinks.remove(i);
+                mLinkLosses++;
+                gatt.drop(GATT_CONN_TIMEOUT);
+            } else {
+                gatt.stream(seconds);
+            }
+        }
+    }
+
+    private long connectDelayMs() {
+        return mProfile.connectLatencyMs + (mProfile.connectJitterMs > 0
+                ? (long) (mRandom.nextDouble() * mProfile.connectJitterMs) : 0);
+    }
+
+    /***************************************************************************************************
+     * 一个虚拟手杖：地址、平均RSSI和广播数据（名字、服务UUID、发射功率和StickAdvertisement的状态）
+     **************************************************************************************************/
+    private final class VirtualDevice {
+        final int index;
+        final String address;
+        final int rssi;
+        final byte[] record = new byte[62];
+        long nextAdvertisingNanos;
+        volatile SimulatedGatt link;//当前建立的连接
+
+        VirtualDevice(int index, long now) {
+            this.index = index;
+            address = addressOf(index);
+            rssi = mProfile.rssiMin + mRandom.nextInt(mProfile.rssiMax - mProfile.rssiMin + 1);
+            nextAdvertisingNanos = now + (long) (mRandom.nextDouble()
+                    * TimeUnit.MILLISECONDS.toNanos(mProfile.advertisingIntervalMs));
+            int n = 0;
+            record[n++] = 2;
+            record[n++] = 0x01;//flags
+            record[n++] = 0x06;
+            record[n++] = 3;
+            record[n++] = 0x03;//16位服务UUID
+            record[n++] = (byte) 0xF0;
+            record[n++] = (byte) 0xFF;
+            record[n++] = 2;
+            record[n++] = 0x0A;//发射功率
+            record[n++] = (byte) -12;
+            record[n++] = 6;
+            record[n++] = (byte) 0xFF;//厂商数据
+            record[n++] = (byte) (StickAdvertisement.MANUFACTURER_ID & 0xFF);
+            record[n++] = (byte) (StickAdvertisement.MANUFACTURER_ID >> 8);
+            record[n++] = StickAdvertisement.PROTOCOL_VERSION;
+            record[n++] = (byte) (20 + mRandom.nextInt(81));//电量
+            record[n++] = StickAdvertisement.STATE_IDLE;
+            final String name = mProfile.deviceName;
+            final int nameLength = Math.min(name.length(), record.length - n - 2);
+            record[n++] = (byte) (nameLength + 1);
+            record[n++] = 0x09;//完整设备名
+            for (int i = 0; i < nameLength; i++) {
+                record[n++] = (byte) name.charAt(i);
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     * 模拟的GATT连接。状态受自身锁保护，回调在模拟线程中、不持有锁时调用
+     **************************************************************************************************/
+    private final class SimulatedGatt implements GattClient {
+        private final VirtualDevice mDevice;
+        private final Callback mCallback;
+        private final List<BluetoothGattService> mServices = new ArrayList<BluetoothGattService>();
+        private final BluetoothGattCharacteristic mAccelerometer;
+        private final BluetoothGattCharacteristic mControl;
+        private int mState = BluetoothProfile.STATE_DISCONNECTED;
+        private boolean mClosed;
+        private boolean mBusy;//有GATT操作未完成
+        private boolean mDiscovered;
+        private boolean mNotifyLocal;//setCharacteristicNotification
+        private boolean mNotifyRemote;//CCCD已写入
+        private int mMtu = DEFAULT_MTU;
+        private double mCredit;//尚未发送的notify条数（小数部分）
+        private long mSample;
+
+        SimulatedGatt(VirtualDevice device, Callback callback) {
+            mDevice = device;
+            mCallback = callback;
+            final BluetoothGattService service = new BluetoothGattService(STICK_SERVICE,
+                    BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            mAccelerometer = new BluetoothGattCharacteristic(ACCELEROMETER,
+                    BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_READ,
+                    BluetoothGattCharacteristic.PERMISSION_READ);
+            mAccelerometer.addDescriptor(new BluetoothGattDescriptor(GattOperation.CLIENT_CHARACTERISTIC_CONFIG,
+                    BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+            mControl = new BluetoothGattCharacteristic(CONTROL,
+                    BluetoothGattCharacteristic.PROPERTY_WRITE
+                            | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                    BluetoothGattCharacteristic.PERMISSION_WRITE);
+            service.addCharacteristic(mAccelerometer);
+            service.addCharacteristic(mControl);
+            mServices.add(service);
+        }
+
+        @Override
+        public String getAddress() {
+            return mDevice.address;
+        }
+
+        synchronized boolean isConnected() {
+            return mState == BluetoothProfile.STATE_CONNECTED;
+        }
+
+        @Override
+        public synchronized boolean connect() {
+            if (mClosed || mState != BluetoothProfile.STATE_DISCONNECTED || !mEnabled) {
+                return false;
+            }
+            mState = BluetoothProfile.STATE_CONNECTING;
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    onConnectComplete();
+                }
+            }, connectDelayMs(), TimeUnit.MILLISECONDS);
+            return true;
+        }
+
+        private void onConnectComplete() {
+            final boolean connected;
+            synchronized (this) {
+                if (mState != BluetoothProfile.STATE_CONNECTING) {
+                    return;//已取消
+                }
+                connected = mRandom.nextDouble() >= mProfile.connectFailureRate && mDevice.link == null;
+                if (connected) {
+                    mState = BluetoothProfile.STATE_CONNECTED;
+                    mDevice.link = this;
+                    mMtu = DEFAULT_MTU;
+                    mNotifyRemote = false;//没有绑定，重连后CCCD恢复为关闭
+                    mBusy = false;
+                    mCredit = 0;
+                } else {
+                    mState = BluetoothProfile.STATE_DISCONNECTED;
+                }
+            }
+            if (connected) {
+                mConnects++;
+                mLinks.add(this);
+                if (!isClosed()) {
+                    mCallback.onConnectionStateChange(this, BluetoothGatt.GATT_SUCCESS,
+                            BluetoothProfile.STATE_CONNECTED);
+                }
+            } else {
+                mConnectFailures++;
+                if (!isClosed()) {
+                    mCallback.onConnectionStateChange(this, GATT_ERROR, BluetoothProfile.STATE_DISCONNECTED);
+                }
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            synchronized (this) {
+                if (mState == BluetoothProfile.STATE_DISCONNECTED) {
+                    return;
+                }
+                release();
+            }
+            later(mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onConnectionStateChange(SimulatedGatt.this, BluetoothGatt.GATT_SUCCESS,
+                            BluetoothProfile.STATE_DISCONNECTED);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void close() {
+            mClosed = true;
+            release();
+        }
+
+        private synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        //持有锁时调用
+        private void release() {
+            mState = BluetoothProfile.STATE_DISCONNECTED;
+            mBusy = false;
+            if (mDevice.link == this) {
+                mDevice.link = null;
+            }
+        }
+
+        /***************************************************************************************************
+         * 链路意外断开，在模拟线程中调用
+         **************************************************************************************************/
+        void drop(int status) {
+            synchronized (this) {
+                release();
+                if (mClosed) {
+                    return;
+                }
+            }
+            mCallback.onConnectionStateChange(this, status, BluetoothProfile.STATE_DISCONNECTED);
+        }
+
+        @Override
+        public synchronized boolean discoverServices() {
+            if (!begin()) {
+                return false;
+            }
+            complete(mProfile.discoveryLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SimulatedGatt.this) {
+                        mDiscovered = true;
+                    }
+                    mCallback.onServicesDiscovered(SimulatedGatt.this, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized List<BluetoothGattService> getServices() {
+            return mDiscovered ? mServices : Collections.<BluetoothGattService>emptyList();
+        }
+
+        @Override
+        public synchronized boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            if ((characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) == 0 || !begin()) {
+                return false;
+            }
+            complete(mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    characteristic.setValue(nextPayload());
+                    mCallback.onCharacteristicRead(SimulatedGatt.this, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            final byte[] value = characteristic.getValue();
+            if ((characteristic.getProperties() & (BluetoothGattCharacteristic.PROPERTY_WRITE
+                    | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) == 0
+                    || value == null || value.length > mMtu - 3 || !begin()) {
+                return false;
+            }
+            //无应答写只等待本地发送完成
+            final boolean noResponse = characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+            complete(noResponse ? mProfile.operationLatencyMs / 4 : mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onCharacteristicWrite(SimulatedGatt.this, characteristic, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                                                  boolean enable) {
+            if (characteristic == mAccelerometer) {
+                mNotifyLocal = enable;
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized boolean writeDescriptor(final BluetoothGattDescriptor descriptor) {
+            final byte[] value = descriptor.getValue();
+            if (value == null || !begin()) {
+                return false;
+            }
+            complete(mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SimulatedGatt.this) {
+                        if (descriptor.getCharacteristic() == mAccelerometer
+                                && GattOperation.CLIENT_CHARACTERISTIC_CONFIG.equals(descriptor.getUuid())) {
+                            mNotifyRemote = value.length > 0 && (value[0] & 0x03) != 0;
+                        }
+                    }
+                    mCallback.onDescriptorWrite(SimulatedGatt.this, descriptor, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean requestMtu(final int mtu) {
+            if (!begin()) {
+                return false;
+            }
+            complete(mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    final int negotiated;
+                    synchronized (SimulatedGatt.this) {
+                        negotiated = mMtu = Math.max(DEFAULT_MTU, Math.min(mtu, mProfile.maxMtu));
+                    }
+                    mCallback.onMtuChanged(SimulatedGatt.this, negotiated, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public synchronized boolean requestConnectionPriority(int priority) {
+            return mState == BluetoothProfile.STATE_CONNECTED;
+        }
+
+        @Override
+        public synchronized boolean setPreferredPhy(final int txPhy, final int rxPhy, int phyOptions) {
+            if (!begin()) {
+                return false;
+            }
+            complete(mProfile.operationLatencyMs, new Runnable() {
+                @Override
+                public void run() {
+                    final boolean use2M = mProfile.phy2M && (txPhy & LinkTuner.PHY_LE_2M_MASK) != 0
+                            && (rxPhy & LinkTuner.PHY_LE_2M_MASK) != 0;
+                    final int phy = use2M ? LinkTuner.PHY_LE_2M : LinkTuner.PHY_LE_1M;
+                    mCallback.onPhyUpdate(SimulatedGatt.this, phy, phy, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+            return true;
+        }
+
+        /***************************************************************************************************
+         * 开始一个GATT操作，未连接或上一个操作未完成时返回false。持有锁时调用
+         **************************************************************************************************/
+        private boolean begin() {
+            if (mState != BluetoothProfile.STATE_CONNECTED || mBusy) {
+                return false;
+            }
+            mBusy = true;
+            return true;
+        }
+
+        /***************************************************************************************************
+         * 延迟后结束当前操作并回调；期间连接已断开则没有回调
+         **************************************************************************************************/
+        private void complete(long delayMs, final Runnable callback) {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SimulatedGatt.this) {
+                        if (!mBusy || mState != BluetoothProfile.STATE_CONNECTED || mClosed) {
+                            return;
+                        }
+                        mBusy = false;
+                    }
+                    callback.run();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        private void later(long delayMs, final Runnable callback) {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isClosed()) {
+                        callback.run();
+                    }
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        /***************************************************************************************************
+         * 按速率发送这一步长内到期的notify，在模拟线程中调用
+         **************************************************************************************************/
+        void stream(double seconds) {
+            synchronized (this) {
+                if (!mNotifyLocal || !mNotifyRemote || mClosed) {
+                    mCredit = 0;
+                    return;
+                }
+            }
+            mCredit += mProfile.notifyRateHz * seconds;
+            final int count = (int) mCredit;
+            mCredit -= count;
+            for (int i = 0; i < count && isConnected(); i++) {
+                //与系统协议栈一样，每条notify是新的数组，特性对象是同一个
+                mAccelerometer.setValue(nextPayload());
+                mNotifications++;
+                mCallback.onCharacteristicChanged(this, mAccelerometer);
+            }
+        }
+
+        /***************************************************************************************************
+         * 生成一条加速度数据：步频约1.8Hz的行走波形，4096计数/g，int16小端x,y,z
+         **************************************************************************************************/
+        private byte[] nextPayload() {
+            final int length = Math.min(mProfile.payloadSize, mMtu - 3) & ~1;
+            final byte[] value = new byte[length];
+            final double sampleRate = Math.max(1, mProfile.notifyRateHz) * Math.max(1, length / 6);
+            for (int offset = 0; offset + 1 < length; offset += 2) {
+                final int axis = (offset / 2) % 3;
+                if (axis == 0) {
+                    mSample++;
+                }
+                final double t = mSample / sampleRate + mDevice.index;
+                final double g;
+                if (axis == 0) {
+                    g = 0.08 * Math.sin(2 * Math.PI * 0.9 * t);
+                } else if (axis == 1) {
+                    g = 0.05 * Math.sin(2 * Math.PI * 3.1 * t);
+                } else {
+                    g = 1 + 0.3 * Math.sin(2 * Math.PI * 1.8 * t);
+                }
+                final int counts = (int) Math.round(g * COUNTS_PER_G);
+                value[offset] = (byte) counts;
+                value[offset + 1] = (byte) (counts >> 8);
+            }
+            return value;
+        }
+    }
+}
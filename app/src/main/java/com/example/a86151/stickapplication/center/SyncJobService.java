@@ -0,0 +1,163 @@
+package com.example.a86151.stickapplication.center;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.IBinder;
+import android.support.annotation.RequiresApi;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/***************************************************************************************************
+ * 后台上传任务：由JobScheduler在连接不计流量的网络且正在充电时启动，绑定BluetoothLeService取得本地存储，
+ * 在独立线程中用SyncEngine分批上传。暂时失败时通知JobScheduler按指数退避重新调度，
+ * 正常结束后等下一个周期。采集服务器地址保存在SharedPreferences中，未设置时不上传
+ **************************************************************************************************/
+@RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+public final class SyncJobService extends JobService {
+    private final static String TAG = SyncJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 0x5354;
+    private static final String PREFS_NAME = "sync";
+    private static final String KEY_ENDPOINT = "endpoint";
+    private static final String CHECKPOINT_FILE = "sync.checkpoint";
+    private static final long PERIOD_MS = 6 * 3600 * 1000L;
+    private static final long BACKOFF_MS = 60 * 1000L;
+
+    private JobParameters mParams;
+    private volatile BluetoothLeService mService;
+    private boolean mBound;//受this保护
+    private volatile boolean mStopped;
+    private volatile SyncEngine mEngine;
+    private Thread mWorker;
+
+    /***************************************************************************************************
+     * 设置采集服务器地址并开始周期上传，url为null时停止上传
+     **************************************************************************************************/
+    public static void setEndpoint(Context context, String url) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit().putString(KEY_ENDPOINT, url).apply();
+        if (url == null) {
+            ((JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE)).cancel(JOB_ID);
+        } else {
+            schedule(context);
+        }
+    }
+
+    /***************************************************************************************************
+     * 登记周期上传任务（重启后保留），已设置服务器地址时才登记
+     **************************************************************************************************/
+    public static void schedule(Context context) {
+        if (getEndpoint(context) == null) {
+            return;
+        }
+        final JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SyncJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(PERIOD_MS)
+                .setPersisted(true)
+                .setBackoffCriteria(BACKOFF_MS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .build();
+        ((JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE)).schedule(job);
+    }
+
+    private static String getEndpoint(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(KEY_ENDPOINT, null);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        if (getEndpoint(this) == null) {
+            return false;
+        }
+        mParams = params;
+        mStopped = false;
+        synchronized (this) {
+            mBound = bindService(new Intent(this, BluetoothLeService.class), mServiceConnection, BIND_AUTO_CREATE);
+            return mBound;
+        }
+    }
+
+    /***************************************************************************************************
+     * 条件不再满足（如断开了Wi-Fi），当前请求结束后停止，未确认的批次下次重传
+     **************************************************************************************************/
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        mStopped = true;
+        final SyncEngine engine = mEngine;
+        if (engine != null) {
+            engine.cancel();
+        }
+        unbind();
+        return true;
+    }
+
+    private synchronized void unbind() {
+        if (mBound) {
+            mBound = false;
+            unbindService(mServiceConnection);
+        }
+    }
+
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((BluetoothLeService.LocalBinder) binder).getService();
+            if (mWorker == null) {
+                mWorker = new Thread(mSync, "sync");
+                mWorker.start();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
+    private final Runnable mSync = new Runnable() {
+        @Override
+        public void run() {
+            final JobParameters params = mParams;
+            SyncEngine.Result result;
+            try {
+                final SyncCheckpoint checkpoint = new SyncCheckpoint(new File(getFilesDir(), CHECKPOINT_FILE));
+                checkpoint.load();
+                final BluetoothLeService service = mService;
+                if (service == null) {
+                    throw new IOException("service disconnected");
+                }
+                final SyncEngine engine = new SyncEngine(service.getTimeSeriesStore(),
+                        service.getCharacteristicRegistry(), checkpoint,
+                        new HttpSyncTransport(new URL(getEndpoint(SyncJobService.this))));
+                mEngine = engine;
+                result = engine.run();
+                Log.d(TAG, "sync " + result + ": " + engine.getUploadedBatches() + " batches, "
+                        + engine.getUploadedRecords() + " records, " + engine.getUploadedBytes() + " bytes, "
+                        + engine.getBytesPerHour() + " bytes/hour of data");
+            } catch (IOException e) {
+                Log.e(TAG, "sync failed", e);
+                result = SyncEngine.Result.RETRY;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "sync failed", e);
+                result = SyncEngine.Result.REJECTED;
+            }
+            final boolean retry = result == SyncEngine.Result.RETRY;
+            mWorker = null;
+            mEngine = null;
+            unbind();
+            if (!mStopped) {//onStopJob之后由返回值决定是否重新调度
+                jobFinished(params, retry);
+            }
+        }
+    };
+}
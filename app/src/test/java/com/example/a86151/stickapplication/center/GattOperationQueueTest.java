@@ -0,0 +1,308 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * GATT操作队列的单元测试：顺序执行、超时重试、协议栈忙时重试、无应答写的合并规则
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class GattOperationQueueTest {
+    private static final UUID DATA = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID CONTROL = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+
+    private FakeGatt mGatt;
+    private GattOperationQueue mQueue;
+    private BluetoothGattCharacteristic mData;
+    private BluetoothGattCharacteristic mControl;
+    private List<String> mResults;
+
+    /**
+     * 只记录发起的操作，回调由测试调用队列的onXxx方法模拟
+     */
+    private static class FakeGatt implements GattClient {
+        final List<String> calls = new ArrayList<String>();
+        final List<byte[]> writes = new ArrayList<byte[]>();
+        int busy;//接下来拒绝的操作数
+
+        private boolean accept(String call) {
+            if (busy > 0) {
+                busy--;
+                return false;
+            }
+            calls.add(call);
+            return true;
+        }
+
+        @Override
+        public String getAddress() {
+            return "00:11:22:33:44:55";
+        }
+
+        @Override
+        public boolean connect() {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return accept("discover");
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return accept("read " + characteristic.getUuid());
+        }
+
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+            if (!accept("write " + characteristic.getUuid())) {
+                return false;
+            }
+            writes.add(characteristic.getValue());
+            return true;
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+            return true;
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+            return accept("descriptor");
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return accept("mtu " + mtu);
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return accept("priority " + priority);
+        }
+
+        @Override
+        public boolean setPreferredPhy(int txPhy, int rxPhy, int phyOptions) {
+            return accept("phy");
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mGatt = new FakeGatt();
+        mQueue = new GattOperationQueue(Looper.getMainLooper());
+        mQueue.setGatt(mGatt);
+        mData = new BluetoothGattCharacteristic(DATA, BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, 0);
+        mControl = new BluetoothGattCharacteristic(CONTROL, BluetoothGattCharacteristic.PROPERTY_WRITE
+                | BluetoothGattCharacteristic.PROPERTY_READ, 0);
+        mResults = new ArrayList<String>();
+        ShadowLooper.idleMainLooper();
+    }
+
+    private GattOperation.Callback record(final String name) {
+        return new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation, int status, byte[] value) {
+                mResults.add(name + "=" + status);
+            }
+        };
+    }
+
+    private void enqueue(GattOperation operation) {
+        mQueue.enqueue(operation);
+        ShadowLooper.idleMainLooper();
+    }
+
+    private void completeWrite(BluetoothGattCharacteristic characteristic, int status) {
+        mQueue.onCharacteristicWrite(characteristic, status);
+        ShadowLooper.idleMainLooper();
+    }
+
+    private static byte[] bytes(int length, int first) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) (first + i);
+        }
+        return value;
+    }
+
+    @Test
+    public void enqueue_runsOneOperationAtATimeInOrder() {
+        enqueue(GattOperation.read(mControl).withCallback(record("read")));
+        enqueue(GattOperation.write(mControl, bytes(4, 0)).withCallback(record("write")));
+        enqueue(GattOperation.requestMtu(247).withCallback(record("mtu")));
+        assertEquals(Collections.singletonList("read " + CONTROL), mGatt.calls);
+
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        assertEquals(2, mGatt.calls.size());
+        assertEquals("write " + CONTROL, mGatt.calls.get(1));
+
+        completeWrite(mControl, BluetoothGatt.GATT_SUCCESS);
+        assertEquals("mtu 247", mGatt.calls.get(2));
+        mQueue.onMtuChanged(247, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+
+        assertEquals(Arrays.asList("read=0", "write=0", "mtu=0"), mResults);
+        assertEquals(247, mQueue.getMtu());
+    }
+
+    @Test
+    public void timeout_retriesThenFailsAndMovesOn() {
+        enqueue(GattOperation.write(mData, bytes(4, 0)).withTimeout(100, 1).withCallback(record("write")));
+        enqueue(GattOperation.read(mControl).withCallback(record("read")));
+        assertEquals(1, mGatt.calls.size());
+
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);//第一次超时，重试
+        assertEquals(2, mGatt.calls.size());
+        assertTrue(mResults.isEmpty());
+
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);//重试也超时，以失败结束
+        assertEquals(Collections.singletonList("write=" + BluetoothGatt.GATT_FAILURE), mResults);
+        assertEquals("read " + CONTROL, mGatt.calls.get(2));
+
+        //已超时操作的迟到回调不影响当前的读操作
+        completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(1, mResults.size());
+    }
+
+    @Test
+    public void failedStatus_isRetried() {
+        enqueue(GattOperation.write(mControl, bytes(4, 0)).withCallback(record("write")));
+        completeWrite(mControl, BluetoothGatt.GATT_FAILURE);
+        assertEquals(2, mGatt.calls.size());
+        completeWrite(mControl, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(Collections.singletonList("write=0"), mResults);
+    }
+
+    @Test
+    public void busyStack_retriesAfterDelay() {
+        mGatt.busy = 1;
+        enqueue(GattOperation.read(mControl).withCallback(record("read")));
+        assertTrue(mGatt.calls.isEmpty());
+
+        ShadowLooper.idleMainLooper(50, TimeUnit.MILLISECONDS);
+        assertEquals(Collections.singletonList("read " + CONTROL), mGatt.calls);
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        assertEquals(Collections.singletonList("read=0"), mResults);
+    }
+
+    @Test
+    public void busyStack_givesUpAfterRetries() {
+        mGatt.busy = 10;
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 0)).withCallback(record("write")));
+        ShadowLooper.idleMainLooper(1, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("write=" + BluetoothGatt.GATT_FAILURE), mResults);
+    }
+
+    @Test
+    public void writeNoResponse_keepsPacketBoundariesByDefault() {
+        enqueue(GattOperation.read(mControl));//占住队列，让后面的写在队列中相邻
+        for (int i = 0; i < 3; i++) {
+            enqueue(GattOperation.writeNoResponse(mData, bytes(4, i * 4)).withCallback(record("w" + i)));
+        }
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        for (int i = 0; i < 3; i++) {
+            completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        }
+        assertEquals(3, mGatt.writes.size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(bytes(4, i * 4), mGatt.writes.get(i));
+        }
+        assertEquals(Arrays.asList("w0=0", "w1=0", "w2=0"), mResults);
+    }
+
+    @Test
+    public void withMerging_joinsUpToMtuAndReportsWithCombinedWrite() {
+        enqueue(GattOperation.read(mControl));
+        for (int i = 0; i < 3; i++) {//MTU 23时一包最多20字节：前两个合并，第三个单独发送
+            enqueue(GattOperation.writeNoResponse(mData, bytes(8, i * 8)).withMerging().withCallback(record("w" + i)));
+        }
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        assertEquals(1, mGatt.writes.size());
+        assertArrayEquals(bytes(16, 0), mGatt.writes.get(0));
+        assertTrue("merged writes must wait for the combined write", mResults.isEmpty());
+
+        completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(Arrays.asList("w0=0", "w1=0"), mResults);
+        assertArrayEquals(bytes(8, 16), mGatt.writes.get(1));
+    }
+
+    @Test
+    public void withMerging_failureOfCombinedWriteFailsEveryMergedOperation() {
+        enqueue(GattOperation.read(mControl));
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 0)).withMerging().withCallback(record("w0")));
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 4)).withMerging().withCallback(record("w1")));
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        assertEquals(1, mGatt.writes.size());
+
+        completeWrite(mData, BluetoothGatt.GATT_FAILURE);//无应答写不重试
+        int failure = BluetoothGatt.GATT_FAILURE;
+        assertEquals(Arrays.asList("w0=" + failure, "w1=" + failure), mResults);
+    }
+
+    @Test
+    public void withMerging_stopsAtOtherCharacteristicOrUnmergeableWrite() {
+        enqueue(GattOperation.read(mControl));
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 0)).withMerging());
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 4)));//没有允许合并
+        enqueue(GattOperation.writeNoResponse(mData, bytes(4, 8)).withMerging());
+        enqueue(GattOperation.writeNoResponse(mControl, bytes(4, 12)).withMerging());
+        mQueue.onCharacteristicRead(mControl, BluetoothGatt.GATT_SUCCESS);
+        ShadowLooper.idleMainLooper();
+        completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        completeWrite(mData, BluetoothGatt.GATT_SUCCESS);
+        completeWrite(mControl, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(4, mGatt.writes.size());
+    }
+
+    @Test
+    public void setGatt_nullFailsPendingOperations() {
+        enqueue(GattOperation.read(mControl).withCallback(record("read")));
+        enqueue(GattOperation.write(mControl, bytes(4, 0)).withCallback(record("write")));
+        mQueue.setGatt(null);
+        ShadowLooper.idleMainLooper();
+        int failure = BluetoothGatt.GATT_FAILURE;
+        assertEquals(Arrays.asList("read=" + failure, "write=" + failure), mResults);
+    }
+}
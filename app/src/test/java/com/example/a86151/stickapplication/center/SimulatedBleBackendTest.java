@@ -0,0 +1,228 @@
+package com.example.a86151.stickapplication.center;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 模拟BLE后端的单元测试：大量设备的扫描、连接延迟和失败、GATT操作互斥、notify速率和链路断开
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class SimulatedBleBackendTest {
+    private SimulatedBleBackend mBackend;
+
+    @After
+    public void tearDown() {
+        if (mBackend != null) {
+            mBackend.shutdown();
+        }
+    }
+
+    /**
+     * 记录连接事件的回调，连上后自动发现服务并打开加速度notify。回调在模拟线程中执行，
+     * 其中的失败记在failure里，由测试线程调用verify()检查
+     */
+    private static class Recorder extends GattClient.Callback {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final CountDownLatch subscribed = new CountDownLatch(1);
+        final AtomicInteger notifications = new AtomicInteger();
+        final boolean subscribe;
+        volatile int disconnectStatus = -1;
+        volatile CountDownLatch streamed;//不为null时每条notify减一
+        volatile Throwable failure;
+
+        Recorder(boolean subscribe) {
+            this.subscribe = subscribe;
+        }
+
+        void check(boolean condition, String message) {
+            if (!condition && failure == null) {
+                failure = new AssertionError(message);
+            }
+        }
+
+        void verify() {
+            if (failure != null) {
+                throw new AssertionError("callback failed: " + failure, failure);
+            }
+        }
+
+        @Override
+        public void onConnectionStateChange(GattClient gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                connected.countDown();
+                if (subscribe) {
+                    check(gatt.discoverServices(), "discoverServices rejected");
+                }
+            } else {
+                disconnectStatus = status;
+                disconnected.countDown();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(GattClient gatt, int status) {
+            try {
+                final BluetoothGattCharacteristic accelerometer = gatt.getServices().get(0)
+                        .getCharacteristic(SimulatedBleBackend.ACCELEROMETER);
+                gatt.setCharacteristicNotification(accelerometer, true);
+                final BluetoothGattDescriptor cccd = accelerometer.getDescriptor(
+                        GattOperation.CLIENT_CHARACTERISTIC_CONFIG);
+                cccd.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                check(gatt.writeDescriptor(cccd), "writeDescriptor rejected");
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(GattClient gatt, BluetoothGattDescriptor descriptor, int status) {
+            subscribed.countDown();
+        }
+
+        @Override
+        public void onCharacteristicChanged(GattClient gatt, BluetoothGattCharacteristic characteristic) {
+            notifications.incrementAndGet();
+            final CountDownLatch latch = streamed;
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void scan_reportsThousandsOfDevices() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile()
+                .setDevices(2000, "iMask").setAdvertising(100, -90, -50, 4));
+        final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AdvertisingData parser = new AdvertisingData();
+        final StickAdvertisement stick = new StickAdvertisement();
+        assertTrue(mBackend.startScan(new ScanFilterSpec().setDeviceName("iMask"), 0, new BleBackend.ScanListener() {
+            @Override
+            public void onScanResult(String address, String name, int rssi, byte[] scanRecord) {
+                seen.add(address);
+                if (address.equals(SimulatedBleBackend.addressOf(7))) {
+                    stick.update(scanRecord, parser);
+                }
+            }
+        }));
+        final long deadline = System.currentTimeMillis() + 3000;
+        while (seen.size() < 2000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(2000, seen.size());
+        assertTrue(stick.hasStatus());
+        assertEquals(StickAdvertisement.STATE_IDLE, stick.getState());
+    }
+
+    @Test
+    public void scan_filterExcludesNonMatchingDevices() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile().setDevices(50, "iMask"));
+        //电量（协议版本之后的字节）不小于64的设备：每个设备的电量在20~100之间随机
+        final ScanFilterSpec filter = new ScanFilterSpec().setDeviceName("iMask").setManufacturerData(
+                StickAdvertisement.MANUFACTURER_ID, new byte[]{StickAdvertisement.PROTOCOL_VERSION, 0x40},
+                new byte[]{(byte) 0xFF, 0x40});
+        final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger excluded = new AtomicInteger();
+        //不用等待固定时间：符合条件的设备已上报多轮时，不符合的设备也已广播过多次
+        final CountDownLatch rounds = new CountDownLatch(200);
+        final AdvertisingData parser = new AdvertisingData();
+        assertTrue(mBackend.startScan(filter, 0, new BleBackend.ScanListener() {
+            @Override
+            public void onScanResult(String address, String name, int rssi, byte[] scanRecord) {
+                final StickAdvertisement stick = new StickAdvertisement();
+                stick.update(scanRecord, parser);
+                if (stick.getBattery() < 64) {
+                    excluded.incrementAndGet();
+                }
+                seen.add(address);
+                rounds.countDown();
+            }
+        }));
+        assertTrue(rounds.await(10, TimeUnit.SECONDS));
+        assertEquals(0, excluded.get());
+        assertTrue("matched " + seen.size(), seen.size() > 0 && seen.size() < 50);
+    }
+
+    @Test
+    public void connect_streamsAtConfiguredRate() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile()
+                .setConnect(20, 10, 0).setGattLatency(10, 5).setNotify(2000, 18));
+        final Recorder recorder = new Recorder(true);
+        final CountDownLatch streamed = new CountDownLatch(1000);
+        recorder.streamed = streamed;
+        //模拟器在CCCD写入前不积累notify，之后按实际经过的时间发送，所以从连接前计时，
+        //1000条至少要约0.5秒；机器再慢也只会更久，上限给得很宽
+        final long start = System.nanoTime();
+        final GattClient gatt = mBackend.connectGatt(null, SimulatedBleBackend.addressOf(3), false, recorder);
+        assertNotNull(gatt);
+        final boolean received = streamed.await(10, TimeUnit.SECONDS);
+        final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        recorder.verify();
+        assertTrue(received);
+        assertEquals(0, recorder.subscribed.getCount());
+        assertTrue("1000 notifications in " + elapsedMs + " ms", elapsedMs >= 450);
+        gatt.disconnect();
+        assertTrue(recorder.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(BluetoothGatt.GATT_SUCCESS, recorder.disconnectStatus);
+        recorder.verify();
+        gatt.close();
+    }
+
+    @Test
+    public void connect_failureRateReportsError() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile().setConnect(10, 0, 1.0));
+        final Recorder recorder = new Recorder(false);
+        mBackend.connectGatt(null, SimulatedBleBackend.addressOf(0), false, recorder);
+        assertTrue(recorder.disconnected.await(5, TimeUnit.SECONDS));
+        assertEquals(SimulatedBleBackend.GATT_ERROR, recorder.disconnectStatus);
+        assertEquals(1, mBackend.getConnectFailureCount());
+        assertNull(mBackend.connectGatt(null, "00:11:22:33:44:55", false, recorder));
+    }
+
+    @Test
+    public void gatt_acceptsOneOperationAtATime() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile().setConnect(10, 0, 0)
+                .setGattLatency(50, 50));
+        final Recorder recorder = new Recorder(false);
+        final GattClient gatt = mBackend.connectGatt(null, SimulatedBleBackend.addressOf(1), false, recorder);
+        assertFalse(gatt.requestMtu(247));//尚未连接
+        assertTrue(recorder.connected.await(5, TimeUnit.SECONDS));
+        assertTrue(gatt.requestMtu(247));
+        assertFalse(gatt.discoverServices());//上一个操作未完成
+        assertTrue(gatt.getServices().isEmpty());
+        gatt.close();
+    }
+
+    @Test
+    public void link_lossDisconnectsWithTimeout() throws Exception {
+        mBackend = new SimulatedBleBackend(new SimulatedBleBackend.Profile().setConnect(10, 0, 0)
+                .setLinkLossPerMinute(6000));
+        final Recorder recorder = new Recorder(false);
+        final GattClient gatt = mBackend.connectGatt(null, SimulatedBleBackend.addressOf(2), false, recorder);
+        assertTrue(recorder.disconnected.await(10, TimeUnit.SECONDS));
+        assertEquals(SimulatedBleBackend.GATT_CONN_TIMEOUT, recorder.disconnectStatus);
+        assertEquals(1, mBackend.getLinkLossCount());
+        //后台重连，服务表保持不变
+        assertTrue(gatt.connect());
+        gatt.close();
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***************************************************************************************************
+ * 性能回归检查：比较两次JMH运行的CSV结果（-rf csv），超出容差时以状态码1退出。
+ * 用法：BaselineCheck <baseline.csv> <results.csv> [tolerance]，tolerance默认0.15
+ * 吞吐量（thrpt）下降、平均延迟（sample）上升、每次操作分配的字节数（gc.alloc.rate.norm）增加都算回归；
+ * 基线中没有的新基准只打印不检查
+ **************************************************************************************************/
+public final class BaselineCheck {
+    private static final double DEFAULT_TOLERANCE = 0.15;
+    private static final double ALLOCATION_SLACK_BYTES = 8;//分配量接近0时相对容差没有意义，允许几个字节的误差
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineCheck <baseline.csv> <results.csv> [tolerance]");
+            System.exit(2);
+        }
+        final double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        final Map<String, double[]> baseline = read(args[0]);
+        final Map<String, double[]> results = read(args[1]);
+        final List<String> regressions = compare(baseline, results, tolerance);
+        for (String line : regressions) {
+            System.out.println(line);
+        }
+        if (!regressions.isEmpty()) {
+            System.out.println(regressions.size() + " regression(s), tolerance " + tolerance);
+            System.exit(1);
+        }
+        System.out.println("no regression, tolerance " + tolerance);
+    }
+
+    /***************************************************************************************************
+     * 返回所有回归的描述，没有回归返回空列表。只比较主指标和每次操作分配的字节数，
+     * 时间类指标扣除本次运行的误差范围后仍超出容差才算回归，避免共享机器上的抖动误报
+     **************************************************************************************************/
+    static List<String> compare(Map<String, double[]> baseline, Map<String, double[]> results, double tolerance) {
+        final List<String> regressions = new ArrayList<String>();
+        for (Map.Entry<String, double[]> entry : results.entrySet()) {
+            final String key = entry.getKey();
+            final boolean allocation = key.contains("gc.alloc.rate.norm");
+            if (!allocation && key.indexOf(':') >= 0) {
+                continue;//分位数、GC次数、辅助计数器不参与比较
+            }
+            final double[] expected = baseline.get(key);
+            if (expected == null) {
+                System.out.println("new: " + key + " = " + entry.getValue()[0]);
+                continue;
+            }
+            final double actual = entry.getValue()[0];
+            final double error = entry.getValue()[1];
+            final boolean regressed;
+            if (allocation) {
+                regressed = actual > expected[0] * (1 + tolerance) + ALLOCATION_SLACK_BYTES;
+            } else if (key.endsWith(" thrpt")) {
+                regressed = actual + error < expected[0] * (1 - tolerance);
+            } else {
+                regressed = actual - error > expected[0] * (1 + tolerance);
+            }
+            if (regressed) {
+                regressions.add(String.format("REGRESSION %s: baseline %.3f, now %.3f ± %.3f",
+                        key, expected[0], actual, error));
+            }
+        }
+        return regressions;
+    }
+
+    /***************************************************************************************************
+     * 读取JMH的CSV结果，键为“基准名[参数] 模式”，值为{Score, Score Error}
+     **************************************************************************************************/
+    static Map<String, double[]> read(String path) throws IOException {
+        final Map<String, double[]> scores = new LinkedHashMap<String, double[]>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), "UTF-8"));
+        try {
+            final List<String> header = split(reader.readLine());
+            final int name = header.indexOf("Benchmark");
+            final int mode = header.indexOf("Mode");
+            final int score = header.indexOf("Score");
+            final int error = header.indexOf("Score Error (99.9%)");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                final List<String> cells = split(line);
+                final StringBuilder key = new StringBuilder(cells.get(name));
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).startsWith("Param: ") && i < cells.size() && cells.get(i).length() > 0) {
+                        key.append('[').append(header.get(i).substring(7)).append('=').append(cells.get(i)).append(']');
+                    }
+                }
+                key.append(' ').append(cells.get(mode));
+                scores.put(key.toString(), new double[]{parse(cells.get(score)), parse(cells.get(error))});
+            }
+        } finally {
+            reader.close();
+        }
+        return scores;
+    }
+
+    private static double parse(String cell) {
+        return cell.length() == 0 || "NaN".equals(cell) ? 0 : Double.parseDouble(cell);
+    }
+
+    private static List<String> split(String line) {
+        final List<String> cells = new ArrayList<String>();
+        final StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import com.example.a86151.stickapplication.center.DeviceRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 扫描列表的设备操作（LeDeviceListAdapter.addDevice）：按MAC查找、RSSI变化后调整位置
+ **************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceListBenchmark {
+    private static final int SEQUENCE = 4096;
+
+    @Param({"64"})
+    public int devices;
+
+    private final DeviceRegistry<Object> mRegistry = new DeviceRegistry<Object>();
+    private final DeviceRegistry.ChangeSet mChanges = new DeviceRegistry.ChangeSet();
+    private long[] mMacs;
+    private int[] mRssi;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        mMacs = new long[SEQUENCE];
+        mRssi = new int[SEQUENCE];
+        for (int i = 0; i < SEQUENCE; i++) {
+            mMacs[i] = 0xC8FD19000000L + random.nextInt(devices);
+            mRssi[i] = -90 + random.nextInt(60);
+        }
+        for (int i = 0; i < devices; i++) {
+            mRegistry.update(0xC8FD19000000L + i, -60, new Object(), null);
+        }
+    }
+
+    @Benchmark
+    public Object updateRssi() {
+        final int i = mNext++ & (SEQUENCE - 1);
+        final DeviceRegistry.Entry<Object> entry = mRegistry.update(mMacs[i], mRssi[i], null, mChanges);
+        mChanges.clear();
+        return entry;
+    }
+
+    @Benchmark
+    public int findByMac() {
+        return mRegistry.indexOf(mMacs[mNext++ & (SEQUENCE - 1)]);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import com.example.a86151.stickapplication.center.CharacteristicRegistry;
+import com.example.a86151.stickapplication.center.FrameBus;
+import com.example.a86151.stickapplication.center.FramePool;
+import com.example.a86151.stickapplication.center.FrameRing;
+import com.example.a86151.stickapplication.center.FrameSubscription;
+import com.example.a86151.stickapplication.center.Int16FrameDecoder;
+import com.example.a86151.stickapplication.center.MacAddress;
+import com.example.a86151.stickapplication.center.NotifyPipeline;
+import com.example.a86151.stickapplication.center.SensorFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * notify接收通路：特性值解码、放入帧总线、消费者取出。legacyBroadcastString是改造前
+ * broadcastUpdate把特性值逐字符拼接到UUID字符串后面的做法，作为对照
+ **************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotifyPathBenchmark {
+    private static final UUID ACCELEROMETER = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+
+    private final long mMac = MacAddress.pack("C8:FD:19:00:12:34");
+    private final byte[] mValue = new byte[20];//默认MTU下一个notify最多20字节
+    private final SensorFrame mFrame = new SensorFrame();
+    private NotifyPipeline mPipeline;
+    private FrameSubscription mSubscription;
+    private int mCharacteristicId;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < mValue.length; i++) {
+            mValue[i] = (byte) (i * 37);
+        }
+        mPipeline = new NotifyPipeline(new CharacteristicRegistry(), new FramePool(8));
+        final FrameBus bus = new FrameBus();
+        mPipeline.setFrameListener(bus);
+        mCharacteristicId = mPipeline.getRegistry().register(ACCELEROMETER, Int16FrameDecoder.LITTLE_ENDIAN);
+        mSubscription = bus.subscribe(mCharacteristicId, 1024, FrameRing.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /***************************************************************************************************
+     * 按UUID查找特性ID、解码并发布，再由消费者取出
+     **************************************************************************************************/
+    @Benchmark
+    public boolean decodeByUuid() {
+        mPipeline.onNotification(mMac, ACCELEROMETER, mValue, 1L);
+        return mSubscription.poll(mFrame);
+    }
+
+    @Benchmark
+    public boolean decodeById() {
+        mPipeline.onNotification(mMac, mCharacteristicId, mValue, 0, mValue.length, 1L);
+        return mSubscription.poll(mFrame);
+    }
+
+    @Benchmark
+    public String legacyBroadcastString() {
+        String s = ACCELEROMETER.toString();
+        for (byte data : mValue) {
+            s += (char) data;
+        }
+        return s;
+    }
+}
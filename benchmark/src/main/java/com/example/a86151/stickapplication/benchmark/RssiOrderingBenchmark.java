@@ -0,0 +1,99 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import com.example.a86151.stickapplication.center.AdvertisingData;
+import com.example.a86151.stickapplication.center.DeviceRegistry;
+import com.example.a86151.stickapplication.center.RssiTracker;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 按RSSI排序：每个扫描结果先经过RssiTracker平滑，再按带滞回的排序值更新列表；
+ * rawOrdering直接用原始RSSI排序作为对照。辅助计数器moves是列表位置变化的次数
+ **************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RssiOrderingBenchmark {
+    private static final int DEVICES = 32;
+    private static final int SEQUENCE = 4096;
+
+    /***************************************************************************************************
+     * 列表位置变化的次数，每次迭代清零
+     **************************************************************************************************/
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Moves {
+        public long moves;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            moves = 0;
+        }
+    }
+
+    private final DeviceRegistry<RssiTracker> mRegistry = new DeviceRegistry<RssiTracker>();
+    private final DeviceRegistry.ChangeSet mChanges = new DeviceRegistry.ChangeSet();
+    private int[] mDevice;
+    private int[] mRssi;
+    private int mNext;
+    private long mNanos;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(7);
+        mDevice = new int[SEQUENCE];
+        mRssi = new int[SEQUENCE];
+        for (int i = 0; i < SEQUENCE; i++) {
+            mDevice[i] = random.nextInt(DEVICES);
+            //每个设备的平均RSSI固定，叠加4dB的噪声
+            mRssi[i] = -50 - mDevice[i] + (int) Math.round(random.nextGaussian() * 4);
+        }
+        for (int i = 0; i < DEVICES; i++) {
+            mRegistry.update(i, -50 - i, new RssiTracker(), null);
+        }
+    }
+
+    @Benchmark
+    public int smoothedOrdering(Moves counters) {
+        final int i = mNext++ & (SEQUENCE - 1);
+        final RssiTracker tracker = mRegistry.find(mDevice[i]).getValue();
+        mNanos += 10000000L;//100Hz的扫描结果
+        tracker.add(mRssi[i], mNanos, AdvertisingData.NO_TX_POWER);
+        return reorder(mDevice[i], tracker.getSortKey(), counters);
+    }
+
+    @Benchmark
+    public int rawOrdering(Moves counters) {
+        final int i = mNext++ & (SEQUENCE - 1);
+        return reorder(mDevice[i], mRssi[i], counters);
+    }
+
+    private int reorder(long mac, int sortKey, Moves counters) {
+        mRegistry.update(mac, sortKey, null, mChanges);
+        for (int k = 0; k < mChanges.size(); k++) {
+            if (mChanges.kind(k) == DeviceRegistry.ChangeSet.MOVED) {
+                counters.moves++;
+            }
+        }
+        final int position = mChanges.to(mChanges.size() - 1);
+        mChanges.clear();
+        return position;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import com.example.a86151.stickapplication.center.AdvertisingData;
+import com.example.a86151.stickapplication.center.ScanResultCoalescer;
+import com.example.a86151.stickapplication.center.StickAdvertisement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 扫描结果通路：广播数据解析、手杖状态更新（内容不变时跳过解析）、扫描结果合并
+ **************************************************************************************************/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScanPathBenchmark {
+    private static final int DEVICES = 16;
+
+    private final AdvertisingData mParser = new AdvertisingData();
+    private final StickAdvertisement mStick = new StickAdvertisement();
+    private final ScanResultCoalescer mCoalescer = new ScanResultCoalescer();
+    private final byte[][] mRecords = new byte[2][];
+    private int mNext;
+    private long mDelivered;
+    private final ScanResultCoalescer.Sink mSink = new ScanResultCoalescer.Sink() {
+        @Override
+        public void onScanResult(long mac, String name, int rssi, byte[] scanRecord) {
+            mDelivered += rssi;
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < mRecords.length; i++) {
+            //flags、16位服务UUID、发射功率、厂商数据（版本、电量、状态）、设备名，按扫描记录的62字节补零
+            final byte[] record = new byte[62];
+            final byte[] ad = {
+                    2, 0x01, 0x06,
+                    3, 0x03, (byte) 0xF0, (byte) 0xFF,
+                    2, 0x0A, (byte) 0xF4,
+                    6, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1, (byte) (80 + i), (byte) i,
+                    7, 0x09, 'i', 'S', 't', 'i', 'c', 'k'};
+            System.arraycopy(ad, 0, record, 0, ad.length);
+            mRecords[i] = record;
+        }
+    }
+
+    @Benchmark
+    public int parseAdvertisement() {
+        mParser.parse(mRecords[mNext++ & 1]);
+        return mParser.getTxPower();
+    }
+
+    /***************************************************************************************************
+     * 同一设备的广播内容绝大多数时候不变，这里每8次换一次内容
+     **************************************************************************************************/
+    @Benchmark
+    public boolean updateStickStatus() {
+        return mStick.update(mRecords[(mNext++ >> 3) & 1], mParser);
+    }
+
+    /***************************************************************************************************
+     * 一个刷新周期内16个设备各上报4次，合并后一次性取出
+     **************************************************************************************************/
+    @Benchmark
+    public long coalesceScanBurst() {
+        for (int i = 0; i < DEVICES * 4; i++) {
+            mCoalescer.offer(0xC8FD19000000L + (i % DEVICES), "iStick", -60 - i, mRecords[i & 1]);
+        }
+        mCoalescer.drain(mSink);
+        return mDelivered;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.a86151.stickapplication.benchmark;
+
+import com.example.a86151.stickapplication.center.CharacteristicRegistry;
+import com.example.a86151.stickapplication.center.ConnectionStateMachine;
+import com.example.a86151.stickapplication.center.FrameBus;
+import com.example.a86151.stickapplication.center.FramePool;
+import com.example.a86151.stickapplication.center.FrameReassembler;
+import com.example.a86151.stickapplication.center.FrameRing;
+import com.example.a86151.stickapplication.center.FrameSubscription;
+import com.example.a86151.stickapplication.center.GattTraceReader;
+import com.example.a86151.stickapplication.center.GattTraceReplayer;
+import com.example.a86151.stickapplication.center.Int16FrameDecoder;
+import com.example.a86151.stickapplication.center.MacAddress;
+import com.example.a86151.stickapplication.center.NotifyPipeline;
+import com.example.a86151.stickapplication.center.PipelineMetrics;
+import com.example.a86151.stickapplication.center.SensorFrame;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 在工作站上重放现场记录的GATT trace（BluetoothLeService.startCapture或dumpsys ... capture start），
+ * 经过与服务相同的NotifyPipeline和FrameBus，由一个消费者线程取帧，最后打印重放统计、各阶段延迟和分帧统计。
+ * 用法：TraceReplay <trace> [speed] [int16=<uuid>] [framed=<uuid>] ...
+ * speed为1按现场时间，N为N倍速，0为尽快重放（默认）；int16指定按小端int16解码的特性，framed指定带分帧头的特性，
+ * 其余特性按原始数据解码
+ **************************************************************************************************/
+public final class TraceReplay {
+    private TraceReplay() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplay <trace> [speed] [int16=<uuid>] [framed=<uuid>] ...");
+            System.exit(2);
+        }
+        final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        final NotifyPipeline pipeline = new NotifyPipeline(new CharacteristicRegistry(), new FramePool(8));
+        for (int i = 2; i < args.length; i++) {
+            final int separator = args[i].indexOf('=');
+            final String option = separator < 0 ? "" : args[i].substring(0, separator);
+            if ("int16".equals(option)) {
+                pipeline.getRegistry().register(UUID.fromString(args[i].substring(separator + 1)),
+                        Int16FrameDecoder.LITTLE_ENDIAN);
+            } else if ("framed".equals(option)) {
+                pipeline.setFramed(UUID.fromString(args[i].substring(separator + 1)), true);
+            } else {
+                System.err.println("unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final FrameBus bus = new FrameBus();
+        bus.setMetrics(metrics);
+        pipeline.setFrameListener(bus);
+        final FrameSubscription subscription = bus.subscribe(FrameBus.ALL_CHARACTERISTICS, 1024,
+                FrameRing.OverflowPolicy.DROP_OLDEST);
+        final long[] consumed = new long[1];
+        final Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final SensorFrame frame = new SensorFrame();
+                try {
+                    while (!subscription.isClosed() || subscription.getBacklog() > 0) {
+                        if (subscription.take(frame, 100, TimeUnit.MILLISECONDS)) {
+                            consumed[0]++;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "consumer");
+        consumer.start();
+
+        //记下出现过的设备，最后按设备打印分帧统计
+        final Set<Long> devices = new LinkedHashSet<Long>();
+        final GattTraceReplayer.Sink target = GattTraceReplayer.forPipeline(pipeline);
+        final GattTraceReplayer.Sink sink = new GattTraceReplayer.Sink() {
+            @Override
+            public void onConnectionState(long deviceAddress, ConnectionStateMachine.State state,
+                                          long timestampNanos) {
+                devices.add(deviceAddress);
+                target.onConnectionState(deviceAddress, state, timestampNanos);
+            }
+
+            @Override
+            public void onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+                devices.add(deviceAddress);
+                target.onNotification(deviceAddress, uuid, value, timestampNanos);
+            }
+
+            @Override
+            public void onRead(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+                target.onRead(deviceAddress, uuid, value, timestampNanos);
+            }
+
+            @Override
+            public void onWrite(long deviceAddress, UUID uuid, byte[] value, boolean withResponse,
+                                long timestampNanos) {
+                target.onWrite(deviceAddress, uuid, value, withResponse, timestampNanos);
+            }
+        };
+        final GattTraceReader reader = new GattTraceReader(new FileInputStream(args[0]));
+        final GattTraceReplayer.Stats stats;
+        try {
+            stats = GattTraceReplayer.replay(reader, sink, speed);
+        } finally {
+            reader.close();
+        }
+        subscription.close();
+        consumer.join();
+
+        System.out.println(stats);
+        System.out.println(consumed[0] + " frames consumed, " + subscription.getDropped() + " dropped, "
+                + pipeline.getDecodeErrors() + " decode errors");
+        System.out.print(metrics);
+        final FrameReassembler.Counters counters = new FrameReassembler.Counters();
+        for (long device : devices) {
+            pipeline.getFrameCounters(device, counters);
+            if (counters.packets > 0) {
+                System.out.println(MacAddress.format(device) + " framed " + counters);
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 广播数据解析结果。parse()原地遍历scanRecord中的AD结构，只记录偏移和长度，不复制数据也不分配内存，
+ * 对象可反复使用。解析结果引用传入的数组，数组内容改变后需要重新解析
+ **************************************************************************************************/
+public final class AdvertisingData {
+    public static final int NO_TX_POWER = Integer.MIN_VALUE;
+    public static final int NO_MANUFACTURER = -1;
+    public static final int MAX_UUIDS = 16;
+
+    //AD类型
+    static final int TYPE_FLAGS = 0x01;
+    static final int TYPE_UUID16_PARTIAL = 0x02;
+    static final int TYPE_UUID16_COMPLETE = 0x03;
+    static final int TYPE_UUID128_PARTIAL = 0x06;
+    static final int TYPE_UUID128_COMPLETE = 0x07;
+    static final int TYPE_NAME_SHORT = 0x08;
+    static final int TYPE_NAME_COMPLETE = 0x09;
+    static final int TYPE_TX_POWER = 0x0A;
+    static final int TYPE_MANUFACTURER = 0xFF;
+
+    private byte[] mRecord;
+    private int mLength;//有效数据长度，不含末尾补齐的0
+    private int mFlags;
+    private int mTxPower;
+    private final int[] mUuid16 = new int[MAX_UUIDS];
+    private int mUuid16Count;
+    private final int[] mUuid128Offsets = new int[MAX_UUIDS];//每个128位UUID在record中的偏移（小端）
+    private int mUuid128Count;
+    private int mManufacturerId;
+    private int mManufacturerOffset;//厂商ID之后的数据
+    private int mManufacturerLength;
+    private int mNameOffset;
+    private int mNameLength;
+
+    /***************************************************************************************************
+     * 解析record[offset, offset+length)，遇到格式错误的AD结构时停止并返回false，已解析的部分仍然有效
+     **************************************************************************************************/
+    public boolean parse(byte[] record, int offset, int length) {
+        mRecord = record;
+        mLength = 0;
+        mFlags = 0;
+        mTxPower = NO_TX_POWER;
+        mUuid16Count = 0;
+        mUuid128Count = 0;
+        mManufacturerId = NO_MANUFACTURER;
+        mManufacturerOffset = 0;
+        mManufacturerLength = 0;
+        mNameOffset = 0;
+        mNameLength = 0;
+        if (record == null) {
+            return false;
+        }
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            final int adLength = record[i] & 0xFF;
+            if (adLength == 0) {
+                break;//后面是补齐的0
+            }
+            if (i + 1 + adLength > end) {
+                return false;
+            }
+            final int type = record[i + 1] & 0xFF;
+            final int data = i + 2;
+            final int dataLength = adLength - 1;
+            switch (type) {
+                case TYPE_FLAGS:
+                    if (dataLength >= 1) {
+                        mFlags = record[data] & 0xFF;
+                    }
+                    break;
+                case TYPE_UUID16_PARTIAL:
+                case TYPE_UUID16_COMPLETE:
+                    for (int p = data; p + 2 <= data + dataLength && mUuid16Count < MAX_UUIDS; p += 2) {
+                        mUuid16[mUuid16Count++] = (record[p] & 0xFF) | (record[p + 1] & 0xFF) << 8;
+                    }
+                    break;
+                case TYPE_UUID128_PARTIAL:
+                case TYPE_UUID128_COMPLETE:
+                    for (int p = data; p + 16 <= data + dataLength && mUuid128Count < MAX_UUIDS; p += 16) {
+                        mUuid128Offsets[mUuid128Count++] = p;
+                    }
+                    break;
+                case TYPE_NAME_SHORT:
+                case TYPE_NAME_COMPLETE:
+                    if (mNameLength == 0 || type == TYPE_NAME_COMPLETE) {
+                        mNameOffset = data;
+                        mNameLength = dataLength;
+                    }
+                    break;
+                case TYPE_TX_POWER:
+                    if (dataLength >= 1) {
+                        mTxPower = record[data];//有符号dBm
+                    }
+                    break;
+                case TYPE_MANUFACTURER:
+                    if (dataLength >= 2 && mManufacturerId == NO_MANUFACTURER) {
+                        mManufacturerId = (record[data] & 0xFF) | (record[data + 1] & 0xFF) << 8;
+                        mManufacturerOffset = data + 2;
+                        mManufacturerLength = dataLength - 2;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            i += 1 + adLength;
+            mLength = i - offset;
+        }
+        return true;
+    }
+
+    public boolean parse(byte[] record) {
+        return parse(record, 0, record == null ? 0 : record.length);
+    }
+
+    /***************************************************************************************************
+     * 广播数据的有效长度和FNV-1a哈希，用于判断同一设备的广播内容是否变化，不需要解析
+     **************************************************************************************************/
+    public static int significantLength(byte[] record) {
+        if (record == null) {
+            return 0;
+        }
+        int i = 0;
+        while (i < record.length) {
+            final int adLength = record[i] & 0xFF;
+            if (adLength == 0 || i + 1 + adLength > record.length) {
+                break;
+            }
+            i += 1 + adLength;
+        }
+        return i;
+    }
+
+    public static int hash(byte[] record, int length) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            h = (h ^ (record[i] & 0xFF)) * 0x01000193;
+        }
+        return h;
+    }
+
+    public byte[] getRecord() {
+        return mRecord;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public int getFlags() {
+        return mFlags;
+    }
+
+    public int getTxPower() {
+        return mTxPower;
+    }
+
+    public boolean hasTxPower() {
+        return mTxPower != NO_TX_POWER;
+    }
+
+    public int getUuid16Count() {
+        return mUuid16Count;
+    }
+
+    public int getUuid16(int i) {
+        return mUuid16[i];
+    }
+
+    public boolean hasUuid16(int uuid) {
+        for (int i = 0; i < mUuid16Count; i++) {
+            if (mUuid16[i] == uuid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getUuid128Count() {
+        return mUuid128Count;
+    }
+
+    public int getUuid128Offset(int i) {
+        return mUuid128Offsets[i];
+    }
+
+    public int getManufacturerId() {
+        return mManufacturerId;
+    }
+
+    public int getManufacturerOffset() {
+        return mManufacturerOffset;
+    }
+
+    public int getManufacturerLength() {
+        return mManufacturerLength;
+    }
+
+    /***************************************************************************************************
+     * 厂商数据中第index个字节（无符号），越界返回-1
+     **************************************************************************************************/
+    public int manufacturerByte(int index) {
+        if (index < 0 || index >= mManufacturerLength) {
+            return -1;
+        }
+        return mRecord[mManufacturerOffset + index] & 0xFF;
+    }
+
+    public int getNameOffset() {
+        return mNameOffset;
+    }
+
+    public int getNameLength() {
+        return mNameLength;
+    }
+}
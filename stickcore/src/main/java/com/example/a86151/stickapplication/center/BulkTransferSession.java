@@ -0,0 +1,357 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.ArrayDeque;
+
+/***************************************************************************************************
+ * 向手杖批量写入固件或配置数据的传输过程，与GATT无关，由BulkTransfer接到连接的操作队列上。
+ * 控制特性（有应答写，可读）：
+ *     开始[CMD_START, 总长度(4), 全部数据的CRC32(4)]，与手杖上未完成的传输相同时保留已确认位置，否则从头开始；
+ *     检查[CMD_CHECK, 位置(4), 0到位置的CRC32(4)]，手杖连续收到了这么多数据且CRC一致时返回成功并确认该位置，
+ *     否则返回错误；结束[CMD_FINISH]，手杖校验全部数据后返回成功；取消[CMD_ABORT]；
+ *     读取返回手杖已确认的[位置(4), CRC32(4)]。
+ * 数据特性（无应答写）：[偏移(4)] + 数据，手杖只接受偏移不大于已收到长度的包（从该偏移处覆盖），其余丢弃。
+ * 数据按MTU分块连续发送，每windowChunks块后插入一次检查；未确认的数据不超过两个窗口，
+ * 检查成功后继续发送（信用窗口）。检查失败时回到最后确认的位置重发；断线后重新开始时先读取手杖的位置，
+ * 与本地CRC一致时从该位置继续。所有多字节数字为小端。所有方法在同一线程中调用
+ **************************************************************************************************/
+public final class BulkTransferSession {
+    public static final byte CMD_START = 1;
+    public static final byte CMD_CHECK = 2;
+    public static final byte CMD_FINISH = 3;
+    public static final byte CMD_ABORT = 4;
+    public static final int CHUNK_HEADER = 4;
+    public static final int DEFAULT_WINDOW_CHUNKS = 32;
+    public static final int DEFAULT_MAX_REWINDS = 8;
+    private static final int ATT_HEADER = 3;
+    private static final int READ_STATE = -1;//待完成操作中的读取
+
+    /***************************************************************************************************
+     * 传输通道：data为无应答写，command和readState的结果按调用顺序通过onResult返回
+     **************************************************************************************************/
+    public interface Link {
+        void writeData(byte[] packet);
+
+        void writeCommand(byte[] command);
+
+        void readState();
+    }
+
+    /***************************************************************************************************
+     * 传输进度回调，在调用会话方法的线程中调用
+     **************************************************************************************************/
+    public interface Listener {
+        void onProgress(long confirmed, long total, long bytesPerSecond);
+
+        void onComplete(long bytesPerSecond);
+
+        void onFailed(String reason);
+    }
+
+    public enum State {
+        IDLE,
+        STARTING,//等待开始命令和读取手杖位置的结果
+        SENDING,
+        FINISHING,
+        INTERRUPTED,//连接断开，等待resume
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i;
+            for (int k = 0; k < 8; k++) {
+                c = (c & 1) != 0 ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private final byte[] mData;
+    private final Link mLink;
+    private final Listener mListener;
+    private final int mTotalCrc;
+    private int mWindowChunks = DEFAULT_WINDOW_CHUNKS;
+    private int mMaxRewinds = DEFAULT_MAX_REWINDS;
+    private State mState = State.IDLE;
+    private int mChunkSize;
+    private int mConfirmed;//手杖已确认的位置
+    private int mConfirmedCrc;
+    private int mSent;//已发送的位置
+    private int mSentCrc;
+    private int mChunksSinceCheck;
+    private int mRewinds;//没有进展的连续重发次数
+    //已发出、结果未返回的命令：{命令, 位置, 该位置的CRC}，结果按顺序返回
+    private final ArrayDeque<int[]> mPending = new ArrayDeque<int[]>();
+    private int mIgnoredResults;//重发前已发出的检查，结果必然失败，忽略
+    private long mActiveNanos;//发送中的累计时间，不含断线等待
+    private long mActiveSince;
+    private long mTransferred;//各次连接中新确认的字节数
+    private long mRetransmitted;
+
+    public BulkTransferSession(byte[] data, Link link, Listener listener) {
+        mData = data;
+        mLink = link;
+        mListener = listener;
+        mTotalCrc = crc32(0, data, 0, data.length);
+    }
+
+    /***************************************************************************************************
+     * 每隔多少块插入一次检查，越大吞吐越高，检查失败时重发的数据越多
+     **************************************************************************************************/
+    public BulkTransferSession setWindowChunks(int windowChunks) {
+        mWindowChunks = Math.max(1, windowChunks);
+        return this;
+    }
+
+    public BulkTransferSession setMaxRewinds(int maxRewinds) {
+        mMaxRewinds = maxRewinds;
+        return this;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public long getConfirmed() {
+        return mConfirmed;
+    }
+
+    public long getTotal() {
+        return mData.length;
+    }
+
+    /***************************************************************************************************
+     * 因检查失败重发的字节数
+     **************************************************************************************************/
+    public long getRetransmitted() {
+        return mRetransmitted;
+    }
+
+    /***************************************************************************************************
+     * 持续传输速率：新确认的字节数除以发送中的时间，不含断线等待
+     **************************************************************************************************/
+    public long getBytesPerSecond() {
+        long active = mActiveNanos;
+        if (mActiveSince != 0) {
+            active += System.nanoTime() - mActiveSince;
+        }
+        return active <= 0 ? 0 : (long) (mTransferred * 1e9 / active);
+    }
+
+    /***************************************************************************************************
+     * 开始传输，或断线重连后继续。mtu为当前的ATT MTU
+     **************************************************************************************************/
+    public void start(int mtu) {
+        if (mState != State.IDLE && mState != State.INTERRUPTED) {
+            return;
+        }
+        mChunkSize = Math.max(1, mtu - ATT_HEADER - CHUNK_HEADER);
+        mPending.clear();
+        mIgnoredResults = 0;
+        mState = State.STARTING;
+        final byte[] command = new byte[9];
+        command[0] = CMD_START;
+        putInt(command, 1, mData.length);
+        putInt(command, 5, mTotalCrc);
+        command(command, CMD_START, 0, 0);
+        mPending.addLast(new int[]{READ_STATE, 0, 0});
+        mLink.readState();
+    }
+
+    /***************************************************************************************************
+     * 连接断开，已发出的命令不再有结果
+     **************************************************************************************************/
+    public void onDisconnected() {
+        if (mState == State.STARTING || mState == State.SENDING || mState == State.FINISHING) {
+            pause();
+            mState = State.INTERRUPTED;
+        }
+    }
+
+    public void cancel() {
+        if (mState == State.DONE || mState == State.FAILED || mState == State.CANCELLED) {
+            return;
+        }
+        final boolean connected = mState != State.INTERRUPTED && mState != State.IDLE;
+        pause();
+        mState = State.CANCELLED;
+        if (connected) {
+            mLink.writeCommand(new byte[]{CMD_ABORT});
+        }
+    }
+
+    /***************************************************************************************************
+     * 命令或读取的结果，按发出的顺序调用。value为读取到的值，命令时为null
+     **************************************************************************************************/
+    public void onResult(boolean success, byte[] value) {
+        if (mState != State.STARTING && mState != State.SENDING && mState != State.FINISHING) {
+            return;
+        }
+        final int[] pending = mPending.pollFirst();
+        if (pending == null) {
+            return;
+        }
+        if (mIgnoredResults > 0) {
+            mIgnoredResults--;
+            return;
+        }
+        switch (pending[0]) {
+            case CMD_START:
+                if (!success) {
+                    fail("start rejected");
+                }
+                break;
+            case READ_STATE:
+                onState(success ? value : null);
+                break;
+            case CMD_CHECK:
+                if (success) {
+                    onConfirmed(pending[1], pending[2]);
+                } else {
+                    rewind();
+                }
+                break;
+            case CMD_FINISH:
+                if (success) {
+                    pause();
+                    mState = State.DONE;
+                    mListener.onComplete(getBytesPerSecond());
+                } else {
+                    //整体校验失败，从头重发
+                    mConfirmed = 0;
+                    mConfirmedCrc = 0;
+                    rewind();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onState(byte[] value) {
+        int offset = 0;
+        int crc = 0;
+        if (value != null && value.length >= 8) {
+            offset = getInt(value, 0);
+            crc = getInt(value, 4);
+        }
+        if (offset < 0 || offset > mData.length || crc32(0, mData, 0, offset) != crc) {
+            offset = 0;//手杖上的数据与本次不符，从头发送
+            crc = 0;
+        }
+        mConfirmed = offset;
+        mConfirmedCrc = crc;
+        mSent = offset;
+        mSentCrc = crc;
+        mChunksSinceCheck = 0;
+        mState = State.SENDING;
+        mActiveSince = System.nanoTime();
+        pump();
+    }
+
+    private void onConfirmed(int offset, int crc) {
+        if (offset > mConfirmed) {
+            mTransferred += offset - mConfirmed;
+            mConfirmed = offset;
+            mConfirmedCrc = crc;
+            mRewinds = 0;
+        }
+        mListener.onProgress(mConfirmed, mData.length, getBytesPerSecond());
+        pump();
+    }
+
+    /***************************************************************************************************
+     * 检查失败：之后已发出的检查必然失败，忽略其结果，从最后确认的位置重发
+     **************************************************************************************************/
+    private void rewind() {
+        if (++mRewinds > mMaxRewinds) {
+            fail("no progress after " + mMaxRewinds + " retransmissions at offset " + mConfirmed);
+            return;
+        }
+        mRetransmitted += mSent - mConfirmed;
+        mIgnoredResults = mPending.size();
+        mSent = mConfirmed;
+        mSentCrc = mConfirmedCrc;
+        mChunksSinceCheck = 0;
+        mState = State.SENDING;
+        pump();
+    }
+
+    /***************************************************************************************************
+     * 在信用窗口内发送数据块，每windowChunks块和数据末尾插入检查，全部确认后发送结束命令
+     **************************************************************************************************/
+    private void pump() {
+        if (mState != State.SENDING) {
+            return;
+        }
+        final int credit = 2 * mWindowChunks * mChunkSize;
+        while (mSent < mData.length && mSent - mConfirmed < credit) {
+            final int length = Math.min(mChunkSize, mData.length - mSent);
+            final byte[] packet = new byte[CHUNK_HEADER + length];
+            putInt(packet, 0, mSent);
+            System.arraycopy(mData, mSent, packet, CHUNK_HEADER, length);
+            mLink.writeData(packet);
+            mSentCrc = crc32(mSentCrc, mData, mSent, length);
+            mSent += length;
+            if (++mChunksSinceCheck >= mWindowChunks || mSent == mData.length) {
+                mChunksSinceCheck = 0;
+                final byte[] command = new byte[9];
+                command[0] = CMD_CHECK;
+                putInt(command, 1, mSent);
+                putInt(command, 5, mSentCrc);
+                command(command, CMD_CHECK, mSent, mSentCrc);
+            }
+        }
+        if (mConfirmed == mData.length && mPending.size() == mIgnoredResults) {
+            mState = State.FINISHING;
+            command(new byte[]{CMD_FINISH}, CMD_FINISH, 0, 0);
+        }
+    }
+
+    private void command(byte[] command, int type, int offset, int crc) {
+        mPending.addLast(new int[]{type, offset, crc});
+        mLink.writeCommand(command);
+    }
+
+    private void pause() {
+        if (mActiveSince != 0) {
+            mActiveNanos += System.nanoTime() - mActiveSince;
+            mActiveSince = 0;
+        }
+        mPending.clear();
+        mIgnoredResults = 0;
+    }
+
+    private void fail(String reason) {
+        pause();
+        mState = State.FAILED;
+        mListener.onFailed(reason);
+    }
+
+    /***************************************************************************************************
+     * 标准CRC32（与java.util.zip.CRC32相同），crc为之前部分的结果，可分段计算
+     **************************************************************************************************/
+    public static int crc32(int crc, byte[] data, int offset, int length) {
+        int c = ~crc;
+        for (int i = offset; i < offset + length; i++) {
+            c = CRC_TABLE[(c ^ data[i]) & 0xFF] ^ (c >>> 8);
+        }
+        return ~c;
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+    }
+}
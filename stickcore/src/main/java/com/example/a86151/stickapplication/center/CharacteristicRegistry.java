@@ -0,0 +1,143 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 特性UUID注册表。UUID只在第一次出现时分配一个小整数ID，之后每个数据包只做一次无分配的哈希查找，
+ * 不再把UUID格式化成字符串
+ **************************************************************************************************/
+public final class CharacteristicRegistry {
+    public static final int UNKNOWN_ID = -1;
+
+    private volatile Table mTable = new Table(16, 0);//读操作无锁，注册时整体替换（写时复制）
+
+    /***************************************************************************************************
+     * 注册特性及其解码器，返回特性ID。已注册的特性只更新解码器
+     **************************************************************************************************/
+    public synchronized int register(UUID uuid, FrameDecoder decoder) {
+        Table table = mTable;
+        int id = table.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (id != UNKNOWN_ID) {
+            Table copy = table.copy(table.slots.length);
+            copy.decoders[id] = decoder;
+            mTable = copy;
+            return id;
+        }
+        //装载因子超过1/2时扩容
+        Table copy = table.copy((table.size + 1) * 2 > table.slots.length ? table.slots.length * 2 : table.slots.length);
+        id = copy.insert(uuid, decoder);
+        mTable = copy;
+        return id;
+    }
+
+    /***************************************************************************************************
+     * 查找特性ID，未注册返回UNKNOWN_ID
+     **************************************************************************************************/
+    public int idOf(UUID uuid) {
+        return mTable.find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /***************************************************************************************************
+     * 查找特性ID，未注册的特性以原始数据解码器自动注册（只在第一次出现时分配内存）
+     **************************************************************************************************/
+    public int resolve(UUID uuid) {
+        int id = idOf(uuid);
+        if (id != UNKNOWN_ID) {
+            return id;
+        }
+        synchronized (this) {
+            id = idOf(uuid);
+            return id != UNKNOWN_ID ? id : register(uuid, RawFrameDecoder.INSTANCE);
+        }
+    }
+
+    public UUID uuidOf(int id) {
+        Table table = mTable;
+        return id >= 0 && id < table.size ? table.uuids[id] : null;
+    }
+
+    public FrameDecoder decoderOf(int id) {
+        Table table = mTable;
+        return id >= 0 && id < table.size ? table.decoders[id] : null;
+    }
+
+    public int size() {
+        return mTable.size;
+    }
+
+    /***************************************************************************************************
+     * 开放寻址哈希表，keys中存放UUID的高低64位，slots中存放ID
+     **************************************************************************************************/
+    private static final class Table {
+        final long[] keys;//每个槽位两个long：msb, lsb
+        final int[] slots;
+        final UUID[] uuids;//按ID索引
+        final FrameDecoder[] decoders;//按ID索引
+        int size;
+
+        Table(int capacity, int idCapacity) {
+            keys = new long[capacity * 2];
+            slots = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = UNKNOWN_ID;
+            }
+            uuids = new UUID[Math.max(idCapacity, capacity / 2)];
+            decoders = new FrameDecoder[uuids.length];
+        }
+
+        int find(long msb, long lsb) {
+            final int mask = slots.length - 1;
+            int i = hash(msb, lsb) & mask;
+            while (true) {
+                int id = slots[i];
+                if (id == UNKNOWN_ID) {
+                    return UNKNOWN_ID;
+                }
+                if (keys[i * 2] == msb && keys[i * 2 + 1] == lsb) {
+                    return id;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+
+        int insert(UUID uuid, FrameDecoder decoder) {
+            final long msb = uuid.getMostSignificantBits();
+            final long lsb = uuid.getLeastSignificantBits();
+            final int id = size++;
+            uuids[id] = uuid;
+            decoders[id] = decoder;
+            place(msb, lsb, id);
+            return id;
+        }
+
+        private void place(long msb, long lsb, int id) {
+            final int mask = slots.length - 1;
+            int i = hash(msb, lsb) & mask;
+            while (slots[i] != UNKNOWN_ID) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = id;
+            keys[i * 2] = msb;
+            keys[i * 2 + 1] = lsb;
+        }
+
+        Table copy(int capacity) {
+            Table t = new Table(capacity, size + 1);
+            System.arraycopy(uuids, 0, t.uuids, 0, size);
+            System.arraycopy(decoders, 0, t.decoders, 0, size);
+            t.size = size;
+            for (int id = 0; id < size; id++) {
+                t.place(uuids[id].getMostSignificantBits(), uuids[id].getLeastSignificantBits(), id);
+            }
+            return t;
+        }
+
+        private static int hash(long msb, long lsb) {
+            long h = msb ^ lsb;
+            h ^= (h >>> 33);
+            h *= 0xff51afd7ed558ccdL;
+            h ^= (h >>> 33);
+            return (int) h;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 每次连接尝试的耗时记录：发起连接到连接建立、到开始接收、到收到第一条notify。
+ * 按连接路径分别统计，用于比较快速重连和完整服务发现的效果
+ **************************************************************************************************/
+public final class ConnectAttemptLog {
+    public static final int PATH_FULL = 0;//完整服务发现，服务表与缓存不同或没有缓存
+    public static final int PATH_VERIFIED = 1;//完整服务发现，服务表与缓存一致
+    public static final int PATH_FAST = 2;//复用已发现的服务表，跳过服务发现
+    private static final String[] PATH_NAMES = {"full", "verified", "fast"};
+
+    public static final int CAPACITY = 64;
+
+    //最近CAPACITY次尝试，环形保存
+    private final long[] mMac = new long[CAPACITY];
+    private final int[] mPath = new int[CAPACITY];
+    private final long[] mConnectNanos = new long[CAPACITY];
+    private final long[] mReadyNanos = new long[CAPACITY];
+    private final long[] mFirstNotifyNanos = new long[CAPACITY];
+    private long mTotal;
+    //按路径累计首条notify耗时
+    private final long[] mCount = new long[PATH_NAMES.length];
+    private final long[] mSumNanos = new long[PATH_NAMES.length];
+    private final long[] mMaxNanos = new long[PATH_NAMES.length];
+
+    /***************************************************************************************************
+     * 记录一次成功的尝试，时间都相对于发起连接的时刻
+     **************************************************************************************************/
+    public synchronized void record(long mac, int path, long connectNanos, long readyNanos, long firstNotifyNanos) {
+        final int slot = (int) (mTotal % CAPACITY);
+        mMac[slot] = mac;
+        mPath[slot] = path;
+        mConnectNanos[slot] = connectNanos;
+        mReadyNanos[slot] = readyNanos;
+        mFirstNotifyNanos[slot] = firstNotifyNanos;
+        mTotal++;
+        mCount[path]++;
+        mSumNanos[path] += firstNotifyNanos;
+        mMaxNanos[path] = Math.max(mMaxNanos[path], firstNotifyNanos);
+    }
+
+    public synchronized long getCount(int path) {
+        return mCount[path];
+    }
+
+    /***************************************************************************************************
+     * 某条路径从发起连接到第一条notify的平均耗时，没有记录时返回0
+     **************************************************************************************************/
+    public synchronized long getMeanFirstNotifyNanos(int path) {
+        return mCount[path] == 0 ? 0 : mSumNanos[path] / mCount[path];
+    }
+
+    public synchronized long getMaxFirstNotifyNanos(int path) {
+        return mMaxNanos[path];
+    }
+
+    public synchronized long getTotal() {
+        return mTotal;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int path = 0; path < PATH_NAMES.length; path++) {
+            builder.append(PATH_NAMES[path]).append(": n=").append(mCount[path])
+                    .append(" mean=").append(getMeanFirstNotifyNanos(path) / 1000000).append("ms")
+                    .append(" max=").append(mMaxNanos[path] / 1000000).append("ms\n");
+        }
+        final long first = Math.max(0, mTotal - CAPACITY);
+        for (long i = first; i < mTotal; i++) {
+            final int slot = (int) (i % CAPACITY);
+            builder.append(MacAddress.format(mMac[slot])).append(' ').append(PATH_NAMES[mPath[slot]])
+                    .append(" connect=").append(mConnectNanos[slot] / 1000000)
+                    .append("ms ready=").append(mReadyNanos[slot] / 1000000)
+                    .append("ms firstNotify=").append(mFirstNotifyNanos[slot] / 1000000).append("ms\n");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/***************************************************************************************************
+ * 单个设备的连接状态机。状态在GATT回调线程中修改、在UI线程中读取，
+ * 所有迁移都通过CAS完成，不允许的迁移直接拒绝
+ **************************************************************************************************/
+public final class ConnectionStateMachine {
+    /***************************************************************************************************
+     * 连接状态
+     **************************************************************************************************/
+    public enum State {
+        DISCONNECTED,//未连接
+        CONNECTING,//正在建立连接
+        DISCOVERING,//已连接，正在发现服务
+        SUBSCRIBING,//正在打开notify
+        STREAMING,//数据接收中
+        BACKOFF//连接意外断开，等待重连
+    }
+
+    public interface Listener {
+        void onStateChanged(State from, State to);
+    }
+
+    private static final int[] ALLOWED = new int[State.values().length];
+
+    static {
+        allow(State.DISCONNECTED, State.CONNECTING);
+        allow(State.CONNECTING, State.DISCOVERING, State.BACKOFF, State.DISCONNECTED);
+        allow(State.DISCOVERING, State.SUBSCRIBING, State.BACKOFF, State.DISCONNECTED);
+        allow(State.SUBSCRIBING, State.STREAMING, State.BACKOFF, State.DISCONNECTED);
+        allow(State.STREAMING, State.SUBSCRIBING, State.BACKOFF, State.DISCONNECTED);
+        allow(State.BACKOFF, State.CONNECTING, State.DISCONNECTED);
+    }
+
+    private static void allow(State from, State... targets) {
+        for (State to : targets) {
+            ALLOWED[from.ordinal()] |= 1 << to.ordinal();
+        }
+    }
+
+    public static boolean isAllowed(State from, State to) {
+        return (ALLOWED[from.ordinal()] & (1 << to.ordinal())) != 0;
+    }
+
+    private final AtomicReference<State> mState = new AtomicReference<State>(State.DISCONNECTED);
+    private volatile Listener mListener;
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public State get() {
+        return mState.get();
+    }
+
+    /***************************************************************************************************
+     * 仅当当前状态为from时迁移到to
+     **************************************************************************************************/
+    public boolean transition(State from, State to) {
+        if (!isAllowed(from, to) || !mState.compareAndSet(from, to)) {
+            return false;
+        }
+        notifyListener(from, to);
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 从当前状态迁移到to，返回迁移前的状态；当前状态不允许迁移到to时返回null
+     **************************************************************************************************/
+    public State moveTo(State to) {
+        while (true) {
+            final State from = mState.get();
+            if (!isAllowed(from, to)) {
+                return null;
+            }
+            if (mState.compareAndSet(from, to)) {
+                notifyListener(from, to);
+                return from;
+            }
+        }
+    }
+
+    private void notifyListener(State from, State to) {
+        final Listener listener = mListener;
+        if (listener != null) {
+            listener.onStateChanged(from, to);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***************************************************************************************************
+ * 进程内共享的已知设备缓存：保存每个设备最近一次的名称、RSSI和广播数据，以及最后一次扫描到的时间。
+ * 条目数有上限，超出时淘汰最久没有扫描到的设备；超过TTL没有扫描到的设备视为过期，读取和保存时丢弃。
+ * 界面启动或恢复时先显示缓存中的设备（标记为未确认），收到广播后再刷新，不必每次从空列表重新发现。
+ * 以紧凑的二进制格式保存到文件，先写临时文件再改名，写入中断时保留上一次的内容。线程安全
+ **************************************************************************************************/
+public final class DeviceCache {
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_TTL_MS = 7L * 24 * 3600 * 1000;
+    private static final int MAGIC = 0x44564331;//"DVC1"
+    private static final int MAX_RECORD = 255;
+
+    /***************************************************************************************************
+     * 一个设备的缓存内容，getFresh返回的是副本
+     **************************************************************************************************/
+    public static final class Entry {
+        private final long mMac;
+        private String mName;
+        private int mRssi;
+        private byte[] mRecord;//有效长度的广播数据，内容变化时整体替换，不在原数组上修改
+        private long mLastSeenMillis;
+
+        Entry(long mac, String name, int rssi, byte[] record, long lastSeenMillis) {
+            mMac = mac;
+            mName = name;
+            mRssi = rssi;
+            mRecord = record;
+            mLastSeenMillis = lastSeenMillis;
+        }
+
+        public long getMac() {
+            return mMac;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getRssi() {
+            return mRssi;
+        }
+
+        public byte[] getRecord() {
+            return mRecord;
+        }
+
+        public long getLastSeenMillis() {
+            return mLastSeenMillis;
+        }
+    }
+
+    private final long mTtlMillis;
+    private final LinkedHashMap<Long, Entry> mEntries;//按最后扫描到的时间排序，最久的在前
+    private boolean mDirty;
+
+    public DeviceCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MS);
+    }
+
+    public DeviceCache(final int capacity, long ttlMillis) {
+        mTtlMillis = ttlMillis;
+        mEntries = new LinkedHashMap<Long, Entry>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, DeviceCache.Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /***************************************************************************************************
+     * 扫描到设备时调用：更新缓存并移到最新。name为null时保留原来的名称，广播数据内容不变时不复制
+     **************************************************************************************************/
+    public synchronized void seen(long mac, String name, int rssi, byte[] record, long nowMillis) {
+        final Entry entry = mEntries.get(mac);
+        if (entry == null) {
+            mEntries.put(mac, new Entry(mac, name, rssi, trim(record), nowMillis));
+        } else {
+            if (name != null) {
+                entry.mName = name;
+            }
+            entry.mRssi = rssi;
+            if (record != null && !sameRecord(entry.mRecord, record)) {
+                entry.mRecord = trim(record);
+            }
+            entry.mLastSeenMillis = nowMillis;
+        }
+        mDirty = true;
+    }
+
+    private static boolean sameRecord(byte[] cached, byte[] record) {
+        final int length = Math.min(AdvertisingData.significantLength(record), MAX_RECORD);
+        if (cached == null || cached.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != record[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] trim(byte[] record) {
+        if (record == null) {
+            return null;
+        }
+        final byte[] trimmed = new byte[Math.min(AdvertisingData.significantLength(record), MAX_RECORD)];
+        System.arraycopy(record, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    public synchronized boolean remove(long mac) {
+        final boolean removed = mEntries.remove(mac) != null;
+        mDirty |= removed;
+        return removed;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /***************************************************************************************************
+     * 没有过期的设备的副本，最近扫描到的在前。过期的设备同时从缓存中删除
+     **************************************************************************************************/
+    public synchronized List<Entry> getFresh(long nowMillis) {
+        expire(nowMillis);
+        final List<Entry> fresh = new ArrayList<Entry>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            fresh.add(0, new Entry(entry.mMac, entry.mName, entry.mRssi, entry.mRecord, entry.mLastSeenMillis));
+        }
+        return fresh;
+    }
+
+    /***************************************************************************************************
+     * 删除超过TTL没有扫描到的设备，返回删除的个数
+     **************************************************************************************************/
+    public synchronized int expire(long nowMillis) {
+        int removed = 0;
+        final Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowMillis - iterator.next().mLastSeenMillis > mTtlMillis) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        mDirty |= removed > 0;
+        return removed;
+    }
+
+    /***************************************************************************************************
+     * 从文件读取，替换当前内容，过期的设备不读入。文件不存在时为空；格式错误时抛出IOException，缓存为空
+     **************************************************************************************************/
+    public synchronized void load(File file, long nowMillis) throws IOException {
+        mEntries.clear();
+        mDirty = false;
+        if (!file.exists()) {
+            return;
+        }
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a device cache: " + file);
+            }
+            final int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                final long mac = (long) in.readUnsignedShort() << 32 | (in.readInt() & 0xFFFFFFFFL);
+                final long lastSeen = (in.readInt() & 0xFFFFFFFFL) * 1000;
+                final int rssi = in.readByte();
+                final String name = in.readUTF();
+                final byte[] record = new byte[in.readUnsignedByte()];
+                in.readFully(record);
+                if (nowMillis - lastSeen <= mTtlMillis) {
+                    //文件中最久的在前，按顺序插入保持LRU顺序
+                    mEntries.put(mac, new Entry(mac, name.length() == 0 ? null : name, rssi, record, lastSeen));
+                } else {
+                    mDirty = true;//下次保存时从文件中去掉
+                }
+            }
+        } catch (EOFException e) {
+            mEntries.clear();
+            throw new IOException("Truncated device cache: " + file);
+        } catch (IOException e) {
+            mEntries.clear();
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    /***************************************************************************************************
+     * 有变化时写入文件，返回是否写入。每个设备约14字节加名称和广播数据，时间精确到秒
+     **************************************************************************************************/
+    public synchronized boolean saveIfDirty(File file) throws IOException {
+        if (!mDirty) {
+            return false;
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeShort(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                out.writeShort((int) (entry.mMac >>> 32));
+                out.writeInt((int) entry.mMac);
+                out.writeInt((int) (entry.mLastSeenMillis / 1000));
+                out.writeByte(entry.mRssi);
+                out.writeUTF(entry.mName == null ? "" : entry.mName);
+                final int length = entry.mRecord == null ? 0 : entry.mRecord.length;
+                out.writeByte(length);
+                if (length > 0) {
+                    out.write(entry.mRecord, 0, length);
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        mDirty = false;
+        return true;
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 按信号强度排序的设备表。MAC地址打包成long后通过开放寻址哈希索引找到设备，
+ * 新设备按序插入、已有设备RSSI变化时只在原位置附近移动，每次更新产生最小的变化集合，
+ * 不再需要遍历整个列表和整体重新排序
+ **************************************************************************************************/
+public final class DeviceRegistry<T> {
+    /***************************************************************************************************
+     * 设备项，position为在排序数组中的当前位置
+     **************************************************************************************************/
+    public static final class Entry<T> {
+        final long mac;
+        int rssi;
+        int position;
+        T value;
+
+        Entry(long mac) {
+            this.mac = mac;
+        }
+
+        public long getMac() {
+            return mac;
+        }
+
+        public int getRssi() {
+            return rssi;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+
+    /***************************************************************************************************
+     * 变化集合，记录一次或多次更新产生的插入、移动、更新操作，对象可复用
+     **************************************************************************************************/
+    public static final class ChangeSet {
+        public static final int INSERTED = 1;//a=插入位置
+        public static final int MOVED = 2;//a=原位置, b=新位置
+        public static final int UPDATED = 3;//a=位置
+        public static final int REMOVED = 4;//a=删除前的位置
+
+        private int[] mOps = new int[48];
+        private int mCount;
+
+        void add(int kind, int a, int b) {
+            if (mCount * 3 + 3 > mOps.length) {
+                int[] grown = new int[mOps.length * 2];
+                System.arraycopy(mOps, 0, grown, 0, mCount * 3);
+                mOps = grown;
+            }
+            mOps[mCount * 3] = kind;
+            mOps[mCount * 3 + 1] = a;
+            mOps[mCount * 3 + 2] = b;
+            mCount++;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        public int kind(int i) {
+            return mOps[i * 3];
+        }
+
+        public int from(int i) {
+            return mOps[i * 3 + 1];
+        }
+
+        public int to(int i) {
+            return mOps[i * 3 + 2];
+        }
+
+        /***************************************************************************************************
+         * 是否只有内容更新，没有插入、移动和删除
+         **************************************************************************************************/
+        public boolean isUpdateOnly() {
+            for (int i = 0; i < mCount; i++) {
+                if (mOps[i * 3] != UPDATED) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public void clear() {
+            mCount = 0;
+        }
+    }
+
+    private Entry<T>[] mOrder;//按RSSI从大到小排列
+    private int mSize;
+    private long[] mKeys;//哈希索引，存放mac+1，0表示空槽
+    private Entry<T>[] mSlots;
+
+    public DeviceRegistry() {
+        this(64);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DeviceRegistry(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(8, initialCapacity) * 2 - 1);
+        mOrder = new Entry[capacity];
+        mKeys = new long[capacity * 2];
+        mSlots = new Entry[capacity * 2];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public T get(int position) {
+        return mOrder[position].value;
+    }
+
+    public Entry<T> entryAt(int position) {
+        return mOrder[position];
+    }
+
+    public Entry<T> find(long mac) {
+        final int slot = slotOf(mac);
+        return slot < 0 ? null : mSlots[slot];
+    }
+
+    public int indexOf(long mac) {
+        final Entry<T> entry = find(mac);
+        return entry == null ? -1 : entry.position;
+    }
+
+    /***************************************************************************************************
+     * 新增或更新设备，变化追加到changes中（可为null）。已存在的设备保留原来的value
+     **************************************************************************************************/
+    public Entry<T> update(long mac, int rssi, T value, ChangeSet changes) {
+        Entry<T> entry = find(mac);
+        if (entry == null) {
+            entry = new Entry<T>(mac);
+            entry.rssi = rssi;
+            entry.value = value;
+            insert(entry);
+            if (changes != null) {
+                changes.add(ChangeSet.INSERTED, entry.position, entry.position);
+            }
+            return entry;
+        }
+        final int from = entry.position;
+        if (entry.rssi != rssi) {
+            entry.rssi = rssi;
+            reposition(entry);
+        }
+        if (changes != null) {
+            if (entry.position != from) {
+                changes.add(ChangeSet.MOVED, from, entry.position);
+            }
+            changes.add(ChangeSet.UPDATED, entry.position, entry.position);
+        }
+        return entry;
+    }
+
+    /***************************************************************************************************
+     * 删除设备，不存在返回false
+     **************************************************************************************************/
+    public boolean remove(long mac, ChangeSet changes) {
+        final int slot = slotOf(mac);
+        if (slot < 0) {
+            return false;
+        }
+        final Entry<T> entry = mSlots[slot];
+        deleteSlot(slot);
+        final int position = entry.position;
+        System.arraycopy(mOrder, position + 1, mOrder, position, mSize - position - 1);
+        mOrder[--mSize] = null;
+        for (int i = position; i < mSize; i++) {
+            mOrder[i].position = i;
+        }
+        if (changes != null) {
+            changes.add(ChangeSet.REMOVED, position, position);
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mOrder[i] = null;
+        }
+        mSize = 0;
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = 0;
+            mSlots[i] = null;
+        }
+    }
+
+    /***************************************************************************************************
+     * 排序规则：RSSI大的在前，RSSI相同按MAC升序，保证全序
+     **************************************************************************************************/
+    private static boolean before(int rssiA, long macA, int rssiB, long macB) {
+        return rssiA != rssiB ? rssiA > rssiB : macA < macB;
+    }
+
+    private void insert(Entry<T> entry) {
+        if (mSize == mOrder.length) {
+            grow();
+        }
+        //二分查找插入位置
+        int lo = 0;
+        int hi = mSize;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final Entry<T> e = mOrder[mid];
+            if (before(e.rssi, e.mac, entry.rssi, entry.mac)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        System.arraycopy(mOrder, lo, mOrder, lo + 1, mSize - lo);
+        mOrder[lo] = entry;
+        mSize++;
+        for (int i = lo; i < mSize; i++) {
+            mOrder[i].position = i;
+        }
+        putSlot(entry);
+    }
+
+    /***************************************************************************************************
+     * RSSI变化后向前或向后移动到正确位置，只移动经过的元素
+     **************************************************************************************************/
+    private void reposition(Entry<T> entry) {
+        int i = entry.position;
+        while (i > 0 && before(entry.rssi, entry.mac, mOrder[i - 1].rssi, mOrder[i - 1].mac)) {
+            mOrder[i] = mOrder[i - 1];
+            mOrder[i].position = i;
+            i--;
+        }
+        while (i < mSize - 1 && before(mOrder[i + 1].rssi, mOrder[i + 1].mac, entry.rssi, entry.mac)) {
+            mOrder[i] = mOrder[i + 1];
+            mOrder[i].position = i;
+            i++;
+        }
+        mOrder[i] = entry;
+        entry.position = i;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void grow() {
+        Entry<T>[] order = new Entry[mOrder.length * 2];
+        System.arraycopy(mOrder, 0, order, 0, mSize);
+        mOrder = order;
+        mKeys = new long[order.length * 2];
+        mSlots = new Entry[order.length * 2];
+        for (int i = 0; i < mSize; i++) {
+            putSlot(mOrder[i]);
+        }
+    }
+
+    private int slotOf(long mac) {
+        final long key = mac + 1;
+        final int mask = mKeys.length - 1;
+        int i = MacAddress.hash(mac) & mask;
+        while (mKeys[i] != 0) {
+            if (mKeys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void putSlot(Entry<T> entry) {
+        final int mask = mKeys.length - 1;
+        int i = MacAddress.hash(entry.mac) & mask;
+        while (mKeys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        mKeys[i] = entry.mac + 1;
+        mSlots[i] = entry;
+    }
+
+    /***************************************************************************************************
+     * 线性探测表的删除：后移删除，保持探测链连续
+     **************************************************************************************************/
+    private void deleteSlot(int slot) {
+        final int mask = mKeys.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (mKeys[i] != 0) {
+            final int home = MacAddress.hash(mKeys[i] - 1) & mask;
+            //home不在(hole, i]之间时可以移到空洞
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mKeys[hole] = mKeys[i];
+                mSlots[hole] = mSlots[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        mKeys[hole] = 0;
+        mSlots[hole] = null;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 进程内的帧分发器，替代每个数据包一次的全局sendBroadcast。
+ * 订阅者按特性ID订阅，每个订阅有自己的环形缓冲区和溢出策略，分发时只做数组遍历和内存复制
+ **************************************************************************************************/
+public final class FrameBus implements NotifyPipeline.FrameListener {
+    public static final int ALL_CHARACTERISTICS = -2;
+    private static final FrameSubscription[] NONE = new FrameSubscription[0];
+
+    //订阅表写时复制，分发线程无锁读取
+    private volatile FrameSubscription[][] mById = new FrameSubscription[0][];
+    private volatile FrameSubscription[] mAll = NONE;
+    private volatile PipelineMetrics mMetrics;//不为null时记录帧从接收到被取出的延迟
+
+    /***************************************************************************************************
+     * 设置统计，之后各订阅取出帧时记录NOTIFY_DELIVERY延迟，传入null停止记录
+     **************************************************************************************************/
+    public void setMetrics(PipelineMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /***************************************************************************************************
+     * 订阅一个特性，characteristicId为ALL_CHARACTERISTICS时订阅全部特性
+     **************************************************************************************************/
+    public synchronized FrameSubscription subscribe(int characteristicId, int capacity,
+                                                    FrameRing.OverflowPolicy policy) {
+        FrameSubscription subscription = new FrameSubscription(this, characteristicId,
+                new FrameRing(capacity, policy));
+        if (characteristicId == ALL_CHARACTERISTICS) {
+            mAll = append(mAll, subscription);
+        } else if (characteristicId >= 0) {
+            FrameSubscription[][] byId = mById;
+            if (characteristicId >= byId.length) {
+                FrameSubscription[][] grown = new FrameSubscription[characteristicId + 1][];
+                System.arraycopy(byId, 0, grown, 0, byId.length);
+                byId = grown;
+            } else {
+                byId = byId.clone();
+            }
+            byId[characteristicId] = append(byId[characteristicId], subscription);
+            mById = byId;
+        } else {
+            throw new IllegalArgumentException("invalid characteristic id: " + characteristicId);
+        }
+        return subscription;
+    }
+
+    synchronized void unsubscribe(FrameSubscription subscription) {
+        final int id = subscription.getCharacteristicId();
+        if (id == ALL_CHARACTERISTICS) {
+            mAll = remove(mAll, subscription);
+        } else if (id < mById.length) {
+            FrameSubscription[][] byId = mById.clone();
+            byId[id] = remove(byId[id], subscription);
+            mById = byId;
+        }
+    }
+
+    /***************************************************************************************************
+     * 是否有订阅者关心该特性
+     **************************************************************************************************/
+    public boolean hasSubscribers(int characteristicId) {
+        if (mAll.length > 0) {
+            return true;
+        }
+        final FrameSubscription[][] byId = mById;
+        return characteristicId >= 0 && characteristicId < byId.length
+                && byId[characteristicId] != null && byId[characteristicId].length > 0;
+    }
+
+    /***************************************************************************************************
+     * 分发一帧到所有相关订阅，在GATT接收通路上调用
+     **************************************************************************************************/
+    @Override
+    public void onFrame(SensorFrame frame) {
+        final int id = frame.characteristicId;
+        final FrameSubscription[][] byId = mById;
+        if (id >= 0 && id < byId.length) {
+            final FrameSubscription[] subscriptions = byId[id];
+            if (subscriptions != null) {
+                for (FrameSubscription subscription : subscriptions) {
+                    subscription.mRing.offer(frame);
+                }
+            }
+        }
+        for (FrameSubscription subscription : mAll) {
+            subscription.mRing.offer(frame);
+        }
+    }
+
+    private static FrameSubscription[] append(FrameSubscription[] array, FrameSubscription item) {
+        if (array == null) {
+            return new FrameSubscription[]{item};
+        }
+        FrameSubscription[] result = new FrameSubscription[array.length + 1];
+        System.arraycopy(array, 0, result, 0, array.length);
+        result[array.length] = item;
+        return result;
+    }
+
+    private static FrameSubscription[] remove(FrameSubscription[] array, FrameSubscription item) {
+        if (array == null) {
+            return null;
+        }
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == item) {
+                FrameSubscription[] result = new FrameSubscription[array.length - 1];
+                System.arraycopy(array, 0, result, 0, i);
+                System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+                return result;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 特性值解码器，每个特性UUID对应一个解码器，直接从byte[]解码到复用的SensorFrame中
+ **************************************************************************************************/
+public interface FrameDecoder {
+    /***************************************************************************************************
+     * 解码src[offset, offset+length)，结果写入out。数据格式不正确时返回false，out的内容无效
+     **************************************************************************************************/
+    boolean decode(byte[] src, int offset, int length, SensorFrame out);
+}
@@ -0,0 +1,43 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * SensorFrame对象池，启动时预先分配，数据通路上不再分配帧对象
+ **************************************************************************************************/
+public final class FramePool {
+    private final SensorFrame[] mFrames;
+    private int mSize;
+
+    public FramePool(int capacity) {
+        mFrames = new SensorFrame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mFrames[i] = new SensorFrame();
+        }
+        mSize = capacity;
+    }
+
+    /***************************************************************************************************
+     * 取出一个空闲帧，池已取空时才分配新对象
+     **************************************************************************************************/
+    public synchronized SensorFrame acquire() {
+        if (mSize > 0) {
+            SensorFrame frame = mFrames[--mSize];
+            mFrames[mSize] = null;
+            return frame;
+        }
+        return new SensorFrame();
+    }
+
+    /***************************************************************************************************
+     * 归还帧，池已满时丢弃
+     **************************************************************************************************/
+    public synchronized void release(SensorFrame frame) {
+        if (mSize < mFrames.length) {
+            frame.reset();
+            mFrames[mSize++] = frame;
+        }
+    }
+
+    public synchronized int available() {
+        return mSize;
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/***************************************************************************************************
+ * 多包帧重组。分帧的特性每个notify前有2字节头：包序号(1，每个设备每个特性各自递增，回绕) +
+ * 分片号(1，低7位为帧内的分片序号，从0开始，最高位为1表示帧的最后一片)，一个逻辑帧可以跨多个notify。
+ * 按包序号统计丢失、重复和乱序：跳过的序号计为丢失，之后迟到的计为乱序（并从丢失中扣除），
+ * 最近64个序号内再次收到的计为重复。帧内缺片、乱序或重复的分片使当前帧作废，从下一个0号分片重新开始。
+ * 每个流（设备+特性）的接收缓冲区在第一次出现时分配，之后复用；流的个数有上限，超出时复用最久未收到数据的流。
+ * 调用方负责串行化（NotifyPipeline在锁内调用）
+ **************************************************************************************************/
+public final class FrameReassembler {
+    public static final int HEADER_SIZE = 2;
+    public static final int LAST_FRAGMENT = 0x80;
+    public static final int MAX_FRAGMENTS = 0x80;
+    public static final int DEFAULT_MAX_STREAMS = 32;
+    private static final int WINDOW = 64;//判断重复的序号窗口
+    private static final int DISCARDING = -2;//正在丢弃一个已计为作废的帧的剩余分片
+
+    /***************************************************************************************************
+     * 重组完成的帧，buffer只在回调期间有效
+     **************************************************************************************************/
+    public interface FrameSink {
+        void onFrame(long deviceAddress, int characteristicId, byte[] buffer, int offset, int length,
+                     long timestampNanos);
+    }
+
+    /***************************************************************************************************
+     * 一个设备的包统计
+     **************************************************************************************************/
+    public static final class Counters {
+        public long packets;//收到的分帧数据包
+        public long lost;//序号跳过且之后没有补到的包
+        public long duplicated;
+        public long outOfOrder;
+        public long frames;//重组完成的帧
+        public long droppedFrames;//因缺片、超长或格式错误作废的帧
+        public long malformed;//不足头长度的包
+
+        public void clear() {
+            packets = lost = duplicated = outOfOrder = frames = droppedFrames = malformed = 0;
+        }
+
+        void add(Counters other) {
+            packets += other.packets;
+            lost += other.lost;
+            duplicated += other.duplicated;
+            outOfOrder += other.outOfOrder;
+            frames += other.frames;
+            droppedFrames += other.droppedFrames;
+            malformed += other.malformed;
+        }
+
+        /***************************************************************************************************
+         * 丢包率：丢失的包占应收包（收到的+丢失的-重复的）的比例
+         **************************************************************************************************/
+        public double lossRate() {
+            final long expected = packets + lost - duplicated;
+            return expected <= 0 ? 0 : (double) lost / expected;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "packets %d lost %d (%.2f%%) duplicated %d out-of-order %d"
+                            + " frames %d dropped %d malformed %d", packets, lost, lossRate() * 100, duplicated,
+                    outOfOrder, frames, droppedFrames, malformed);
+        }
+    }
+
+    private static final class Stream {
+        long deviceAddress;
+        int characteristicId;
+        boolean started;//已收到第一个包
+        int expectedSequence;
+        long received;//位i表示序号expectedSequence-1-i已收到
+        final byte[] buffer;
+        int length;
+        int nextFragment = -1;//下一个分片号，-1表示等待0号分片
+        long frameTimestampNanos;
+        long lastUsed;
+        final Counters counters = new Counters();
+
+        Stream(int maxFrameSize) {
+            buffer = new byte[maxFrameSize];
+        }
+    }
+
+    private final FrameSink mSink;
+    private final int mMaxFrameSize;
+    private final Stream[] mStreams;
+    private int mStreamCount;
+    private long mClock;//用于选择最久未用的流
+    private boolean[] mFramed = new boolean[16];//按特性ID索引
+    private final Counters mEvicted = new Counters();//被复用的流的统计，按设备汇总时不再区分
+
+    public FrameReassembler(FrameSink sink) {
+        this(sink, SensorFrame.MAX_PAYLOAD, DEFAULT_MAX_STREAMS);
+    }
+
+    public FrameReassembler(FrameSink sink, int maxFrameSize, int maxStreams) {
+        mSink = sink;
+        mMaxFrameSize = maxFrameSize;
+        mStreams = new Stream[maxStreams];
+    }
+
+    /***************************************************************************************************
+     * 设置特性是否使用分帧头
+     **************************************************************************************************/
+    public void setFramed(int characteristicId, boolean framed) {
+        if (characteristicId < 0) {
+            return;
+        }
+        if (characteristicId >= mFramed.length) {
+            mFramed = Arrays.copyOf(mFramed, Math.max(characteristicId + 1, mFramed.length * 2));
+        }
+        mFramed[characteristicId] = framed;
+    }
+
+    public boolean isFramed(int characteristicId) {
+        return characteristicId >= 0 && characteristicId < mFramed.length && mFramed[characteristicId];
+    }
+
+    /***************************************************************************************************
+     * 处理一个分帧的数据包，完成一帧时回调sink。不分配内存（流第一次出现时除外）
+     **************************************************************************************************/
+    public void onPacket(long deviceAddress, int characteristicId, byte[] value, int offset, int length,
+                         long timestampNanos) {
+        final Stream stream = stream(deviceAddress, characteristicId);
+        final Counters counters = stream.counters;
+        if (length < HEADER_SIZE) {
+            counters.malformed++;
+            return;
+        }
+        counters.packets++;
+        final int sequence = value[offset] & 0xFF;
+        final int fragmentByte = value[offset + 1] & 0xFF;
+        if (!stream.started) {
+            stream.started = true;
+            stream.expectedSequence = (sequence + 1) & 0xFF;
+            stream.received = 1L;
+        } else {
+            final int ahead = (sequence - stream.expectedSequence) & 0xFF;
+            if (ahead < 0x80) {
+                //按序或跳过了ahead个包
+                if (ahead > 0) {
+                    counters.lost += ahead;
+                    dropFrame(stream);
+                }
+                stream.received = (ahead + 1 >= WINDOW ? 0 : stream.received << (ahead + 1)) | 1L;
+                stream.expectedSequence = (sequence + 1) & 0xFF;
+            } else {
+                //落后：已收到过的为重复，否则为迟到
+                final int behind = (stream.expectedSequence - 1 - sequence) & 0xFF;
+                if (behind < WINDOW && (stream.received & (1L << behind)) != 0) {
+                    counters.duplicated++;
+                } else {
+                    counters.outOfOrder++;
+                    if (counters.lost > 0) {
+                        counters.lost--;
+                    }
+                    if (behind < WINDOW) {
+                        stream.received |= 1L << behind;
+                    }
+                }
+                return;//迟到和重复的分片不参与重组，它所在的帧已作废
+            }
+        }
+        final int fragment = fragmentByte & (MAX_FRAGMENTS - 1);
+        if (fragment == 0) {
+            if (stream.nextFragment > 0) {
+                dropFrame(stream);//上一帧没有收完
+            }
+            stream.length = 0;
+            stream.frameTimestampNanos = timestampNanos;
+        } else if (fragment != stream.nextFragment) {
+            if (stream.nextFragment == -1) {
+                stream.counters.droppedFrames++;//帧头丢失，丢弃到下一个0号分片
+                stream.nextFragment = DISCARDING;
+            } else {
+                dropFrame(stream);
+            }
+            return;
+        }
+        final int payload = length - HEADER_SIZE;
+        if (stream.length + payload > stream.buffer.length) {
+            dropFrame(stream);
+            return;
+        }
+        System.arraycopy(value, offset + HEADER_SIZE, stream.buffer, stream.length, payload);
+        stream.length += payload;
+        if ((fragmentByte & LAST_FRAGMENT) != 0) {
+            stream.nextFragment = -1;
+            counters.frames++;
+            mSink.onFrame(deviceAddress, characteristicId, stream.buffer, 0, stream.length,
+                    stream.frameTimestampNanos);
+        } else if (fragment + 1 >= MAX_FRAGMENTS) {
+            dropFrame(stream);
+        } else {
+            stream.nextFragment = fragment + 1;
+        }
+    }
+
+    private static void dropFrame(Stream stream) {
+        if (stream.nextFragment > 0) {
+            stream.counters.droppedFrames++;
+            stream.nextFragment = DISCARDING;
+        }
+    }
+
+    /***************************************************************************************************
+     * 设备重新连接后调用：序号重新开始，不把断线期间的序号跳跃计为丢包，统计保留
+     **************************************************************************************************/
+    public void restart(long deviceAddress) {
+        for (int i = 0; i < mStreamCount; i++) {
+            final Stream stream = mStreams[i];
+            if (stream.deviceAddress == deviceAddress) {
+                if (stream.nextFragment > 0) {
+                    stream.counters.droppedFrames++;
+                }
+                stream.started = false;
+                stream.nextFragment = -1;
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     * 把设备所有分帧特性的统计累加到out中（先清空）
+     **************************************************************************************************/
+    public void getCounters(long deviceAddress, Counters out) {
+        out.clear();
+        for (int i = 0; i < mStreamCount; i++) {
+            if (mStreams[i].deviceAddress == deviceAddress) {
+                out.add(mStreams[i].counters);
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     * 所有设备的统计，包括已被复用的流
+     **************************************************************************************************/
+    public void getTotal(Counters out) {
+        out.clear();
+        out.add(mEvicted);
+        for (int i = 0; i < mStreamCount; i++) {
+            out.add(mStreams[i].counters);
+        }
+    }
+
+    private Stream stream(long deviceAddress, int characteristicId) {
+        final long now = ++mClock;
+        int oldest = 0;
+        for (int i = 0; i < mStreamCount; i++) {
+            final Stream stream = mStreams[i];
+            if (stream.deviceAddress == deviceAddress && stream.characteristicId == characteristicId) {
+                stream.lastUsed = now;
+                return stream;
+            }
+            if (stream.lastUsed < mStreams[oldest].lastUsed) {
+                oldest = i;
+            }
+        }
+        Stream stream;
+        if (mStreamCount < mStreams.length) {
+            stream = new Stream(mMaxFrameSize);
+            mStreams[mStreamCount++] = stream;
+        } else {
+            stream = mStreams[oldest];
+            mEvicted.add(stream.counters);
+            stream.counters.clear();
+        }
+        stream.deviceAddress = deviceAddress;
+        stream.characteristicId = characteristicId;
+        stream.started = false;
+        stream.nextFragment = -1;
+        stream.length = 0;
+        stream.lastUsed = now;
+        return stream;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/***************************************************************************************************
+ * 有界无锁环形缓冲区，槽位中的SensorFrame预先分配，写入时复制帧内容，不分配内存。
+ * 单生产者（GATT接收通路），消费者通过CAS推进读位置；缓冲区满时按溢出策略处理
+ **************************************************************************************************/
+public final class FrameRing {
+    /***************************************************************************************************
+     * 溢出策略
+     **************************************************************************************************/
+    public enum OverflowPolicy {
+        DROP_OLDEST,//丢弃最旧的帧
+        LATEST_ONLY,//只保留最新一帧（采样）
+        BLOCK//阻塞生产者，直到有空位或超时，超时后丢弃新帧
+    }
+
+    public static final long DEFAULT_BLOCK_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final SensorFrame[] mSlots;
+    private final int mMask;
+    private final OverflowPolicy mPolicy;
+    private final long mBlockTimeoutNanos;
+    private final AtomicLong mHead = new AtomicLong();//下一个要读的位置
+    private final AtomicLong mTail = new AtomicLong();//下一个要写的位置，只有生产者修改
+    private final AtomicLong mDropped = new AtomicLong();
+    private volatile Thread mWaitingConsumer;
+    private volatile Thread mWaitingProducer;
+
+    public FrameRing(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, DEFAULT_BLOCK_TIMEOUT_NANOS);
+    }
+
+    public FrameRing(int capacity, OverflowPolicy policy, long blockTimeoutNanos) {
+        if (policy == OverflowPolicy.LATEST_ONLY) {
+            capacity = 1;
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;//向上取整到2的幂
+        }
+        mSlots = new SensorFrame[size];
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new SensorFrame();
+        }
+        mMask = size - 1;
+        mPolicy = policy;
+        mBlockTimeoutNanos = blockTimeoutNanos;
+    }
+
+    /***************************************************************************************************
+     * 写入一帧（只允许单个生产者线程调用），帧被丢弃时返回false
+     **************************************************************************************************/
+    public boolean offer(SensorFrame frame) {
+        final long tail = mTail.get();
+        long deadline = 0;
+        while (true) {
+            final long head = mHead.get();
+            if (tail - head < mSlots.length) {
+                break;
+            }
+            if (mPolicy != OverflowPolicy.BLOCK) {
+                if (mHead.compareAndSet(head, head + 1)) {//推进读位置，丢弃最旧的帧
+                    mDropped.incrementAndGet();
+                }
+                continue;
+            }
+            final long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + mBlockTimeoutNanos;
+            } else if (now - deadline >= 0) {
+                mDropped.incrementAndGet();
+                return false;
+            }
+            mWaitingProducer = Thread.currentThread();
+            if (tail - mHead.get() >= mSlots.length) {
+                LockSupport.parkNanos(this, Math.min(deadline - now, MAX_PARK_NANOS));
+            }
+            mWaitingProducer = null;
+        }
+        mSlots[(int) tail & mMask].copyFrom(frame);
+        mTail.set(tail + 1);//发布
+        final Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 非阻塞读取一帧到out，没有数据时返回false
+     **************************************************************************************************/
+    public boolean poll(SensorFrame out) {
+        while (true) {
+            final long head = mHead.get();
+            if (head >= mTail.get()) {
+                return false;
+            }
+            out.copyFrom(mSlots[(int) head & mMask]);
+            //读取期间若生产者覆盖了该槽位，它一定先推进了读位置，CAS失败后重读
+            if (mHead.compareAndSet(head, head + 1)) {
+                final Thread producer = mWaitingProducer;
+                if (producer != null) {
+                    LockSupport.unpark(producer);
+                }
+                return true;
+            }
+        }
+    }
+
+    /***************************************************************************************************
+     * 阻塞读取一帧到out，最多等待timeoutNanos，超时返回false。同一时刻只允许一个线程等待
+     **************************************************************************************************/
+    public boolean take(SensorFrame out, long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (!poll(out)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            mWaitingConsumer = Thread.currentThread();
+            if (mHead.get() >= mTail.get()) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            mWaitingConsumer = null;
+        }
+        return true;
+    }
+
+    public int size() {
+        return (int) Math.max(0, mTail.get() - mHead.get());
+    }
+
+    public int capacity() {
+        return mSlots.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /***************************************************************************************************
+     * 因缓冲区满而丢弃的帧数
+     **************************************************************************************************/
+    public long getDropped() {
+        return mDropped.get();
+    }
+
+    /***************************************************************************************************
+     * 写入过的帧数（不含阻塞超时丢弃的帧）
+     **************************************************************************************************/
+    public long getWritten() {
+        return mTail.get();
+    }
+}
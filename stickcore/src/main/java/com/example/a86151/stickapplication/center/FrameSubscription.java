@@ -0,0 +1,62 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 一个特性（或全部特性）的订阅，消费者从中拉取帧。不再需要时调用close()取消订阅
+ **************************************************************************************************/
+public final class FrameSubscription {
+    private final FrameBus mBus;
+    private final int mCharacteristicId;
+    final FrameRing mRing;
+    private volatile boolean mClosed;
+
+    FrameSubscription(FrameBus bus, int characteristicId, FrameRing ring) {
+        mBus = bus;
+        mCharacteristicId = characteristicId;
+        mRing = ring;
+    }
+
+    /***************************************************************************************************
+     * 订阅的特性ID，订阅全部特性时为FrameBus.ALL_CHARACTERISTICS
+     **************************************************************************************************/
+    public int getCharacteristicId() {
+        return mCharacteristicId;
+    }
+
+    public boolean poll(SensorFrame out) {
+        return delivered(mRing.poll(out), out);
+    }
+
+    public boolean take(SensorFrame out, long timeout, TimeUnit unit) throws InterruptedException {
+        return delivered(mRing.take(out, unit.toNanos(timeout)), out);
+    }
+
+    private boolean delivered(boolean taken, SensorFrame frame) {
+        final PipelineMetrics metrics = mBus.getMetrics();
+        if (taken && metrics != null) {
+            metrics.record(PipelineMetrics.Stage.NOTIFY_DELIVERY, System.nanoTime() - frame.timestampNanos);
+            metrics.increment(PipelineMetrics.Counter.FRAMES_DELIVERED);
+        }
+        return taken;
+    }
+
+    public long getDropped() {
+        return mRing.getDropped();
+    }
+
+    public int getBacklog() {
+        return mRing.size();
+    }
+
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    public void close() {
+        if (!mClosed) {
+            mClosed = true;
+            mBus.unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.UUID;
+
+/***************************************************************************************************
+ * GATT服务表的指纹：按发现顺序对每个特性的服务UUID、特性UUID、实例ID和属性做64位FNV-1a哈希。
+ * 指纹相同说明设备的服务和特性句柄没有变化，可以跳过或只校验服务发现
+ **************************************************************************************************/
+public final class GattLayout {
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private long mHash = FNV_OFFSET;
+    private int mCharacteristicCount;
+    private int mNotifyCount;
+
+    public GattLayout() {
+    }
+
+    private GattLayout(long hash, int characteristicCount, int notifyCount) {
+        mHash = hash;
+        mCharacteristicCount = characteristicCount;
+        mNotifyCount = notifyCount;
+    }
+
+    /***************************************************************************************************
+     * 按发现顺序加入一个特性，notify表示特性支持notify或indicate
+     **************************************************************************************************/
+    public GattLayout add(UUID service, UUID characteristic, int instanceId, int properties, boolean notify) {
+        mix(service.getMostSignificantBits());
+        mix(service.getLeastSignificantBits());
+        mix(characteristic.getMostSignificantBits());
+        mix(characteristic.getLeastSignificantBits());
+        mix(((long) instanceId << 32) | (properties & 0xFFFFFFFFL));
+        mCharacteristicCount++;
+        if (notify) {
+            mNotifyCount++;
+        }
+        return this;
+    }
+
+    private void mix(long value) {
+        for (int i = 0; i < 8; i++) {
+            mHash = (mHash ^ ((value >>> (i * 8)) & 0xFF)) * FNV_PRIME;
+        }
+    }
+
+    public long getHash() {
+        return mHash;
+    }
+
+    public int getCharacteristicCount() {
+        return mCharacteristicCount;
+    }
+
+    public int getNotifyCount() {
+        return mNotifyCount;
+    }
+
+    public boolean isEmpty() {
+        return mCharacteristicCount == 0;
+    }
+
+    /***************************************************************************************************
+     * 持久化用的文本形式："哈希:特性数:notify特性数"
+     **************************************************************************************************/
+    public String encode() {
+        return Long.toHexString(mHash) + ":" + mCharacteristicCount + ":" + mNotifyCount;
+    }
+
+    /***************************************************************************************************
+     * 解析encode()的结果，格式不对返回null
+     **************************************************************************************************/
+    public static GattLayout decode(String text) {
+        if (text == null) {
+            return null;
+        }
+        final String[] parts = text.split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new GattLayout(parseHex(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseHex(String text) {
+        if (text.length() == 0 || text.length() > 16) {
+            throw new NumberFormatException(text);
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException(text);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public boolean matches(GattLayout other) {
+        return other != null && mHash == other.mHash && mCharacteristicCount == other.mCharacteristicCount
+                && mNotifyCount == other.mNotifyCount;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.Locale;
+
+/***************************************************************************************************
+ * GATT操作统计：按操作类型累计排队等待时间和执行时间，用于在真机上调整吞吐
+ **************************************************************************************************/
+public final class GattOperationStats {
+    private final String[] mNames;
+    private final long[] mCount;
+    private final long[] mFailures;
+    private final long[] mTimeouts;
+    private final long[] mRetries;
+    private final long[] mMerged;
+    private final long[] mTotalWaitNanos;
+    private final long[] mMaxWaitNanos;
+    private final long[] mTotalExecNanos;
+    private final long[] mMaxExecNanos;
+
+    public GattOperationStats(String... typeNames) {
+        final int n = typeNames.length;
+        mNames = typeNames.clone();
+        mCount = new long[n];
+        mFailures = new long[n];
+        mTimeouts = new long[n];
+        mRetries = new long[n];
+        mMerged = new long[n];
+        mTotalWaitNanos = new long[n];
+        mMaxWaitNanos = new long[n];
+        mTotalExecNanos = new long[n];
+        mMaxExecNanos = new long[n];
+    }
+
+    /***************************************************************************************************
+     * 记录一次完成的操作
+     **************************************************************************************************/
+    public synchronized void record(int type, boolean success, int attempts, int merged,
+                                    long waitNanos, long execNanos) {
+        mCount[type]++;
+        if (!success) {
+            mFailures[type]++;
+        }
+        mRetries[type] += Math.max(0, attempts - 1);
+        mMerged[type] += Math.max(0, merged - 1);
+        mTotalWaitNanos[type] += waitNanos;
+        mTotalExecNanos[type] += execNanos;
+        if (waitNanos > mMaxWaitNanos[type]) {
+            mMaxWaitNanos[type] = waitNanos;
+        }
+        if (execNanos > mMaxExecNanos[type]) {
+            mMaxExecNanos[type] = execNanos;
+        }
+    }
+
+    public synchronized void recordTimeout(int type) {
+        mTimeouts[type]++;
+    }
+
+    public synchronized long getCount(int type) {
+        return mCount[type];
+    }
+
+    public synchronized long getFailures(int type) {
+        return mFailures[type];
+    }
+
+    public synchronized long getTimeouts(int type) {
+        return mTimeouts[type];
+    }
+
+    public synchronized long getMeanWaitNanos(int type) {
+        return mCount[type] == 0 ? 0 : mTotalWaitNanos[type] / mCount[type];
+    }
+
+    public synchronized long getMeanExecNanos(int type) {
+        return mCount[type] == 0 ? 0 : mTotalExecNanos[type] / mCount[type];
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mNames.length; i++) {
+            mCount[i] = mFailures[i] = mTimeouts[i] = mRetries[i] = mMerged[i] = 0;
+            mTotalWaitNanos[i] = mMaxWaitNanos[i] = mTotalExecNanos[i] = mMaxExecNanos[i] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mNames.length; i++) {
+            if (mCount[i] == 0 && mTimeouts[i] == 0) {
+                continue;
+            }
+            sb.append(String.format(Locale.US,
+                    "%s: n=%d fail=%d timeout=%d retry=%d merged=%d wait(avg/max)=%.2f/%.2fms exec(avg/max)=%.2f/%.2fms%n",
+                    mNames[i], mCount[i], mFailures[i], mTimeouts[i], mRetries[i], mMerged[i],
+                    millis(mCount[i] == 0 ? 0 : mTotalWaitNanos[i] / mCount[i]), millis(mMaxWaitNanos[i]),
+                    millis(mCount[i] == 0 ? 0 : mTotalExecNanos[i] / mCount[i]), millis(mMaxExecNanos[i])));
+        }
+        return sb.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
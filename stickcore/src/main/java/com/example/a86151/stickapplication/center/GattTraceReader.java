@@ -0,0 +1,209 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 读取GattTraceWriter写出的trace（格式见GattTraceWriter），按记录顺序逐个返回事件，设备和特性的定义在内部处理。
+ * 现场的trace可能在进程被杀时截断，末尾不完整的记录视为结束，isTruncated返回true
+ **************************************************************************************************/
+public final class GattTraceReader {
+    private static final ConnectionStateMachine.State[] STATES = ConnectionStateMachine.State.values();
+
+    /***************************************************************************************************
+     * 一个事件，next时覆盖。timestampNanos为记录时的System.nanoTime，value每个事件新分配
+     **************************************************************************************************/
+    public static final class Event {
+        public int type;//GattTraceWriter.STATE/NOTIFY/READ/WRITE
+        public long timestampNanos;
+        public long deviceAddress;
+        public UUID uuid;//STATE时为null
+        public byte[] value;//STATE时为null
+        public boolean withResponse;//只用于WRITE
+        public ConnectionStateMachine.State state;//只用于STATE
+    }
+
+    private final InputStream mIn;
+    private final long mStartWallMillis;
+    private final long mStartNanos;
+    private long[] mDevices = new long[4];
+    private UUID[] mUuids = new UUID[8];
+    private long mLastNanos;
+    private boolean mTruncated;
+
+    public GattTraceReader(InputStream in) throws IOException {
+        mIn = new BufferedInputStream(in, 64 * 1024);
+        if (readInt() != GattTraceWriter.MAGIC) {
+            throw new IOException("Not a GATT trace");
+        }
+        final int version = readByte();
+        if (version != GattTraceWriter.VERSION) {
+            throw new IOException("Unsupported GATT trace version " + version);
+        }
+        mStartWallMillis = readLong();
+        mStartNanos = readLong();
+        mLastNanos = mStartNanos;
+    }
+
+    public long getStartWallMillis() {
+        return mStartWallMillis;
+    }
+
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    /***************************************************************************************************
+     * 文件在记录中间结束
+     **************************************************************************************************/
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    /***************************************************************************************************
+     * 读取下一个事件到event中，没有更多事件时返回false。内容错误时抛出IOException
+     **************************************************************************************************/
+    public boolean next(Event event) throws IOException {
+        while (true) {
+            final int type = mIn.read();
+            if (type < 0) {
+                return false;
+            }
+            try {
+                switch (type) {
+                    case GattTraceWriter.DEVICE: {
+                        final int index = readIndex();
+                        long mac = 0;
+                        for (int i = 0; i < 6; i++) {
+                            mac = mac << 8 | readByte();
+                        }
+                        if (index >= mDevices.length) {
+                            final long[] devices = new long[Math.max(index + 1, mDevices.length * 2)];
+                            System.arraycopy(mDevices, 0, devices, 0, mDevices.length);
+                            mDevices = devices;
+                        }
+                        mDevices[index] = mac;
+                        break;
+                    }
+                    case GattTraceWriter.UUID_DEFINITION: {
+                        final int index = readIndex();
+                        final UUID uuid = new UUID(readLong(), readLong());
+                        if (index >= mUuids.length) {
+                            final UUID[] uuids = new UUID[Math.max(index + 1, mUuids.length * 2)];
+                            System.arraycopy(mUuids, 0, uuids, 0, mUuids.length);
+                            mUuids = uuids;
+                        }
+                        mUuids[index] = uuid;
+                        break;
+                    }
+                    case GattTraceWriter.STATE:
+                        header(event, type);
+                        final int state = readByte();
+                        if (state >= STATES.length) {
+                            throw new IOException("Unknown connection state " + state);
+                        }
+                        event.state = STATES[state];
+                        event.uuid = null;
+                        event.value = null;
+                        return true;
+                    case GattTraceWriter.NOTIFY:
+                    case GattTraceWriter.READ:
+                    case GattTraceWriter.WRITE:
+                        header(event, type);
+                        event.uuid = uuid(readIndex());
+                        event.withResponse = type == GattTraceWriter.WRITE && readByte() != 0;
+                        event.value = new byte[readIndex()];
+                        readFully(event.value);
+                        event.state = null;
+                        return true;
+                    default:
+                        throw new IOException("Unknown GATT trace record " + type);
+                }
+            } catch (EOFException e) {
+                mTruncated = true;
+                return false;
+            }
+        }
+    }
+
+    private void header(Event event, int type) throws IOException {
+        event.type = type;
+        final long delta = readVarint();
+        mLastNanos += (delta >>> 1) ^ -(delta & 1);
+        event.timestampNanos = mLastNanos;
+        final int device = readIndex();
+        if (device >= mDevices.length) {
+            throw new IOException("Undefined device " + device);
+        }
+        event.deviceAddress = mDevices[device];
+    }
+
+    private UUID uuid(int index) throws IOException {
+        if (index >= mUuids.length || mUuids[index] == null) {
+            throw new IOException("Undefined characteristic " + index);
+        }
+        return mUuids[index];
+    }
+
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private int readByte() throws IOException {
+        final int b = mIn.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            final int read = mIn.read(buffer, offset, buffer.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    private int readIndex() throws IOException {
+        final long value = readVarint();
+        if (value > 0xFFFF) {
+            throw new IOException("Index out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = value << 8 | readByte();
+        }
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = value << 8 | readByte();
+        }
+        return value;
+    }
+}
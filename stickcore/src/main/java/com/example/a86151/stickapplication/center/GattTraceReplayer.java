@@ -0,0 +1,160 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 按trace中的时间间隔把事件重放给Sink：speed为1时与现场相同，为N时间隔缩短为1/N，小于等于0时不等待、尽快重放。
+ * 交给Sink的时间戳为实际交付时的System.nanoTime，与现场GATT回调中取时间的方式相同，
+ * 所以下游记录的处理延迟（如NOTIFY_DELIVERY）就是重放时的真实值。forPipeline把事件接到NotifyPipeline上，
+ * 走与BluetoothLeService相同的处理：notify分帧重组并解码，读取结果不分帧，连接成功时重新开始分帧序号。
+ * replay在调用线程中运行，被中断时停止并保留中断标记
+ **************************************************************************************************/
+public final class GattTraceReplayer {
+    private static final long SPIN_NANOS = 2000000;//最后2ms不再sleep，按时交付
+
+    /***************************************************************************************************
+     * 重放的目标，在调用replay的线程中回调
+     **************************************************************************************************/
+    public interface Sink {
+        void onConnectionState(long deviceAddress, ConnectionStateMachine.State state, long timestampNanos);
+
+        void onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos);
+
+        void onRead(long deviceAddress, UUID uuid, byte[] value, long timestampNanos);
+
+        void onWrite(long deviceAddress, UUID uuid, byte[] value, boolean withResponse, long timestampNanos);
+    }
+
+    /***************************************************************************************************
+     * 一次重放的统计
+     **************************************************************************************************/
+    public static final class Stats {
+        public long events;
+        public long notifications;
+        public long notifyBytes;
+        public long traceNanos;//trace中第一个到最后一个事件的时间
+        public long elapsedNanos;//重放实际用的时间
+        public long maxLateNanos;//按速度计算的交付时间与实际交付时间的最大差，衡量重放时间的准确程度
+        public boolean truncated;
+
+        /***************************************************************************************************
+         * 重放时notify的吞吐，条/秒
+         **************************************************************************************************/
+        public double notificationsPerSecond() {
+            return elapsedNanos <= 0 ? 0 : notifications * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d events, %d notifications (%d bytes) spanning %.3fs replayed in"
+                            + " %.3fs, %.0f notifications/s, max late %.3fms%s", events, notifications, notifyBytes,
+                    traceNanos / 1e9, elapsedNanos / 1e9, notificationsPerSecond(), maxLateNanos / 1e6,
+                    truncated ? ", truncated" : "");
+        }
+    }
+
+    private GattTraceReplayer() {
+    }
+
+    /***************************************************************************************************
+     * 重放reader中剩余的全部事件，speed小于等于0时尽快重放
+     **************************************************************************************************/
+    public static Stats replay(GattTraceReader reader, Sink sink, double speed) throws IOException {
+        final Stats stats = new Stats();
+        final GattTraceReader.Event event = new GattTraceReader.Event();
+        final long start = System.nanoTime();
+        long first = 0;
+        while (reader.next(event)) {
+            if (stats.events == 0) {
+                first = event.timestampNanos;
+            }
+            stats.traceNanos = event.timestampNanos - first;
+            long now = System.nanoTime();
+            if (speed > 0) {
+                final long due = start + (long) ((event.timestampNanos - first) / speed);
+                if (!waitUntil(due)) {
+                    break;
+                }
+                now = System.nanoTime();
+                stats.maxLateNanos = Math.max(stats.maxLateNanos, now - due);
+            }
+            stats.events++;
+            switch (event.type) {
+                case GattTraceWriter.STATE:
+                    sink.onConnectionState(event.deviceAddress, event.state, now);
+                    break;
+                case GattTraceWriter.NOTIFY:
+                    stats.notifications++;
+                    stats.notifyBytes += event.value.length;
+                    sink.onNotification(event.deviceAddress, event.uuid, event.value, now);
+                    break;
+                case GattTraceWriter.READ:
+                    sink.onRead(event.deviceAddress, event.uuid, event.value, now);
+                    break;
+                case GattTraceWriter.WRITE:
+                    sink.onWrite(event.deviceAddress, event.uuid, event.value, event.withResponse, now);
+                    break;
+                default:
+                    break;
+            }
+        }
+        stats.elapsedNanos = System.nanoTime() - start;
+        stats.truncated = reader.isTruncated();
+        return stats;
+    }
+
+    /***************************************************************************************************
+     * 等到due，被中断时返回false
+     **************************************************************************************************/
+    private static boolean waitUntil(long due) {
+        long remaining = due - System.nanoTime();
+        while (remaining > 0) {
+            if (remaining > SPIN_NANOS) {
+                try {
+                    Thread.sleep((remaining - SPIN_NANOS) / 1000000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            } else if (Thread.currentThread().isInterrupted()) {
+                return false;
+            } else {
+                Thread.yield();
+            }
+            remaining = due - System.nanoTime();
+        }
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 把重放的事件交给NotifyPipeline，写入忽略
+     **************************************************************************************************/
+    public static Sink forPipeline(final NotifyPipeline pipeline) {
+        return new Sink() {
+            @Override
+            public void onConnectionState(long deviceAddress, ConnectionStateMachine.State state,
+                                          long timestampNanos) {
+                if (state == ConnectionStateMachine.State.DISCOVERING) {
+                    pipeline.restartStreams(deviceAddress);
+                }
+            }
+
+            @Override
+            public void onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+                pipeline.onNotification(deviceAddress, uuid, value, timestampNanos);
+            }
+
+            @Override
+            public void onRead(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+                pipeline.onValue(deviceAddress, uuid, value, timestampNanos);
+            }
+
+            @Override
+            public void onWrite(long deviceAddress, UUID uuid, byte[] value, boolean withResponse,
+                                long timestampNanos) {
+            }
+        };
+    }
+}
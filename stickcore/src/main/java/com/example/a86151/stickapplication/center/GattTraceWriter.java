@@ -0,0 +1,338 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/***************************************************************************************************
+ * 把GATT会话（连接状态、notify、读取结果、写入）按到达的纳秒时间记录成紧凑的二进制trace，
+ * 用GattTraceReader读取、GattTraceReplayer按原来的时间间隔重放。格式：
+ *     文件头[MAGIC(4), VERSION(1), 开始时的墙上时间毫秒(8), 开始时的System.nanoTime(8)]，之后是记录；
+ *     定义记录：DEVICE[类型, 设备序号(varint), MAC(6)]，UUID[类型, 特性序号(varint), UUID(16)]，
+ *     设备和特性第一次出现时写一次定义，之后的记录只写序号；
+ *     事件记录：[类型, 与上一事件的时间差(zigzag varint，纳秒), 设备序号(varint), ...]：
+ *     STATE后为状态序号(1)；NOTIFY和READ后为特性序号(varint) + 长度(varint) + 数据；
+ *     WRITE后为特性序号(varint) + 是否有应答(1) + 长度(varint) + 数据。
+ * 一条20字节的notify约占28字节。调用线程（GATT I/O线程）只把记录编码到64KB的内存块中，写满的块交给
+ * 后台写线程写入文件，调用线程不做文件I/O；写线程落后超过MAX_CHUNKS块时整条丢弃新事件并计数，不阻塞调用方。
+ * 超过大小上限后停止记录，写入出错时停止记录并保留错误，不向调用方抛出。线程安全
+ **************************************************************************************************/
+public final class GattTraceWriter {
+    public static final int MAGIC = 0x47545231;//"GTR1"
+    public static final int VERSION = 1;
+    public static final int DEVICE = 1;
+    public static final int UUID_DEFINITION = 2;
+    public static final int STATE = 3;
+    public static final int NOTIFY = 4;
+    public static final int READ = 5;
+    public static final int WRITE = 6;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 16;//写线程最多落后1MB
+    private static final int RECORD_OVERHEAD = 64;//记录头和可能的定义的最大长度
+
+    /***************************************************************************************************
+     * 一块编码好的记录，在调用线程中填写，交给写线程后由写线程放回空闲块
+     **************************************************************************************************/
+    private static final class Chunk {
+        final byte[] data = new byte[CHUNK_SIZE];
+        int length;
+    }
+
+    private static final Chunk END = new Chunk();//写线程结束的标记
+
+    private final OutputStream mOut;//只在写线程中访问
+    private final long mMaxBytes;
+    private final byte[] mScratch = new byte[16];
+    private final ArrayBlockingQueue<Chunk> mFull = new ArrayBlockingQueue<Chunk>(MAX_CHUNKS + 1);
+    private final ArrayBlockingQueue<Chunk> mFree = new ArrayBlockingQueue<Chunk>(MAX_CHUNKS);
+    private final Thread mWriter;
+    private Chunk mChunk;//正在填写的块
+    private int mChunks;//已分配的块数
+    private long mDropped;//写线程落后时丢弃的事件数
+    private long[] mDevices = new long[4];
+    private int mDeviceCount;
+    private UUID[] mUuids = new UUID[8];
+    private int mUuidCount;
+    private long mLastNanos;
+    private long mBytes;
+    private long mEvents;
+    private boolean mTruncated;//达到大小上限
+    private volatile IOException mError;//写线程中的写入错误
+    private boolean mClosed;
+
+    public GattTraceWriter(OutputStream out, long startWallMillis, long startNanos) {
+        this(out, startWallMillis, startNanos, DEFAULT_MAX_BYTES);
+    }
+
+    public GattTraceWriter(OutputStream out, long startWallMillis, long startNanos, long maxBytes) {
+        mOut = out;
+        mMaxBytes = maxBytes;
+        mLastNanos = startNanos;
+        mChunk = new Chunk();
+        mChunks = 1;
+        writeInt(MAGIC);
+        write(VERSION);
+        writeLong(startWallMillis);
+        writeLong(startNanos);
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "gatt-trace");
+        mWriter.setPriority(Thread.NORM_PRIORITY - 1);
+        mWriter.start();
+    }
+
+    public synchronized void onConnectionState(long deviceAddress, ConnectionStateMachine.State state,
+                                               long timestampNanos) {
+        if (!writable(1)) {
+            return;
+        }
+        header(STATE, deviceIndex(deviceAddress), timestampNanos);
+        write(state.ordinal());
+    }
+
+    public synchronized void onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+        value(NOTIFY, deviceAddress, uuid, value, timestampNanos);
+    }
+
+    public synchronized void onRead(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+        value(READ, deviceAddress, uuid, value, timestampNanos);
+    }
+
+    public synchronized void onWrite(long deviceAddress, UUID uuid, byte[] value, boolean withResponse,
+                                     long timestampNanos) {
+        if (value == null || !writable(value.length + 1)) {
+            return;
+        }
+        final int device = deviceIndex(deviceAddress);
+        final int characteristic = uuidIndex(uuid);
+        header(WRITE, device, timestampNanos);
+        writeVarint(characteristic);
+        write(withResponse ? 1 : 0);
+        writeVarint(value.length);
+        write(value, value.length);
+    }
+
+    private void value(int type, long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+        if (value == null || !writable(value.length)) {
+            return;
+        }
+        final int device = deviceIndex(deviceAddress);
+        final int characteristic = uuidIndex(uuid);
+        header(type, device, timestampNanos);
+        writeVarint(characteristic);
+        writeVarint(value.length);
+        write(value, value.length);
+    }
+
+    /***************************************************************************************************
+     * 检查是否还能记录，payload为数据部分的字节数，加上记录头和可能的定义后超过大小上限时停止记录。
+     * 当前块放不下整条记录时换一个空闲块，没有空闲块（写线程落后）时丢弃这条事件，记录不会跨过被丢弃的部分
+     **************************************************************************************************/
+    private boolean writable(int payload) {
+        if (mClosed || mTruncated || mError != null) {
+            return false;
+        }
+        final int length = payload + RECORD_OVERHEAD;
+        if (mBytes + length > mMaxBytes) {
+            mTruncated = true;
+            return false;
+        }
+        if (length > CHUNK_SIZE) {
+            mDropped++;//GATT的值最长512字节，不会出现
+            return false;
+        }
+        if (mChunk.length + length > CHUNK_SIZE) {
+            Chunk next = mFree.poll();
+            if (next == null && mChunks < MAX_CHUNKS) {
+                next = new Chunk();
+                mChunks++;
+            }
+            if (next == null) {
+                mDropped++;
+                return false;
+            }
+            mFull.add(mChunk);//块的总数不超过队列容量，不会阻塞
+            mChunk = next;
+        }
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 事件记录头，设备和特性的定义须已写在前面
+     **************************************************************************************************/
+    private void header(int type, int device, long timestampNanos) {
+        write(type);
+        writeVarint(zigzag(timestampNanos - mLastNanos));
+        writeVarint(device);
+        mLastNanos = timestampNanos;
+        mEvents++;
+    }
+
+    private int deviceIndex(long deviceAddress) {
+        for (int i = 0; i < mDeviceCount; i++) {
+            if (mDevices[i] == deviceAddress) {
+                return i;
+            }
+        }
+        if (mDeviceCount == mDevices.length) {
+            final long[] devices = new long[mDevices.length * 2];
+            System.arraycopy(mDevices, 0, devices, 0, mDeviceCount);
+            mDevices = devices;
+        }
+        write(DEVICE);
+        writeVarint(mDeviceCount);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            write((int) (deviceAddress >>> shift));
+        }
+        mDevices[mDeviceCount] = deviceAddress;
+        return mDeviceCount++;
+    }
+
+    private int uuidIndex(UUID uuid) {
+        for (int i = 0; i < mUuidCount; i++) {
+            if (mUuids[i].equals(uuid)) {
+                return i;
+            }
+        }
+        if (mUuidCount == mUuids.length) {
+            final UUID[] uuids = new UUID[mUuids.length * 2];
+            System.arraycopy(mUuids, 0, uuids, 0, mUuidCount);
+            mUuids = uuids;
+        }
+        write(UUID_DEFINITION);
+        writeVarint(mUuidCount);
+        writeLong(uuid.getMostSignificantBits());
+        writeLong(uuid.getLeastSignificantBits());
+        mUuids[mUuidCount] = uuid;
+        return mUuidCount++;
+    }
+
+    /***************************************************************************************************
+     * 已记录的字节数，包括尚未由写线程写到文件的部分
+     **************************************************************************************************/
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getEvents() {
+        return mEvents;
+    }
+
+    public synchronized boolean isTruncated() {
+        return mTruncated;
+    }
+
+    /***************************************************************************************************
+     * 写线程跟不上而丢弃的事件数
+     **************************************************************************************************/
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    public IOException getError() {
+        return mError;
+    }
+
+    /***************************************************************************************************
+     * 停止记录，等写线程写完已记录的内容后关闭文件。不要在GATT I/O线程中调用
+     **************************************************************************************************/
+    public void close() throws IOException {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mFull.add(mChunk);
+            mChunk = null;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mFull.put(END);
+                mWriter.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;//写完再返回，保证文件完整
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        mOut.close();
+    }
+
+    /***************************************************************************************************
+     * 写线程：依次把写满的块写到文件，出错后丢弃之后的块
+     **************************************************************************************************/
+    private void drain() {
+        while (true) {
+            final Chunk chunk;
+            try {
+                chunk = mFull.take();
+            } catch (InterruptedException e) {
+                continue;//只在close时结束
+            }
+            if (chunk == END) {
+                break;
+            }
+            if (mError == null) {
+                try {
+                    mOut.write(chunk.data, 0, chunk.length);
+                } catch (IOException e) {
+                    mError = e;
+                }
+            }
+            chunk.length = 0;
+            mFree.offer(chunk);
+        }
+        try {
+            mOut.flush();
+        } catch (IOException e) {
+            if (mError == null) {
+                mError = e;
+            }
+        }
+    }
+
+    private void write(int b) {
+        mChunk.data[mChunk.length++] = (byte) b;
+        mBytes++;
+    }
+
+    private void write(byte[] data, int length) {
+        System.arraycopy(data, 0, mChunk.data, mChunk.length, length);
+        mChunk.length += length;
+        mBytes += length;
+    }
+
+    private void writeVarint(long value) {
+        int length = 0;
+        while ((value & ~0x7FL) != 0) {
+            mScratch[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mScratch[length++] = (byte) value;
+        write(mScratch, length);
+    }
+
+    private void writeInt(int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            write(value >>> shift);
+        }
+    }
+
+    private void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            write((int) (value >>> shift));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/***************************************************************************************************
+ * 用HttpURLConnection上传批次：一个批次一个POST，请求体为gzip压缩的SyncBatchCodec编码，
+ * 读完响应后关闭流而不断开连接，连续的批次复用同一个keep-alive连接
+ **************************************************************************************************/
+public final class HttpSyncTransport implements SyncTransport {
+    public static final String CONTENT_TYPE = "application/x-stick-batch";
+    public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    public static final String HEADER_RECORD_COUNT = "X-Record-Count";
+
+    private final URL mEndpoint;
+    private int mConnectTimeoutMs = 15000;
+    private int mReadTimeoutMs = 30000;
+    private final byte[] mDrain = new byte[1024];
+
+    public HttpSyncTransport(URL endpoint) {
+        mEndpoint = endpoint;
+    }
+
+    public HttpSyncTransport setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+        return this;
+    }
+
+    @Override
+    public int post(String batchId, byte[] body, int records) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) mEndpoint.openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMs);
+        connection.setReadTimeout(mReadTimeoutMs);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+        connection.setRequestProperty("Content-Encoding", "gzip");
+        connection.setRequestProperty(HEADER_IDEMPOTENCY_KEY, batchId);
+        connection.setRequestProperty(HEADER_RECORD_COUNT, Integer.toString(records));
+        final OutputStream out = connection.getOutputStream();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+        final int status = connection.getResponseCode();
+        final InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            try {
+                while (in.read(mDrain) >= 0) {
+                    //读完响应，连接才能复用
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+}
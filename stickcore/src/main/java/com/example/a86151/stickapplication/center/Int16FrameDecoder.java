@@ -0,0 +1,35 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 16位有符号整数解码器，适用于加速度、陀螺仪等按int16连续排列的传感器数据
+ **************************************************************************************************/
+public final class Int16FrameDecoder implements FrameDecoder {
+    public static final Int16FrameDecoder LITTLE_ENDIAN = new Int16FrameDecoder(false);
+    public static final Int16FrameDecoder BIG_ENDIAN = new Int16FrameDecoder(true);
+
+    private final boolean mBigEndian;
+
+    private Int16FrameDecoder(boolean bigEndian) {
+        mBigEndian = bigEndian;
+    }
+
+    @Override
+    public boolean decode(byte[] src, int offset, int length, SensorFrame out) {
+        if (length > SensorFrame.MAX_PAYLOAD || (length & 1) != 0) {//长度必须是偶数
+            return false;
+        }
+        System.arraycopy(src, offset, out.payload, 0, length);
+        out.payloadLength = length;
+        final int count = length >> 1;
+        final int[] values = out.values;
+        for (int i = 0, p = offset; i < count; i++, p += 2) {
+            if (mBigEndian) {
+                values[i] = (short) ((src[p] << 8) | (src[p + 1] & 0xFF));
+            } else {
+                values[i] = (short) ((src[p + 1] << 8) | (src[p] & 0xFF));
+            }
+        }
+        out.valueCount = count;
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/***************************************************************************************************
+ * 吞吐测试的数据格式和接收端统计。测试模式下手杖连续发送固定格式的notify：
+ * 序号(4，小端) + 发送时刻us(4，小端，手杖时钟) + 填充，第i个填充字节为(序号+i)&0xFF。
+ * 接收端按序号统计丢包和乱序，按填充检查数据是否损坏，用接收时刻减发送时刻得到单程时延；
+ * 两端时钟不同步，时延以测试中最小的一个为零点，反映排队和重传带来的额外时延
+ **************************************************************************************************/
+public final class LinkTestPattern {
+    public static final int HEADER_SIZE = 8;
+    public static final int MAX_SAMPLES = 16384;
+
+    /***************************************************************************************************
+     * 一种连接参数下的测试结果
+     **************************************************************************************************/
+    public static final class Result {
+        public final String label;
+        public final long packets;
+        public final long bytes;
+        public final long lost;
+        public final long outOfOrder;
+        public final long corrupt;
+        public final double bytesPerSecond;
+        public final long latencyP50Micros;
+        public final long latencyP95Micros;
+        public final long latencyMaxMicros;
+
+        Result(String label, long packets, long bytes, long lost, long outOfOrder, long corrupt,
+               double bytesPerSecond, long p50, long p95, long max) {
+            this.label = label;
+            this.packets = packets;
+            this.bytes = bytes;
+            this.lost = lost;
+            this.outOfOrder = outOfOrder;
+            this.corrupt = corrupt;
+            this.bytesPerSecond = bytesPerSecond;
+            this.latencyP50Micros = p50;
+            this.latencyP95Micros = p95;
+            this.latencyMaxMicros = max;
+        }
+
+        /***************************************************************************************************
+         * 丢包率，按应收到的包数计算
+         **************************************************************************************************/
+        public double getLossRate() {
+            final long expected = packets + lost;
+            return expected == 0 ? 0 : (double) lost / expected;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s: %.1f kB/s packets=%d loss=%.2f%% reorder=%d corrupt=%d latency p50/p95/max=%.1f/%.1f/%.1fms",
+                    label, bytesPerSecond / 1000, packets, getLossRate() * 100, outOfOrder, corrupt,
+                    latencyP50Micros / 1000.0, latencyP95Micros / 1000.0, latencyMaxMicros / 1000.0);
+        }
+    }
+
+    private long mStartNanos;
+    private long mLastArrivalNanos;
+    private long mPackets;
+    private long mBytes;
+    private long mLost;
+    private long mOutOfOrder;
+    private long mCorrupt;
+    private long mNextSequence = -1;
+    private long mFirstSenderMicros;
+    private long mLastSenderMicros;
+    private final long[] mDelays = new long[MAX_SAMPLES];
+    private int mSampleCount;
+
+    /***************************************************************************************************
+     * 生成一个测试包，length不小于HEADER_SIZE
+     **************************************************************************************************/
+    public static void fill(byte[] buffer, int length, long sequence, long senderMicros) {
+        putInt(buffer, 0, (int) sequence);
+        putInt(buffer, 4, (int) senderMicros);
+        for (int i = HEADER_SIZE; i < length; i++) {
+            buffer[i] = (byte) (sequence + i);
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static long getUInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFFL) | (buffer[offset + 1] & 0xFFL) << 8
+                | (buffer[offset + 2] & 0xFFL) << 16 | (buffer[offset + 3] & 0xFFL) << 24;
+    }
+
+    /***************************************************************************************************
+     * 开始一次测试
+     **************************************************************************************************/
+    public synchronized void reset(long startNanos) {
+        mStartNanos = startNanos;
+        mLastArrivalNanos = startNanos;
+        mPackets = mBytes = mLost = mOutOfOrder = mCorrupt = 0;
+        mNextSequence = -1;
+        mSampleCount = 0;
+    }
+
+    /***************************************************************************************************
+     * 收到一个测试包，在GATT回调线程中调用
+     **************************************************************************************************/
+    public synchronized void onPacket(byte[] value, int length, long arrivalNanos) {
+        mPackets++;
+        mBytes += length;
+        mLastArrivalNanos = arrivalNanos;
+        if (length < HEADER_SIZE) {
+            mCorrupt++;
+            return;
+        }
+        final long sequence = getUInt(value, 0);
+        for (int i = HEADER_SIZE; i < length; i++) {
+            if (value[i] != (byte) (sequence + i)) {
+                mCorrupt++;
+                if (mNextSequence >= 0 && sequence == (mNextSequence & 0xFFFFFFFFL)) {
+                    mNextSequence++;//序号正确时不把该包算作丢失
+                }
+                return;
+            }
+        }
+        //序号和发送时刻都是32位，按与上一个的差值展开
+        final long senderMicros = getUInt(value, 4);
+        if (mNextSequence < 0) {
+            mNextSequence = sequence + 1;
+            mFirstSenderMicros = mLastSenderMicros = senderMicros;
+        } else {
+            final int gap = (int) (sequence - (mNextSequence & 0xFFFFFFFFL));
+            if (gap >= 0) {
+                mLost += gap;
+                mNextSequence += gap + 1;
+            } else {
+                mOutOfOrder++;
+                if (mLost > 0) {
+                    mLost--;//之前记为丢失的包迟到了
+                }
+            }
+            mLastSenderMicros += (int) (senderMicros - (mLastSenderMicros & 0xFFFFFFFFL));
+        }
+        if (mSampleCount < MAX_SAMPLES) {
+            //单程时延加上一个未知的常数（两端时钟的差）
+            mDelays[mSampleCount++] = (arrivalNanos - mStartNanos) / 1000 - (mLastSenderMicros - mFirstSenderMicros);
+        }
+    }
+
+    /***************************************************************************************************
+     * 当前的测试结果，时延以最小值为零点
+     **************************************************************************************************/
+    public synchronized Result result(String label) {
+        final long elapsed = mLastArrivalNanos - mStartNanos;
+        final double bytesPerSecond = elapsed <= 0 ? 0 : mBytes * 1e9 / elapsed;
+        long p50 = 0;
+        long p95 = 0;
+        long max = 0;
+        if (mSampleCount > 0) {
+            final long[] delays = Arrays.copyOf(mDelays, mSampleCount);
+            Arrays.sort(delays);
+            final long min = delays[0];
+            p50 = delays[(mSampleCount - 1) / 2] - min;
+            p95 = delays[(int) ((mSampleCount - 1) * 0.95)] - min;
+            max = delays[mSampleCount - 1] - min;
+        }
+        return new Result(label, mPackets, mBytes, mLost, mOutOfOrder, mCorrupt, bytesPerSecond, p50, p95, max);
+    }
+}
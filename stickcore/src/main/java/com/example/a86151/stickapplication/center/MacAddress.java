@@ -0,0 +1,61 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * MAC地址与long之间的转换，"AA:BB:CC:DD:EE:FF" <-> 0xAABBCCDDEEFF，便于做哈希索引而不比较字符串
+ **************************************************************************************************/
+public final class MacAddress {
+    public static final long INVALID = -1L;
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /***************************************************************************************************
+     * 解析MAC地址字符串，格式不正确返回INVALID
+     **************************************************************************************************/
+    public static long pack(String address) {
+        if (address == null || address.length() != 17) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            final char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return INVALID;
+                }
+                continue;
+            }
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /***************************************************************************************************
+     * 把long还原为大写的MAC地址字符串
+     **************************************************************************************************/
+    public static String format(long mac) {
+        final char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int b = (int) (mac >>> (40 - i * 8)) & 0xFF;
+            chars[i * 3] = HEX[b >>> 4];
+            chars[i * 3 + 1] = HEX[b & 0x0F];
+            if (i < 5) {
+                chars[i * 3 + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    /***************************************************************************************************
+     * 64位混合哈希，用于开放寻址表
+     **************************************************************************************************/
+    public static int hash(long mac) {
+        long h = mac * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
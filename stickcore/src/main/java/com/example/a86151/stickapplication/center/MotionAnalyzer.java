@@ -0,0 +1,172 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 一根手杖的加速度流分析。每帧按int16三轴(x,y,z)连续排列，可以包含多个采样点；
+ * 每个采样点更新各轴和幅值的滑动窗口、步伐峰值检测和跌倒检测，均为O(1)且不分配内存。
+ * 步伐和跌倒作为事件立即回调，窗口统计每隔一段时间汇总回调一次，频率远低于原始数据
+ **************************************************************************************************/
+public final class MotionAnalyzer {
+    public static final int DEFAULT_SAMPLE_RATE_HZ = 50;
+    public static final int DEFAULT_WINDOW_MS = 2000;
+    public static final int DEFAULT_COUNTS_PER_G = 4096;//±8g量程的int16
+    public static final long SUMMARY_INTERVAL_NANOS = 1000000000L;
+
+    private static final long STEP_REFRACTORY_NANOS = 300000000L;//两步之间至少300ms
+    private static final long FREE_FALL_MIN_NANOS = 60000000L;//失重至少持续60ms
+    private static final long IMPACT_WINDOW_NANOS = 1000000000L;//失重后1s内出现冲击
+    private static final long FALL_COOLDOWN_NANOS = 5000000000L;
+
+    /***************************************************************************************************
+     * 分析结果回调，在分析线程中调用
+     **************************************************************************************************/
+    public interface Listener {
+        void onStep(long deviceAddress, long timestampNanos, long stepCount);
+
+        void onFall(long deviceAddress, long timestampNanos, double impactG);
+
+        /***************************************************************************************************
+         * 窗口统计汇总，summary对象被复用，只在回调期间有效
+         **************************************************************************************************/
+        void onSummary(long deviceAddress, Summary summary);
+    }
+
+    /***************************************************************************************************
+     * 一个窗口的统计汇总，加速度单位为g
+     **************************************************************************************************/
+    public static final class Summary {
+        public long timestampNanos;
+        public long samples;//累计处理的采样点数
+        public double magnitudeMean;
+        public double magnitudeStd;
+        public double magnitudeMin;
+        public double magnitudeMax;
+        public double meanX;
+        public double meanY;
+        public double meanZ;
+        public double tiltDegrees;//平均重力方向与手杖轴(z)的夹角
+        public long stepCount;
+        public double cadence;//步频，步/分钟
+    }
+
+    private final long mDeviceAddress;
+    private final Listener mListener;
+    private final long mSampleIntervalNanos;
+    private final double mCountsPerG;
+    private final SlidingWindow mX;
+    private final SlidingWindow mY;
+    private final SlidingWindow mZ;
+    private final SlidingWindow mMagnitude;
+    private final PeakDetector mSteps;
+    private final int mFreeFallThreshold;
+    private final int mImpactThreshold;
+    private final Summary mSummary = new Summary();
+    private long mSamples;
+    private long mFreeFallStartNanos = -1;
+    private long mFreeFallEndNanos = Long.MIN_VALUE;
+    private long mLastFallNanos = Long.MIN_VALUE;
+    private long mNextSummaryNanos = Long.MIN_VALUE;
+    private long mStepsAtSummary;
+    private long mLastSummaryNanos;
+
+    public MotionAnalyzer(long deviceAddress, int sampleRateHz, int windowMs, int countsPerG, Listener listener) {
+        mDeviceAddress = deviceAddress;
+        mListener = listener;
+        mSampleIntervalNanos = 1000000000L / sampleRateHz;
+        mCountsPerG = countsPerG;
+        final int capacity = Math.max(1, sampleRateHz * windowMs / 1000);
+        mX = new SlidingWindow(capacity);
+        mY = new SlidingWindow(capacity);
+        mZ = new SlidingWindow(capacity);
+        mMagnitude = new SlidingWindow(capacity);
+        mSteps = new PeakDetector(countsPerG * 115 / 100, countsPerG * 102 / 100, STEP_REFRACTORY_NANOS);
+        mFreeFallThreshold = countsPerG * 4 / 10;
+        mImpactThreshold = countsPerG * 25 / 10;
+    }
+
+    public long getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    /***************************************************************************************************
+     * 处理一帧。帧的时间是收到最后一个采样点的时间，之前的采样点按采样间隔往前推
+     **************************************************************************************************/
+    public void onFrame(SensorFrame frame) {
+        final int count = frame.valueCount / 3;
+        final int[] values = frame.values;
+        for (int i = 0; i < count; i++) {
+            addSample(values[i * 3], values[i * 3 + 1], values[i * 3 + 2],
+                    frame.timestampNanos - (count - 1 - i) * mSampleIntervalNanos);
+        }
+    }
+
+    /***************************************************************************************************
+     * 加入一个三轴采样点
+     **************************************************************************************************/
+    public void addSample(int x, int y, int z, long timestampNanos) {
+        final int magnitude = (int) Math.sqrt((double) ((long) x * x + (long) y * y + (long) z * z));
+        mX.add(x);
+        mY.add(y);
+        mZ.add(z);
+        mMagnitude.add(magnitude);
+        mSamples++;
+        if (mSteps.add(magnitude, timestampNanos)) {
+            mListener.onStep(mDeviceAddress, mSteps.getLastPeakNanos(), mSteps.getPeakCount());
+        }
+        detectFall(magnitude, timestampNanos);
+        if (mNextSummaryNanos == Long.MIN_VALUE) {
+            mNextSummaryNanos = timestampNanos + SUMMARY_INTERVAL_NANOS;
+            mLastSummaryNanos = timestampNanos;
+        } else if (timestampNanos >= mNextSummaryNanos) {
+            mNextSummaryNanos = timestampNanos + SUMMARY_INTERVAL_NANOS;
+            summarize(timestampNanos);
+        }
+    }
+
+    /***************************************************************************************************
+     * 跌倒：持续的失重（幅值远小于1g）之后短时间内出现大的冲击
+     **************************************************************************************************/
+    private void detectFall(int magnitude, long timestampNanos) {
+        if (magnitude < mFreeFallThreshold) {
+            if (mFreeFallStartNanos < 0) {
+                mFreeFallStartNanos = timestampNanos;
+            }
+            return;
+        }
+        if (mFreeFallStartNanos >= 0) {
+            if (timestampNanos - mFreeFallStartNanos >= FREE_FALL_MIN_NANOS) {
+                mFreeFallEndNanos = timestampNanos;
+            }
+            mFreeFallStartNanos = -1;
+        }
+        if (magnitude >= mImpactThreshold && mFreeFallEndNanos != Long.MIN_VALUE
+                && timestampNanos - mFreeFallEndNanos <= IMPACT_WINDOW_NANOS
+                && (mLastFallNanos == Long.MIN_VALUE || timestampNanos - mLastFallNanos >= FALL_COOLDOWN_NANOS)) {
+            mLastFallNanos = timestampNanos;
+            mFreeFallEndNanos = Long.MIN_VALUE;
+            mListener.onFall(mDeviceAddress, timestampNanos, magnitude / mCountsPerG);
+        }
+    }
+
+    private void summarize(long timestampNanos) {
+        final Summary summary = mSummary;
+        summary.timestampNanos = timestampNanos;
+        summary.samples = mSamples;
+        summary.magnitudeMean = mMagnitude.getMean() / mCountsPerG;
+        summary.magnitudeStd = mMagnitude.getStandardDeviation() / mCountsPerG;
+        summary.magnitudeMin = mMagnitude.getMin() / mCountsPerG;
+        summary.magnitudeMax = mMagnitude.getMax() / mCountsPerG;
+        summary.meanX = mX.getMean() / mCountsPerG;
+        summary.meanY = mY.getMean() / mCountsPerG;
+        summary.meanZ = mZ.getMean() / mCountsPerG;
+        final double gravity = Math.sqrt(summary.meanX * summary.meanX + summary.meanY * summary.meanY
+                + summary.meanZ * summary.meanZ);
+        summary.tiltDegrees = gravity == 0 ? 0
+                : Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, summary.meanZ / gravity))));
+        summary.stepCount = mSteps.getPeakCount();
+        final long elapsed = timestampNanos - mLastSummaryNanos;
+        summary.cadence = elapsed <= 0 ? 0 : (summary.stepCount - mStepsAtSummary) * 60e9 / elapsed;
+        mStepsAtSummary = summary.stepCount;
+        mLastSummaryNanos = timestampNanos;
+        mListener.onSummary(mDeviceAddress, summary);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 特性值接收通路：UUID解析为整数ID -> （分帧的特性先重组为完整帧）-> 按ID选择解码器 -> 解码到对象池中的帧
+ * -> 交给监听者。全程不分配内存（特性第一次出现时除外）。多个设备的回调线程在这里串行化，
+ * 下游的环形缓冲区只有一个生产者
+ **************************************************************************************************/
+public final class NotifyPipeline {
+    /***************************************************************************************************
+     * 帧监听接口。frame只在回调期间有效，回调返回后会被放回对象池，需要保留时请复制
+     **************************************************************************************************/
+    public interface FrameListener {
+        void onFrame(SensorFrame frame);
+    }
+
+    private final CharacteristicRegistry mRegistry;
+    private final FramePool mPool;
+    private volatile FrameListener mListener;
+    private volatile long mDecodeErrors;
+    private final FrameReassembler mReassembler;//受this保护
+
+    public NotifyPipeline(CharacteristicRegistry registry, FramePool pool) {
+        mRegistry = registry;
+        mPool = pool;
+        mReassembler = new FrameReassembler(new FrameReassembler.FrameSink() {
+            @Override
+            public void onFrame(long deviceAddress, int characteristicId, byte[] buffer, int offset, int length,
+                                long timestampNanos) {
+                decode(deviceAddress, characteristicId, buffer, offset, length, timestampNanos);
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 设置特性的notify是否带分帧头（见FrameReassembler），分帧的特性由多个notify重组为一帧后再解码
+     **************************************************************************************************/
+    public synchronized void setFramed(UUID uuid, boolean framed) {
+        mReassembler.setFramed(mRegistry.resolve(uuid), framed);
+    }
+
+    /***************************************************************************************************
+     * 设备重新连接，分帧特性的包序号重新开始
+     **************************************************************************************************/
+    public synchronized void restartStreams(long deviceAddress) {
+        mReassembler.restart(deviceAddress);
+    }
+
+    /***************************************************************************************************
+     * 设备分帧特性的丢包、重复、乱序统计，复制到out中
+     **************************************************************************************************/
+    public synchronized void getFrameCounters(long deviceAddress, FrameReassembler.Counters out) {
+        mReassembler.getCounters(deviceAddress, out);
+    }
+
+    public void setFrameListener(FrameListener listener) {
+        mListener = listener;
+    }
+
+    public CharacteristicRegistry getRegistry() {
+        return mRegistry;
+    }
+
+    /***************************************************************************************************
+     * 处理一个特性值，返回特性ID；解码失败返回UNKNOWN_ID
+     **************************************************************************************************/
+    public int onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+        return onNotification(deviceAddress, mRegistry.resolve(uuid), value, 0, value.length, timestampNanos);
+    }
+
+    public synchronized int onNotification(long deviceAddress, int characteristicId, byte[] value,
+                                           int offset, int length, long timestampNanos) {
+        if (mReassembler.isFramed(characteristicId)) {
+            mReassembler.onPacket(deviceAddress, characteristicId, value, offset, length, timestampNanos);
+            return characteristicId;
+        }
+        return decode(deviceAddress, characteristicId, value, offset, length, timestampNanos);
+    }
+
+    /***************************************************************************************************
+     * 处理一个完整的特性值（如读操作的结果），不经过分帧重组
+     **************************************************************************************************/
+    public synchronized int onValue(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+        return decode(deviceAddress, mRegistry.resolve(uuid), value, 0, value.length, timestampNanos);
+    }
+
+    private int decode(long deviceAddress, int characteristicId, byte[] value, int offset, int length,
+                       long timestampNanos) {
+        final FrameDecoder decoder = mRegistry.decoderOf(characteristicId);
+        if (decoder == null) {
+            return CharacteristicRegistry.UNKNOWN_ID;
+        }
+        final SensorFrame frame = mPool.acquire();
+        try {
+            if (!decoder.decode(value, offset, length, frame)) {
+                mDecodeErrors++;
+                return CharacteristicRegistry.UNKNOWN_ID;
+            }
+            frame.deviceAddress = deviceAddress;
+            frame.characteristicId = characteristicId;
+            frame.timestampNanos = timestampNanos;
+            final FrameListener listener = mListener;
+            if (listener != null) {
+                listener.onFrame(frame);
+            }
+            return characteristicId;
+        } finally {
+            mPool.release(frame);
+        }
+    }
+
+    /***************************************************************************************************
+     * 解码失败的数据包个数
+     **************************************************************************************************/
+    public long getDecodeErrors() {
+        return mDecodeErrors;
+    }
+}
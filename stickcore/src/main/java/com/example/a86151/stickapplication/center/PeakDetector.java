@@ -0,0 +1,75 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 带滞回的峰值检测：信号超过上阈值后开始跟踪最大值，回落到下阈值以下时确认一个峰；
+ * 两个峰之间至少间隔refractoryNanos，用于从加速度幅值中检测步伐。每个样本O(1)，不分配内存
+ **************************************************************************************************/
+public final class PeakDetector {
+    private int mHighThreshold;
+    private int mLowThreshold;
+    private final long mRefractoryNanos;
+    private boolean mInPeak;
+    private int mPeakValue;
+    private long mPeakNanos;
+    private long mLastPeakNanos = Long.MIN_VALUE;
+    private long mPeakCount;
+
+    public PeakDetector(int highThreshold, int lowThreshold, long refractoryNanos) {
+        setThresholds(highThreshold, lowThreshold);
+        mRefractoryNanos = refractoryNanos;
+    }
+
+    public void setThresholds(int highThreshold, int lowThreshold) {
+        if (lowThreshold > highThreshold) {
+            throw new IllegalArgumentException("low threshold above high threshold");
+        }
+        mHighThreshold = highThreshold;
+        mLowThreshold = lowThreshold;
+    }
+
+    /***************************************************************************************************
+     * 加入一个样本，确认了一个峰时返回true，峰值和时间通过getLastPeakValue/getLastPeakNanos获取
+     **************************************************************************************************/
+    public boolean add(int value, long timestampNanos) {
+        if (!mInPeak) {
+            if (value >= mHighThreshold) {
+                mInPeak = true;
+                mPeakValue = value;
+                mPeakNanos = timestampNanos;
+            }
+            return false;
+        }
+        if (value > mPeakValue) {
+            mPeakValue = value;
+            mPeakNanos = timestampNanos;
+        }
+        if (value > mLowThreshold) {
+            return false;
+        }
+        mInPeak = false;
+        if (mLastPeakNanos != Long.MIN_VALUE && mPeakNanos - mLastPeakNanos < mRefractoryNanos) {
+            return false;//距上一个峰太近，视为同一步的抖动
+        }
+        mLastPeakNanos = mPeakNanos;
+        mPeakCount++;
+        return true;
+    }
+
+    public int getLastPeakValue() {
+        return mPeakValue;
+    }
+
+    public long getLastPeakNanos() {
+        return mLastPeakNanos;
+    }
+
+    public long getPeakCount() {
+        return mPeakCount;
+    }
+
+    public void reset() {
+        mInPeak = false;
+        mLastPeakNanos = Long.MIN_VALUE;
+        mPeakCount = 0;
+    }
+}
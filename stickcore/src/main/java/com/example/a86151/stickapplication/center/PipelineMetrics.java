@@ -0,0 +1,95 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***************************************************************************************************
+ * 数据通路各阶段的延迟直方图和事件计数，进程内共享一个实例INSTANCE。
+ * 只在事件发生时记录，没有定时器和后台线程，空闲时没有开销
+ **************************************************************************************************/
+public final class PipelineMetrics {
+    /***************************************************************************************************
+     * 计时的阶段
+     **************************************************************************************************/
+    public enum Stage {
+        SCAN_DELIVERY,//扫描回调到结果交给UI线程
+        CONNECT,//发起连接到连接建立
+        DISCOVERY,//连接建立到服务发现完成
+        SUBSCRIBE,//服务发现完成到所有notify打开
+        FIRST_NOTIFY,//发起连接到第一条notify
+        NOTIFY_INTERVAL,//同一设备相邻两条notify的间隔
+        NOTIFY_DELIVERY,//onCharacteristicChanged到消费者取出帧
+        GATT_OPERATION,//GATT操作入队到完成
+        STARTUP_DIRECT,//冷启动直接连接上次的设备，界面创建到第一条notify
+        STARTUP_SCAN,//冷启动先扫描再选择设备，界面创建到第一条notify
+        SCAN_LIST_UPDATE,//设备列表每批扫描结果和每次差异分发在UI线程中的耗时
+        SCAN_LIST_BIND//设备列表绑定一行（整行或只更新变化的文本）
+    }
+
+    /***************************************************************************************************
+     * 计数的事件
+     **************************************************************************************************/
+    public enum Counter {
+        SCAN_RESULTS,
+        CONNECT_ATTEMPTS,
+        CONNECTS,
+        LINK_LOSSES,
+        NOTIFICATIONS,
+        FRAMES_DELIVERED,
+        GATT_FAILURES
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final Counter[] COUNTERS = Counter.values();
+    public static final PipelineMetrics INSTANCE = new PipelineMetrics();//须在STAGES之后初始化
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS.length);
+
+    public PipelineMetrics() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mHistograms[i] = new LatencyHistogram(STAGES[i].name());
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram get(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    /***************************************************************************************************
+     * 文本格式的统计，每个计数和每个有记录的直方图一行
+     **************************************************************************************************/
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < COUNTERS.length; i++) {
+            builder.append(COUNTERS[i].name()).append(": ").append(mCounters.get(i)).append('\n');
+        }
+        for (LatencyHistogram histogram : mHistograms) {
+            if (histogram.getCount() > 0) {
+                builder.append(histogram).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 原始数据解码器，只复制特性值，不解析数值。未注册解码器的特性默认使用它
+ **************************************************************************************************/
+public final class RawFrameDecoder implements FrameDecoder {
+    public static final RawFrameDecoder INSTANCE = new RawFrameDecoder();
+
+    private RawFrameDecoder() {
+    }
+
+    @Override
+    public boolean decode(byte[] src, int offset, int length, SensorFrame out) {
+        if (length > SensorFrame.MAX_PAYLOAD) {
+            return false;
+        }
+        System.arraycopy(src, offset, out.payload, 0, length);
+        out.payloadLength = length;
+        out.valueCount = 0;
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.Random;
+
+/***************************************************************************************************
+ * 带随机抖动的指数退避（decorrelated jitter）：下一次等待时间在[base, 上次等待时间×3]之间随机选取，
+ * 不超过cap。多根手杖同时断线后不会在同一时刻一起重连
+ **************************************************************************************************/
+public final class ReconnectBackoff {
+    private final long mBaseMs;
+    private final long mCapMs;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+    private long mLastDelayMs;
+    private int mAttempts;
+
+    public ReconnectBackoff(long baseMs, long capMs, int maxAttempts) {
+        this(baseMs, capMs, maxAttempts, new Random());
+    }
+
+    public ReconnectBackoff(long baseMs, long capMs, int maxAttempts, Random random) {
+        if (baseMs <= 0 || capMs < baseMs) {
+            throw new IllegalArgumentException("require 0 < base <= cap");
+        }
+        mBaseMs = baseMs;
+        mCapMs = capMs;
+        mMaxAttempts = maxAttempts;
+        mRandom = random;
+        reset();
+    }
+
+    /***************************************************************************************************
+     * 连接完全建立后调用，下一次断线重新从base开始
+     **************************************************************************************************/
+    public void reset() {
+        mAttempts = 0;
+        mLastDelayMs = mBaseMs;
+    }
+
+    public boolean isExhausted() {
+        return mAttempts >= mMaxAttempts;
+    }
+
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /***************************************************************************************************
+     * 下一次重连前的等待时间，同时计一次尝试
+     **************************************************************************************************/
+    public long nextDelayMs() {
+        mAttempts++;
+        final long upper = Math.min(mCapMs, mLastDelayMs * 3);
+        final long delay = mBaseMs + (long) (mRandom.nextDouble() * (upper - mBaseMs + 1));
+        mLastDelayMs = Math.min(mCapMs, delay);
+        return mLastDelayMs;
+    }
+}
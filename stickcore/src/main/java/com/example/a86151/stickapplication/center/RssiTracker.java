@@ -0,0 +1,162 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 一个设备的RSSI历史、平滑和距离估计。最近的采样和时间保存在基本类型的环形数组中；
+ * 一维卡尔曼滤波平滑RSSI，过程噪声随采样间隔增长，隔得越久新采样的权重越大。
+ * 距离按对数距离路径损耗模型估计，广播中有发射功率时用它推算1米处的RSSI。
+ * 排序用的值只在平滑后的RSSI变化超过滞回量时才更新，列表不会因噪声来回跳动
+ **************************************************************************************************/
+public final class RssiTracker {
+    public static final int CAPACITY = 16;
+    public static final int INVALID_RSSI = 127;//协议栈用127表示没有RSSI
+    public static final int HYSTERESIS_DB = 4;
+    public static final int DEFAULT_RSSI_AT_1M = -59;
+    public static final int TX_POWER_LOSS_AT_1M = 41;//0米发射功率到1米处的损耗
+    public static final double PATH_LOSS_EXPONENT = 2.5;//室内略大于自由空间的2.0
+
+    private static final double MEASUREMENT_VARIANCE = 16;//单次RSSI的方差，约4dB标准差
+    private static final double PROCESS_VARIANCE_PER_SECOND = 4;//设备移动带来的变化
+
+    //距离区间
+    public static final int ZONE_UNKNOWN = 0;
+    public static final int ZONE_IMMEDIATE = 1;//0.5米以内
+    public static final int ZONE_NEAR = 2;//3米以内
+    public static final int ZONE_FAR = 3;
+    private static final double IMMEDIATE_METERS = 0.5;
+    private static final double NEAR_METERS = 3.0;
+    private static final double ZONE_HYSTERESIS = 0.15;//区间边界的相对滞回
+
+    private final int[] mRssi = new int[CAPACITY];
+    private final long[] mNanos = new long[CAPACITY];
+    private int mCount;
+    private int mHead;//下一个写入位置
+    //卡尔曼滤波状态
+    private double mEstimate;
+    private double mVariance;
+    private long mLastNanos;
+    private int mSortKey;
+    private int mTxPower = AdvertisingData.NO_TX_POWER;
+    private int mZone = ZONE_UNKNOWN;
+
+    /***************************************************************************************************
+     * 加入一个采样，txPower为广播中的发射功率，没有时为AdvertisingData.NO_TX_POWER。
+     * 返回排序用的值是否改变
+     **************************************************************************************************/
+    public boolean add(int rssi, long timestampNanos, int txPower) {
+        if (txPower != AdvertisingData.NO_TX_POWER) {
+            mTxPower = txPower;
+        }
+        if (rssi == INVALID_RSSI) {
+            return false;
+        }
+        mRssi[mHead] = rssi;
+        mNanos[mHead] = timestampNanos;
+        mHead = (mHead + 1) % CAPACITY;
+        if (mCount < CAPACITY) {
+            mCount++;
+        }
+        if (mCount == 1) {
+            mEstimate = rssi;
+            mVariance = MEASUREMENT_VARIANCE;
+            mLastNanos = timestampNanos;
+            mSortKey = rssi;
+            updateZone();
+            return true;
+        }
+        //预测：两次采样之间设备可能移动，方差随时间增长
+        final double seconds = Math.max(0, timestampNanos - mLastNanos) / 1e9;
+        mVariance += PROCESS_VARIANCE_PER_SECOND * seconds;
+        mLastNanos = timestampNanos;
+        //更新
+        final double gain = mVariance / (mVariance + MEASUREMENT_VARIANCE);
+        mEstimate += gain * (rssi - mEstimate);
+        mVariance *= 1 - gain;
+        updateZone();
+        final int smoothed = getSmoothed();
+        if (Math.abs(smoothed - mSortKey) >= HYSTERESIS_DB) {
+            mSortKey = smoothed;
+            return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /***************************************************************************************************
+     * 历史采样，back为0表示最新的一个
+     **************************************************************************************************/
+    public int rssiAt(int back) {
+        return mRssi[(mHead - 1 - back + CAPACITY * 2) % CAPACITY];
+    }
+
+    public long nanosAt(int back) {
+        return mNanos[(mHead - 1 - back + CAPACITY * 2) % CAPACITY];
+    }
+
+    public int getLatest() {
+        return mCount == 0 ? INVALID_RSSI : rssiAt(0);
+    }
+
+    /***************************************************************************************************
+     * 平滑后的RSSI，四舍五入到整数dBm
+     **************************************************************************************************/
+    public int getSmoothed() {
+        return mCount == 0 ? INVALID_RSSI : (int) Math.round(mEstimate);
+    }
+
+    /***************************************************************************************************
+     * 排序用的RSSI，只有平滑值变化超过HYSTERESIS_DB时才跟随
+     **************************************************************************************************/
+    public int getSortKey() {
+        return mCount == 0 ? Integer.MIN_VALUE : mSortKey;
+    }
+
+    public int getTxPower() {
+        return mTxPower;
+    }
+
+    /***************************************************************************************************
+     * 1米处的RSSI：有发射功率时按发射功率推算，否则用经验值
+     **************************************************************************************************/
+    public int getRssiAt1m() {
+        return mTxPower == AdvertisingData.NO_TX_POWER ? DEFAULT_RSSI_AT_1M : mTxPower - TX_POWER_LOSS_AT_1M;
+    }
+
+    /***************************************************************************************************
+     * 估计距离（米），没有采样时返回-1
+     **************************************************************************************************/
+    public double getDistanceMeters() {
+        if (mCount == 0) {
+            return -1;
+        }
+        return distance(mEstimate, getRssiAt1m());
+    }
+
+    static double distance(double rssi, int rssiAt1m) {
+        return Math.pow(10, (rssiAt1m - rssi) / (10 * PATH_LOSS_EXPONENT));
+    }
+
+    public int getZone() {
+        return mZone;
+    }
+
+    /***************************************************************************************************
+     * 按估计距离更新区间，离开当前区间要越过边界一定比例，避免在边界附近来回切换
+     **************************************************************************************************/
+    private void updateZone() {
+        final double meters = getDistanceMeters();
+        int zone = meters < IMMEDIATE_METERS ? ZONE_IMMEDIATE : meters < NEAR_METERS ? ZONE_NEAR : ZONE_FAR;
+        if (mZone == ZONE_IMMEDIATE && zone != ZONE_IMMEDIATE && meters < IMMEDIATE_METERS * (1 + ZONE_HYSTERESIS)) {
+            zone = ZONE_IMMEDIATE;
+        } else if (mZone == ZONE_NEAR && zone == ZONE_FAR && meters < NEAR_METERS * (1 + ZONE_HYSTERESIS)) {
+            zone = ZONE_NEAR;
+        } else if (mZone == ZONE_NEAR && zone == ZONE_IMMEDIATE && meters > IMMEDIATE_METERS * (1 - ZONE_HYSTERESIS)) {
+            zone = ZONE_NEAR;
+        } else if (mZone == ZONE_FAR && zone != ZONE_FAR && meters > NEAR_METERS * (1 - ZONE_HYSTERESIS)) {
+            zone = ZONE_FAR;
+        }
+        mZone = zone;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 自适应扫描占空比策略。最近的扫描窗口发现了新设备时连续扫描，连续若干个窗口没有新设备时逐级
+ * 缩短扫描窗口、拉长扫描周期。扫描周期始终不超过发现延迟目标：设备在一个周期内必然遇到一次扫描窗口，
+ * 结果在窗口结束时交付，所以新上电的设备最迟在一个周期内被发现
+ **************************************************************************************************/
+public final class ScanDutyCyclePolicy {
+    /***************************************************************************************************
+     * Android 7.0起30秒内启动扫描超过5次会被系统静默忽略，非连续扫描时周期不能短于该值
+     **************************************************************************************************/
+    public static final long MIN_RESTART_INTERVAL_MS = 6000;
+
+    public static final long DEFAULT_LATENCY_TARGET_MS = 10000;
+    public static final long DEFAULT_MIN_WINDOW_MS = 1000;
+    public static final long DEFAULT_MAX_WINDOW_MS = 4000;
+    public static final int DEFAULT_QUIET_WINDOWS_PER_STEP = 2;
+
+    private final long mLatencyTargetMs;
+    private final long mMinWindowMs;
+    private final long mMaxWindowMs;
+    private final int mQuietWindowsPerStep;
+    private final int mMaxLevel;
+    private int mLevel;
+    private int mQuietWindows;
+    private long mWindowMs;
+    private long mIntervalMs;
+
+    public ScanDutyCyclePolicy() {
+        this(DEFAULT_LATENCY_TARGET_MS, DEFAULT_MIN_WINDOW_MS, DEFAULT_MAX_WINDOW_MS, DEFAULT_QUIET_WINDOWS_PER_STEP);
+    }
+
+    /***************************************************************************************************
+     * latencyTargetMs为新设备的最大发现延迟，minWindowMs应大于设备广播间隔的两倍
+     **************************************************************************************************/
+    public ScanDutyCyclePolicy(long latencyTargetMs, long minWindowMs, long maxWindowMs, int quietWindowsPerStep) {
+        if (minWindowMs <= 0 || minWindowMs > maxWindowMs || maxWindowMs > latencyTargetMs) {
+            throw new IllegalArgumentException("require 0 < minWindow <= maxWindow <= latencyTarget");
+        }
+        mLatencyTargetMs = latencyTargetMs;
+        mMinWindowMs = minWindowMs;
+        mMaxWindowMs = maxWindowMs;
+        mQuietWindowsPerStep = Math.max(1, quietWindowsPerStep);
+        int maxLevel = 0;
+        while (maxLevel < 16 && ((maxWindowMs >> maxLevel) > minWindowMs || (maxWindowMs << maxLevel) < latencyTargetMs)) {
+            maxLevel++;
+        }
+        mMaxLevel = maxLevel;
+        reset();
+    }
+
+    /***************************************************************************************************
+     * 回到连续扫描，用于开始新的扫描会话或用户主动刷新
+     **************************************************************************************************/
+    public void reset() {
+        mLevel = 0;
+        mQuietWindows = 0;
+        recompute();
+    }
+
+    /***************************************************************************************************
+     * 一个扫描窗口结束，newDevices为该窗口内新发现的设备数。返回窗口或周期是否改变
+     **************************************************************************************************/
+    public boolean onWindowEnd(int newDevices) {
+        final int level = mLevel;
+        if (newDevices > 0) {
+            mLevel = 0;
+            mQuietWindows = 0;
+        } else if (++mQuietWindows >= mQuietWindowsPerStep && mLevel < mMaxLevel) {
+            mLevel++;
+            mQuietWindows = 0;
+        }
+        if (mLevel == level) {
+            return false;
+        }
+        final long window = mWindowMs;
+        final long interval = mIntervalMs;
+        recompute();
+        return window != mWindowMs || interval != mIntervalMs;
+    }
+
+    private void recompute() {
+        long window = Math.max(mMinWindowMs, mMaxWindowMs >> mLevel);
+        long interval = Math.min(mLatencyTargetMs, mMaxWindowMs << mLevel);
+        if (interval < MIN_RESTART_INTERVAL_MS || window >= interval) {
+            window = interval;//周期太短时不停扫描，避免频繁重启被系统限制
+        }
+        mWindowMs = window;
+        mIntervalMs = interval;
+    }
+
+    public long getWindowMs() {
+        return mWindowMs;
+    }
+
+    public long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /***************************************************************************************************
+     * 支持批量上报时的上报延迟，每个窗口结束时主动取一次，窗口内最多唤醒一次
+     **************************************************************************************************/
+    public long getReportDelayMs() {
+        return mWindowMs;
+    }
+
+    public boolean isContinuous() {
+        return mWindowMs == mIntervalMs;
+    }
+
+    public float getDutyCycle() {
+        return (float) mWindowMs / mIntervalMs;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public long getLatencyTargetMs() {
+        return mLatencyTargetMs;
+    }
+}
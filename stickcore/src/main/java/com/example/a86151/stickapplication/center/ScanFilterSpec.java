@@ -0,0 +1,180 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 扫描过滤条件：设备名、服务UUID、厂商数据。API 21以上转换成硬件ScanFilter在控制器中过滤，
+ * 旧系统上由matches()解析广播数据在回调中过滤。未设置任何条件时接收所有设备
+ **************************************************************************************************/
+public final class ScanFilterSpec {
+    public static final int NO_MANUFACTURER = -1;
+
+    //蓝牙基础UUID 0000xxxx-0000-1000-8000-00805F9B34FB
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private String mDeviceName;
+    private UUID mServiceUuid;
+    private int mManufacturerId = NO_MANUFACTURER;
+    private byte[] mManufacturerData;
+    private byte[] mManufacturerMask;
+
+    public ScanFilterSpec setDeviceName(String deviceName) {
+        mDeviceName = deviceName;
+        return this;
+    }
+
+    public ScanFilterSpec setServiceUuid(UUID serviceUuid) {
+        mServiceUuid = serviceUuid;
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 厂商数据过滤，data为厂商ID之后的前缀，mask为null时全部比较
+     **************************************************************************************************/
+    public ScanFilterSpec setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+        if (data != null && mask != null && mask.length != data.length) {
+            throw new IllegalArgumentException("mask length must match data length");
+        }
+        mManufacturerId = manufacturerId;
+        mManufacturerData = data;
+        mManufacturerMask = mask;
+        return this;
+    }
+
+    public String getDeviceName() {
+        return mDeviceName;
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public int getManufacturerId() {
+        return mManufacturerId;
+    }
+
+    public byte[] getManufacturerData() {
+        return mManufacturerData;
+    }
+
+    public byte[] getManufacturerMask() {
+        return mManufacturerMask;
+    }
+
+    public boolean isEmpty() {
+        return mDeviceName == null && mServiceUuid == null && mManufacturerId == NO_MANUFACTURER;
+    }
+
+    /***************************************************************************************************
+     * 软件过滤，name为系统缓存的设备名（可为null），scanRecord为原始广播数据，不分配内存
+     **************************************************************************************************/
+    public boolean matches(String name, byte[] scanRecord) {
+        boolean nameOk = mDeviceName == null || mDeviceName.equals(name);
+        boolean uuidOk = mServiceUuid == null;
+        boolean manufacturerOk = mManufacturerId == NO_MANUFACTURER;
+        if (nameOk && uuidOk && manufacturerOk) {
+            return true;
+        }
+        if (scanRecord == null) {
+            return false;
+        }
+        //广播数据由若干AD结构组成：长度(1字节) + 类型(1字节) + 数据
+        int i = 0;
+        while (i < scanRecord.length) {
+            final int length = scanRecord[i] & 0xFF;
+            if (length == 0 || i + 1 + length > scanRecord.length) {
+                break;
+            }
+            final int type = scanRecord[i + 1] & 0xFF;
+            final int data = i + 2;
+            final int dataLength = length - 1;
+            switch (type) {
+                case 0x02:
+                case 0x03://16位服务UUID列表
+                    uuidOk = uuidOk || containsUuid(scanRecord, data, dataLength, 2);
+                    break;
+                case 0x04:
+                case 0x05://32位服务UUID列表
+                    uuidOk = uuidOk || containsUuid(scanRecord, data, dataLength, 4);
+                    break;
+                case 0x06:
+                case 0x07://128位服务UUID列表
+                    uuidOk = uuidOk || containsUuid(scanRecord, data, dataLength, 16);
+                    break;
+                case 0x08:
+                case 0x09://设备名
+                    nameOk = nameOk || nameEquals(scanRecord, data, dataLength);
+                    break;
+                case 0xFF://厂商数据，前两个字节为小端厂商ID
+                    manufacturerOk = manufacturerOk || manufacturerMatches(scanRecord, data, dataLength);
+                    break;
+                default:
+                    break;
+            }
+            i += 1 + length;
+        }
+        return nameOk && uuidOk && manufacturerOk;
+    }
+
+    private boolean containsUuid(byte[] record, int offset, int length, int width) {
+        final long msb = mServiceUuid.getMostSignificantBits();
+        final long lsb = mServiceUuid.getLeastSignificantBits();
+        if (width < 16 && (lsb != BASE_UUID_LSB || (msb & 0xFFFFFFFFL) != BASE_UUID_MSB)) {
+            return false;//不是基础UUID派生的短UUID
+        }
+        for (int p = offset; p + width <= offset + length; p += width) {
+            if (width < 16) {
+                long shortUuid = 0;
+                for (int b = width - 1; b >= 0; b--) {
+                    shortUuid = (shortUuid << 8) | (record[p + b] & 0xFF);
+                }
+                if ((msb >>> 32) == shortUuid) {
+                    return true;
+                }
+            } else if (readLittleEndian(record, p + 8) == msb && readLittleEndian(record, p) == lsb) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long readLittleEndian(byte[] record, int offset) {
+        long value = 0;
+        for (int b = 7; b >= 0; b--) {
+            value = (value << 8) | (record[offset + b] & 0xFF);
+        }
+        return value;
+    }
+
+    private boolean nameEquals(byte[] record, int offset, int length) {
+        if (length != mDeviceName.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if ((record[offset + k] & 0xFF) != mDeviceName.charAt(k)) {
+                return false;//只比较ASCII设备名
+            }
+        }
+        return true;
+    }
+
+    private boolean manufacturerMatches(byte[] record, int offset, int length) {
+        if (length < 2 || ((record[offset] & 0xFF) | (record[offset + 1] & 0xFF) << 8) != mManufacturerId) {
+            return false;
+        }
+        if (mManufacturerData == null) {
+            return true;
+        }
+        if (length - 2 < mManufacturerData.length) {
+            return false;
+        }
+        for (int k = 0; k < mManufacturerData.length; k++) {
+            final int mask = mManufacturerMask == null ? 0xFF : mManufacturerMask[k];
+            if (((record[offset + 2 + k] ^ mManufacturerData[k]) & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
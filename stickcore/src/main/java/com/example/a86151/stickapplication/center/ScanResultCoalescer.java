@@ -0,0 +1,194 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/***************************************************************************************************
+ * 扫描结果合并缓冲区。扫描回调线程无锁写入，同一MAC在两次取出之间的多条结果合并为最新的一条，
+ * UI线程每帧最多取出一次。表容量固定，槽位在clear()之前不释放
+ **************************************************************************************************/
+public final class ScanResultCoalescer {
+    /***************************************************************************************************
+     * 取出结果的接收者，在调用drain的线程中调用
+     **************************************************************************************************/
+    public interface Sink {
+        void onScanResult(long mac, String name, int rssi, byte[] scanRecord);
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mCapacity;
+    private final AtomicReference<Table> mTable = new AtomicReference<Table>();
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mMerged = new AtomicLong();
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mOverflow = new AtomicLong();
+
+    public ScanResultCoalescer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /***************************************************************************************************
+     * capacity为最多容纳的设备数，表大小按装载因子3/4向上取2的幂
+     **************************************************************************************************/
+    public ScanResultCoalescer(int capacity) {
+        final int min = Math.max(16, (capacity * 4 + 2) / 3);
+        int size = Integer.highestOneBit(min * 2 - 1);
+        mCapacity = size;
+        mTable.set(new Table(size));
+    }
+
+    /***************************************************************************************************
+     * 写入一条扫描结果，返回true表示这是该MAC在本次取出前的第一条结果（调用者可据此安排一次取出）。
+     * scanRecord只保存引用，调用者之后不能再修改该数组
+     **************************************************************************************************/
+    public boolean offer(long mac, String name, int rssi, byte[] scanRecord) {
+        mReceived.incrementAndGet();
+        final Table table = mTable.get();
+        final int slot = table.claim(mac);
+        if (slot < 0) {
+            mOverflow.incrementAndGet();
+            return false;
+        }
+        if (name != null && table.names.get(slot) == null) {
+            table.names.lazySet(slot, name);
+        }
+        if (scanRecord != null) {
+            table.records.lazySet(slot, scanRecord);
+        }
+        table.rssi.set(slot, rssi);
+        if (table.dirty.getAndSet(slot, 1) == 1) {
+            mMerged.incrementAndGet();//覆盖了一条尚未取出的结果
+            return false;
+        }
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 取出所有有新结果的设备，返回取出的条数
+     **************************************************************************************************/
+    public int drain(Sink sink) {
+        final Table table = mTable.get();
+        final int used = Math.min(table.usedCount.get(), table.used.length());
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            final int slot = table.used.get(i) - 1;
+            if (slot < 0) {
+                continue;//槽位刚被占用还未登记，下次再取
+            }
+            if (table.dirty.getAndSet(slot, 0) == 1) {
+                sink.onScanResult(table.keys.get(slot) - 1, table.names.get(slot), table.rssi.get(slot),
+                        table.records.get(slot));
+                count++;
+            }
+        }
+        mDelivered.addAndGet(count);
+        return count;
+    }
+
+    /***************************************************************************************************
+     * 是否有尚未取出的结果
+     **************************************************************************************************/
+    public boolean hasPending() {
+        final Table table = mTable.get();
+        final int used = Math.min(table.usedCount.get(), table.used.length());
+        for (int i = 0; i < used; i++) {
+            final int slot = table.used.get(i) - 1;
+            if (slot >= 0 && table.dirty.get(slot) == 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /***************************************************************************************************
+     * 清空所有设备，换一张新表，并发写入旧表的结果被丢弃
+     **************************************************************************************************/
+    public void clear() {
+        mTable.set(new Table(mCapacity));
+    }
+
+    /***************************************************************************************************
+     * 自上次clear()以来出现过的不同MAC数
+     **************************************************************************************************/
+    public int getDistinct() {
+        final Table table = mTable.get();
+        return Math.min(table.usedCount.get(), table.maxUsed);
+    }
+
+    public long getReceived() {
+        return mReceived.get();
+    }
+
+    public long getMerged() {
+        return mMerged.get();
+    }
+
+    public long getDelivered() {
+        return mDelivered.get();
+    }
+
+    public long getOverflow() {
+        return mOverflow.get();
+    }
+
+    /***************************************************************************************************
+     * 开放寻址表，keys存放mac+1，0表示空槽；used按占用顺序登记槽位，取出时只遍历已占用的槽位
+     **************************************************************************************************/
+    private static final class Table {
+        final AtomicLongArray keys;
+        final AtomicIntegerArray rssi;
+        final AtomicIntegerArray dirty;
+        final AtomicReferenceArray<String> names;
+        final AtomicReferenceArray<byte[]> records;//最新一条广播数据
+        final AtomicIntegerArray used;//槽位+1
+        final AtomicInteger usedCount = new AtomicInteger();
+        final int maxUsed;
+
+        Table(int size) {
+            keys = new AtomicLongArray(size);
+            rssi = new AtomicIntegerArray(size);
+            dirty = new AtomicIntegerArray(size);
+            names = new AtomicReferenceArray<String>(size);
+            records = new AtomicReferenceArray<byte[]>(size);
+            used = new AtomicIntegerArray(size);
+            maxUsed = size * 3 / 4;//装载因子上限
+        }
+
+        /***************************************************************************************************
+         * 查找或占用mac对应的槽位，表已满返回-1
+         **************************************************************************************************/
+        int claim(long mac) {
+            final long key = mac + 1;
+            final int mask = keys.length() - 1;
+            int i = MacAddress.hash(mac) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                final long current = keys.get(i);
+                if (current == key) {
+                    return i;
+                }
+                if (current == 0) {
+                    if (usedCount.get() >= maxUsed) {
+                        return -1;
+                    }
+                    if (keys.compareAndSet(i, 0, key)) {
+                        final int index = usedCount.getAndIncrement();
+                        if (index < used.length()) {
+                            used.set(index, i + 1);
+                        }
+                        return i;
+                    }
+                    if (keys.get(i) == key) {
+                        return i;//其他线程刚占用了同一个MAC
+                    }
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 解码后的传感器数据帧。对象由FramePool复用，通知回调中不再为每个数据包分配新对象
+ **************************************************************************************************/
+public final class SensorFrame {
+    public static final int MAX_PAYLOAD = 512;//ATT属性值的最大长度
+    public static final int MAX_VALUES = MAX_PAYLOAD / 2;//按16位解码时最多的数值个数
+
+    public long deviceAddress = MacAddress.INVALID;//设备MAC地址，见MacAddress.pack
+    public int characteristicId = CharacteristicRegistry.UNKNOWN_ID;//特性的整数ID，由CharacteristicRegistry分配
+    public long timestampNanos;//收到数据的时间，System.nanoTime()
+    public final byte[] payload = new byte[MAX_PAYLOAD];//原始特性值
+    public int payloadLength;
+    public final int[] values = new int[MAX_VALUES];//解码后的数值
+    public int valueCount;
+
+    /***************************************************************************************************
+     * 清空帧内容，放回对象池前调用
+     **************************************************************************************************/
+    public void reset() {
+        deviceAddress = MacAddress.INVALID;
+        characteristicId = CharacteristicRegistry.UNKNOWN_ID;
+        timestampNanos = 0;
+        payloadLength = 0;
+        valueCount = 0;
+    }
+
+    /***************************************************************************************************
+     * 复制另一帧的内容，只复制有效部分
+     **************************************************************************************************/
+    public void copyFrom(SensorFrame other) {
+        deviceAddress = other.deviceAddress;
+        characteristicId = other.characteristicId;
+        timestampNanos = other.timestampNanos;
+        payloadLength = other.payloadLength;
+        System.arraycopy(other.payload, 0, payload, 0, other.payloadLength);
+        valueCount = other.valueCount;
+        System.arraycopy(other.values, 0, values, 0, other.valueCount);
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/***************************************************************************************************
+ * 跨进程共享的单生产者帧环。服务进程把文件映射为可写并在接收线程中直接写入，
+ * 其他进程通过只读的文件描述符映射同一文件，各自按序号读取，没有逐包的Binder事务和序列化。
+ * 文件头（64字节）：魔数(4) + 版本(4) + 槽数(4) + 槽大小(4) + 已发布的帧数(8) + 丢弃的超长字节数(8) + 保留
+ * 槽：槽序号(8，写入中为2n+1，写完为2n+2) + 时间ns(8，System.nanoTime，跨进程可比) + MAC(8)
+ *     + 特性ID(4) + 负载长度(4) + 负载
+ * 读者按序列锁的方式校验槽序号，写入过程中或已被覆盖的槽不会被读出；读者落后超过一圈时跳到最旧的帧并计入丢失。
+ * 读写双方都不分配内存；写者只能有一个线程，每个读者对象只能在一个线程中使用
+ **************************************************************************************************/
+public final class SharedFrameRing implements NotifyPipeline.FrameListener {
+    static final int MAGIC = 0x53465231;//"SFR1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_HEADER_SIZE = 32;
+    public static final int DEFAULT_SLOT_COUNT = 1024;
+    public static final int DEFAULT_SLOT_SIZE = 288;//MTU 247时的最大notify负载244字节
+
+    private static final int OFFSET_SLOT_COUNT = 8;
+    private static final int OFFSET_SLOT_SIZE = 12;
+    private static final int OFFSET_PUBLISHED = 16;
+    private static final int OFFSET_TRUNCATED = 24;
+    private static final int SLOT_TIME = 8;
+    private static final int SLOT_ADDRESS = 16;
+    private static final int SLOT_CHARACTERISTIC = 24;
+    private static final int SLOT_LENGTH = 28;
+
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mPayloadView;//批量复制负载用的视图，只在写线程（或读线程）中改变位置
+    private final int mSlotCount;
+    private final int mSlotSize;
+    private final boolean mWritable;
+    //只用作内存屏障：映射内存的读写不受Java内存模型约束，单独的volatile写或读只是单向屏障，
+    //在arm64上（stlr/ldar）挡不住之后的负载写入先于奇数槽序号可见、负载读取晚于复查槽序号，
+    //所以每个需要定序的位置都用fence：volatile写之后紧跟volatile读，ART和HotSpot为此生成完整的双向屏障
+    private volatile int mFence;
+    private long mPublished;//只在写线程访问
+    private long mNextSequence;//读者的下一个序号，只在读线程访问
+    private long mLost;
+
+    private SharedFrameRing(ByteBuffer buffer, int slotCount, int slotSize, boolean writable) {
+        mBuffer = buffer;
+        mPayloadView = buffer.duplicate();
+        mSlotCount = slotCount;
+        mSlotSize = slotSize;
+        mWritable = writable;
+    }
+
+    public static int sizeFor(int slotCount, int slotSize) {
+        return HEADER_SIZE + slotCount * slotSize;
+    }
+
+    /***************************************************************************************************
+     * 在buffer上新建一个空的帧环，buffer至少sizeFor(slotCount, slotSize)字节
+     **************************************************************************************************/
+    public static SharedFrameRing create(ByteBuffer buffer, int slotCount, int slotSize) {
+        if (slotCount <= 0 || slotSize <= SLOT_HEADER_SIZE || slotSize % 8 != 0) {
+            throw new IllegalArgumentException("slotCount=" + slotCount + " slotSize=" + slotSize);
+        }
+        if (buffer.capacity() < sizeFor(slotCount, slotSize)) {
+            throw new IllegalArgumentException("buffer too small: " + buffer.capacity());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < slotCount; i++) {
+            buffer.putLong(HEADER_SIZE + i * slotSize, 0);
+        }
+        buffer.putLong(OFFSET_PUBLISHED, 0);
+        buffer.putLong(OFFSET_TRUNCATED, 0);
+        buffer.putInt(OFFSET_SLOT_COUNT, slotCount);
+        buffer.putInt(OFFSET_SLOT_SIZE, slotSize);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(0, MAGIC);
+        return new SharedFrameRing(buffer, slotCount, slotSize, true);
+    }
+
+    /***************************************************************************************************
+     * 新建文件并映射为可写的帧环，文件已存在时覆盖
+     **************************************************************************************************/
+    public static SharedFrameRing create(File file, int slotCount, int slotSize) throws IOException {
+        final int size = sizeFor(slotCount, slotSize);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size);
+            return create(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size), slotCount, slotSize);
+        } finally {
+            raf.close();//映射在通道关闭后仍然有效
+        }
+    }
+
+    /***************************************************************************************************
+     * 以读者身份连接已有的帧环，从连接时最新的帧之后开始读
+     **************************************************************************************************/
+    public static SharedFrameRing attach(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a frame ring");
+        }
+        final int slotCount = buffer.getInt(OFFSET_SLOT_COUNT);
+        final int slotSize = buffer.getInt(OFFSET_SLOT_SIZE);
+        if (slotCount <= 0 || slotSize <= SLOT_HEADER_SIZE || buffer.capacity() < sizeFor(slotCount, slotSize)) {
+            throw new IOException("corrupt frame ring header");
+        }
+        final SharedFrameRing ring = new SharedFrameRing(buffer, slotCount, slotSize, false);
+        ring.mNextSequence = ring.getPublished();
+        return ring;
+    }
+
+    /***************************************************************************************************
+     * 只读映射服务传来的文件描述符（如ParcelFileDescriptor.getFileDescriptor()）并连接
+     **************************************************************************************************/
+    public static SharedFrameRing attach(FileDescriptor fd) throws IOException {
+        final FileInputStream in = new FileInputStream(fd);
+        final FileChannel channel = in.getChannel();
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        return attach(buffer);
+    }
+
+    public int getSlotCount() {
+        return mSlotCount;
+    }
+
+    /***************************************************************************************************
+     * 每帧最多保存的负载字节数，更长的负载被截断
+     **************************************************************************************************/
+    public int getMaxPayload() {
+        return mSlotSize - SLOT_HEADER_SIZE;
+    }
+
+    /***************************************************************************************************
+     * 已发布的帧数，即下一帧的序号
+     **************************************************************************************************/
+    public long getPublished() {
+        final long published = mBuffer.getLong(OFFSET_PUBLISHED);
+        fence();
+        return published;
+    }
+
+    //之前的读写先于之后的读写完成并可见
+    private int fence() {
+        mFence = 0;
+        return mFence;
+    }
+
+    /***************************************************************************************************
+     * 因负载超过槽大小被截断的字节总数
+     **************************************************************************************************/
+    public long getTruncatedBytes() {
+        return mBuffer.getLong(OFFSET_TRUNCATED);
+    }
+
+    /***************************************************************************************************
+     * 写入一帧，只能在一个线程中调用。不分配内存，不阻塞
+     **************************************************************************************************/
+    @Override
+    public void onFrame(SensorFrame frame) {
+        if (!mWritable) {
+            throw new IllegalStateException("read-only ring");
+        }
+        final long sequence = mPublished;
+        final int slot = HEADER_SIZE + (int) (sequence % mSlotCount) * mSlotSize;
+        final int length = Math.min(frame.payloadLength, getMaxPayload());
+        final ByteBuffer buffer = mBuffer;
+        buffer.putLong(slot, 2 * sequence + 1);
+        fence();
+        buffer.putLong(slot + SLOT_TIME, frame.timestampNanos);
+        buffer.putLong(slot + SLOT_ADDRESS, frame.deviceAddress);
+        buffer.putInt(slot + SLOT_CHARACTERISTIC, frame.characteristicId);
+        buffer.putInt(slot + SLOT_LENGTH, length);
+        mPayloadView.position(slot + SLOT_HEADER_SIZE);
+        mPayloadView.put(frame.payload, 0, length);
+        if (length < frame.payloadLength) {
+            buffer.putLong(OFFSET_TRUNCATED, buffer.getLong(OFFSET_TRUNCATED) + frame.payloadLength - length);
+        }
+        fence();
+        buffer.putLong(slot, 2 * sequence + 2);
+        fence();
+        mPublished = sequence + 1;
+        buffer.putLong(OFFSET_PUBLISHED, sequence + 1);
+        fence();
+    }
+
+    /***************************************************************************************************
+     * 读者取出下一帧，只填写原始负载（valueCount为0）。没有新帧时返回false
+     **************************************************************************************************/
+    public boolean poll(SensorFrame out) {
+        final ByteBuffer buffer = mBuffer;
+        while (true) {
+            final long published = getPublished();
+            if (published < mNextSequence) {//写者在同一文件上重建了帧环，从头读
+                mNextSequence = 0;
+            }
+            if (mNextSequence >= published) {
+                return false;
+            }
+            if (published - mNextSequence > mSlotCount) {//落后超过一圈
+                mLost += published - mSlotCount - mNextSequence;
+                mNextSequence = published - mSlotCount;
+            }
+            final long sequence = mNextSequence;
+            final int slot = HEADER_SIZE + (int) (sequence % mSlotCount) * mSlotSize;
+            final long expected = 2 * sequence + 2;
+            final long before = buffer.getLong(slot);
+            fence();
+            if (before < expected) {
+                return false;//还没写完
+            }
+            if (before == expected) {
+                out.timestampNanos = buffer.getLong(slot + SLOT_TIME);
+                out.deviceAddress = buffer.getLong(slot + SLOT_ADDRESS);
+                out.characteristicId = buffer.getInt(slot + SLOT_CHARACTERISTIC);
+                final int length = Math.min(Math.max(buffer.getInt(slot + SLOT_LENGTH), 0), getMaxPayload());
+                mPayloadView.position(slot + SLOT_HEADER_SIZE);
+                mPayloadView.get(out.payload, 0, length);
+                out.payloadLength = length;
+                out.valueCount = 0;
+                fence();
+                if (buffer.getLong(slot) == expected) {
+                    mNextSequence = sequence + 1;
+                    return true;
+                }
+            }
+            //读的过程中被写者覆盖
+            mLost++;
+            mNextSequence = sequence + 1;
+        }
+    }
+
+    /***************************************************************************************************
+     * 读者的下一个序号，可作为等待新帧时的参考
+     **************************************************************************************************/
+    public long getNextSequence() {
+        return mNextSequence;
+    }
+
+    /***************************************************************************************************
+     * 读者因落后或被覆盖而错过的帧数
+     **************************************************************************************************/
+    public long getLost() {
+        return mLost;
+    }
+}
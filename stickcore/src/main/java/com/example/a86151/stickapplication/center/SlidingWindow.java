@@ -0,0 +1,134 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 固定长度的滑动窗口统计，数据存放在基本类型的环形数组中。
+ * 均值和方差由整数累加和与平方和增量维护，没有浮点误差累积；最小值和最大值用单调队列维护，
+ * 每个样本均摊O(1)。不分配内存，不是线程安全的，只在分析线程中使用
+ **************************************************************************************************/
+public final class SlidingWindow {
+    private final int[] mValues;
+    private long mCount;//累计加入的样本数
+    private long mSum;
+    private long mSumSquares;
+    //单调队列，存放样本序号，按环形使用，序号小于mCount-容量的样本已移出窗口
+    private final long[] mMinQueue;
+    private int mMinHead;
+    private int mMinTail;
+    private final long[] mMaxQueue;
+    private int mMaxHead;
+    private int mMaxTail;
+
+    public SlidingWindow(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mValues = new int[capacity];
+        mMinQueue = new long[capacity + 1];//多一个位置区分队列空和满
+        mMaxQueue = new long[capacity + 1];
+    }
+
+    public int getCapacity() {
+        return mValues.length;
+    }
+
+    /***************************************************************************************************
+     * 窗口中的样本数
+     **************************************************************************************************/
+    public int size() {
+        return (int) Math.min(mCount, mValues.length);
+    }
+
+    public boolean isFull() {
+        return mCount >= mValues.length;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mSum = 0;
+        mSumSquares = 0;
+        mMinHead = mMinTail = 0;
+        mMaxHead = mMaxTail = 0;
+    }
+
+    /***************************************************************************************************
+     * 加入一个样本，窗口已满时最旧的样本移出
+     **************************************************************************************************/
+    public void add(int value) {
+        final int capacity = mValues.length;
+        final long sequence = mCount;
+        final int slot = (int) (sequence % capacity);
+        if (sequence >= capacity) {
+            final long old = mValues[slot];
+            mSum -= old;
+            mSumSquares -= old * old;
+        }
+        mValues[slot] = value;
+        mSum += value;
+        mSumSquares += (long) value * value;
+        mCount++;
+        final long oldest = mCount - capacity;//仍在窗口中的最小序号
+        final int length = mMinQueue.length;
+        //最小值队列：队尾不小于新值的样本不可能再成为最小值；每次最多有一个样本移出窗口
+        while (mMinTail != mMinHead && valueOf(mMinQueue[(mMinTail - 1 + length) % length]) >= value) {
+            mMinTail = (mMinTail - 1 + length) % length;
+        }
+        if (mMinHead != mMinTail && mMinQueue[mMinHead] < oldest) {
+            mMinHead = (mMinHead + 1) % length;
+        }
+        mMinQueue[mMinTail] = sequence;
+        mMinTail = (mMinTail + 1) % length;
+        //最大值队列
+        while (mMaxTail != mMaxHead && valueOf(mMaxQueue[(mMaxTail - 1 + length) % length]) <= value) {
+            mMaxTail = (mMaxTail - 1 + length) % length;
+        }
+        if (mMaxHead != mMaxTail && mMaxQueue[mMaxHead] < oldest) {
+            mMaxHead = (mMaxHead + 1) % length;
+        }
+        mMaxQueue[mMaxTail] = sequence;
+        mMaxTail = (mMaxTail + 1) % length;
+    }
+
+    private int valueOf(long sequence) {
+        return mValues[(int) (sequence % mValues.length)];
+    }
+
+    /***************************************************************************************************
+     * 最近加入的样本，back为0表示最新的一个
+     **************************************************************************************************/
+    public int get(int back) {
+        return valueOf(mCount - 1 - back);
+    }
+
+    public long getSum() {
+        return mSum;
+    }
+
+    public double getMean() {
+        final int n = size();
+        return n == 0 ? 0 : (double) mSum / n;
+    }
+
+    /***************************************************************************************************
+     * 总体方差
+     **************************************************************************************************/
+    public double getVariance() {
+        final int n = size();
+        if (n == 0) {
+            return 0;
+        }
+        final double mean = (double) mSum / n;
+        return Math.max(0, (double) mSumSquares / n - mean * mean);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public int getMin() {
+        return mMinHead == mMinTail ? 0 : valueOf(mMinQueue[mMinHead]);
+    }
+
+    public int getMax() {
+        return mMaxHead == mMaxTail ? 0 : valueOf(mMaxQueue[mMaxHead]);
+    }
+}
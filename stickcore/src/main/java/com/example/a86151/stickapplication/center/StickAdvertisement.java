@@ -0,0 +1,76 @@
+package com.example.a86151.stickapplication.center;
+
+/***************************************************************************************************
+ * 手杖广播中的状态信息，每个设备一份，作为该设备的广播缓存：只有广播内容的哈希变化时才重新解析。
+ * 手杖在厂商数据中广播状态：厂商ID(2字节，小端) + 协议版本(1) + 电量百分比(1) + 状态(1)
+ **************************************************************************************************/
+public final class StickAdvertisement {
+    public static final int MANUFACTURER_ID = 0xFFFF;//蓝牙联盟保留的测试厂商ID
+    public static final int PROTOCOL_VERSION = 1;
+
+    public static final int UNKNOWN = -1;
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_WALKING = 1;
+    public static final int STATE_FALL_ALARM = 2;
+    public static final int STATE_CHARGING = 3;
+
+    private int mHash;
+    private int mLength = -1;//-1表示还没有解析过
+    private int mBattery = UNKNOWN;
+    private int mState = UNKNOWN;
+    private int mTxPower = AdvertisingData.NO_TX_POWER;
+    private int mDecodeCount;
+
+    /***************************************************************************************************
+     * 收到新的广播数据。内容与上次相同时直接返回false，否则用parser解析并返回true
+     **************************************************************************************************/
+    public boolean update(byte[] record, AdvertisingData parser) {
+        if (record == null) {
+            return false;
+        }
+        final int length = AdvertisingData.significantLength(record);
+        final int hash = AdvertisingData.hash(record, length);
+        if (length == mLength && hash == mHash) {
+            return false;
+        }
+        mLength = length;
+        mHash = hash;
+        mDecodeCount++;
+        parser.parse(record, 0, length);
+        mTxPower = parser.getTxPower();
+        if (parser.getManufacturerId() == MANUFACTURER_ID && parser.manufacturerByte(0) == PROTOCOL_VERSION) {
+            mBattery = parser.manufacturerByte(1);
+            mState = parser.manufacturerByte(2);
+            if (mBattery > 100) {
+                mBattery = UNKNOWN;
+            }
+        } else {
+            mBattery = UNKNOWN;
+            mState = UNKNOWN;
+        }
+        return true;
+    }
+
+    public boolean hasStatus() {
+        return mBattery != UNKNOWN || mState != UNKNOWN;
+    }
+
+    public int getBattery() {
+        return mBattery;
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public int getTxPower() {
+        return mTxPower;
+    }
+
+    /***************************************************************************************************
+     * 实际解析的次数，用于统计缓存命中
+     **************************************************************************************************/
+    public int getDecodeCount() {
+        return mDecodeCount;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 传感器流的分析线程：从FrameBus订阅加速度特性，按设备交给各自的MotionAnalyzer。
+ * GATT回调线程只把帧复制进订阅的环形缓冲区，计算全部在本线程中进行；
+ * 每个设备的分析器在第一次出现时创建，之后处理每一帧都不分配内存
+ **************************************************************************************************/
+public final class StreamAnalyzer implements Runnable {
+    public static final int DEFAULT_BUFFER_FRAMES = 256;
+    public static final int MAX_DEVICES = 8;
+
+    private final FrameBus mBus;
+    private final int mCharacteristicId;
+    private final MotionAnalyzer.Listener mListener;
+    private final int mSampleRateHz;
+    private final int mWindowMs;
+    private final int mCountsPerG;
+    private final SensorFrame mFrame = new SensorFrame();
+    private final MotionAnalyzer[] mAnalyzers = new MotionAnalyzer[MAX_DEVICES];
+    private int mDeviceCount;
+    private volatile boolean mRunning;
+    private Thread mThread;
+    private FrameSubscription mSubscription;
+    private volatile long mFrames;
+
+    public StreamAnalyzer(FrameBus bus, int characteristicId, MotionAnalyzer.Listener listener) {
+        this(bus, characteristicId, MotionAnalyzer.DEFAULT_SAMPLE_RATE_HZ, MotionAnalyzer.DEFAULT_WINDOW_MS,
+                MotionAnalyzer.DEFAULT_COUNTS_PER_G, listener);
+    }
+
+    public StreamAnalyzer(FrameBus bus, int characteristicId, int sampleRateHz, int windowMs, int countsPerG,
+                          MotionAnalyzer.Listener listener) {
+        mBus = bus;
+        mCharacteristicId = characteristicId;
+        mSampleRateHz = sampleRateHz;
+        mWindowMs = windowMs;
+        mCountsPerG = countsPerG;
+        mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mSubscription = mBus.subscribe(mCharacteristicId, DEFAULT_BUFFER_FRAMES, FrameRing.OverflowPolicy.DROP_OLDEST);
+        mRunning = true;
+        mThread = new Thread(this, "StreamAnalyzer");
+        mThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+
+    /***************************************************************************************************
+     * 分析跟不上而被丢弃的帧数
+     **************************************************************************************************/
+    public long getDropped() {
+        final FrameSubscription subscription = mSubscription;
+        return subscription == null ? 0 : subscription.getDropped();
+    }
+
+    @Override
+    public void run() {
+        final FrameSubscription subscription = mSubscription;
+        try {
+            while (mRunning) {
+                try {
+                    if (subscription.take(mFrame, 500, TimeUnit.MILLISECONDS)) {
+                        process(mFrame);
+                        while (subscription.poll(mFrame)) {
+                            process(mFrame);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        } finally {
+            subscription.close();
+        }
+    }
+
+    private void process(SensorFrame frame) {
+        final MotionAnalyzer analyzer = analyzerFor(frame.deviceAddress);
+        if (analyzer != null) {
+            analyzer.onFrame(frame);
+            mFrames++;
+        }
+    }
+
+    /***************************************************************************************************
+     * 按MAC地址查找设备的分析器，设备很少，线性查找即可；超过MAX_DEVICES的设备不分析
+     **************************************************************************************************/
+    private MotionAnalyzer analyzerFor(long deviceAddress) {
+        for (int i = 0; i < mDeviceCount; i++) {
+            if (mAnalyzers[i].getDeviceAddress() == deviceAddress) {
+                return mAnalyzers[i];
+            }
+        }
+        if (mDeviceCount == MAX_DEVICES) {
+            return null;
+        }
+        final MotionAnalyzer analyzer = new MotionAnalyzer(deviceAddress, mSampleRateHz, mWindowMs, mCountsPerG,
+                mListener);
+        mAnalyzers[mDeviceCount++] = analyzer;
+        return analyzer;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/***************************************************************************************************
+ * 上传批次的编码：记录按时间顺序增量编码后整体gzip压缩。
+ * 批次头：魔数(4) + 版本(1) + 记录数(varint) + 起始时间us(varint) + 特性表项数(varint) + [特性ID(varint) + UUID(16)]...
+ * 记录：设备序号(varint，等于已出现的设备数时后跟6字节MAC) + 特性ID(varint) + 与上一条的时间差us(varint)
+ *     + (负载长度<<1 | 增量标志)(varint) + 负载。增量标志为1时负载逐字节减去同一设备同一特性上一条等长的负载，
+ *     缓慢变化的传感器数值大多变成0，压缩率更高
+ **************************************************************************************************/
+public final class SyncBatchCodec {
+    static final int MAGIC = 0x53534231;//"SSB1"
+    static final int VERSION = 1;
+
+    private final CharacteristicRegistry mRegistry;//可为null，此时批次中没有特性UUID
+    private byte[] mBody = new byte[64 * 1024];
+    private int mBodyLength;
+    private final List<Long> mDevices = new ArrayList<Long>();
+    private final Map<Long, Integer> mDeviceIndex = new HashMap<Long, Integer>();
+    private final Map<Long, byte[]> mPrevious = new HashMap<Long, byte[]>();//(设备序号,特性ID) -> 上一条负载
+    private final Map<Long, Integer> mPreviousLength = new HashMap<Long, Integer>();
+    private final List<Integer> mCharacteristics = new ArrayList<Integer>();
+    private int mCount;
+    private long mBaseMicros;
+    private long mLastMicros;
+    private long mRawBytes;
+
+    public SyncBatchCodec(CharacteristicRegistry registry) {
+        mRegistry = registry;
+    }
+
+    /***************************************************************************************************
+     * 开始一个新批次
+     **************************************************************************************************/
+    public void begin() {
+        mBodyLength = 0;
+        mDevices.clear();
+        mDeviceIndex.clear();
+        mPrevious.clear();
+        mPreviousLength.clear();
+        mCharacteristics.clear();
+        mCount = 0;
+        mRawBytes = 0;
+    }
+
+    /***************************************************************************************************
+     * 追加一条记录，时间必须单调不减
+     **************************************************************************************************/
+    public void add(long deviceAddress, int characteristicId, long timestampMicros, byte[] payload, int length) {
+        if (mCount == 0) {
+            mBaseMicros = timestampMicros;
+            mLastMicros = timestampMicros;
+        }
+        ensure(32 + length);
+        Integer index = mDeviceIndex.get(deviceAddress);
+        if (index == null) {
+            index = mDevices.size();
+            mDevices.add(deviceAddress);
+            mDeviceIndex.put(deviceAddress, index);
+            writeVarint(index);
+            for (int shift = 40; shift >= 0; shift -= 8) {
+                mBody[mBodyLength++] = (byte) (deviceAddress >>> shift);
+            }
+        } else {
+            writeVarint(index);
+        }
+        if (!mCharacteristics.contains(characteristicId)) {
+            mCharacteristics.add(characteristicId);
+        }
+        writeVarint(zigzag(characteristicId));
+        writeVarint(timestampMicros - mLastMicros);
+        mLastMicros = timestampMicros;
+
+        final long stream = ((long) index << 32) | (characteristicId & 0xFFFFFFFFL);
+        byte[] previous = mPrevious.get(stream);
+        final Integer previousLength = mPreviousLength.get(stream);
+        final boolean delta = previous != null && previousLength == length;
+        writeVarint(((long) length << 1) | (delta ? 1 : 0));
+        for (int i = 0; i < length; i++) {
+            mBody[mBodyLength++] = delta ? (byte) (payload[i] - previous[i]) : payload[i];
+        }
+        if (previous == null || previous.length < length) {
+            previous = new byte[Math.max(length, 20)];
+            mPrevious.put(stream, previous);
+        }
+        System.arraycopy(payload, 0, previous, 0, length);
+        mPreviousLength.put(stream, length);
+        mCount++;
+        mRawBytes += TimeSeriesSegment.RECORD_HEADER_SIZE + length;
+    }
+
+    public int getRecordCount() {
+        return mCount;
+    }
+
+    /***************************************************************************************************
+     * 本批次记录在本地存储中占用的字节数，用于计算压缩率
+     **************************************************************************************************/
+    public long getRawBytes() {
+        return mRawBytes;
+    }
+
+    public long getFirstMicros() {
+        return mBaseMicros;
+    }
+
+    public long getLastMicros() {
+        return mLastMicros;
+    }
+
+    /***************************************************************************************************
+     * 结束批次，返回压缩后的请求体
+     **************************************************************************************************/
+    public byte[] finish() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(mBodyLength / 4 + 64);
+        final GZIPOutputStream out = new GZIPOutputStream(compressed, 8192);
+        try {
+            final int bodyLength = mBodyLength;
+            ensure(64 + mCharacteristics.size() * 24);
+            //批次头写在记录之后的空间，再按顺序输出
+            final int headerStart = mBodyLength;
+            writeInt(MAGIC);
+            mBody[mBodyLength++] = VERSION;
+            writeVarint(mCount);
+            writeVarint(mBaseMicros);
+            int known = 0;
+            for (int id : mCharacteristics) {
+                if (uuidOf(id) != null) {
+                    known++;
+                }
+            }
+            writeVarint(known);
+            for (int id : mCharacteristics) {
+                final UUID uuid = uuidOf(id);
+                if (uuid != null) {
+                    writeVarint(zigzag(id));
+                    writeLong(uuid.getMostSignificantBits());
+                    writeLong(uuid.getLeastSignificantBits());
+                }
+            }
+            out.write(mBody, headerStart, mBodyLength - headerStart);
+            out.write(mBody, 0, bodyLength);
+            mBodyLength = bodyLength;
+        } finally {
+            out.close();
+        }
+        return compressed.toByteArray();
+    }
+
+    private UUID uuidOf(int id) {
+        return mRegistry == null ? null : mRegistry.uuidOf(id);
+    }
+
+    /***************************************************************************************************
+     * 解码批次（服务端和测试使用），按顺序回调visitor，特性UUID表写入uuids（可为null），返回记录数
+     **************************************************************************************************/
+    public static int decode(byte[] body, Map<Integer, UUID> uuids, TimeSeriesStore.RecordVisitor visitor)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(body)));
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                throw new IOException("not a sync batch");
+            }
+            final int count = (int) readVarint(in);
+            long micros = readVarint(in);
+            final int known = (int) readVarint(in);
+            for (int i = 0; i < known; i++) {
+                final int id = unzigzag(readVarint(in));
+                final UUID uuid = new UUID(in.readLong(), in.readLong());
+                if (uuids != null) {
+                    uuids.put(id, uuid);
+                }
+            }
+            final List<Long> devices = new ArrayList<Long>();
+            final Map<Long, byte[]> previous = new HashMap<Long, byte[]>();
+            final byte[] payload = new byte[SensorFrame.MAX_PAYLOAD];
+            for (int i = 0; i < count; i++) {
+                final int index = (int) readVarint(in);
+                if (index == devices.size()) {
+                    long address = 0;
+                    for (int b = 0; b < 6; b++) {
+                        address = (address << 8) | in.readUnsignedByte();
+                    }
+                    devices.add(address);
+                } else if (index > devices.size()) {
+                    throw new IOException("bad device index " + index);
+                }
+                final int characteristicId = unzigzag(readVarint(in));
+                micros += readVarint(in);
+                final long lengthField = readVarint(in);
+                final int length = (int) (lengthField >>> 1);
+                if (length > payload.length) {
+                    throw new IOException("payload too long: " + length);
+                }
+                in.readFully(payload, 0, length);
+                final long stream = ((long) index << 32) | (characteristicId & 0xFFFFFFFFL);
+                byte[] last = previous.get(stream);
+                if ((lengthField & 1) != 0) {
+                    if (last == null) {
+                        throw new IOException("delta without base");
+                    }
+                    for (int b = 0; b < length; b++) {
+                        payload[b] = (byte) (payload[b] + last[b]);
+                    }
+                }
+                if (last == null || last.length < length) {
+                    last = new byte[Math.max(length, 20)];
+                    previous.put(stream, last);
+                }
+                System.arraycopy(payload, 0, last, 0, length);
+                if (visitor != null && !visitor.onRecord(devices.get(index), characteristicId, micros, payload, length)) {
+                    return i + 1;
+                }
+            }
+            return count;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void ensure(int extra) {
+        if (mBodyLength + extra > mBody.length) {
+            final byte[] grown = new byte[Math.max(mBody.length * 2, mBodyLength + extra)];
+            System.arraycopy(mBody, 0, grown, 0, mBodyLength);
+            mBody = grown;
+        }
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mBody[mBodyLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBody[mBodyLength++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            mBody[mBodyLength++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mBody[mBodyLength++] = (byte) (value >>> shift);
+        }
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value) {
+        final int v = (int) value;
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+}
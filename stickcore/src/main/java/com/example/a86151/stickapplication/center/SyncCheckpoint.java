@@ -0,0 +1,160 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.UUID;
+
+/***************************************************************************************************
+ * 上传进度，保存在一个小文件中，进程被杀或上传中断后从这里继续。
+ * 位置(micros, ordinal)表示时间早于micros的全部记录加上时间等于micros的前ordinal条记录。
+ * 已确认位置之前的记录服务端已经收到；待确认批次在上传前写入，重试时按同一范围和同一批次ID重新编码，
+ * 服务端按批次ID去重。文件先写临时文件再改名，不会出现写了一半的进度
+ **************************************************************************************************/
+public final class SyncCheckpoint {
+    private static final String KEY_INSTALL_ID = "install_id";
+    private static final String KEY_COMMITTED_MICROS = "committed_micros";
+    private static final String KEY_COMMITTED_ORDINAL = "committed_ordinal";
+    private static final String KEY_NEXT_SEQUENCE = "next_sequence";
+    private static final String KEY_PENDING_MICROS = "pending_micros";
+    private static final String KEY_PENDING_ORDINAL = "pending_ordinal";
+
+    private final File mFile;
+    private String mInstallId;
+    private long mCommittedMicros = Long.MIN_VALUE;
+    private int mCommittedOrdinal;
+    private long mNextSequence;
+    private boolean mHasPending;
+    private long mPendingMicros;
+    private int mPendingOrdinal;
+
+    public SyncCheckpoint(File file) {
+        mFile = file;
+    }
+
+    /***************************************************************************************************
+     * 读取进度，文件不存在时从头开始并生成安装ID
+     **************************************************************************************************/
+    public synchronized void load() throws IOException {
+        final Properties properties = new Properties();
+        if (mFile.exists()) {
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        mInstallId = properties.getProperty(KEY_INSTALL_ID);
+        mCommittedMicros = parseLong(properties, KEY_COMMITTED_MICROS, Long.MIN_VALUE);
+        mCommittedOrdinal = (int) parseLong(properties, KEY_COMMITTED_ORDINAL, 0);
+        mNextSequence = parseLong(properties, KEY_NEXT_SEQUENCE, 0);
+        mHasPending = properties.getProperty(KEY_PENDING_MICROS) != null;
+        mPendingMicros = parseLong(properties, KEY_PENDING_MICROS, 0);
+        mPendingOrdinal = (int) parseLong(properties, KEY_PENDING_ORDINAL, 0);
+        if (mInstallId == null) {
+            mInstallId = UUID.randomUUID().toString();
+            save();
+        }
+    }
+
+    private static long parseLong(Properties properties, String key, long defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private void save() throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(KEY_INSTALL_ID, mInstallId);
+        properties.setProperty(KEY_COMMITTED_MICROS, Long.toString(mCommittedMicros));
+        properties.setProperty(KEY_COMMITTED_ORDINAL, Integer.toString(mCommittedOrdinal));
+        properties.setProperty(KEY_NEXT_SEQUENCE, Long.toString(mNextSequence));
+        if (mHasPending) {
+            properties.setProperty(KEY_PENDING_MICROS, Long.toString(mPendingMicros));
+            properties.setProperty(KEY_PENDING_ORDINAL, Integer.toString(mPendingOrdinal));
+        }
+        final File temp = new File(mFile.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Unable to replace " + mFile);
+        }
+    }
+
+    public synchronized String getInstallId() {
+        return mInstallId;
+    }
+
+    public synchronized long getCommittedMicros() {
+        return mCommittedMicros;
+    }
+
+    public synchronized int getCommittedOrdinal() {
+        return mCommittedOrdinal;
+    }
+
+    public synchronized boolean hasPending() {
+        return mHasPending;
+    }
+
+    public synchronized long getPendingMicros() {
+        return mPendingMicros;
+    }
+
+    public synchronized int getPendingOrdinal() {
+        return mPendingOrdinal;
+    }
+
+    /***************************************************************************************************
+     * 当前批次（已确认位置到待确认位置）的ID，同一批次重试时不变
+     **************************************************************************************************/
+    public synchronized String getBatchId() {
+        return mInstallId + "-" + mNextSequence;
+    }
+
+    /***************************************************************************************************
+     * 上传前记录批次的结束位置
+     **************************************************************************************************/
+    public synchronized void setPending(long micros, int ordinal) throws IOException {
+        mHasPending = true;
+        mPendingMicros = micros;
+        mPendingOrdinal = ordinal;
+        save();
+    }
+
+    /***************************************************************************************************
+     * 服务端确认收到，已确认位置前进到批次结束位置，下一批次使用新的ID
+     **************************************************************************************************/
+    public synchronized void commit() throws IOException {
+        if (!mHasPending) {
+            return;
+        }
+        mCommittedMicros = mPendingMicros;
+        mCommittedOrdinal = mPendingOrdinal;
+        mHasPending = false;
+        mNextSequence++;
+        save();
+    }
+
+    /***************************************************************************************************
+     * 放弃待确认批次（服务端没有接收，如请求过大），之后按新的范围重新分批，批次ID不变
+     **************************************************************************************************/
+    public synchronized void clearPending() throws IOException {
+        mHasPending = false;
+        save();
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+
+/***************************************************************************************************
+ * 把本地记录的数据分批上传到采集服务器。每批从已确认位置开始最多maxRecords条，
+ * 编码压缩后先把批次范围写入检查点再上传：服务端确认（2xx，或409表示该批次ID已收到）后确认位置前进；
+ * 网络错误、5xx和429时保留待确认批次，下次按同一范围和同一ID重传，服务端不会重复入库。
+ * 何时运行（联网、充电）和失败后的指数退避由调度方（SyncJobService）决定，这里只跑一轮
+ **************************************************************************************************/
+public final class SyncEngine {
+    public static final int DEFAULT_MAX_RECORDS = 20000;
+    public static final int DEFAULT_MAX_BATCHES = 50;
+    private static final int MIN_RECORDS = 100;
+
+    public enum Result {
+        IDLE,//没有新数据
+        DONE,//已上传到最新（或达到本轮批次上限）
+        RETRY,//暂时失败，稍后重试
+        REJECTED//服务端拒绝（4xx），重试没有意义，需要检查配置
+    }
+
+    private final TimeSeriesStore mStore;
+    private final SyncCheckpoint mCheckpoint;
+    private final SyncTransport mTransport;
+    private final SyncBatchCodec mCodec;
+    private final BatchCollector mCollector = new BatchCollector();
+    private int mMaxRecords = DEFAULT_MAX_RECORDS;
+    private int mMaxBatches = DEFAULT_MAX_BATCHES;
+    private volatile boolean mCancelled;
+    private int mLastStatus;
+    //统计，受this保护
+    private long mBatches;
+    private long mRecords;
+    private long mBodyBytes;
+    private long mRawBytes;
+    private long mFirstMicros = Long.MAX_VALUE;
+    private long mLastMicros = Long.MIN_VALUE;
+
+    public SyncEngine(TimeSeriesStore store, CharacteristicRegistry registry, SyncCheckpoint checkpoint,
+                      SyncTransport transport) {
+        mStore = store;
+        mCheckpoint = checkpoint;
+        mTransport = transport;
+        mCodec = new SyncBatchCodec(registry);
+    }
+
+    public SyncEngine setMaxRecords(int maxRecords) {
+        mMaxRecords = Math.max(MIN_RECORDS, maxRecords);
+        return this;
+    }
+
+    public SyncEngine setMaxBatches(int maxBatches) {
+        mMaxBatches = Math.max(1, maxBatches);
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 停止上传（如JobScheduler调用onStopJob），当前请求结束后生效
+     **************************************************************************************************/
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /***************************************************************************************************
+     * 最近一次上传的HTTP状态码，网络错误时为0
+     **************************************************************************************************/
+    public int getLastStatus() {
+        return mLastStatus;
+    }
+
+    /***************************************************************************************************
+     * 上传一轮，在后台线程中调用
+     **************************************************************************************************/
+    public Result run() throws IOException {
+        mCancelled = false;
+        int uploaded = 0;
+        while (uploaded < mMaxBatches) {
+            if (mCancelled) {
+                return Result.RETRY;
+            }
+            final byte[] body = build();
+            if (body == null) {
+                return uploaded == 0 ? Result.IDLE : Result.DONE;
+            }
+            int status;
+            try {
+                status = mTransport.post(mCheckpoint.getBatchId(), body, mCodec.getRecordCount());
+            } catch (IOException e) {
+                status = 0;
+            }
+            mLastStatus = status;
+            if ((status >= 200 && status < 300) || status == 409) {
+                mCheckpoint.commit();
+                record(body.length);
+                uploaded++;
+            } else if (status == 413 && mMaxRecords > MIN_RECORDS) {
+                //请求过大：缩小批次，这一范围重新分批
+                mMaxRecords = Math.max(MIN_RECORDS, mMaxRecords / 2);
+                mCheckpoint.clearPending();
+            } else if (status == 0 || status == 429 || status >= 500) {
+                return Result.RETRY;
+            } else {
+                return Result.REJECTED;
+            }
+        }
+        return Result.DONE;
+    }
+
+    /***************************************************************************************************
+     * 编码下一批次：有待确认批次时重建同一范围，否则从已确认位置取最多maxRecords条并记下结束位置。
+     * 没有数据时返回null
+     **************************************************************************************************/
+    private byte[] build() throws IOException {
+        final BatchCollector collector = mCollector;
+        collector.reset(mCheckpoint.getCommittedMicros(), mCheckpoint.getCommittedOrdinal());
+        if (mCheckpoint.hasPending()) {
+            collector.mHasEnd = true;
+            collector.mEndMicros = mCheckpoint.getPendingMicros();
+            collector.mEndOrdinal = mCheckpoint.getPendingOrdinal();
+            collector.mLimit = Integer.MAX_VALUE;
+        } else {
+            collector.mLimit = mMaxRecords;
+        }
+        mCodec.begin();
+        mStore.query(collector.mStartMicros, collector.mHasEnd ? collector.mEndMicros : Long.MAX_VALUE, collector);
+        if (mCodec.getRecordCount() == 0) {
+            if (mCheckpoint.hasPending()) {
+                //待确认的记录已被保留策略删除
+                mCheckpoint.commit();
+            }
+            return null;
+        }
+        if (!mCheckpoint.hasPending()) {
+            mCheckpoint.setPending(collector.mMicros, collector.mOrdinal);
+        }
+        return mCodec.finish();
+    }
+
+    private synchronized void record(int bodyBytes) {
+        mBatches++;
+        mRecords += mCodec.getRecordCount();
+        mBodyBytes += bodyBytes;
+        mRawBytes += mCodec.getRawBytes();
+        mFirstMicros = Math.min(mFirstMicros, mCodec.getFirstMicros());
+        mLastMicros = Math.max(mLastMicros, mCodec.getLastMicros());
+    }
+
+    public synchronized long getUploadedBatches() {
+        return mBatches;
+    }
+
+    public synchronized long getUploadedRecords() {
+        return mRecords;
+    }
+
+    /***************************************************************************************************
+     * 已上传的请求体字节数（压缩后，不含HTTP头）
+     **************************************************************************************************/
+    public synchronized long getUploadedBytes() {
+        return mBodyBytes;
+    }
+
+    /***************************************************************************************************
+     * 已上传记录在本地存储中占用的字节数
+     **************************************************************************************************/
+    public synchronized long getRawBytes() {
+        return mRawBytes;
+    }
+
+    /***************************************************************************************************
+     * 每小时数据的上传字节数，按已上传记录的时间跨度折算，没有上传时返回0
+     **************************************************************************************************/
+    public synchronized long getBytesPerHour() {
+        final long span = mLastMicros - mFirstMicros;
+        return span <= 0 ? 0 : (long) (mBodyBytes * 3600e6 / span);
+    }
+
+    /***************************************************************************************************
+     * 跳过已确认的记录，把之后的记录加入批次，到达数量上限或待确认批次的结束位置时停止。
+     * 位置(micros, ordinal)中ordinal是时间等于micros的记录中已包含的条数
+     **************************************************************************************************/
+    private final class BatchCollector implements TimeSeriesStore.RecordVisitor {
+        long mStartMicros;
+        int mStartOrdinal;
+        boolean mHasEnd;
+        long mEndMicros;
+        int mEndOrdinal;
+        int mLimit;
+        long mMicros;//当前位置
+        int mOrdinal;
+
+        void reset(long startMicros, int startOrdinal) {
+            mStartMicros = startMicros;
+            mStartOrdinal = startOrdinal;
+            mHasEnd = false;
+            mMicros = startMicros;
+            mOrdinal = 0;
+        }
+
+        @Override
+        public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros, byte[] payload,
+                                int length) {
+            if (timestampMicros == mMicros) {
+                mOrdinal++;
+            } else {
+                mMicros = timestampMicros;
+                mOrdinal = 1;
+            }
+            if (timestampMicros == mStartMicros && mOrdinal <= mStartOrdinal) {
+                return true;//已确认
+            }
+            if (mHasEnd && (timestampMicros > mEndMicros
+                    || (timestampMicros == mEndMicros && mOrdinal > mEndOrdinal))) {
+                return false;
+            }
+            mCodec.add(deviceAddress, characteristicId, timestampMicros, payload, length);
+            if (mHasEnd) {
+                return timestampMicros != mEndMicros || mOrdinal < mEndOrdinal;
+            }
+            return mCodec.getRecordCount() < mLimit;
+        }
+    }
+}
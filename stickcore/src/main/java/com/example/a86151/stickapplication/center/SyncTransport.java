@@ -0,0 +1,10 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+
+/***************************************************************************************************
+ * 上传一个批次，返回HTTP状态码。batchId作为Idempotency-Key，重试同一批次时不变
+ **************************************************************************************************/
+public interface SyncTransport {
+    int post(String batchId, byte[] body, int records) throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.example.a86151.stickapplication.center;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/***************************************************************************************************
+ * 数据吞吐计数器：累计包数和字节数，按采样间隔计算速率
+ **************************************************************************************************/
+public final class ThroughputCounter {
+    private final AtomicLong mPackets = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+    private long mSampleNanos = System.nanoTime();
+    private long mSampleBytes;
+    private long mSamplePackets;
+    private volatile double mBytesPerSecond;
+    private volatile double mPacketsPerSecond;
+
+    public void record(int bytes) {
+        mPackets.incrementAndGet();
+        mBytes.addAndGet(bytes);
+    }
+
+    public long getPackets() {
+        return mPackets.get();
+    }
+
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    /***************************************************************************************************
+     * 计算自上次采样以来的速率并开始新的采样周期
+     **************************************************************************************************/
+    public synchronized void sample() {
+        final long now = System.nanoTime();
+        final long elapsed = now - mSampleNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        final long bytes = mBytes.get();
+        final long packets = mPackets.get();
+        mBytesPerSecond = (bytes - mSampleBytes) * 1e9 / elapsed;
+        mPacketsPerSecond = (packets - mSamplePackets) * 1e9 / elapsed;
+        mSampleNanos = now;
+        mSampleBytes = bytes;
+        mSamplePackets = packets;
+    }
+
+    public double getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    public double getPacketsPerSecond() {
+        return mPacketsPerSecond;
+    }
+}
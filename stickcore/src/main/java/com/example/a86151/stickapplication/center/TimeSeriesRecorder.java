@@ -0,0 +1,128 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/***************************************************************************************************
+ * 把FrameBus上的全部notify帧写入TimeSeriesStore的后台线程。GATT回调线程只把帧复制进订阅的环形缓冲区，
+ * 文件写入、段切换和维护都在本线程中进行，不会阻塞接收通路；写入跟不上时按DROP_OLDEST丢弃并计数
+ **************************************************************************************************/
+public final class TimeSeriesRecorder implements Runnable {
+    public static final int DEFAULT_BUFFER_FRAMES = 1024;
+    public static final long MAINTAIN_INTERVAL_MILLIS = 60 * 1000;
+
+    private final TimeSeriesStore mStore;
+    private final FrameBus mBus;
+    private final int mBufferFrames;
+    private final SensorFrame mFrame = new SensorFrame();
+    private volatile boolean mRunning;
+    private Thread mThread;
+    private FrameSubscription mSubscription;
+    //帧的时间是System.nanoTime()，加上这个偏移换算成墙上时间的微秒
+    private long mEpochOffsetMicros;
+    private volatile long mWriteErrors;
+
+    public TimeSeriesRecorder(TimeSeriesStore store, FrameBus bus) {
+        this(store, bus, DEFAULT_BUFFER_FRAMES);
+    }
+
+    public TimeSeriesRecorder(TimeSeriesStore store, FrameBus bus, int bufferFrames) {
+        mStore = store;
+        mBus = bus;
+        mBufferFrames = bufferFrames;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mSubscription = mBus.subscribe(FrameBus.ALL_CHARACTERISTICS, mBufferFrames, FrameRing.OverflowPolicy.DROP_OLDEST);
+        mRunning = true;
+        mThread = new Thread(this, "TimeSeriesRecorder");
+        mThread.setPriority(Thread.NORM_PRIORITY - 1);
+        mThread.start();
+    }
+
+    /***************************************************************************************************
+     * 停止写入，缓冲区中剩余的帧写完后封存当前段
+     **************************************************************************************************/
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        mThread.interrupt();
+        try {
+            mThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    public TimeSeriesStore getStore() {
+        return mStore;
+    }
+
+    /***************************************************************************************************
+     * 写入跟不上而被丢弃的帧数
+     **************************************************************************************************/
+    public long getDropped() {
+        final FrameSubscription subscription = mSubscription;
+        return subscription == null ? 0 : subscription.getDropped();
+    }
+
+    public long getWriteErrors() {
+        return mWriteErrors;
+    }
+
+    @Override
+    public void run() {
+        final FrameSubscription subscription = mSubscription;
+        try {
+            mStore.open();
+        } catch (IOException e) {
+            mWriteErrors++;
+            subscription.close();
+            return;
+        }
+        mEpochOffsetMicros = System.currentTimeMillis() * 1000 - System.nanoTime() / 1000;
+        long nextMaintain = 0;
+        try {
+            while (mRunning || subscription.getBacklog() > 0) {
+                boolean got;
+                try {
+                    got = subscription.take(mFrame, 500, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    got = subscription.poll(mFrame);//停止时写完剩余的帧
+                }
+                if (got) {
+                    write(mFrame);
+                    while (subscription.poll(mFrame)) {//批量写完积压的帧
+                        write(mFrame);
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                if (now >= nextMaintain) {
+                    nextMaintain = now + MAINTAIN_INTERVAL_MILLIS;
+                    try {
+                        mStore.maintain(now * 1000);
+                    } catch (IOException e) {
+                        mWriteErrors++;
+                    }
+                }
+            }
+        } finally {
+            subscription.close();
+            mStore.close();
+        }
+    }
+
+    private void write(SensorFrame frame) {
+        try {
+            mStore.append(frame, frame.timestampNanos / 1000 + mEpochOffsetMicros);
+        } catch (IOException e) {
+            mWriteErrors++;
+        }
+    }
+}
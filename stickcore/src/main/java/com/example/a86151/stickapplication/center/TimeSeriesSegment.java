@@ -0,0 +1,285 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/***************************************************************************************************
+ * 时间序列存储的一个段文件。文件创建时按段大小预分配并映射到内存，记录顺序追加，
+ * 封存时把结束时间、有效长度和记录数写回文件头。
+ * 文件头（32字节）：魔数(4) + 版本(2) + 保留(2) + 起始时间us(8) + 结束时间us(8) + 有效长度(4) + 记录数(4)
+ * 记录：负载长度+1(2，0表示段结束) + 特性ID(2) + MAC(6) + 相对起始时间us(4) + 负载
+ **************************************************************************************************/
+final class TimeSeriesSegment {
+    static final int MAGIC = 0x53545331;//"STS1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_HEADER_SIZE = 14;
+    static final long MAX_DELTA_MICROS = 0xFFFFFFFFL;//相对时间用4字节无符号数，约71分钟
+    static final int INDEX_INTERVAL = 4096;//每写入这么多字节记录一个稀疏索引点
+    static final String SUFFIX = ".ts";
+
+    private static final int OFFSET_BASE = 8;
+    private static final int OFFSET_END = 16;
+    private static final int OFFSET_LENGTH = 24;
+    private static final int OFFSET_COUNT = 28;
+
+    final File file;
+    final long baseMicros;
+    long endMicros;
+    int length;//有效长度，含文件头
+    int count;
+    boolean sealed;
+    private MappedByteBuffer mBuffer;
+    //稀疏索引：相对时间和记录偏移
+    private int[] mIndexDelta = new int[16];
+    private int[] mIndexOffset = new int[16];
+    private int mIndexSize;
+    private int mNextIndexOffset;
+
+    private TimeSeriesSegment(File file, long baseMicros) {
+        this.file = file;
+        this.baseMicros = baseMicros;
+        this.endMicros = baseMicros;
+    }
+
+    static File fileFor(File dir, long baseMicros) {
+        return new File(dir, String.format("seg-%016x" + SUFFIX, baseMicros));
+    }
+
+    /***************************************************************************************************
+     * 新建一个可写的段，文件预分配为capacity字节
+     **************************************************************************************************/
+    static TimeSeriesSegment create(File file, long baseMicros, int capacity) throws IOException {
+        final TimeSeriesSegment segment = new TimeSeriesSegment(file, baseMicros);
+        segment.mBuffer = map(segment.file, capacity, true);
+        segment.mBuffer.putInt(0, MAGIC);
+        segment.mBuffer.putShort(4, (short) VERSION);
+        segment.mBuffer.putLong(OFFSET_BASE, baseMicros);
+        segment.mBuffer.putLong(OFFSET_END, baseMicros);
+        segment.length = HEADER_SIZE;
+        segment.writeTrailer();
+        return segment;
+    }
+
+    /***************************************************************************************************
+     * 打开已有的段文件。没有正常封存的段（进程被杀）通过扫描记录恢复有效长度，之后按封存段处理
+     **************************************************************************************************/
+    static TimeSeriesSegment open(File file) throws IOException {
+        final MappedByteBuffer buffer = map(file, (int) file.length(), false);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            return null;
+        }
+        final TimeSeriesSegment segment = new TimeSeriesSegment(file, buffer.getLong(OFFSET_BASE));
+        segment.mBuffer = buffer;
+        segment.length = HEADER_SIZE;
+        segment.rebuild();
+        segment.sealed = true;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, int size, boolean writable) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            if (writable && raf.length() < size) {
+                raf.setLength(size);
+            }
+            final MappedByteBuffer buffer = raf.getChannel().map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } finally {
+            raf.close();//映射在通道关闭后仍然有效
+        }
+    }
+
+    /***************************************************************************************************
+     * 能否写入一条负载长度为payloadLength、时间为micros的记录
+     **************************************************************************************************/
+    boolean fits(int payloadLength, long micros) {
+        return length + RECORD_HEADER_SIZE + payloadLength <= mBuffer.capacity()
+                && micros - baseMicros <= MAX_DELTA_MICROS;
+    }
+
+    /***************************************************************************************************
+     * 追加一条记录，调用者保证fits()且时间不早于上一条
+     **************************************************************************************************/
+    void append(long deviceAddress, int characteristicId, long micros, byte[] payload, int offset, int payloadLength) {
+        final MappedByteBuffer buffer = mBuffer;
+        final int position = length;
+        final int delta = (int) (micros - baseMicros);
+        if (position >= mNextIndexOffset) {
+            addIndex(delta, position);
+            mNextIndexOffset = position + INDEX_INTERVAL;
+        }
+        buffer.putShort(position + 2, (short) characteristicId);
+        buffer.putInt(position + 4, (int) deviceAddress);
+        buffer.putShort(position + 8, (short) (deviceAddress >>> 32));
+        buffer.putInt(position + 10, delta);
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(payload, offset, payloadLength);
+        buffer.putShort(position, (short) (payloadLength + 1));//最后写长度，记录完整后才可见
+        length = position + RECORD_HEADER_SIZE + payloadLength;
+        count++;
+        endMicros = micros;
+    }
+
+    /***************************************************************************************************
+     * 封存：写回文件头并刷到磁盘，之后只读
+     **************************************************************************************************/
+    void seal() {
+        if (sealed) {
+            return;
+        }
+        writeTrailer();
+        mBuffer.force();
+        sealed = true;
+    }
+
+    private void writeTrailer() {
+        mBuffer.putLong(OFFSET_END, endMicros);
+        mBuffer.putInt(OFFSET_LENGTH, length);
+        mBuffer.putInt(OFFSET_COUNT, count);
+    }
+
+    /***************************************************************************************************
+     * 扫描全部记录，恢复有效长度、记录数、结束时间和稀疏索引
+     **************************************************************************************************/
+    private void rebuild() {
+        final MappedByteBuffer buffer = mBuffer;
+        int position = HEADER_SIZE;
+        long lastDelta = 0;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            final int stored = buffer.getShort(position) & 0xFFFF;
+            if (stored == 0 || position + RECORD_HEADER_SIZE + stored - 1 > buffer.capacity()) {
+                break;
+            }
+            final long delta = buffer.getInt(position + 10) & 0xFFFFFFFFL;
+            if (delta < lastDelta) {
+                break;//时间倒退说明记录损坏
+            }
+            if (position >= mNextIndexOffset) {
+                addIndex((int) delta, position);
+                mNextIndexOffset = position + INDEX_INTERVAL;
+            }
+            lastDelta = delta;
+            position += RECORD_HEADER_SIZE + stored - 1;
+            count++;
+        }
+        length = position;
+        endMicros = baseMicros + lastDelta;
+    }
+
+    private void addIndex(int delta, int offset) {
+        if (mIndexSize == mIndexDelta.length) {
+            final int[] deltas = new int[mIndexSize * 2];
+            final int[] offsets = new int[mIndexSize * 2];
+            System.arraycopy(mIndexDelta, 0, deltas, 0, mIndexSize);
+            System.arraycopy(mIndexOffset, 0, offsets, 0, mIndexSize);
+            mIndexDelta = deltas;
+            mIndexOffset = offsets;
+        }
+        mIndexDelta[mIndexSize] = delta;
+        mIndexOffset[mIndexSize] = offset;
+        mIndexSize++;
+    }
+
+    /***************************************************************************************************
+     * 通过稀疏索引找到第一条时间可能不早于fromMicros的记录的偏移
+     **************************************************************************************************/
+    private int seek(long fromMicros) {
+        if (fromMicros <= baseMicros || mIndexSize == 0) {
+            return HEADER_SIZE;
+        }
+        final long delta = fromMicros - baseMicros;
+        int lo = 0;
+        int hi = mIndexSize - 1;
+        int found = 0;
+        while (lo <= hi) {//最后一个相对时间小于delta的索引点
+            final int mid = (lo + hi) >>> 1;
+            if ((mIndexDelta[mid] & 0xFFFFFFFFL) < delta) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return mIndexOffset[found];
+    }
+
+    /***************************************************************************************************
+     * 遍历[fromMicros, toMicros]内的记录，返回遍历的条数，visitor返回false时停止并返回-1-条数
+     **************************************************************************************************/
+    int scan(long fromMicros, long toMicros, byte[] scratch, TimeSeriesStore.RecordVisitor visitor) {
+        if (toMicros < baseMicros || fromMicros > endMicros || count == 0) {
+            return 0;
+        }
+        final MappedByteBuffer buffer = mBuffer;
+        final ByteBuffer reader = buffer.duplicate();
+        int position = seek(fromMicros);
+        int visited = 0;
+        while (position < length) {
+            final int payloadLength = (buffer.getShort(position) & 0xFFFF) - 1;
+            final long micros = baseMicros + (buffer.getInt(position + 10) & 0xFFFFFFFFL);
+            if (micros > toMicros) {
+                break;
+            }
+            if (micros >= fromMicros) {
+                final int characteristicId = buffer.getShort(position + 2) & 0xFFFF;
+                final long device = (buffer.getInt(position + 4) & 0xFFFFFFFFL)
+                        | (long) (buffer.getShort(position + 8) & 0xFFFF) << 32;
+                reader.position(position + RECORD_HEADER_SIZE);
+                reader.get(scratch, 0, payloadLength);
+                visited++;
+                if (!visitor.onRecord(device, characteristicId, micros, scratch, payloadLength)) {
+                    return -1 - visited;
+                }
+            }
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+        return visited;
+    }
+
+    /***************************************************************************************************
+     * 把有效部分复制到另一个段的末尾，用于合并小段。调用者保证空间足够
+     **************************************************************************************************/
+    void copyTo(TimeSeriesSegment target) {
+        final MappedByteBuffer buffer = mBuffer;
+        final ByteBuffer reader = buffer.duplicate();
+        final byte[] scratch = new byte[SensorFrame.MAX_PAYLOAD];
+        int position = HEADER_SIZE;
+        while (position < length) {
+            final int payloadLength = (buffer.getShort(position) & 0xFFFF) - 1;
+            final long micros = baseMicros + (buffer.getInt(position + 10) & 0xFFFFFFFFL);
+            final int characteristicId = buffer.getShort(position + 2) & 0xFFFF;
+            final long device = (buffer.getInt(position + 4) & 0xFFFFFFFFL)
+                    | (long) (buffer.getShort(position + 8) & 0xFFFF) << 32;
+            reader.position(position + RECORD_HEADER_SIZE);
+            reader.get(scratch, 0, payloadLength);
+            target.append(device, characteristicId, Math.max(micros, target.endMicros), scratch, 0, payloadLength);
+            position += RECORD_HEADER_SIZE + payloadLength;
+        }
+    }
+
+    /***************************************************************************************************
+     * 文件在磁盘上占用的字节数
+     **************************************************************************************************/
+    long fileSize() {
+        return file.length();
+    }
+
+    /***************************************************************************************************
+     * 文件是否比有效内容大很多（封存时预分配的空间没有用完）
+     **************************************************************************************************/
+    boolean isSparse() {
+        return sealed && fileSize() > length + INDEX_INTERVAL;
+    }
+
+    void release() {
+        mBuffer = null;//Android上无法主动解除映射，交给GC
+    }
+}
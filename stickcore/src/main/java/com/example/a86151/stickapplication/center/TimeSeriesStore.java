@@ -0,0 +1,293 @@
+package com.example.a86151.stickapplication.center;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/***************************************************************************************************
+ * 只追加的时间序列存储，保存notify数据帧。数据写入内存映射的段文件，按大小和时间切换新段，
+ * 每段有稀疏时间索引用于范围查询；maintain()按保留时间和总大小删除旧段，并把封存时没有写满的
+ * 小段合并成紧凑的文件。时间戳为微秒，同一存储内单调不减。所有方法线程安全，通常只有写入线程调用append
+ **************************************************************************************************/
+public final class TimeSeriesStore {
+    /***************************************************************************************************
+     * 范围查询的记录访问者，payload只在回调期间有效，返回false停止查询
+     **************************************************************************************************/
+    public interface RecordVisitor {
+        boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros, byte[] payload, int length);
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_MAX_AGE_MICROS = 15L * 60 * 1000000;
+    public static final long DEFAULT_RETENTION_MICROS = 7L * 24 * 3600 * 1000000;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 256L * 1024 * 1024;
+
+    private final File mDirectory;
+    private int mSegmentSize = DEFAULT_SEGMENT_SIZE;
+    private long mSegmentMaxAgeMicros = DEFAULT_SEGMENT_MAX_AGE_MICROS;
+    private long mRetentionMicros = DEFAULT_RETENTION_MICROS;
+    private long mMaxTotalBytes = DEFAULT_MAX_TOTAL_BYTES;
+
+    private final List<TimeSeriesSegment> mSealed = new ArrayList<TimeSeriesSegment>();//按起始时间排序
+    private TimeSeriesSegment mActive;
+    private long mLastMicros = Long.MIN_VALUE;
+    private boolean mOpen;
+    private final byte[] mScratch = new byte[SensorFrame.MAX_PAYLOAD];
+    //统计
+    private long mRecords;
+    private long mBytes;
+    private long mRotations;
+    private long mDeletedSegments;
+    private long mCompactedSegments;
+
+    public TimeSeriesStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /***************************************************************************************************
+     * 段文件大小，切换新段时生效
+     **************************************************************************************************/
+    public synchronized TimeSeriesStore setSegmentSize(int segmentSize) {
+        if (segmentSize < TimeSeriesSegment.HEADER_SIZE + TimeSeriesSegment.RECORD_HEADER_SIZE + SensorFrame.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("segment too small: " + segmentSize);
+        }
+        mSegmentSize = segmentSize;
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 一个段最长覆盖的时间，不能超过段内相对时间的表示范围
+     **************************************************************************************************/
+    public synchronized TimeSeriesStore setSegmentMaxAgeMicros(long maxAgeMicros) {
+        mSegmentMaxAgeMicros = Math.min(maxAgeMicros, TimeSeriesSegment.MAX_DELTA_MICROS);
+        return this;
+    }
+
+    public synchronized TimeSeriesStore setRetentionMicros(long retentionMicros) {
+        mRetentionMicros = retentionMicros;
+        return this;
+    }
+
+    public synchronized TimeSeriesStore setMaxTotalBytes(long maxTotalBytes) {
+        mMaxTotalBytes = maxTotalBytes;
+        return this;
+    }
+
+    /***************************************************************************************************
+     * 打开存储，加载已有的段。上次没有正常关闭的段按实际写入的记录恢复
+     **************************************************************************************************/
+    public synchronized void open() throws IOException {
+        if (mOpen) {
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("cannot create " + mDirectory);
+        }
+        final File[] files = mDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(TimeSeriesSegment.SUFFIX);
+            }
+        });
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                final TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+                if (segment == null || segment.count == 0) {
+                    file.delete();//损坏或空的段
+                    continue;
+                }
+                mSealed.add(segment);
+                mLastMicros = Math.max(mLastMicros, segment.endMicros);
+            }
+        }
+        sortSealed();
+        mOpen = true;
+    }
+
+    /***************************************************************************************************
+     * 追加一条记录。时间早于上一条时按上一条的时间记录，保证单调。存储未打开时返回false
+     **************************************************************************************************/
+    public synchronized boolean append(long deviceAddress, int characteristicId, long timestampMicros,
+                                       byte[] payload, int offset, int length) throws IOException {
+        if (!mOpen) {
+            return false;
+        }
+        final long micros = Math.max(timestampMicros, mLastMicros);
+        TimeSeriesSegment active = mActive;
+        if (active == null || !active.fits(length, micros) || micros - active.baseMicros >= mSegmentMaxAgeMicros) {
+            active = rotate(micros);
+        }
+        active.append(deviceAddress, characteristicId, micros, payload, offset, length);
+        mLastMicros = micros;
+        mRecords++;
+        mBytes += TimeSeriesSegment.RECORD_HEADER_SIZE + length;
+        return true;
+    }
+
+    /***************************************************************************************************
+     * 追加一帧，timestampMicros为帧的时间换算成的微秒
+     **************************************************************************************************/
+    public boolean append(SensorFrame frame, long timestampMicros) throws IOException {
+        return append(frame.deviceAddress, frame.characteristicId, timestampMicros, frame.payload, 0,
+                frame.payloadLength);
+    }
+
+    private TimeSeriesSegment rotate(long micros) throws IOException {
+        if (mActive != null) {
+            mActive.seal();
+            mSealed.add(mActive);
+            mRotations++;
+        }
+        File file = TimeSeriesSegment.fileFor(mDirectory, micros);
+        long base = micros;
+        while (file.exists()) {//时间相同的段已存在（时钟被调回）
+            file = TimeSeriesSegment.fileFor(mDirectory, ++base);
+        }
+        mActive = TimeSeriesSegment.create(file, micros, mSegmentSize);
+        return mActive;
+    }
+
+    /***************************************************************************************************
+     * 查询[fromMicros, toMicros]内的记录，按时间顺序回调visitor，返回回调的条数
+     **************************************************************************************************/
+    public synchronized int query(long fromMicros, long toMicros, RecordVisitor visitor) {
+        int total = 0;
+        for (int i = 0; i < mSealed.size(); i++) {
+            final int visited = mSealed.get(i).scan(fromMicros, toMicros, mScratch, visitor);
+            if (visited < 0) {
+                return total - visited - 1;
+            }
+            total += visited;
+        }
+        if (mActive != null) {
+            final int visited = mActive.scan(fromMicros, toMicros, mScratch, visitor);
+            total += visited < 0 ? -visited - 1 : visited;
+        }
+        return total;
+    }
+
+    /***************************************************************************************************
+     * 后台维护：删除超过保留时间或超出总大小的旧段，合并没有写满的相邻小段。在写入线程的空闲时调用
+     **************************************************************************************************/
+    public synchronized void maintain(long nowMicros) throws IOException {
+        //按保留时间删除
+        while (!mSealed.isEmpty() && mSealed.get(0).endMicros < nowMicros - mRetentionMicros) {
+            deleteOldest();
+        }
+        //按总大小删除
+        long total = mActive == null ? 0 : mActive.fileSize();
+        for (int i = 0; i < mSealed.size(); i++) {
+            total += mSealed.get(i).fileSize();
+        }
+        while (total > mMaxTotalBytes && !mSealed.isEmpty()) {
+            total -= mSealed.get(0).fileSize();
+            deleteOldest();
+        }
+        compact();
+    }
+
+    private void deleteOldest() {
+        final TimeSeriesSegment oldest = mSealed.remove(0);
+        oldest.release();
+        oldest.file.delete();
+        mDeletedSegments++;
+    }
+
+    /***************************************************************************************************
+     * 把相邻的稀疏段（预分配空间没有写满）合并到一个大小正好的新文件，每次最多生成一个新段
+     **************************************************************************************************/
+    private void compact() throws IOException {
+        int start = 0;
+        while (start < mSealed.size() && !mSealed.get(start).isSparse()) {
+            start++;
+        }
+        if (start >= mSealed.size()) {
+            return;
+        }
+        final TimeSeriesSegment first = mSealed.get(start);
+        int end = start;
+        int length = first.length;
+        while (end + 1 < mSealed.size()) {
+            final TimeSeriesSegment next = mSealed.get(end + 1);
+            if (!next.isSparse() || length + next.length - TimeSeriesSegment.HEADER_SIZE > mSegmentSize
+                    || next.endMicros - first.baseMicros > TimeSeriesSegment.MAX_DELTA_MICROS) {
+                break;
+            }
+            length += next.length - TimeSeriesSegment.HEADER_SIZE;
+            end++;
+        }
+        final File temp = new File(mDirectory, first.file.getName() + ".tmp");
+        temp.delete();
+        final TimeSeriesSegment merged = TimeSeriesSegment.create(temp, first.baseMicros, length);
+        for (int i = start; i <= end; i++) {
+            mSealed.get(i).copyTo(merged);
+        }
+        merged.seal();
+        merged.release();
+        if (!temp.renameTo(first.file)) {//原子替换第一个段，其余的段随后删除
+            temp.delete();
+            throw new IOException("cannot rename " + temp);
+        }
+        for (int i = end; i >= start; i--) {
+            final TimeSeriesSegment source = mSealed.remove(i);
+            source.release();
+            if (i != start) {
+                source.file.delete();
+            }
+        }
+        mSealed.add(start, TimeSeriesSegment.open(first.file));
+        mCompactedSegments += end - start + 1;
+    }
+
+    private void sortSealed() {
+        Collections.sort(mSealed, new Comparator<TimeSeriesSegment>() {
+            @Override
+            public int compare(TimeSeriesSegment a, TimeSeriesSegment b) {
+                return a.baseMicros < b.baseMicros ? -1 : (a.baseMicros == b.baseMicros ? 0 : 1);
+            }
+        });
+    }
+
+    /***************************************************************************************************
+     * 封存当前段并关闭存储
+     **************************************************************************************************/
+    public synchronized void close() {
+        if (mActive != null) {
+            mActive.seal();
+            mSealed.add(mActive);
+            mActive = null;
+        }
+        for (int i = 0; i < mSealed.size(); i++) {
+            mSealed.get(i).release();
+        }
+        mSealed.clear();
+        mOpen = false;
+    }
+
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    public synchronized int getSegmentCount() {
+        return mSealed.size() + (mActive == null ? 0 : 1);
+    }
+
+    public synchronized long getRecordCount() {
+        return mRecords;
+    }
+
+    public synchronized long getBytesWritten() {
+        return mBytes;
+    }
+
+    public synchronized String getStats() {
+        return "records=" + mRecords + " bytes=" + mBytes + " segments=" + getSegmentCount()
+                + " rotations=" + mRotations + " deleted=" + mDeletedSegments + " compacted=" + mCompactedSegments;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 广播数据解析和手杖广播缓存的单元测试
+ */
+public class AdvertisingDataTest {
+    private static byte[] stickRecord(int battery, int state) {
+        byte[] record = new byte[62];//旧接口给出的广播数据末尾补0
+        byte[] ad = {
+                0x02, 0x01, 0x06,//flags
+                0x05, 0x03, 0x0D, 0x18, 0x0F, 0x18,//16位服务UUID 0x180D, 0x180F
+                0x02, 0x0A, (byte) 0xFC,//发射功率-4dBm
+                0x06, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01, (byte) battery, (byte) state,
+                0x06, 0x09, 'i', 'M', 'a', 's', 'k'
+        };
+        System.arraycopy(ad, 0, record, 0, ad.length);
+        return record;
+    }
+
+    @Test
+    public void parse_readsStructuresInPlace() throws Exception {
+        byte[] record = stickRecord(80, StickAdvertisement.STATE_WALKING);
+        AdvertisingData data = new AdvertisingData();
+        assertTrue(data.parse(record));
+        assertEquals(0x06, data.getFlags());
+        assertEquals(2, data.getUuid16Count());
+        assertTrue(data.hasUuid16(0x180F));
+        assertEquals(-4, data.getTxPower());
+        assertEquals(StickAdvertisement.MANUFACTURER_ID, data.getManufacturerId());
+        assertEquals(3, data.getManufacturerLength());
+        assertEquals(80, data.manufacturerByte(1));
+        assertEquals(-1, data.manufacturerByte(3));
+        assertEquals(5, data.getNameLength());
+        assertEquals('i', record[data.getNameOffset()]);
+        assertEquals(AdvertisingData.significantLength(record), data.getLength());
+        assertSame(record, data.getRecord());
+    }
+
+    @Test
+    public void parse_stopsAtTruncatedStructure() throws Exception {
+        AdvertisingData data = new AdvertisingData();
+        assertFalse(data.parse(new byte[]{0x02, 0x01, 0x06, 0x09, (byte) 0xFF, 0x01}));
+        assertEquals(0x06, data.getFlags());
+        assertEquals(AdvertisingData.NO_MANUFACTURER, data.getManufacturerId());
+        assertFalse(data.hasTxPower());
+    }
+
+    @Test
+    public void stickAdvertisement_decodesOnlyWhenPayloadChanges() throws Exception {
+        AdvertisingData parser = new AdvertisingData();
+        StickAdvertisement advertisement = new StickAdvertisement();
+        assertTrue(advertisement.update(stickRecord(80, StickAdvertisement.STATE_WALKING), parser));
+        assertFalse(advertisement.update(stickRecord(80, StickAdvertisement.STATE_WALKING), parser));
+        assertFalse(advertisement.update(null, parser));
+        assertEquals(1, advertisement.getDecodeCount());
+        assertEquals(80, advertisement.getBattery());
+        assertEquals(StickAdvertisement.STATE_WALKING, advertisement.getState());
+
+        assertTrue(advertisement.update(stickRecord(79, StickAdvertisement.STATE_FALL_ALARM), parser));
+        assertEquals(79, advertisement.getBattery());
+        assertEquals(StickAdvertisement.STATE_FALL_ALARM, advertisement.getState());
+        assertEquals(-4, advertisement.getTxPower());
+        assertTrue(advertisement.hasStatus());
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * 批量写入会话的单元测试，手杖端按协议用内存模拟，GATT操作按发出顺序逐个执行
+ */
+public class BulkTransferSessionTest {
+    private static final int MTU = 247;
+
+    /**
+     * 模拟的手杖：实现控制特性和数据特性的协议，可以按比例丢弃数据包
+     */
+    private static final class FakeStick implements BulkTransferSession.Link {
+        final ArrayDeque<Object[]> operations = new ArrayDeque<Object[]>();//{类型, 数据}
+        BulkTransferSession session;
+        byte[] image = new byte[0];
+        int expectedLength = -1;
+        int expectedCrc;
+        int received;
+        int committed;
+        boolean finished;
+        boolean aborted;
+        Random random = new Random(1);
+        double dropRate;
+        long dataPackets;
+        int checks;
+
+        @Override
+        public void writeData(byte[] packet) {
+            operations.addLast(new Object[]{"data", packet});
+        }
+
+        @Override
+        public void writeCommand(byte[] command) {
+            operations.addLast(new Object[]{"command", command});
+        }
+
+        @Override
+        public void readState() {
+            operations.addLast(new Object[]{"read", null});
+        }
+
+        /**
+         * 执行一个排队的操作，返回false表示没有操作
+         */
+        boolean step() {
+            final Object[] operation = operations.pollFirst();
+            if (operation == null) {
+                return false;
+            }
+            if ("data".equals(operation[0])) {
+                dataPackets++;
+                if (random.nextDouble() >= dropRate) {
+                    receive((byte[]) operation[1]);
+                }
+            } else if ("command".equals(operation[0])) {
+                session.onResult(execute((byte[]) operation[1]), null);
+            } else {
+                final byte[] state = new byte[8];
+                BulkTransferSession.putInt(state, 0, committed);
+                BulkTransferSession.putInt(state, 4, crc(committed));
+                session.onResult(true, state);
+            }
+            return true;
+        }
+
+        void receive(byte[] packet) {
+            final int offset = BulkTransferSession.getInt(packet, 0);
+            final int length = packet.length - BulkTransferSession.CHUNK_HEADER;
+            if (offset > received || offset + length > image.length) {
+                return;
+            }
+            System.arraycopy(packet, BulkTransferSession.CHUNK_HEADER, image, offset, length);
+            received = offset + length;
+        }
+
+        boolean execute(byte[] command) {
+            switch (command[0]) {
+                case BulkTransferSession.CMD_START: {
+                    final int length = BulkTransferSession.getInt(command, 1);
+                    final int crc = BulkTransferSession.getInt(command, 5);
+                    if (length != expectedLength || crc != expectedCrc) {
+                        expectedLength = length;
+                        expectedCrc = crc;
+                        image = new byte[length];
+                        committed = 0;
+                    }
+                    received = committed;
+                    finished = false;
+                    return true;
+                }
+                case BulkTransferSession.CMD_CHECK: {
+                    checks++;
+                    final int offset = BulkTransferSession.getInt(command, 1);
+                    if (offset != received || crc(offset) != BulkTransferSession.getInt(command, 5)) {
+                        return false;
+                    }
+                    committed = offset;
+                    return true;
+                }
+                case BulkTransferSession.CMD_FINISH:
+                    finished = committed == expectedLength && crc(expectedLength) == expectedCrc;
+                    return finished;
+                case BulkTransferSession.CMD_ABORT:
+                    aborted = true;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        int crc(int length) {
+            final CRC32 crc = new CRC32();
+            crc.update(image, 0, length);
+            return (int) crc.getValue();
+        }
+
+        /**
+         * 连接断开：排队的操作全部丢失
+         */
+        void disconnect() {
+            operations.clear();
+            session.onDisconnected();
+        }
+    }
+
+    private static final class RecordingListener implements BulkTransferSession.Listener {
+        long progressCalls;
+        long lastConfirmed = -1;
+        boolean complete;
+        String failure;
+
+        @Override
+        public void onProgress(long confirmed, long total, long bytesPerSecond) {
+            assertTrue(confirmed >= lastConfirmed);
+            lastConfirmed = confirmed;
+            progressCalls++;
+        }
+
+        @Override
+        public void onComplete(long bytesPerSecond) {
+            complete = true;
+        }
+
+        @Override
+        public void onFailed(String reason) {
+            failure = reason;
+        }
+    }
+
+    private static byte[] image(int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static BulkTransferSession newSession(byte[] data, FakeStick stick, RecordingListener listener) {
+        final BulkTransferSession session = new BulkTransferSession(data, stick, listener);
+        stick.session = session;
+        return session;
+    }
+
+    private static void runToEnd(FakeStick stick) {
+        int steps = 0;
+        while (stick.step()) {
+            assertTrue("transfer does not terminate", ++steps < 10000000);
+        }
+    }
+
+    @Test
+    public void crc32_matchesJavaUtilZip() {
+        final byte[] data = image(1000);
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        assertEquals((int) crc.getValue(), BulkTransferSession.crc32(0, data, 0, data.length));
+        final int head = BulkTransferSession.crc32(0, data, 0, 333);
+        assertEquals((int) crc.getValue(), BulkTransferSession.crc32(head, data, 333, 667));
+    }
+
+    @Test
+    public void cleanLink_transfersWithOneCheckPerWindow() {
+        final byte[] data = image(200 * 1024 + 17);
+        final FakeStick stick = new FakeStick();
+        final RecordingListener listener = new RecordingListener();
+        final BulkTransferSession session = newSession(data, stick, listener);
+        session.start(MTU);
+        runToEnd(stick);
+
+        assertTrue(listener.complete);
+        assertEquals(BulkTransferSession.State.DONE, session.getState());
+        assertTrue(stick.finished);
+        assertArrayEquals(data, stick.image);
+        final int chunk = MTU - 3 - BulkTransferSession.CHUNK_HEADER;
+        final long chunks = (data.length + chunk - 1) / chunk;
+        assertEquals(chunks, stick.dataPackets);
+        assertEquals((chunks + BulkTransferSession.DEFAULT_WINDOW_CHUNKS - 1)
+                / BulkTransferSession.DEFAULT_WINDOW_CHUNKS, stick.checks);
+        assertEquals(0, session.getRetransmitted());
+        assertEquals(data.length, listener.lastConfirmed);
+    }
+
+    @Test
+    public void creditWindow_limitsUnconfirmedData() {
+        final byte[] data = image(100 * 1024);
+        final FakeStick stick = new FakeStick();
+        final BulkTransferSession session = newSession(data, stick, new RecordingListener()).setWindowChunks(8);
+        session.start(MTU);
+        int maxQueuedData = 0;
+        do {
+            int queued = 0;
+            for (Object[] operation : stick.operations) {
+                if ("data".equals(operation[0])) {
+                    queued++;
+                }
+            }
+            maxQueuedData = Math.max(maxQueuedData, queued);
+        } while (stick.step());
+        assertEquals(BulkTransferSession.State.DONE, session.getState());
+        assertTrue(maxQueuedData <= 16);
+        assertTrue(maxQueuedData > 8);//检查结果返回前已开始发送下一个窗口
+        assertArrayEquals(data, stick.image);
+    }
+
+    @Test
+    public void lostPackets_rewindToLastCheck() {
+        final byte[] data = image(64 * 1024);
+        final FakeStick stick = new FakeStick();
+        stick.dropRate = 0.01;
+        final RecordingListener listener = new RecordingListener();
+        final BulkTransferSession session = newSession(data, stick, listener).setWindowChunks(16);
+        session.start(MTU);
+        runToEnd(stick);
+
+        assertNull(listener.failure);
+        assertTrue(listener.complete);
+        assertArrayEquals(data, stick.image);
+        assertTrue(session.getRetransmitted() > 0);
+    }
+
+    @Test
+    public void disconnect_resumesFromConfirmedOffset() {
+        final byte[] data = image(120 * 1024);
+        final FakeStick stick = new FakeStick();
+        final RecordingListener listener = new RecordingListener();
+        final BulkTransferSession session = newSession(data, stick, listener).setWindowChunks(16);
+        session.start(MTU);
+        while (stick.committed < data.length / 2) {
+            assertTrue(stick.step());
+        }
+        final int committed = stick.committed;
+        //断线前已发出的数据丢失
+        for (int i = 0; i < 5; i++) {
+            stick.step();
+        }
+        stick.disconnect();
+        assertEquals(BulkTransferSession.State.INTERRUPTED, session.getState());
+        assertFalse(stick.step());
+
+        final long packetsBefore = stick.dataPackets;
+        session.start(MTU);
+        runToEnd(stick);
+        assertTrue(listener.complete);
+        assertArrayEquals(data, stick.image);
+        final int chunk = MTU - 3 - BulkTransferSession.CHUNK_HEADER;
+        assertEquals((data.length - committed + chunk - 1) / chunk, stick.dataPackets - packetsBefore);
+    }
+
+    @Test
+    public void staleStickState_restartsFromZero() {
+        final byte[] data = image(20 * 1024);
+        final FakeStick stick = new FakeStick();
+        stick.expectedLength = data.length;
+        stick.expectedCrc = BulkTransferSession.crc32(0, data, 0, data.length);
+        stick.image = new byte[data.length];
+        stick.committed = 4096;//位置存在但内容不是这次的数据
+        final RecordingListener listener = new RecordingListener();
+        final BulkTransferSession session = newSession(data, stick, listener);
+        session.start(MTU);
+        runToEnd(stick);
+        assertTrue(listener.complete);
+        assertArrayEquals(data, stick.image);
+    }
+
+    @Test
+    public void deadLink_failsAfterMaxRewinds() {
+        final byte[] data = image(10 * 1024);
+        final FakeStick stick = new FakeStick();
+        stick.dropRate = 1;
+        final RecordingListener listener = new RecordingListener();
+        final BulkTransferSession session = newSession(data, stick, listener).setMaxRewinds(3);
+        session.start(MTU);
+        runToEnd(stick);
+        assertEquals(BulkTransferSession.State.FAILED, session.getState());
+        assertNotNull(listener.failure);
+        assertFalse(listener.complete);
+    }
+
+    @Test
+    public void cancel_sendsAbort() {
+        final FakeStick stick = new FakeStick();
+        final BulkTransferSession session = newSession(image(50000), stick, new RecordingListener());
+        session.start(MTU);
+        for (int i = 0; i < 20; i++) {
+            stick.step();
+        }
+        session.cancel();
+        runToEnd(stick);
+        assertTrue(stick.aborted);
+        assertEquals(BulkTransferSession.State.CANCELLED, session.getState());
+        assertFalse(stick.finished);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 连接状态机和MAC地址转换的单元测试
+ */
+public class ConnectionStateMachineTest {
+    @Test
+    public void stateMachine_followsConnectSequence() throws Exception {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        final List<String> transitions = new ArrayList<String>();
+        machine.setListener(new ConnectionStateMachine.Listener() {
+            @Override
+            public void onStateChanged(ConnectionStateMachine.State from, ConnectionStateMachine.State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+        assertNotNull(machine.moveTo(ConnectionStateMachine.State.CONNECTING));
+        assertTrue(machine.transition(ConnectionStateMachine.State.CONNECTING, ConnectionStateMachine.State.DISCOVERING));
+        assertTrue(machine.transition(ConnectionStateMachine.State.DISCOVERING, ConnectionStateMachine.State.SUBSCRIBING));
+        assertTrue(machine.transition(ConnectionStateMachine.State.SUBSCRIBING, ConnectionStateMachine.State.STREAMING));
+        assertEquals(ConnectionStateMachine.State.STREAMING, machine.moveTo(ConnectionStateMachine.State.BACKOFF));
+        assertEquals(5, transitions.size());
+        assertEquals("BACKOFF", machine.get().name());
+    }
+
+    @Test
+    public void stateMachine_rejectsInvalidTransitions() throws Exception {
+        ConnectionStateMachine machine = new ConnectionStateMachine();
+        assertNull(machine.moveTo(ConnectionStateMachine.State.STREAMING));
+        assertFalse(machine.transition(ConnectionStateMachine.State.CONNECTING, ConnectionStateMachine.State.DISCOVERING));
+        assertNull(machine.moveTo(ConnectionStateMachine.State.BACKOFF));
+        assertEquals(ConnectionStateMachine.State.DISCONNECTED, machine.get());
+    }
+
+    @Test
+    public void macAddress_roundTrip() throws Exception {
+        long mac = MacAddress.pack("a4:C1:38:0F:00:7e");
+        assertEquals(0xA4C1380F007EL, mac);
+        assertEquals("A4:C1:38:0F:00:7E", MacAddress.format(mac));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("A4:C1:38:0F:00"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("A4-C1-38-0F-00-7E"));
+    }
+}
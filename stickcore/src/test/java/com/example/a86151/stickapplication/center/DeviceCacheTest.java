@@ -0,0 +1,117 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 已知设备缓存的单元测试
+ */
+public class DeviceCacheTest {
+    private static final long HOUR = 3600 * 1000L;
+    private static final long NOW = 1700000000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] record(int battery) {
+        final byte[] record = new byte[62];//扫描回调给出的是补零的完整广播
+        record[0] = 6;
+        record[1] = (byte) 0xFF;
+        record[2] = (byte) 0xFF;
+        record[3] = (byte) 0xFF;
+        record[4] = StickAdvertisement.PROTOCOL_VERSION;
+        record[5] = (byte) battery;
+        record[6] = StickAdvertisement.STATE_IDLE;
+        return record;
+    }
+
+    @Test
+    public void capacity_evictsLeastRecentlySeen() {
+        final DeviceCache cache = new DeviceCache(3, 24 * HOUR);
+        cache.seen(1, "a", -60, null, NOW);
+        cache.seen(2, "b", -60, null, NOW + 1);
+        cache.seen(3, "c", -60, null, NOW + 2);
+        cache.seen(1, null, -55, null, NOW + 3);//1重新扫描到，2成为最久的
+        cache.seen(4, "d", -60, null, NOW + 4);
+        final List<DeviceCache.Entry> fresh = cache.getFresh(NOW + 5);
+        assertEquals(3, fresh.size());
+        assertEquals(4, fresh.get(0).getMac());
+        assertEquals(1, fresh.get(1).getMac());
+        assertEquals("a", fresh.get(1).getName());//没有新名称时保留原来的
+        assertEquals(-55, fresh.get(1).getRssi());
+        assertEquals(3, fresh.get(2).getMac());
+    }
+
+    @Test
+    public void ttl_dropsDevicesNotSeenRecently() {
+        final DeviceCache cache = new DeviceCache(10, 2 * HOUR);
+        cache.seen(1, "old", -70, null, NOW - 3 * HOUR);
+        cache.seen(2, "new", -70, null, NOW - HOUR);
+        final List<DeviceCache.Entry> fresh = cache.getFresh(NOW);
+        assertEquals(1, fresh.size());
+        assertEquals(2, fresh.get(0).getMac());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void saveAndLoad_roundTripsCompactly() throws IOException {
+        final File file = new File(mFolder.getRoot(), "devices.bin");
+        final DeviceCache cache = new DeviceCache();
+        cache.seen(0xA4C138000001L, "iStick", -58, record(80), NOW - HOUR);
+        cache.seen(0xA4C138000002L, null, -90, record(15), NOW);
+        cache.seen(0xA4C138000003L, "中文名", -75, null, NOW - 2 * HOUR);
+        assertTrue(cache.saveIfDirty(file));
+        assertFalse(cache.saveIfDirty(file));
+        assertTrue(file.length() < 100);
+
+        final DeviceCache loaded = new DeviceCache();
+        loaded.load(file, NOW);
+        final List<DeviceCache.Entry> fresh = loaded.getFresh(NOW);
+        assertEquals(3, fresh.size());
+        assertEquals(0xA4C138000003L, fresh.get(0).getMac());//写入后第3个最新
+        assertEquals("中文名", fresh.get(0).getName());
+        assertEquals(0xA4C138000002L, fresh.get(1).getMac());
+        assertNull(fresh.get(1).getName());
+        assertEquals(-90, fresh.get(1).getRssi());
+        assertEquals(NOW / 1000 * 1000, fresh.get(1).getLastSeenMillis());
+
+        final StickAdvertisement advertisement = new StickAdvertisement();
+        advertisement.update(fresh.get(2).getRecord(), new AdvertisingData());
+        assertEquals(80, advertisement.getBattery());
+        assertEquals(7, fresh.get(2).getRecord().length);//只保存有效长度
+    }
+
+    @Test
+    public void load_skipsExpiredAndRejectsCorruptFiles() throws IOException {
+        final File file = new File(mFolder.getRoot(), "devices.bin");
+        final DeviceCache cache = new DeviceCache(10, 24 * HOUR);
+        cache.seen(1, "a", -60, null, NOW - 30 * HOUR);
+        cache.seen(2, "b", -60, null, NOW);
+        cache.saveIfDirty(file);
+
+        final DeviceCache loaded = new DeviceCache(10, 24 * HOUR);
+        loaded.load(file, NOW);
+        assertEquals(1, loaded.size());
+
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{0x44, 0x56, 0x43, 0x31, 0, 5, 0});//声明5个设备但数据被截断
+        out.close();
+        try {
+            loaded.load(file, NOW);
+            fail();
+        } catch (IOException expected) {
+            assertEquals(0, loaded.size());
+        }
+
+        loaded.load(new File(mFolder.getRoot(), "missing.bin"), NOW);
+        assertEquals(0, loaded.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 有序设备表的单元测试
+ */
+public class DeviceRegistryTest {
+    @Test
+    public void update_insertsInRssiOrderAndReportsChanges() throws Exception {
+        DeviceRegistry<String> registry = new DeviceRegistry<String>();
+        DeviceRegistry.ChangeSet changes = new DeviceRegistry.ChangeSet();
+        registry.update(1, -70, "a", changes);
+        registry.update(2, -50, "b", changes);
+        registry.update(3, -60, "c", changes);
+        assertEquals("b", registry.get(0));
+        assertEquals("c", registry.get(1));
+        assertEquals("a", registry.get(2));
+        assertEquals(3, changes.size());
+        assertEquals(DeviceRegistry.ChangeSet.INSERTED, changes.kind(1));
+        assertEquals(0, changes.from(1));
+
+        changes.clear();
+        registry.update(1, -40, "ignored", changes);//a移到最前
+        assertEquals("a", registry.get(0));
+        assertEquals(2, changes.size());
+        assertEquals(DeviceRegistry.ChangeSet.MOVED, changes.kind(0));
+        assertEquals(2, changes.from(0));
+        assertEquals(0, changes.to(0));
+
+        changes.clear();
+        registry.update(3, -60, "c", changes);//RSSI不变只更新
+        assertTrue(changes.isUpdateOnly());
+        assertEquals(2, changes.from(0));
+    }
+
+    @Test
+    public void randomUpdates_matchSortedReference() throws Exception {
+        DeviceRegistry<Long> registry = new DeviceRegistry<Long>(8);
+        final Map<Long, Integer> reference = new HashMap<Long, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            long mac = 0xA4C138000000L + random.nextInt(300);
+            if (random.nextInt(10) == 0) {
+                assertEquals(reference.remove(mac) != null, registry.remove(mac, null));
+                continue;
+            }
+            int rssi = -30 - random.nextInt(70);
+            registry.update(mac, rssi, mac, null);
+            reference.put(mac, rssi);
+        }
+        List<Long> expected = new ArrayList<Long>(reference.keySet());
+        Collections.sort(expected, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                int ra = reference.get(a);
+                int rb = reference.get(b);
+                if (ra != rb) {
+                    return ra > rb ? -1 : 1;
+                }
+                return a.compareTo(b);
+            }
+        });
+        assertEquals(expected.size(), registry.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), registry.get(i));
+            assertEquals(i, registry.indexOf(expected.get(i)));
+        }
+    }
+}
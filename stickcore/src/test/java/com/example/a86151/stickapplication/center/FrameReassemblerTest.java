@@ -0,0 +1,212 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多包帧重组的单元测试
+ */
+public class FrameReassemblerTest {
+    private static final long STICK = 0xA4C138000001L;
+    private static final long OTHER_STICK = 0xA4C138000002L;
+    private static final int CHARACTERISTIC = 3;
+
+    private final List<byte[]> mFrames = new ArrayList<byte[]>();
+    private final List<Long> mTimestamps = new ArrayList<Long>();
+    private FrameReassembler mReassembler;
+    private int mSequence;
+
+    @Before
+    public void setUp() {
+        mReassembler = new FrameReassembler(new FrameReassembler.FrameSink() {
+            @Override
+            public void onFrame(long deviceAddress, int characteristicId, byte[] buffer, int offset, int length,
+                                long timestampNanos) {
+                final byte[] frame = new byte[length];
+                System.arraycopy(buffer, offset, frame, 0, length);
+                mFrames.add(frame);
+                mTimestamps.add(timestampNanos);
+            }
+        });
+        mReassembler.setFramed(CHARACTERISTIC, true);
+    }
+
+    private static byte[] frame(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+
+    /**
+     * 按手杖的方式把一帧切成带头的数据包，每包最多fragmentSize字节负载
+     */
+    private List<byte[]> packets(byte[] frame, int fragmentSize) {
+        final List<byte[]> packets = new ArrayList<byte[]>();
+        int fragment = 0;
+        for (int offset = 0; offset < frame.length || fragment == 0; offset += fragmentSize, fragment++) {
+            final int length = Math.min(fragmentSize, frame.length - offset);
+            final byte[] packet = new byte[FrameReassembler.HEADER_SIZE + length];
+            packet[0] = (byte) mSequence++;
+            packet[1] = (byte) (fragment | (offset + length >= frame.length ? FrameReassembler.LAST_FRAGMENT : 0));
+            System.arraycopy(frame, offset, packet, FrameReassembler.HEADER_SIZE, length);
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private void deliver(long device, byte[] packet, long timestamp) {
+        mReassembler.onPacket(device, CHARACTERISTIC, packet, 0, packet.length, timestamp);
+    }
+
+    private FrameReassembler.Counters counters(long device) {
+        final FrameReassembler.Counters counters = new FrameReassembler.Counters();
+        mReassembler.getCounters(device, counters);
+        return counters;
+    }
+
+    @Test
+    public void inOrder_reassemblesFramesAcrossNotifications() {
+        for (int i = 0; i < 600; i++) {//序号回绕两次
+            final byte[] frame = frame(50 + i % 200, i);
+            long timestamp = i * 1000L;
+            for (byte[] packet : packets(frame, 18)) {
+                deliver(STICK, packet, timestamp++);
+            }
+        }
+        assertEquals(600, mFrames.size());
+        for (int i = 0; i < 600; i++) {
+            assertArrayEquals(frame(50 + i % 200, i), mFrames.get(i));
+            assertEquals(i * 1000L, (long) mTimestamps.get(i));//帧的时间为第一片到达的时间
+        }
+        final FrameReassembler.Counters counters = counters(STICK);
+        assertEquals(600, counters.frames);
+        assertEquals(0, counters.lost);
+        assertEquals(0, counters.duplicated);
+        assertEquals(0, counters.outOfOrder);
+        assertEquals(0, counters.droppedFrames);
+    }
+
+    @Test
+    public void lostFragment_dropsOnlyThatFrame() {
+        final List<byte[]> packets = new ArrayList<byte[]>();
+        for (int i = 0; i < 10; i++) {
+            packets.addAll(packets(frame(60, i), 20));//每帧3片
+        }
+        packets.remove(4);//第2帧的中间一片
+        packets.remove(8);//第4帧（原序号9）的第一片
+        for (byte[] packet : packets) {
+            deliver(STICK, packet, 0);
+        }
+        assertEquals(8, mFrames.size());
+        assertArrayEquals(frame(60, 0), mFrames.get(0));
+        assertArrayEquals(frame(60, 2), mFrames.get(1));
+        assertArrayEquals(frame(60, 4), mFrames.get(2));
+        final FrameReassembler.Counters counters = counters(STICK);
+        assertEquals(2, counters.lost);
+        assertEquals(2, counters.droppedFrames);
+        assertEquals(28, counters.packets);
+        assertEquals(2.0 / 30, counters.lossRate(), 1e-9);
+    }
+
+    @Test
+    public void duplicateAndLatePackets_areCountedSeparately() {
+        final List<byte[]> packets = new ArrayList<byte[]>();
+        for (int i = 0; i < 6; i++) {
+            packets.addAll(packets(frame(10, i), 20));//每帧1片
+        }
+        deliver(STICK, packets.get(0), 0);
+        deliver(STICK, packets.get(1), 0);
+        deliver(STICK, packets.get(1), 0);//重复
+        deliver(STICK, packets.get(3), 0);//跳过2
+        deliver(STICK, packets.get(2), 0);//迟到
+        deliver(STICK, packets.get(4), 0);
+        deliver(STICK, packets.get(5), 0);
+        final FrameReassembler.Counters counters = counters(STICK);
+        assertEquals(7, counters.packets);
+        assertEquals(1, counters.duplicated);
+        assertEquals(1, counters.outOfOrder);
+        assertEquals(0, counters.lost);
+        assertEquals(5, mFrames.size());//迟到的帧不再交付
+    }
+
+    @Test
+    public void devicesAreCountedIndependently_restartForgetsSequence() {
+        for (byte[] packet : packets(frame(100, 1), 20)) {
+            deliver(STICK, packet, 0);
+        }
+        mSequence = 200;
+        for (byte[] packet : packets(frame(100, 2), 20)) {
+            deliver(OTHER_STICK, packet, 0);
+        }
+        assertEquals(2, mFrames.size());
+        assertEquals(0, counters(OTHER_STICK).lost);
+
+        //重连后手杖的序号从0开始，不计为丢包
+        mReassembler.restart(STICK);
+        mSequence = 0;
+        for (byte[] packet : packets(frame(100, 3), 20)) {
+            deliver(STICK, packet, 0);
+        }
+        assertEquals(3, mFrames.size());
+        assertEquals(0, counters(STICK).lost);
+        assertEquals(2, counters(STICK).frames);
+        assertEquals(1, counters(OTHER_STICK).frames);
+    }
+
+    @Test
+    public void oversizedFrame_isDropped() {
+        final FrameReassembler small = new FrameReassembler(new FrameReassembler.FrameSink() {
+            @Override
+            public void onFrame(long deviceAddress, int characteristicId, byte[] buffer, int offset, int length,
+                                long timestampNanos) {
+                mFrames.add(new byte[length]);
+            }
+        }, 64, 4);
+        for (byte[] packet : packets(frame(100, 1), 20)) {
+            small.onPacket(STICK, CHARACTERISTIC, packet, 0, packet.length, 0);
+        }
+        for (byte[] packet : packets(frame(64, 2), 20)) {
+            small.onPacket(STICK, CHARACTERISTIC, packet, 0, packet.length, 0);
+        }
+        assertEquals(1, mFrames.size());
+        assertEquals(64, mFrames.get(0).length);
+        final FrameReassembler.Counters counters = new FrameReassembler.Counters();
+        small.getCounters(STICK, counters);
+        assertEquals(1, counters.droppedFrames);
+    }
+
+    @Test
+    public void pipeline_decodesReassembledFrame() {
+        final UUID uuid = UUID.fromString("0000fff3-0000-1000-8000-00805f9b34fb");
+        final CharacteristicRegistry registry = new CharacteristicRegistry();
+        registry.register(uuid, Int16FrameDecoder.LITTLE_ENDIAN);
+        final NotifyPipeline pipeline = new NotifyPipeline(registry, new FramePool(2));
+        pipeline.setFramed(uuid, true);
+        final int[] valueCount = new int[1];
+        pipeline.setFrameListener(new NotifyPipeline.FrameListener() {
+            @Override
+            public void onFrame(SensorFrame frame) {
+                valueCount[0] = frame.valueCount;
+                assertEquals(7, frame.values[99]);
+            }
+        });
+        final byte[] frame = new byte[200];
+        frame[198] = 7;
+        for (byte[] packet : packets(frame, 18)) {
+            pipeline.onNotification(STICK, uuid, packet, 0L);
+        }
+        assertEquals(100, valueCount[0]);
+        final FrameReassembler.Counters counters = new FrameReassembler.Counters();
+        pipeline.getFrameCounters(STICK, counters);
+        assertEquals(12, counters.packets);
+        assertEquals(1, counters.frames);
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 环形缓冲区与FrameBus的单元测试
+ */
+public class FrameRingTest {
+    private static SensorFrame frame(int id, long seq) {
+        SensorFrame frame = new SensorFrame();
+        frame.characteristicId = id;
+        frame.timestampNanos = seq;
+        return frame;
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFrames() throws Exception {
+        FrameRing ring = new FrameRing(4, FrameRing.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(frame(0, i)));
+        }
+        assertEquals(6, ring.getDropped());
+        SensorFrame out = new SensorFrame();
+        for (int i = 6; i < 10; i++) {
+            assertTrue(ring.poll(out));
+            assertEquals(i, out.timestampNanos);
+        }
+        assertFalse(ring.poll(out));
+    }
+
+    @Test
+    public void latestOnly_keepsOneFrame() throws Exception {
+        FrameRing ring = new FrameRing(64, FrameRing.OverflowPolicy.LATEST_ONLY);
+        assertEquals(1, ring.capacity());
+        ring.offer(frame(0, 1));
+        ring.offer(frame(0, 2));
+        SensorFrame out = new SensorFrame();
+        assertTrue(ring.poll(out));
+        assertEquals(2, out.timestampNanos);
+    }
+
+    @Test
+    public void block_dropsNewFrameAfterTimeout() throws Exception {
+        FrameRing ring = new FrameRing(2, FrameRing.OverflowPolicy.BLOCK, TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(ring.offer(frame(0, 1)));
+        assertTrue(ring.offer(frame(0, 2)));
+        assertFalse(ring.offer(frame(0, 3)));
+        assertEquals(1, ring.getDropped());
+    }
+
+    @Test
+    public void block_deliversEveryFrameInOrder() throws Exception {
+        final FrameRing ring = new FrameRing(8, FrameRing.OverflowPolicy.BLOCK, TimeUnit.SECONDS.toNanos(5));
+        final int count = 100000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SensorFrame frame = new SensorFrame();
+                for (int i = 0; i < count; i++) {
+                    frame.timestampNanos = i;
+                    ring.offer(frame);
+                }
+            }
+        });
+        producer.start();
+        SensorFrame out = new SensorFrame();
+        for (int i = 0; i < count; i++) {
+            assertTrue(ring.take(out, TimeUnit.SECONDS.toNanos(5)));
+            assertEquals(i, out.timestampNanos);
+        }
+        producer.join();
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void bus_routesByCharacteristic() throws Exception {
+        FrameBus bus = new FrameBus();
+        FrameSubscription first = bus.subscribe(0, 4, FrameRing.OverflowPolicy.DROP_OLDEST);
+        FrameSubscription all = bus.subscribe(FrameBus.ALL_CHARACTERISTICS, 4, FrameRing.OverflowPolicy.DROP_OLDEST);
+        bus.onFrame(frame(0, 1));
+        bus.onFrame(frame(1, 2));
+        assertEquals(1, first.getBacklog());
+        assertEquals(2, all.getBacklog());
+        first.close();
+        bus.onFrame(frame(0, 3));
+        assertEquals(1, first.getBacklog());
+        assertEquals(3, all.getBacklog());
+        all.close();
+        assertFalse(bus.hasSubscribers(0));
+    }
+}
@@ -0,0 +1,228 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * GATT会话trace记录、读取和重放的单元测试
+ */
+public class GattTraceTest {
+    private static final long STICK = 0xA4C138000001L;
+    private static final long OTHER_STICK = 0xA4C138000002L;
+    private static final UUID ACCELEROMETER = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID CONTROL = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+    private static final long START = 5000000000L;
+    private static final long INTERVAL = 20000000L;//50Hz
+
+    private static byte[] value(int i) {
+        final byte[] value = new byte[20];
+        for (int k = 0; k < value.length; k++) {
+            value[k] = (byte) (i + k);
+        }
+        return value;
+    }
+
+    /**
+     * 两个手杖各notify count次，中间有连接状态和一次写入
+     */
+    private static byte[] session(int count) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GattTraceWriter writer = new GattTraceWriter(out, 1700000000000L, START);
+        writer.onConnectionState(STICK, ConnectionStateMachine.State.DISCOVERING, START + 1000);
+        writer.onWrite(STICK, CONTROL, new byte[]{1, 2}, true, START + 2000);
+        for (int i = 0; i < count; i++) {
+            writer.onNotification(STICK, ACCELEROMETER, value(i), START + INTERVAL * (i + 1));
+            //另一个设备的回调在别的线程，时间戳可能比前一条早
+            writer.onNotification(OTHER_STICK, ACCELEROMETER, value(-i), START + INTERVAL * (i + 1) - 300);
+        }
+        writer.onRead(STICK, CONTROL, new byte[]{9}, START + INTERVAL * (count + 1));
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip_preservesEventsAndTimestamps() throws IOException {
+        final byte[] trace = session(100);
+        assertTrue(trace.length < 204 * 28 + 100);
+
+        final GattTraceReader reader = new GattTraceReader(new ByteArrayInputStream(trace));
+        assertEquals(1700000000000L, reader.getStartWallMillis());
+        final GattTraceReader.Event event = new GattTraceReader.Event();
+        assertTrue(reader.next(event));
+        assertEquals(GattTraceWriter.STATE, event.type);
+        assertEquals(ConnectionStateMachine.State.DISCOVERING, event.state);
+        assertEquals(START + 1000, event.timestampNanos);
+        assertTrue(reader.next(event));
+        assertEquals(GattTraceWriter.WRITE, event.type);
+        assertEquals(CONTROL, event.uuid);
+        assertTrue(event.withResponse);
+        assertArrayEquals(new byte[]{1, 2}, event.value);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(reader.next(event));
+            assertEquals(GattTraceWriter.NOTIFY, event.type);
+            assertEquals(STICK, event.deviceAddress);
+            assertEquals(ACCELEROMETER, event.uuid);
+            assertEquals(START + INTERVAL * (i + 1), event.timestampNanos);
+            assertArrayEquals(value(i), event.value);
+            assertTrue(reader.next(event));
+            assertEquals(OTHER_STICK, event.deviceAddress);
+            assertEquals(START + INTERVAL * (i + 1) - 300, event.timestampNanos);
+        }
+        assertTrue(reader.next(event));
+        assertEquals(GattTraceWriter.READ, event.type);
+        assertFalse(reader.next(event));
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void truncatedTrace_endsAtLastCompleteEvent() throws IOException {
+        final byte[] trace = session(10);
+        final GattTraceReader reader = new GattTraceReader(
+                new ByteArrayInputStream(Arrays.copyOf(trace, trace.length - 5)));
+        final GattTraceReader.Event event = new GattTraceReader.Event();
+        int events = 0;
+        while (reader.next(event)) {
+            events++;
+        }
+        assertEquals(2 + 20, events);//最后的读取不完整
+        assertTrue(reader.isTruncated());
+    }
+
+    @Test
+    public void sizeLimit_stopsRecording() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GattTraceWriter writer = new GattTraceWriter(out, 0, 0, 1000);
+        for (int i = 0; i < 100; i++) {
+            writer.onNotification(STICK, ACCELEROMETER, value(i), i);
+        }
+        writer.close();
+        assertTrue(writer.isTruncated());
+        assertTrue(out.size() <= 1000);
+        assertEquals(writer.getBytes(), out.size());
+    }
+
+    @Test
+    public void longSession_spansSeveralChunks() throws IOException {
+        final byte[] trace = session(3000);//约168KB
+        final GattTraceReader reader = new GattTraceReader(new ByteArrayInputStream(trace));
+        final GattTraceReader.Event event = new GattTraceReader.Event();
+        int events = 0;
+        while (reader.next(event)) {
+            events++;
+        }
+        assertEquals(2 + 6000 + 1, events);
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void stalledWriter_dropsEventsWithoutBlocking() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final GattTraceWriter writer = new GattTraceWriter(new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                try {
+                    release.await();//模拟卡住的存储
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                out.write(data, offset, length);
+            }
+        }, 0, 0);
+        for (int i = 0; i < 50000; i++) {//约1.4MB，超过写线程允许落后的量
+            writer.onNotification(STICK, ACCELEROMETER, value(i), i);
+        }
+        assertTrue(writer.getDropped() > 0);
+        assertEquals(50000, writer.getEvents() + writer.getDropped());
+        release.countDown();
+        writer.close();
+        assertNull(writer.getError());
+        assertEquals(writer.getBytes(), out.size());
+
+        final GattTraceReader reader = new GattTraceReader(new ByteArrayInputStream(out.toByteArray()));
+        final GattTraceReader.Event event = new GattTraceReader.Event();
+        long events = 0;
+        while (reader.next(event)) {
+            assertEquals(ACCELEROMETER, event.uuid);
+            events++;
+        }
+        assertEquals(writer.getEvents(), events);
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void replay_pacesEventsAtRequestedSpeed() throws IOException {
+        final byte[] trace = session(25);//约0.5秒
+        final List<Long> times = new ArrayList<Long>();
+        final GattTraceReplayer.Sink sink = new GattTraceReplayer.Sink() {
+            @Override
+            public void onConnectionState(long deviceAddress, ConnectionStateMachine.State state,
+                                          long timestampNanos) {
+            }
+
+            @Override
+            public void onNotification(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+                if (deviceAddress == STICK) {
+                    times.add(timestampNanos);
+                }
+            }
+
+            @Override
+            public void onRead(long deviceAddress, UUID uuid, byte[] value, long timestampNanos) {
+            }
+
+            @Override
+            public void onWrite(long deviceAddress, UUID uuid, byte[] value, boolean withResponse,
+                                long timestampNanos) {
+            }
+        };
+        final GattTraceReplayer.Stats paced = GattTraceReplayer.replay(
+                new GattTraceReader(new ByteArrayInputStream(trace)), sink, 5);
+        assertEquals(25, times.size());
+        final long span = times.get(24) - times.get(0);
+        assertEquals(24 * INTERVAL / 5, span, INTERVAL / 5);
+        assertTrue(paced.elapsedNanos >= paced.traceNanos / 5);
+        assertEquals(53, paced.events);
+        assertEquals(50, paced.notifications);
+
+        times.clear();
+        final GattTraceReplayer.Stats fast = GattTraceReplayer.replay(
+                new GattTraceReader(new ByteArrayInputStream(trace)), sink, 0);
+        assertEquals(25, times.size());
+        assertTrue(fast.elapsedNanos < paced.elapsedNanos);
+        assertEquals(paced.traceNanos, fast.traceNanos);
+    }
+
+    @Test
+    public void replay_drivesNotifyPipeline() throws IOException {
+        final NotifyPipeline pipeline = new NotifyPipeline(new CharacteristicRegistry(), new FramePool(4));
+        pipeline.getRegistry().register(ACCELEROMETER, Int16FrameDecoder.LITTLE_ENDIAN);
+        final int[] frames = new int[2];
+        pipeline.setFrameListener(new NotifyPipeline.FrameListener() {
+            @Override
+            public void onFrame(SensorFrame frame) {
+                frames[frame.valueCount == 10 ? 0 : 1]++;
+            }
+        });
+        GattTraceReplayer.replay(new GattTraceReader(new ByteArrayInputStream(session(200))),
+                GattTraceReplayer.forPipeline(pipeline), 0);
+        assertEquals(400, frames[0]);//加速度notify解码为10个int16
+        assertEquals(1, frames[1]);//控制特性的读取结果按原始数据解码
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 延迟直方图和数据通路统计的单元测试
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void buckets_coverValuesContiguously() throws Exception {
+        long expectedLower = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            assertEquals(expectedLower, LatencyHistogram.lowerBound(i));
+            assertTrue(LatencyHistogram.upperBound(i) >= LatencyHistogram.lowerBound(i));
+            assertEquals(i, LatencyHistogram.bucketOf(LatencyHistogram.lowerBound(i)));
+            assertEquals(i, LatencyHistogram.bucketOf(LatencyHistogram.upperBound(i)));
+            expectedLower = LatencyHistogram.upperBound(i) + 1;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles_withinRelativeError() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long v = 1; v <= 10000; v++) {
+            histogram.record(v * 1000);//1us..10ms
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000500, histogram.getMean());
+        assertWithin(5000000, histogram.getPercentile(0.5));
+        assertWithin(9000000, histogram.getPercentile(0.9));
+        assertWithin(9900000, histogram.getPercentile(0.99));
+        assertEquals(10000000, histogram.getPercentile(1.0));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.5));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " got " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+
+    @Test
+    public void record_concurrentThreadsLoseNothing() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram("concurrent");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(random.nextInt(1000000));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertTrue(histogram.getPercentile(1.0) < 1000000);
+    }
+
+    @Test
+    public void frameBus_recordsDeliveryLatency() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        FrameBus bus = new FrameBus();
+        bus.setMetrics(metrics);
+        FrameSubscription subscription = bus.subscribe(0, 4, FrameRing.OverflowPolicy.DROP_OLDEST);
+        SensorFrame frame = new SensorFrame();
+        frame.characteristicId = 0;
+        frame.timestampNanos = System.nanoTime() - 2000000;//2ms前收到
+        bus.onFrame(frame);
+        SensorFrame out = new SensorFrame();
+        assertTrue(subscription.poll(out));
+        assertFalse(subscription.poll(out));
+        assertEquals(1, metrics.get(PipelineMetrics.Counter.FRAMES_DELIVERED));
+        LatencyHistogram delivery = metrics.get(PipelineMetrics.Stage.NOTIFY_DELIVERY);
+        assertEquals(1, delivery.getCount());
+        assertTrue(delivery.getMax() >= 2000000);
+        assertTrue(metrics.toString().contains("NOTIFY_DELIVERY: n=1"));
+        metrics.reset();
+        assertEquals(0, metrics.get(PipelineMetrics.Counter.FRAMES_DELIVERED));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 吞吐测试数据格式和统计的单元测试
+ */
+public class LinkTestPatternTest {
+    private static final int LENGTH = 244;
+
+    @Test
+    public void pattern_countsLossReorderAndCorruption() throws Exception {
+        LinkTestPattern pattern = new LinkTestPattern();
+        byte[] packet = new byte[LENGTH];
+        pattern.reset(0);
+        long arrival = 0;
+        for (int seq = 0; seq < 100; seq++) {
+            arrival += 7500000;//每个连接间隔一个包
+            if (seq == 10 || seq == 11) {
+                continue;//丢失
+            }
+            LinkTestPattern.fill(packet, LENGTH, seq, seq * 7500);
+            if (seq == 50) {
+                packet[100] ^= 1;
+            }
+            pattern.onPacket(packet, LENGTH, arrival);
+        }
+        LinkTestPattern.Result result = pattern.result("test");
+        assertEquals(98, result.packets);
+        assertEquals(2, result.lost);
+        assertEquals(1, result.corrupt);
+        assertEquals(0, result.outOfOrder);
+        assertEquals(0.02, result.getLossRate(), 1e-9);
+        assertEquals(98 * LENGTH * 1e9 / (100 * 7500000L), result.bytesPerSecond, 1);
+        assertEquals(0, result.latencyMaxMicros);//发送和接收间隔相同，时延不变
+
+        pattern.reset(0);
+        LinkTestPattern.fill(packet, LENGTH, 1, 0);
+        pattern.onPacket(packet, LENGTH, 1000000);
+        LinkTestPattern.fill(packet, LENGTH, 3, 2000);
+        pattern.onPacket(packet, LENGTH, 3000000);
+        LinkTestPattern.fill(packet, LENGTH, 2, 1000);
+        pattern.onPacket(packet, LENGTH, 9000000);//比其他包多7ms
+        result = pattern.result("reorder");
+        assertEquals(0, result.lost);
+        assertEquals(1, result.outOfOrder);
+        assertEquals(7000, result.latencyMaxMicros);
+    }
+
+    @Test
+    public void pattern_unwrapsSequenceAndSenderClock() throws Exception {
+        LinkTestPattern pattern = new LinkTestPattern();
+        byte[] packet = new byte[LinkTestPattern.HEADER_SIZE];
+        pattern.reset(0);
+        long seq = 0xFFFFFFFEL;
+        long micros = 0xFFFFFF00L;
+        for (int i = 0; i < 4; i++) {
+            LinkTestPattern.fill(packet, packet.length, seq + i, micros + i * 100);
+            pattern.onPacket(packet, packet.length, (i + 1) * 100000L);
+        }
+        LinkTestPattern.Result result = pattern.result("wrap");
+        assertEquals(4, result.packets);
+        assertEquals(0, result.lost);
+        assertEquals(0, result.latencyMaxMicros);
+    }
+}
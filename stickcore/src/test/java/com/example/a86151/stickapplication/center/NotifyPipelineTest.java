@@ -0,0 +1,60 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 特性值解码通路的单元测试
+ */
+public class NotifyPipelineTest {
+    private static final UUID ACCEL = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID OTHER = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void registry_assignsStableIds() throws Exception {
+        CharacteristicRegistry registry = new CharacteristicRegistry();
+        int accel = registry.register(ACCEL, Int16FrameDecoder.LITTLE_ENDIAN);
+        int other = registry.resolve(OTHER);
+        assertNotEquals(accel, other);
+        assertEquals(accel, registry.idOf(UUID.fromString(ACCEL.toString())));
+        assertEquals(other, registry.resolve(OTHER));
+        assertSame(RawFrameDecoder.INSTANCE, registry.decoderOf(other));
+        assertEquals(OTHER, registry.uuidOf(other));
+        for (int i = 0; i < 100; i++) {//扩容后原有ID不变
+            registry.resolve(new UUID(i, i));
+        }
+        assertEquals(accel, registry.idOf(ACCEL));
+        assertEquals(102, registry.size());
+    }
+
+    @Test
+    public void pipeline_decodesInt16LittleEndian() throws Exception {
+        CharacteristicRegistry registry = new CharacteristicRegistry();
+        registry.register(ACCEL, Int16FrameDecoder.LITTLE_ENDIAN);
+        NotifyPipeline pipeline = new NotifyPipeline(registry, new FramePool(2));
+        final int[] decoded = new int[3];
+        pipeline.setFrameListener(new NotifyPipeline.FrameListener() {
+            @Override
+            public void onFrame(SensorFrame frame) {
+                assertEquals(3, frame.valueCount);
+                assertEquals(123L, frame.timestampNanos);
+                System.arraycopy(frame.values, 0, decoded, 0, 3);
+            }
+        });
+        int id = pipeline.onNotification(0L, ACCEL, new byte[]{0x01, 0x00, (byte) 0xFF, (byte) 0xFF, 0x00, (byte) 0x80}, 123L);
+        assertEquals(registry.idOf(ACCEL), id);
+        assertArrayEquals(new int[]{1, -1, -32768}, decoded);
+    }
+
+    @Test
+    public void pipeline_rejectsOddLength() throws Exception {
+        CharacteristicRegistry registry = new CharacteristicRegistry();
+        registry.register(ACCEL, Int16FrameDecoder.LITTLE_ENDIAN);
+        NotifyPipeline pipeline = new NotifyPipeline(registry, new FramePool(2));
+        assertEquals(CharacteristicRegistry.UNKNOWN_ID, pipeline.onNotification(0L, ACCEL, new byte[]{1, 2, 3}, 0L));
+        assertEquals(1, pipeline.getDecodeErrors());
+    }
+}
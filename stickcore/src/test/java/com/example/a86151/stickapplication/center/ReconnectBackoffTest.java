@@ -0,0 +1,98 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 重连退避、服务表指纹和连接耗时记录的单元测试
+ */
+public class ReconnectBackoffTest {
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID NOTIFY = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID WRITE = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void backoff_staysWithinBoundsAndGivesUp() throws Exception {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, 8, new Random(42));
+        long last = 1000;
+        for (int i = 0; i < 8; i++) {
+            assertFalse(backoff.isExhausted());
+            final long delay = backoff.nextDelayMs();
+            assertTrue(delay >= 1000);
+            assertTrue(delay <= Math.min(30000, last * 3));
+            last = delay;
+        }
+        assertTrue(backoff.isExhausted());
+        assertEquals(8, backoff.getAttempts());
+        backoff.reset();
+        assertFalse(backoff.isExhausted());
+        assertTrue(backoff.nextDelayMs() <= 3000);
+    }
+
+    @Test
+    public void backoff_jitterSpreadsDevices() throws Exception {
+        Random random = new Random(7);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 50; i++) {//50个设备同时断线后的第三次等待时间
+            ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, 8, random);
+            backoff.nextDelayMs();
+            backoff.nextDelayMs();
+            final long delay = backoff.nextDelayMs();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 2000);
+    }
+
+    @Test
+    public void layout_encodeDecodeAndMatch() throws Exception {
+        GattLayout layout = new GattLayout()
+                .add(SERVICE, NOTIFY, 0, 0x10, true)
+                .add(SERVICE, WRITE, 0, 0x08, false);
+        assertEquals(2, layout.getCharacteristicCount());
+        assertEquals(1, layout.getNotifyCount());
+        GattLayout decoded = GattLayout.decode(layout.encode());
+        assertNotNull(decoded);
+        assertTrue(layout.matches(decoded));
+        assertEquals(layout.getHash(), decoded.getHash());
+
+        GattLayout reordered = new GattLayout()
+                .add(SERVICE, WRITE, 0, 0x08, false)
+                .add(SERVICE, NOTIFY, 0, 0x10, true);
+        assertFalse(layout.matches(reordered));
+        GattLayout otherInstance = new GattLayout()
+                .add(SERVICE, NOTIFY, 1, 0x10, true)
+                .add(SERVICE, WRITE, 0, 0x08, false);
+        assertFalse(layout.matches(otherInstance));
+        assertFalse(layout.matches(null));
+        assertTrue(new GattLayout().isEmpty());
+
+        assertNull(GattLayout.decode(null));
+        assertNull(GattLayout.decode("zz:1:1"));
+        assertNull(GattLayout.decode("12:1"));
+    }
+
+    @Test
+    public void attemptLog_aggregatesPerPath() throws Exception {
+        ConnectAttemptLog log = new ConnectAttemptLog();
+        log.record(1, ConnectAttemptLog.PATH_FULL, 500000000L, 1500000000L, 1600000000L);
+        log.record(1, ConnectAttemptLog.PATH_FAST, 300000000L, 400000000L, 400000000L);
+        log.record(1, ConnectAttemptLog.PATH_FAST, 300000000L, 500000000L, 600000000L);
+        assertEquals(3, log.getTotal());
+        assertEquals(1, log.getCount(ConnectAttemptLog.PATH_FULL));
+        assertEquals(2, log.getCount(ConnectAttemptLog.PATH_FAST));
+        assertEquals(0, log.getCount(ConnectAttemptLog.PATH_VERIFIED));
+        assertEquals(500000000L, log.getMeanFirstNotifyNanos(ConnectAttemptLog.PATH_FAST));
+        assertEquals(600000000L, log.getMaxFirstNotifyNanos(ConnectAttemptLog.PATH_FAST));
+        for (int i = 0; i < ConnectAttemptLog.CAPACITY * 2; i++) {
+            log.record(2, ConnectAttemptLog.PATH_VERIFIED, 1, 2, 3);
+        }
+        assertEquals(ConnectAttemptLog.CAPACITY * 2, log.getCount(ConnectAttemptLog.PATH_VERIFIED));
+        assertTrue(log.toString().startsWith("full: n=1"));
+    }
+}
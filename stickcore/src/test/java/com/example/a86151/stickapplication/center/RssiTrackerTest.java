@@ -0,0 +1,73 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RSSI平滑、距离估计和排序滞回的单元测试
+ */
+public class RssiTrackerTest {
+    private static final long INTERVAL = 100000000L;
+
+    @Test
+    public void tracker_smoothsNoiseAndKeepsHistory() throws Exception {
+        RssiTracker tracker = new RssiTracker();
+        Random random = new Random(3);
+        int sortChanges = 0;
+        double rawError = 0;
+        double smoothError = 0;
+        for (int i = 0; i < 200; i++) {
+            final int rssi = -70 + (int) Math.round(random.nextGaussian() * 4);
+            if (tracker.add(rssi, i * INTERVAL, AdvertisingData.NO_TX_POWER) && i > 20) {
+                sortChanges++;
+            }
+            if (i > 20) {
+                rawError += Math.abs(rssi + 70);
+                smoothError += Math.abs(tracker.getSmoothed() + 70);
+            }
+        }
+        assertTrue(smoothError < rawError / 2);
+        assertTrue(sortChanges <= 2);//噪声不会让列表反复重排
+        assertEquals(RssiTracker.CAPACITY, tracker.size());
+        assertEquals(199 * INTERVAL, tracker.nanosAt(0));
+        assertEquals(184 * INTERVAL, tracker.nanosAt(RssiTracker.CAPACITY - 1));
+    }
+
+    @Test
+    public void tracker_followsRealChange() throws Exception {
+        RssiTracker tracker = new RssiTracker();
+        for (int i = 0; i < 50; i++) {
+            tracker.add(-80, i * INTERVAL, AdvertisingData.NO_TX_POWER);
+        }
+        assertEquals(-80, tracker.getSortKey());
+        boolean changed = false;
+        for (int i = 50; i < 100; i++) {
+            changed |= tracker.add(-60, i * INTERVAL, AdvertisingData.NO_TX_POWER);
+        }
+        assertTrue(changed);
+        assertTrue(tracker.getSortKey() >= -64);
+        assertFalse(tracker.add(RssiTracker.INVALID_RSSI, 100 * INTERVAL, AdvertisingData.NO_TX_POWER));
+    }
+
+    @Test
+    public void tracker_estimatesDistanceFromTxPower() throws Exception {
+        RssiTracker tracker = new RssiTracker();
+        assertEquals(-1, tracker.getDistanceMeters(), 0);
+        assertEquals(RssiTracker.ZONE_UNKNOWN, tracker.getZone());
+        //发射功率-4dBm，1米处约-45dBm
+        tracker.add(-45, 0, -4);
+        assertEquals(-45, tracker.getRssiAt1m());
+        assertEquals(1.0, tracker.getDistanceMeters(), 0.01);
+        assertEquals(RssiTracker.ZONE_NEAR, tracker.getZone());
+        //没有发射功率时用经验值，-59dBm约1米，每远一个数量级多25dB
+        assertEquals(10.0, RssiTracker.distance(-84, RssiTracker.DEFAULT_RSSI_AT_1M), 0.01);
+        for (int i = 1; i < 100; i++) {
+            tracker.add(-85, i * INTERVAL, AdvertisingData.NO_TX_POWER);
+        }
+        assertEquals(-4, tracker.getTxPower());//发射功率保留
+        assertEquals(RssiTracker.ZONE_FAR, tracker.getZone());
+    }
+}
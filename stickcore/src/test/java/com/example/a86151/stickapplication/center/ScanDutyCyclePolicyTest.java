@@ -0,0 +1,76 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 扫描占空比策略和扫描过滤条件的单元测试
+ */
+public class ScanDutyCyclePolicyTest {
+    @Test
+    public void quietWindows_backOffWithinLatencyTarget() throws Exception {
+        ScanDutyCyclePolicy policy = new ScanDutyCyclePolicy(10000, 1000, 4000, 2);
+        assertTrue(policy.isContinuous());
+        long lastInterval = policy.getIntervalMs();
+        for (int i = 0; i < 20; i++) {
+            policy.onWindowEnd(0);
+            assertTrue(policy.getIntervalMs() <= 10000);
+            assertTrue(policy.getWindowMs() >= 1000);
+            assertTrue(policy.getIntervalMs() >= lastInterval);
+            if (!policy.isContinuous()) {
+                assertTrue(policy.getIntervalMs() >= ScanDutyCyclePolicy.MIN_RESTART_INTERVAL_MS);
+            }
+            lastInterval = policy.getIntervalMs();
+        }
+        assertEquals(1000, policy.getWindowMs());
+        assertEquals(10000, policy.getIntervalMs());
+        assertEquals(0.1f, policy.getDutyCycle(), 1e-6);
+
+        assertTrue(policy.onWindowEnd(3));//发现新设备，回到连续扫描
+        assertTrue(policy.isContinuous());
+        assertEquals(0, policy.getLevel());
+    }
+
+    @Test
+    public void onlySustainedQuietStepsDown() throws Exception {
+        ScanDutyCyclePolicy policy = new ScanDutyCyclePolicy(10000, 1000, 4000, 2);
+        assertFalse(policy.onWindowEnd(0));
+        assertFalse(policy.onWindowEnd(1));
+        assertFalse(policy.onWindowEnd(0));
+        assertTrue(policy.isContinuous());
+        assertTrue(policy.onWindowEnd(0));
+        assertEquals(1, policy.getLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowLongerThanLatencyTarget_rejected() throws Exception {
+        new ScanDutyCyclePolicy(2000, 1000, 4000, 2);
+    }
+
+    @Test
+    public void filterSpec_matchesAdvertisingData() throws Exception {
+        byte[] record = {
+                0x02, 0x01, 0x06,//flags
+                0x03, 0x03, 0x0D, 0x18,//16位服务UUID 0x180D
+                0x06, 0x09, 'i', 'M', 'a', 's', 'k',//完整设备名
+                0x05, (byte) 0xFF, 0x59, 0x00, 0x01, 0x02,//厂商0x0059
+                0x00
+        };
+        assertTrue(new ScanFilterSpec().matches(null, null));
+        assertTrue(new ScanFilterSpec().setDeviceName("iMask").matches(null, record));
+        assertTrue(new ScanFilterSpec().setDeviceName("iMask").matches("iMask", null));
+        assertFalse(new ScanFilterSpec().setDeviceName("iStick").matches(null, record));
+        assertTrue(new ScanFilterSpec()
+                .setServiceUuid(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb")).matches(null, record));
+        assertFalse(new ScanFilterSpec()
+                .setServiceUuid(UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb")).matches(null, record));
+        assertTrue(new ScanFilterSpec().setManufacturerData(0x59, new byte[]{0x01, 0x00},
+                new byte[]{(byte) 0xFF, 0x00}).matches(null, record));
+        assertFalse(new ScanFilterSpec().setManufacturerData(0x59, new byte[]{0x02}, null).matches(null, record));
+        assertFalse(new ScanFilterSpec().setDeviceName("iMask").setManufacturerData(0x4C, null, null)
+                .matches("iMask", record));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * 扫描结果合并缓冲区的单元测试
+ */
+public class ScanResultCoalescerTest {
+    @Test
+    public void offer_mergesResultsPerMac() throws Exception {
+        ScanResultCoalescer coalescer = new ScanResultCoalescer(16);
+        assertTrue(coalescer.offer(1, "stick", -80, null));
+        assertFalse(coalescer.offer(1, null, -60, null));//同一MAC合并
+        assertTrue(coalescer.offer(2, "other", -70, null));
+        final Map<Long, Integer> delivered = new HashMap<Long, Integer>();
+        final Map<Long, String> names = new HashMap<Long, String>();
+        ScanResultCoalescer.Sink sink = new ScanResultCoalescer.Sink() {
+            @Override
+            public void onScanResult(long mac, String name, int rssi, byte[] scanRecord) {
+                delivered.put(mac, rssi);
+                names.put(mac, name);
+            }
+        };
+        assertEquals(2, coalescer.drain(sink));
+        assertEquals(Integer.valueOf(-60), delivered.get(1L));
+        assertEquals("stick", names.get(1L));
+        assertEquals(0, coalescer.drain(sink));
+        assertEquals(3, coalescer.getReceived());
+        assertEquals(1, coalescer.getMerged());
+        assertEquals(2, coalescer.getDelivered());
+    }
+
+    @Test
+    public void concurrentProducers_loseNoDevice() throws Exception {
+        final ScanResultCoalescer coalescer = new ScanResultCoalescer(512);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 50000; i++) {
+                        coalescer.offer(i % 400, "d", -i % 90, null);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        final boolean[] seen = new boolean[400];
+        ScanResultCoalescer.Sink sink = new ScanResultCoalescer.Sink() {
+            @Override
+            public void onScanResult(long mac, String name, int rssi, byte[] scanRecord) {
+                seen[(int) mac] = true;
+            }
+        };
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        coalescer.drain(sink);
+        for (boolean b : seen) {
+            assertTrue(b);
+        }
+        assertEquals(200000, coalescer.getReceived());
+        assertEquals(0, coalescer.getOverflow());
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * 跨进程共享帧环的单元测试：读写、落后一圈、文件映射、并发读写一致性
+ */
+public class SharedFrameRingTest {
+    private static SensorFrame frame(long sequence, int length) {
+        SensorFrame frame = new SensorFrame();
+        frame.deviceAddress = 0x112233445566L;
+        frame.characteristicId = (int) (sequence % 3);
+        frame.timestampNanos = sequence * 1000;
+        frame.payloadLength = length;
+        for (int i = 0; i < length; i++) {
+            frame.payload[i] = (byte) (sequence + i);
+        }
+        return frame;
+    }
+
+    private static void assertFrame(long sequence, SensorFrame out) {
+        assertEquals(0x112233445566L, out.deviceAddress);
+        assertEquals((int) (sequence % 3), out.characteristicId);
+        assertEquals(sequence * 1000, out.timestampNanos);
+        for (int i = 0; i < out.payloadLength; i++) {
+            assertEquals((byte) (sequence + i), out.payload[i]);
+        }
+    }
+
+    @Test
+    public void poll_readsFramesInOrder() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedFrameRing.sizeFor(8, 64));
+        SharedFrameRing writer = SharedFrameRing.create(buffer, 8, 64);
+        SharedFrameRing reader = SharedFrameRing.attach(buffer.duplicate());
+        SensorFrame out = new SensorFrame();
+        assertFalse(reader.poll(out));
+        for (long i = 0; i < 5; i++) {
+            writer.onFrame(frame(i, 20));
+        }
+        assertEquals(5, writer.getPublished());
+        for (long i = 0; i < 5; i++) {
+            assertTrue(reader.poll(out));
+            assertEquals(20, out.payloadLength);
+            assertEquals(0, out.valueCount);
+            assertFrame(i, out);
+        }
+        assertFalse(reader.poll(out));
+        assertEquals(0, reader.getLost());
+    }
+
+    @Test
+    public void poll_slowReaderSkipsToOldestFrame() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedFrameRing.sizeFor(8, 64));
+        SharedFrameRing writer = SharedFrameRing.create(buffer, 8, 64);
+        SharedFrameRing reader = SharedFrameRing.attach(buffer.duplicate());
+        for (long i = 0; i < 20; i++) {
+            writer.onFrame(frame(i, 10));
+        }
+        SensorFrame out = new SensorFrame();
+        assertTrue(reader.poll(out));
+        assertFrame(12, out);
+        assertEquals(12, reader.getLost());
+        int read = 1;
+        while (reader.poll(out)) {
+            read++;
+        }
+        assertEquals(8, read);
+    }
+
+    @Test
+    public void onFrame_truncatesLongPayload() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedFrameRing.sizeFor(4, 64));
+        SharedFrameRing writer = SharedFrameRing.create(buffer, 4, 64);
+        SharedFrameRing reader = SharedFrameRing.attach(buffer.duplicate());
+        writer.onFrame(frame(1, 100));
+        SensorFrame out = new SensorFrame();
+        assertTrue(reader.poll(out));
+        assertEquals(writer.getMaxPayload(), out.payloadLength);
+        assertEquals(100 - writer.getMaxPayload(), writer.getTruncatedBytes());
+    }
+
+    @Test
+    public void attach_mapsFileReadOnly() throws Exception {
+        File file = File.createTempFile("ring", ".bin");
+        try {
+            SharedFrameRing writer = SharedFrameRing.create(file, 16, SharedFrameRing.DEFAULT_SLOT_SIZE);
+            writer.onFrame(frame(0, 20));
+            FileInputStream in = new FileInputStream(file);
+            SharedFrameRing reader;
+            try {
+                reader = SharedFrameRing.attach(in.getFD());
+            } finally {
+                in.close();
+            }
+            assertEquals(16, reader.getSlotCount());
+            assertEquals(1, reader.getNextSequence());//从连接时最新的帧之后开始
+            writer.onFrame(frame(1, 244));
+            SensorFrame out = new SensorFrame();
+            assertTrue(reader.poll(out));
+            assertEquals(244, out.payloadLength);
+            assertFrame(1, out);
+            //写者在同一文件上重建后，读者从头读
+            writer = SharedFrameRing.create(file, 16, SharedFrameRing.DEFAULT_SLOT_SIZE);
+            writer.onFrame(frame(0, 8));
+            assertTrue(reader.poll(out));
+            assertFrame(0, out);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void poll_concurrentWriterNeverYieldsTornFrames() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedFrameRing.sizeFor(16, 64));
+        final SharedFrameRing writer = SharedFrameRing.create(buffer, 16, 64);
+        SharedFrameRing reader = SharedFrameRing.attach(buffer.duplicate());
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SensorFrame frame = new SensorFrame();
+                frame.deviceAddress = 0x112233445566L;
+                frame.payloadLength = 32;
+                for (long i = 0; i < 200000; i++) {
+                    frame.characteristicId = (int) (i % 3);
+                    frame.timestampNanos = i * 1000;
+                    for (int j = 0; j < 32; j++) {
+                        frame.payload[j] = (byte) (i + j);
+                    }
+                    writer.onFrame(frame);
+                }
+                done.set(true);
+            }
+        });
+        producer.start();
+        SensorFrame out = new SensorFrame();
+        long last = -1;
+        long read = 0;
+        while (true) {
+            boolean finished = done.get();
+            if (reader.poll(out)) {
+                long sequence = out.timestampNanos / 1000;
+                assertTrue(sequence > last);
+                assertFrame(sequence, out);
+                last = sequence;
+                read++;
+            } else if (finished) {
+                break;
+            }
+        }
+        producer.join();
+        assertEquals(200000, read + reader.getLost());
+    }
+}
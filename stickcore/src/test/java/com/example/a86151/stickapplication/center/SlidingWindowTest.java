@@ -0,0 +1,135 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 滑动窗口统计、峰值检测和运动分析的单元测试
+ */
+public class SlidingWindowTest {
+    @Test
+    public void window_matchesBruteForce() throws Exception {
+        final int capacity = 37;
+        SlidingWindow window = new SlidingWindow(capacity);
+        int[] history = new int[5000];
+        Random random = new Random(1);
+        for (int n = 0; n < history.length; n++) {
+            history[n] = random.nextInt(65536) - 32768;
+            window.add(history[n]);
+            final int from = Math.max(0, n - capacity + 1);
+            long sum = 0;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = from; i <= n; i++) {
+                sum += history[i];
+                min = Math.min(min, history[i]);
+                max = Math.max(max, history[i]);
+            }
+            final int size = n - from + 1;
+            final double mean = (double) sum / size;
+            double variance = 0;
+            for (int i = from; i <= n; i++) {
+                variance += (history[i] - mean) * (history[i] - mean);
+            }
+            variance /= size;
+            assertEquals(size, window.size());
+            assertEquals(sum, window.getSum());
+            assertEquals(min, window.getMin());
+            assertEquals(max, window.getMax());
+            assertEquals(variance, window.getVariance(), variance * 1e-9 + 1e-6);
+            assertEquals(history[n], window.get(0));
+        }
+    }
+
+    @Test
+    public void window_monotonicInput() throws Exception {
+        SlidingWindow window = new SlidingWindow(4);
+        for (int i = 0; i < 10; i++) {
+            window.add(i);
+        }
+        assertEquals(6, window.getMin());
+        assertEquals(9, window.getMax());
+        for (int i = 10; i > 0; i--) {
+            window.add(i);
+        }
+        assertEquals(1, window.getMin());
+        assertEquals(4, window.getMax());
+        window.clear();
+        assertEquals(0, window.size());
+        window.add(-5);
+        assertEquals(-5, window.getMin());
+        assertEquals(-5, window.getMax());
+    }
+
+    @Test
+    public void peakDetector_appliesHysteresisAndRefractory() throws Exception {
+        PeakDetector detector = new PeakDetector(100, 50, 300);
+        int[] signal = {0, 120, 90, 110, 40, 0, 130, 30, 0, 200, 20};
+        long[] times = {0, 10, 20, 30, 40, 50, 100, 110, 500, 510, 520};
+        int peaks = 0;
+        for (int i = 0; i < signal.length; i++) {
+            if (detector.add(signal[i], times[i])) {
+                peaks++;
+            }
+        }
+        assertEquals(2, peaks);//第二个峰距第一个只有90，被忽略
+        assertEquals(200, detector.getLastPeakValue());
+        assertEquals(510, detector.getLastPeakNanos());
+    }
+
+    @Test
+    public void motionAnalyzer_detectsStepsFallAndTilt() throws Exception {
+        final int g = MotionAnalyzer.DEFAULT_COUNTS_PER_G;
+        final long[] steps = new long[1];
+        final double[] fall = new double[1];
+        final MotionAnalyzer.Summary[] last = new MotionAnalyzer.Summary[1];
+        final double[] tilt = new double[1];
+        MotionAnalyzer analyzer = new MotionAnalyzer(1, 50, 2000, g, new MotionAnalyzer.Listener() {
+            @Override
+            public void onStep(long deviceAddress, long timestampNanos, long stepCount) {
+                steps[0] = stepCount;
+            }
+
+            @Override
+            public void onFall(long deviceAddress, long timestampNanos, double impactG) {
+                fall[0] = impactG;
+            }
+
+            @Override
+            public void onSummary(long deviceAddress, MotionAnalyzer.Summary summary) {
+                last[0] = summary;
+                tilt[0] = summary.tiltDegrees;
+            }
+        });
+        long t = 0;
+        final long dt = 20000000L;
+        //静止竖直2秒
+        for (int i = 0; i < 100; i++, t += dt) {
+            analyzer.addSample(0, 0, g, t);
+        }
+        assertEquals(0, tilt[0], 0.5);
+        //行走：每秒两步，每步一个1.5g的冲击
+        for (int i = 0; i < 250; i++, t += dt) {
+            analyzer.addSample(0, 0, i % 25 == 0 ? g * 3 / 2 : g, t);
+        }
+        assertEquals(10, steps[0]);
+        assertEquals(120, last[0].cadence, 1);
+        //倾斜45度
+        for (int i = 0; i < 150; i++, t += dt) {
+            analyzer.addSample(g * 7071 / 10000, 0, g * 7071 / 10000, t);
+        }
+        assertEquals(45, tilt[0], 0.5);
+        assertEquals(0, fall[0], 0);
+        //失重100ms后3g冲击
+        for (int i = 0; i < 5; i++, t += dt) {
+            analyzer.addSample(0, 0, g / 10, t);
+        }
+        analyzer.addSample(0, 0, g, t);
+        t += dt;
+        analyzer.addSample(0, g * 3, 0, t);
+        assertEquals(3.0, fall[0], 0.01);
+    }
+}
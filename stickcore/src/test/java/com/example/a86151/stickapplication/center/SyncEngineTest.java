@@ -0,0 +1,294 @@
+package com.example.a86151.stickapplication.center;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * 后台上传的单元测试，服务端用本机的com.sun.net.httpserver代替采集服务器
+ */
+public class SyncEngineTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final long BASE = 1500000000000000L;
+    private static final long STICK = 0xA4C138000001L;
+    private static final UUID IMU = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final long WIRE_BUDGET_PER_HOUR = 1536 * 1024;//50Hz IMU加电量包，每小时的线上字节数上限
+
+    private HttpServer mServer;
+    private final FakeCollector mCollector = new FakeCollector();
+    private URL mEndpoint;
+    private CharacteristicRegistry mRegistry;
+    private int mImuId;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/batches", mCollector);
+        mServer.start();
+        mEndpoint = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/batches");
+        mRegistry = new CharacteristicRegistry();
+        mImuId = mRegistry.resolve(IMU);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * 模拟采集服务器：按Idempotency-Key去重入库，统计线上字节数，可以让前几个请求失败
+     */
+    private static final class FakeCollector implements HttpHandler {
+        final List<long[]> records = new ArrayList<long[]>();//{时间, 设备, 特性, 负载校验}
+        final Set<String> batchIds = new HashSet<String>();
+        final List<String> requestKeys = new ArrayList<String>();
+        final Map<Integer, UUID> uuids = new HashMap<Integer, UUID>();
+        long wireBytes;
+        int failNext;
+        int failStatus = 500;
+
+        @Override
+        public synchronized void handle(HttpExchange exchange) throws IOException {
+            final byte[] body = readAll(exchange.getRequestBody());
+            final Headers headers = exchange.getRequestHeaders();
+            wireBytes += exchange.getRequestMethod().length() + exchange.getRequestURI().toString().length() + 11;
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (String value : header.getValue()) {
+                    wireBytes += header.getKey().length() + 2 + value.length() + 2;
+                }
+            }
+            wireBytes += 2 + body.length;
+            final String key = headers.getFirst(HttpSyncTransport.HEADER_IDEMPOTENCY_KEY);
+            requestKeys.add(key);
+            int status;
+            if (failNext > 0) {
+                failNext--;
+                status = failStatus;
+            } else if (!batchIds.add(key)) {
+                status = 409;
+            } else {
+                final int count = SyncBatchCodec.decode(body, uuids, new TimeSeriesStore.RecordVisitor() {
+                    @Override
+                    public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                            byte[] payload, int length) {
+                        records.add(new long[]{timestampMicros, deviceAddress, characteristicId,
+                                checksum(payload, length)});
+                        return true;
+                    }
+                });
+                assertEquals(Integer.parseInt(headers.getFirst(HttpSyncTransport.HEADER_RECORD_COUNT)), count);
+                status = 204;
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static long checksum(byte[] payload, int length) {
+        long sum = length;
+        for (int i = 0; i < length; i++) {
+            sum = sum * 31 + payload[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 50Hz的IMU数据：6轴int16，数值缓慢变化并带少量噪声；每秒一次的电量包
+     */
+    private TimeSeriesStore record(int seconds) throws IOException {
+        final TimeSeriesStore store = new TimeSeriesStore(mFolder.newFolder()).setSegmentSize(256 * 1024);
+        store.open();
+        final byte[] imu = new byte[12];
+        final Random random = new Random(7);
+        for (int i = 0; i < seconds * 50; i++) {
+            final long micros = BASE + i * 20000L;
+            for (int axis = 0; axis < 6; axis++) {
+                final int value = (int) (2000 * Math.sin(i / 100.0 + axis)) + random.nextInt(5) - 2;
+                imu[axis * 2] = (byte) value;
+                imu[axis * 2 + 1] = (byte) (value >> 8);
+            }
+            store.append(STICK, mImuId, micros, imu, 0, imu.length);
+            if (i % 50 == 0) {
+                store.append(STICK, 1, micros, new byte[]{(byte) (100 - i / 5000)}, 0, 1);
+            }
+        }
+        return store;
+    }
+
+    private List<long[]> expected(TimeSeriesStore store) {
+        final List<long[]> records = new ArrayList<long[]>();
+        store.query(Long.MIN_VALUE, Long.MAX_VALUE, new TimeSeriesStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                    byte[] payload, int length) {
+                records.add(new long[]{timestampMicros, deviceAddress, characteristicId, checksum(payload, length)});
+                return true;
+            }
+        });
+        return records;
+    }
+
+    private void assertSameRecords(List<long[]> expected, List<long[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("record " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void codec_roundTripWithDeltaAndUuidTable() throws Exception {
+        final SyncBatchCodec codec = new SyncBatchCodec(mRegistry);
+        codec.begin();
+        codec.add(STICK, mImuId, BASE, new byte[]{1, 2, 3, 4}, 4);
+        codec.add(STICK + 1, mImuId, BASE + 5, new byte[]{9, 9}, 2);
+        codec.add(STICK, mImuId, BASE + 5, new byte[]{2, 2, (byte) 0xFF, 4}, 4);
+        codec.add(STICK, -3, BASE + 40, new byte[]{7}, 1);
+        codec.add(STICK, mImuId, BASE + 41, new byte[]{5, 6, 7}, 3);
+        assertEquals(5, codec.getRecordCount());
+        final byte[] body = codec.finish();
+
+        final Map<Integer, UUID> uuids = new HashMap<Integer, UUID>();
+        final List<String> decoded = new ArrayList<String>();
+        final int count = SyncBatchCodec.decode(body, uuids, new TimeSeriesStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                    byte[] payload, int length) {
+                final StringBuilder sb = new StringBuilder();
+                sb.append(Long.toHexString(deviceAddress)).append('/').append(characteristicId).append('/')
+                        .append(timestampMicros - BASE).append(':');
+                for (int i = 0; i < length; i++) {
+                    sb.append(payload[i]).append(',');
+                }
+                decoded.add(sb.toString());
+                return true;
+            }
+        });
+        assertEquals(5, count);
+        assertEquals("a4c138000001/" + mImuId + "/0:1,2,3,4,", decoded.get(0));
+        assertEquals("a4c138000002/" + mImuId + "/5:9,9,", decoded.get(1));
+        assertEquals("a4c138000001/" + mImuId + "/5:2,2,-1,4,", decoded.get(2));
+        assertEquals("a4c138000001/-3/40:7,", decoded.get(3));
+        assertEquals("a4c138000001/" + mImuId + "/41:5,6,7,", decoded.get(4));
+        assertEquals(IMU, uuids.get(mImuId));
+        assertEquals(1, uuids.size());
+    }
+
+    @Test
+    public void upload_allRecordsArriveInBatches() throws Exception {
+        final TimeSeriesStore store = record(600);
+        final SyncCheckpoint checkpoint = new SyncCheckpoint(new File(mFolder.getRoot(), "sync"));
+        checkpoint.load();
+        final SyncEngine engine = new SyncEngine(store, mRegistry, checkpoint, new HttpSyncTransport(mEndpoint))
+                .setMaxRecords(2000);
+        assertEquals(SyncEngine.Result.DONE, engine.run());
+        assertSameRecords(expected(store), mCollector.records);
+        assertEquals(16, engine.getUploadedBatches());
+        assertEquals(SyncEngine.Result.IDLE, engine.run());
+
+        //压缩后的请求体远小于本地存储
+        assertTrue(engine.getUploadedBytes() * 3 < engine.getRawBytes());
+        //包括请求行和请求头在内，一台手杖每小时的数据上传不超过预算（目前约1.1MB）
+        final long wirePerHour = engine.getBytesPerHour() * mCollector.wireBytes / engine.getUploadedBytes();
+        assertTrue("wire/hour " + wirePerHour + " B", wirePerHour < WIRE_BUDGET_PER_HOUR);
+        store.close();
+    }
+
+    @Test
+    public void serverError_retriesSameBatchId() throws Exception {
+        final TimeSeriesStore store = record(60);
+        final SyncCheckpoint checkpoint = new SyncCheckpoint(new File(mFolder.getRoot(), "sync"));
+        checkpoint.load();
+        final SyncEngine engine = new SyncEngine(store, mRegistry, checkpoint, new HttpSyncTransport(mEndpoint))
+                .setMaxRecords(1000);
+        mCollector.failNext = 1;
+        assertEquals(SyncEngine.Result.RETRY, engine.run());
+        assertEquals(500, engine.getLastStatus());
+        assertTrue(checkpoint.hasPending());
+        assertTrue(mCollector.records.isEmpty());
+
+        assertEquals(SyncEngine.Result.DONE, engine.run());
+        assertEquals(mCollector.requestKeys.get(0), mCollector.requestKeys.get(1));
+        assertSameRecords(expected(store), mCollector.records);
+
+        //客户端错误不重试
+        store.append(STICK, mImuId, BASE + 3600000000L, new byte[]{1}, 0, 1);
+        mCollector.failNext = 1;
+        mCollector.failStatus = 400;
+        assertEquals(SyncEngine.Result.REJECTED, engine.run());
+        store.close();
+    }
+
+    @Test
+    public void restartAfterLostResponse_noLossNoDuplicates() throws Exception {
+        final TimeSeriesStore store = record(120);
+        final File file = new File(mFolder.getRoot(), "sync");
+        SyncCheckpoint checkpoint = new SyncCheckpoint(file);
+        checkpoint.load();
+        //服务端已入库但响应丢失，进程随后被杀
+        final SyncTransport lostResponse = new SyncTransport() {
+            private final HttpSyncTransport mHttp = new HttpSyncTransport(mEndpoint);
+            private int mPosts;
+
+            @Override
+            public int post(String batchId, byte[] body, int records) throws IOException {
+                final int status = mHttp.post(batchId, body, records);
+                if (++mPosts == 3) {
+                    throw new IOException("connection reset");
+                }
+                return status;
+            }
+        };
+        assertEquals(SyncEngine.Result.RETRY,
+                new SyncEngine(store, mRegistry, checkpoint, lostResponse).setMaxRecords(1000).run());
+        final String installId = checkpoint.getInstallId();
+
+        checkpoint = new SyncCheckpoint(file);
+        checkpoint.load();
+        assertEquals(installId, checkpoint.getInstallId());
+        assertTrue(checkpoint.hasPending());
+        final SyncEngine engine = new SyncEngine(store, mRegistry, checkpoint, new HttpSyncTransport(mEndpoint))
+                .setMaxRecords(1000);
+        assertEquals(SyncEngine.Result.DONE, engine.run());
+        //第三批重传时使用同一ID，服务端返回409，不重复入库
+        assertEquals(mCollector.requestKeys.get(2), mCollector.requestKeys.get(3));
+        assertEquals(mCollector.requestKeys.size() - 1, mCollector.batchIds.size());
+        assertSameRecords(expected(store), mCollector.records);
+        store.close();
+    }
+}
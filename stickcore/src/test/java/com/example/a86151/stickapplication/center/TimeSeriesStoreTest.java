@@ -0,0 +1,121 @@
+package com.example.a86151.stickapplication.center;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * 时间序列存储的单元测试
+ */
+public class TimeSeriesStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final long BASE = 1500000000000000L;
+
+    private static byte[] payload(int i) {
+        return new byte[]{(byte) i, (byte) (i >> 8), (byte) (i >> 16), 0x55};
+    }
+
+    @Test
+    public void appendAcrossSegments_rangeQueryInOrder() throws Exception {
+        TimeSeriesStore store = new TimeSeriesStore(mFolder.newFolder("ts")).setSegmentSize(4096);
+        store.open();
+        for (int i = 0; i < 5000; i++) {
+            store.append(0xA4C138000001L + (i & 1), i % 3, BASE + i * 1000L, payload(i), 0, 4);
+        }
+        assertTrue(store.getSegmentCount() > 10);
+        final int[] expected = {1000};
+        int count = store.query(BASE + 1000 * 1000L, BASE + 1999 * 1000L, new TimeSeriesStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                    byte[] payload, int length) {
+                final int i = expected[0]++;
+                assertEquals(BASE + i * 1000L, timestampMicros);
+                assertEquals(0xA4C138000001L + (i & 1), deviceAddress);
+                assertEquals(i % 3, characteristicId);
+                assertEquals(4, length);
+                assertEquals((byte) i, payload[0]);
+                assertEquals((byte) (i >> 8), payload[1]);
+                return true;
+            }
+        });
+        assertEquals(1000, count);
+        assertEquals(2000, expected[0]);
+        store.close();
+    }
+
+    @Test
+    public void reopenWithoutClose_recoversWrittenRecords() throws Exception {
+        File dir = mFolder.newFolder("ts");
+        TimeSeriesStore store = new TimeSeriesStore(dir).setSegmentSize(64 * 1024);
+        store.open();
+        for (int i = 0; i < 3000; i++) {
+            store.append(1, 0, BASE + i, payload(i), 0, 4);
+        }
+        //模拟进程被杀：不调用close，当前段没有封存
+        TimeSeriesStore reopened = new TimeSeriesStore(dir);
+        reopened.open();
+        assertEquals(3000, countAll(reopened));
+        //时间戳早于已有数据时按单调处理
+        reopened.append(1, 0, BASE - 5, payload(0), 0, 4);
+        final long[] last = {0};
+        reopened.query(BASE + 2999, Long.MAX_VALUE, new TimeSeriesStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                    byte[] payload, int length) {
+                last[0]++;
+                assertEquals(BASE + 2999, timestampMicros);
+                return true;
+            }
+        });
+        assertEquals(2, last[0]);
+        reopened.close();
+    }
+
+    @Test
+    public void maintain_appliesRetentionAndCompactsSparseSegments() throws Exception {
+        File dir = mFolder.newFolder("ts");
+        TimeSeriesStore store = new TimeSeriesStore(dir).setSegmentSize(64 * 1024)
+                .setSegmentMaxAgeMicros(1000000).setRetentionMicros(10 * 1000000L);
+        store.open();
+        for (int i = 0; i < 200; i++) {//每段约1秒，远小于段大小
+            store.append(1, 0, BASE + i * 100000L, payload(i), 0, 4);
+        }
+        assertEquals(20, store.getSegmentCount());
+        final long now = BASE + 15 * 1000000L;//超过保留时间的段被删除
+        store.maintain(now);
+        int records = countAll(store);
+        assertTrue(records < 200 && records >= 50);
+        for (int i = 0; i < 20; i++) {
+            store.maintain(now);
+        }
+        assertEquals(records, countAll(store));
+        assertTrue(store.getSegmentCount() < 10);
+        long total = 0;
+        for (File file : dir.listFiles()) {
+            total += file.length();
+        }
+        assertTrue(total < 64 * 1024 * 2);//封存的段压缩成紧凑的文件
+        store.close();
+
+        TimeSeriesStore reopened = new TimeSeriesStore(dir);
+        reopened.open();
+        assertEquals(records, countAll(reopened));
+        reopened.close();
+    }
+
+    private static int countAll(TimeSeriesStore store) {
+        return store.query(Long.MIN_VALUE, Long.MAX_VALUE, new TimeSeriesStore.RecordVisitor() {
+            @Override
+            public boolean onRecord(long deviceAddress, int characteristicId, long timestampMicros,
+                                    byte[] payload, int length) {
+                return true;
+            }
+        });
+    }
+}